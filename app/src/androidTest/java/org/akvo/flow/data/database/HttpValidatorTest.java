@@ -0,0 +1,84 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo FLOW.
+ *
+ *  Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ *  the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ *  either version 3 of the License or any later version.
+ *
+ *  Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Affero General Public License included below for more details.
+ *
+ *  The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package org.akvo.flow.data.database;
+
+import org.akvo.flow.domain.Survey;
+import org.akvo.flow.domain.SurveyGroup;
+import org.akvo.flow.util.HttpValidator;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class HttpValidatorTest extends SurveyDbAdapterTestCase {
+
+    private static final String URL = "https://flow.akvo.org/surveymanager";
+    private static final String ETAG = "\"a5b1\"";
+
+    private Survey first;
+    private Survey second;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        first = install(new SurveyGroup(1, "First", null, false), "11");
+        second = install(new SurveyGroup(2, "Second", null, false), "22");
+        saveValidator(SurveyDbAdapter.ENDPOINT_SURVEY_LIST);
+        saveValidator(SurveyDbAdapter.ENDPOINT_SURVEY_HEADER + first.getId());
+        saveValidator(SurveyDbAdapter.ENDPOINT_SURVEY_HEADER + second.getId());
+    }
+
+    public void testDeletedSurveyGroupIsDownloadedAgain() {
+        database.deleteSurveyGroup(1);
+
+        assertNull(getEtag(SurveyDbAdapter.ENDPOINT_SURVEY_LIST));
+        assertNull(getEtag(SurveyDbAdapter.ENDPOINT_SURVEY_HEADER + first.getId()));
+        assertEquals(ETAG, getEtag(SurveyDbAdapter.ENDPOINT_SURVEY_HEADER + second.getId()));
+
+        // The next sync gets the full list, and installs the deleted form again
+        List<Survey> outdated = database.checkSurveyVersions(Arrays.asList(first, second));
+        assertEquals(1, outdated.size());
+        assertEquals(first.getId(), outdated.get(0).getId());
+    }
+
+    public void testDeletedSurveyDropsItsValidators() {
+        database.deleteSurvey(second.getId());
+
+        assertNull(getEtag(SurveyDbAdapter.ENDPOINT_SURVEY_LIST));
+        assertEquals(ETAG, getEtag(SurveyDbAdapter.ENDPOINT_SURVEY_HEADER + first.getId()));
+        assertNull(getEtag(SurveyDbAdapter.ENDPOINT_SURVEY_HEADER + second.getId()));
+    }
+
+    private Survey install(SurveyGroup group, String surveyId) {
+        Survey survey = new Survey();
+        survey.setId(surveyId);
+        survey.setName("Survey " + surveyId);
+        survey.setVersion(1.0);
+        survey.setFileName(surveyId + ".xml");
+        survey.setSurveyGroup(group);
+        database.addSurveyGroup(group);
+        database.saveSurvey(survey);
+        return survey;
+    }
+
+    private void saveValidator(String endpoint) {
+        database.saveHttpValidator(endpoint, new HttpValidator(URL, ETAG, null));
+    }
+
+    private String getEtag(String endpoint) {
+        return database.getHttpValidator(endpoint).getEtag();
+    }
+}
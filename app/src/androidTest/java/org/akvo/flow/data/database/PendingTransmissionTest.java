@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo FLOW.
+ *
+ *  Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ *  the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ *  either version 3 of the License or any later version.
+ *
+ *  Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Affero General Public License included below for more details.
+ *
+ *  The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package org.akvo.flow.data.database;
+
+import android.database.Cursor;
+
+import org.akvo.flow.domain.FileChecksum;
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.util.ConstantUtil;
+
+public class PendingTransmissionTest extends SurveyDbAdapterTestCase {
+
+    private static final long SURVEY_INSTANCE_ID = 1;
+    private static final String FORM_ID = "2";
+    private static final String QUESTION_ID = "q1";
+
+    public void testRetakenMediaDropsThePreviousPendingTransmission() {
+        capture("/media/a.jpg");
+        capture("/media/b.jpg");
+
+        assertNull(getStatus("/media/a.jpg"));
+        assertEquals(Integer.valueOf(TransmissionStatus.PENDING), getStatus("/media/b.jpg"));
+    }
+
+    public void testClearedResponseDropsItsPendingTransmission() {
+        capture("/media/a.jpg");
+
+        database.deleteResponse(SURVEY_INSTANCE_ID, QUESTION_ID);
+
+        assertNull(getStatus("/media/a.jpg"));
+    }
+
+    public void testClearedFormDropsItsPendingTransmissions() {
+        capture("/media/a.jpg");
+
+        database.deleteResponses(String.valueOf(SURVEY_INSTANCE_ID));
+
+        assertNull(getStatus("/media/a.jpg"));
+    }
+
+    public void testQueuedTransmissionsAreKept() {
+        capture("/media/a.jpg");
+        assertTrue(database.queueMediaTransmission(SURVEY_INSTANCE_ID, FORM_ID, "/media/a.jpg"));
+
+        database.deleteResponse(SURVEY_INSTANCE_ID, QUESTION_ID);
+
+        assertEquals(Integer.valueOf(TransmissionStatus.QUEUED), getStatus("/media/a.jpg"));
+    }
+
+    /**
+     * Store the checksum of a captured file, then the response pointing at it, as the form does
+     */
+    private void capture(String filename) {
+        database.saveFileChecksum(SURVEY_INSTANCE_ID, FORM_ID, filename,
+                new FileChecksum("d41d8cd98f00b204e9800998ecf8427e", 0, 0));
+        QuestionResponse response = new QuestionResponse(filename,
+                ConstantUtil.IMAGE_RESPONSE_TYPE, QUESTION_ID);
+        response.setRespondentId(SURVEY_INSTANCE_ID);
+        response.setFilename(filename);
+        database.createOrUpdateSurveyResponse(response);
+    }
+
+    private Integer getStatus(String filename) {
+        Cursor cursor = database.query(Tables.TRANSMISSION,
+                new String[] { TransmissionColumns.STATUS },
+                TransmissionColumns.FILENAME + " = ?", new String[] { filename },
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo FLOW.
+ *
+ *  Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ *  the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ *  either version 3 of the License or any later version.
+ *
+ *  Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Affero General Public License included below for more details.
+ *
+ *  The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package org.akvo.flow.data.database;
+
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.User;
+import org.akvo.flow.util.ConstantUtil;
+
+import java.util.Set;
+
+public class SharedMediaTransmissionTest extends SurveyDbAdapterTestCase {
+
+    private static final String FORM_ID = "2";
+    private static final String PHOTO = "/media/a.jpg";
+
+    private long owner;
+    private long sharing;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // Both survey instances point at the same photo, e.g. the second one was prefilled
+        owner = exportWithPhoto();
+        sharing = exportWithPhoto();
+        assertTrue(database.queueMediaTransmission(owner, FORM_ID, PHOTO));
+        assertFalse(database.queueMediaTransmission(sharing, FORM_ID, PHOTO));
+    }
+
+    public void testSharedMediaIsUnsyncedUntilItsTransmissionIsSynced() {
+        assertTrue(database.hasUnsyncedMedia(owner));
+        assertTrue(database.hasUnsyncedMedia(sharing));
+
+        database.updateTransmissionHistory(PHOTO, TransmissionStatus.FAILED);
+        assertTrue(database.hasUnsyncedMedia(sharing));
+
+        database.updateTransmissionHistory(PHOTO, TransmissionStatus.SYNCED);
+        assertFalse(database.hasUnsyncedMedia(owner));
+        assertFalse(database.hasUnsyncedMedia(sharing));
+    }
+
+    public void testSyncedMediaReachesEveryExportedSurveyInstance() {
+        long saved = database.createSurveyRespondent(FORM_ID, 1.0, new User(1, "Jo"), null);
+        addPhoto(saved);
+
+        Set<Long> surveyInstances = database.getExportedSurveyInstances(PHOTO);
+
+        assertEquals(2, surveyInstances.size());
+        assertTrue(surveyInstances.contains(owner));
+        assertTrue(surveyInstances.contains(sharing));
+    }
+
+    private long exportWithPhoto() {
+        long id = database.createSurveyRespondent(FORM_ID, 1.0, new User(1, "Jo"), null);
+        addPhoto(id);
+        database.updateSurveyStatus(id, SurveyInstanceStatus.EXPORTED);
+        return id;
+    }
+
+    private void addPhoto(long surveyInstanceId) {
+        QuestionResponse response = new QuestionResponse(PHOTO,
+                ConstantUtil.IMAGE_RESPONSE_TYPE, "q1");
+        response.setRespondentId(surveyInstanceId);
+        response.setFilename(PHOTO);
+        database.createOrUpdateSurveyResponse(response);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo FLOW.
+ *
+ *  Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ *  the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ *  either version 3 of the License or any later version.
+ *
+ *  Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Affero General Public License included below for more details.
+ *
+ *  The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package org.akvo.flow.data.database;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.Base64;
+import android.util.Log;
+
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.User;
+import org.akvo.flow.domain.response.value.Signature;
+import org.akvo.flow.serialization.response.value.SignatureValue;
+import org.akvo.flow.util.ConstantUtil;
+import org.akvo.flow.util.ImageUtil;
+import org.akvo.flow.util.SignatureStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares loading form instances whose signatures are stored inline, as Base64 in the
+ * response value, with signatures stored in files: the time to read the responses and
+ * rehydrate the signature, and the response data going through the cursor.
+ */
+public class SignatureStorageBenchmark extends SurveyDbAdapterTestCase {
+
+    private static final String TAG = SignatureStorageBenchmark.class.getSimpleName();
+
+    private static final int INSTANCES = 30;
+    private static final int TEXT_RESPONSES = 20;
+
+    private final Set<File> files = new HashSet<>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : files) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testFileSignaturesLoadLessData() {
+        byte[] png = signaturePng();
+
+        long[] inline = createInstances(png, false);
+        long[] inlineStats = load(inline);
+
+        long[] stored = createInstances(png, true);
+        long[] fileStats = load(stored);
+
+        Log.i(TAG, INSTANCES + " form instances, signature of " + png.length + " bytes. Inline: "
+                + inlineStats[0] + " ms, " + inlineStats[1] + " chars read. Files: "
+                + fileStats[0] + " ms, " + fileStats[1] + " chars read");
+        assertTrue(fileStats[1] < inlineStats[1]);
+    }
+
+    public void testExportedSignatureIsInline() throws Exception {
+        byte[] png = signaturePng();
+        Signature signature = new Signature();
+        signature.setName("Jo");
+        signature.setImage(Base64.encodeToString(png, Base64.DEFAULT));
+        String inline = SignatureValue.serialize(signature);
+
+        assertTrue(SignatureStore.moveToFile(signature));
+        files.add(new File(signature.getFile()));
+        String stored = SignatureValue.serialize(signature);
+
+        assertTrue(stored.length() < inline.length());
+        assertEquals(inline, SignatureStore.inline(stored));
+    }
+
+    public void testMissingSignatureFileIsNotExported() {
+        Signature signature = new Signature();
+        signature.setName("Jo");
+        signature.setFile(new File(getContext().getCacheDir(), "missing.png").getAbsolutePath());
+        try {
+            SignatureStore.inline(SignatureValue.serialize(signature));
+            fail("A signature without its file must not be exported");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testInlineSignaturesAreMovedToFiles() {
+        long[] instances = createInstances(signaturePng(), false);
+        // Downloaded instances are left alone, as the next sync overwrites them
+        database.updateSurveyStatus(instances[1], SurveyInstanceStatus.DOWNLOADED);
+
+        assertEquals(INSTANCES - 1, database.moveSignaturesToFiles());
+
+        for (int i = 0; i < INSTANCES; i++) {
+            Signature signature = SignatureValue.deserialize(
+                    database.getResponse(instances[i], "signature").getValue());
+            if (i == 1) {
+                assertNotNull(signature.getImage());
+                assertNull(signature.getFile());
+                continue;
+            }
+            assertNull(signature.getImage());
+            assertNotNull(signature.getFile());
+            files.add(new File(signature.getFile()));
+            assertTrue(new File(signature.getFile()).exists());
+        }
+        assertEquals(0, database.moveSignaturesToFiles());
+    }
+
+    /**
+     * @return [time (ms), answer chars read]
+     */
+    private long[] load(long[] instances) {
+        long chars = 0;
+        long start = System.currentTimeMillis();
+        for (long instance : instances) {
+            Map<String, QuestionResponse> responses = database.getResponses(instance);
+            for (QuestionResponse response : responses.values()) {
+                chars += response.getValue().length();
+                if (ConstantUtil.SIGNATURE_RESPONSE_TYPE.equals(response.getType())) {
+                    // What the view does on rehydrate. Files are decoded in the background
+                    Signature signature = SignatureValue.deserialize(response.getValue());
+                    if (signature.getFile() == null) {
+                        assertNotNull(ImageUtil.decodeBase64(signature.getImage()));
+                    }
+                }
+            }
+        }
+        return new long[] { System.currentTimeMillis() - start, chars };
+    }
+
+    private long[] createInstances(byte[] png, boolean useFiles) {
+        User user = new User(database.createOrUpdateUser(null, "Jo"), "Jo");
+        long[] instances = new long[INSTANCES];
+        for (int i = 0; i < INSTANCES; i++) {
+            instances[i] = database.createSurveyRespondent("1", 1.0, user, "r" + i);
+            for (int q = 0; q < TEXT_RESPONSES; q++) {
+                save(instances[i], "q" + q, "Response " + q, ConstantUtil.VALUE_RESPONSE_TYPE);
+            }
+
+            Signature signature = new Signature();
+            signature.setName("Jo");
+            if (useFiles) {
+                File file = SignatureStore.save(png);
+                assertNotNull(file);
+                files.add(file);
+                signature.setFile(file.getAbsolutePath());
+            } else {
+                signature.setImage(Base64.encodeToString(png, Base64.DEFAULT));
+            }
+            save(instances[i], "signature", SignatureValue.serialize(signature),
+                    ConstantUtil.SIGNATURE_RESPONSE_TYPE);
+        }
+        return instances;
+    }
+
+    private void save(long instance, String questionId, String value, String type) {
+        QuestionResponse response = new QuestionResponse(value, type, questionId);
+        response.setRespondentId(instance);
+        database.createOrUpdateSurveyResponse(response);
+    }
+
+    private static byte[] signaturePng() {
+        Bitmap bitmap = Bitmap.createBitmap(640, 480, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        Paint paint = new Paint();
+        paint.setColor(Color.BLACK);
+        paint.setStrokeWidth(4);
+        Random random = new Random(1);
+        float x = 40, y = 240;
+        for (int i = 0; i < 200; i++) {
+            float nx = 40 + random.nextInt(560), ny = 120 + random.nextInt(240);
+            canvas.drawLine(x, y, nx, ny, paint);
+            x = nx;
+            y = ny;
+        }
+        byte[] png = ImageUtil.encodePng(bitmap, 320, 240);
+        bitmap.recycle();
+        return png;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo FLOW.
+ *
+ *  Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ *  the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ *  either version 3 of the License or any later version.
+ *
+ *  Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Affero General Public License included below for more details.
+ *
+ *  The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package org.akvo.flow.data.database;
+
+import android.util.Log;
+
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.SurveyInstance;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.util.ConstantUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class SurveyDbAdapterSyncTest extends SurveyDbAdapterTestCase {
+
+    private static final String TAG = SurveyDbAdapterSyncTest.class.getSimpleName();
+
+    private static final long SURVEY_GROUP_ID = 1;
+    private static final String SURVEY_ID = "2";
+
+    public void testSyncUpdatesExistingRows() {
+        database.syncSurveyedLocales(Collections.singletonList(
+                locale("r1", "Well", 10, "u1", "Yes")));
+        database.syncSurveyedLocales(Collections.singletonList(
+                locale("r1", "Well 1", 20, "u1", "No")));
+
+        SurveyedLocale stored = database.getSurveyedLocale("r1");
+        assertEquals("Well 1", stored.getName());
+        assertEquals(20, stored.getLastModified());
+        assertEquals("20", database.getSyncTime(SURVEY_GROUP_ID));
+
+        long[] instances = database.getFormInstances("r1", SURVEY_ID,
+                SurveyInstanceStatus.DOWNLOADED);
+        assertEquals(1, instances.length);
+        Map<String, QuestionResponse> responses = database.getResponses(instances[0]);
+        assertEquals(2, responses.size());
+        assertEquals("No", responses.get("q1").getValue());
+    }
+
+    public void testSyncKeepsTheLatestModificationDate() {
+        database.syncSurveyedLocales(Collections.singletonList(
+                locale("r1", "Well", 30, "u1", "Yes")));
+        database.syncSurveyedLocales(Collections.singletonList(
+                locale("r1", "Well", 20, "u2", "Yes")));
+
+        assertEquals(30, database.getSurveyedLocale("r1").getLastModified());
+        assertEquals(2, database.getFormInstances("r1", SURVEY_ID,
+                SurveyInstanceStatus.DOWNLOADED).length);
+    }
+
+    public void testSyncDeletesEmptyRecords() {
+        SurveyedLocale empty = locale("r1", "Well", 10, "u1", "Yes");
+        empty.setSurveyInstances(new ArrayList<SurveyInstance>());
+        SurveyedLocale noResponses = locale("r2", "Well", 10, "u2", "Yes");
+        noResponses.getSurveyInstances().get(0).getResponses().clear();
+        List<SurveyedLocale> page = new ArrayList<>();
+        page.add(empty);
+        page.add(noResponses);
+        page.add(locale("r3", "Well", 10, "u3", "Yes"));
+
+        database.syncSurveyedLocales(page);
+
+        assertNull(database.getSurveyedLocale("r1"));
+        assertNull(database.getSurveyedLocale("r2"));
+        assertNotNull(database.getSurveyedLocale("r3"));
+    }
+
+    /**
+     * The cleanup after each page only looks at the records of that page. Empty records
+     * stored before, e.g. the ones being filled in on the device, are left alone.
+     */
+    public void testPageCleanupOnlyDeletesEmptyRecordsOfThePage() {
+        String local = database.createSurveyedLocale(SURVEY_GROUP_ID);
+        database.syncSurveyedLocales(Collections.singletonList(
+                locale("r1", "Well", 10, "u1", "Yes")));
+        SurveyedLocale emptied = locale("r1", "Well", 20, "u2", "Yes");
+        emptied.getSurveyInstances().get(0).getResponses().clear();
+        SurveyedLocale empty = locale("r2", "Well", 20, "u3", "Yes");
+        empty.setSurveyInstances(new ArrayList<SurveyInstance>());
+        List<SurveyedLocale> page = new ArrayList<>();
+        page.add(emptied);
+        page.add(empty);
+
+        database.syncSurveyedLocales(page);
+
+        assertNotNull(database.getSurveyedLocale(local));
+        // r1 keeps the instance synced before, without the empty one
+        assertNotNull(database.getSurveyedLocale("r1"));
+        assertEquals(1, database.getFormInstances("r1", SURVEY_ID,
+                SurveyInstanceStatus.DOWNLOADED).length);
+        assertNull(database.getSurveyedLocale("r2"));
+    }
+
+    /**
+     * Record ids are passed to the cleanup in batches. Empty records are deleted whatever
+     * batch they fall in.
+     */
+    public void testPageCleanupDeletesEmptyRecordsOfEveryBatch() {
+        final int count = 1200;
+        List<SurveyedLocale> page = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SurveyedLocale locale = locale("r" + i, "Point " + i, i, "u" + i, "Yes");
+            if (i % 100 == 0) {
+                locale.getSurveyInstances().get(0).getResponses().clear();
+            }
+            page.add(locale);
+        }
+
+        database.syncSurveyedLocales(page);
+
+        for (int i = 0; i < count; i++) {
+            SurveyedLocale stored = database.getSurveyedLocale("r" + i);
+            if (i % 100 == 0) {
+                assertNull("r" + i + " is empty", stored);
+            } else {
+                assertNotNull("r" + i + " is not empty", stored);
+            }
+        }
+    }
+
+    /**
+     * Cleaning up the whole tables after each page makes the sync cost grow with the number
+     * of pages already stored, while cleaning up the records of the page should keep it
+     * flat. Times depend on the device, thus they are only logged.
+     */
+    public void testPageCleanupCostAgainstFullCleanup() {
+        final int pages = 50;
+        final int pageSize = 100;
+
+        long[] fullCleanup = syncPages(pages, pageSize, true);
+        database.clearAllData();
+        long[] pageCleanup = syncPages(pages, pageSize, false);
+
+        Log.i(TAG, pages + " pages of " + pageSize + ". Full cleanup: first page "
+                + fullCleanup[0] + " ms, last page " + fullCleanup[pages - 1] + " ms, total "
+                + sum(fullCleanup) + " ms. Page cleanup: first page " + pageCleanup[0]
+                + " ms, last page " + pageCleanup[pages - 1] + " ms, total "
+                + sum(pageCleanup) + " ms");
+        assertNotNull(database.getSurveyedLocale("r" + (pages * pageSize - 1)));
+    }
+
+    /**
+     * The page is written in a single transaction: if any SurveyedLocale fails, none of them
+     * is stored, and the sync time does not move forward
+     */
+    public void testPageIsWrittenInOneTransaction() {
+        List<SurveyedLocale> page = new ArrayList<>();
+        page.add(locale("r1", "Well", 10, "u1", "Yes"));
+        page.add(new SurveyedLocale("r2", "Broken", 20, SURVEY_GROUP_ID, 1.5, 2.5) {
+            @Override
+            public List<SurveyInstance> getSurveyInstances() {
+                throw new IllegalStateException("Corrupted data point");
+            }
+        });
+
+        try {
+            database.syncSurveyedLocales(page);
+            fail("The page should have failed");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertNull(database.getSurveyedLocale("r1"));
+        assertNull(database.getSyncTime(SURVEY_GROUP_ID));
+
+        page.remove(1);
+        database.syncSurveyedLocales(page);
+        assertNotNull(database.getSurveyedLocale("r1"));
+        assertEquals("10", database.getSyncTime(SURVEY_GROUP_ID));
+    }
+
+    public void testSyncAcceptsMissingValues() {
+        SurveyedLocale locale = locale("r1", null, 10, "u1", "Yes");
+        SurveyInstance instance = locale.getSurveyInstances().get(0);
+        instance.getResponses().add(new QuestionResponse(null,
+                ConstantUtil.VALUE_RESPONSE_TYPE, "q3"));
+        locale.getSurveyInstances().add(new SurveyInstance("u2", SURVEY_ID, null, 10,
+                instance.getResponses()));
+
+        database.syncSurveyedLocales(Collections.singletonList(locale));
+
+        assertNull(database.getSurveyedLocale("r1").getName());
+        long[] instances = database.getFormInstances("r1", SURVEY_ID,
+                SurveyInstanceStatus.DOWNLOADED);
+        assertEquals(2, instances.length);
+        // The response without a value is skipped
+        Map<String, QuestionResponse> responses = database.getResponses(instances[0]);
+        assertEquals(2, responses.size());
+        assertFalse(responses.containsKey("q3"));
+    }
+
+    /**
+     * @return the time (ms) to sync each page
+     */
+    private long[] syncPages(int pages, int pageSize, boolean fullCleanup) {
+        long[] times = new long[pages];
+        for (int p = 0; p < pages; p++) {
+            List<SurveyedLocale> page = new ArrayList<>();
+            for (int i = p * pageSize; i < (p + 1) * pageSize; i++) {
+                page.add(locale("r" + i, "Point " + i, i, "u" + i, "Yes"));
+            }
+            long t0 = System.currentTimeMillis();
+            database.syncSurveyedLocales(page);
+            if (fullCleanup) {
+                // The former cleanup, on top of the one of the page
+                database.deleteEmptySurveyInstances();
+                database.deleteEmptyRecords();
+            }
+            times[p] = System.currentTimeMillis() - t0;
+        }
+        return times;
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static SurveyedLocale locale(String id, String name, long lastModified,
+            String uuid, String answer) {
+        List<QuestionResponse> responses = new ArrayList<>();
+        responses.add(new QuestionResponse(answer, ConstantUtil.VALUE_RESPONSE_TYPE, "q1"));
+        responses.add(new QuestionResponse("42", ConstantUtil.VALUE_RESPONSE_TYPE, "q2"));
+        List<SurveyInstance> instances = new ArrayList<>();
+        instances.add(new SurveyInstance(uuid, SURVEY_ID, "Jo", lastModified, responses));
+
+        SurveyedLocale locale = new SurveyedLocale(id, name, lastModified, SURVEY_GROUP_ID,
+                1.5, 2.5);
+        locale.setSurveyInstances(instances);
+        return locale;
+    }
+}
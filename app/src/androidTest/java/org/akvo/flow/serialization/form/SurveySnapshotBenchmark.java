@@ -0,0 +1,135 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo FLOW.
+ *
+ *  Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ *  the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ *  either version 3 of the License or any later version.
+ *
+ *  Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Affero General Public License included below for more details.
+ *
+ *  The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package org.akvo.flow.serialization.form;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.akvo.flow.domain.Question;
+import org.akvo.flow.domain.QuestionGroup;
+import org.akvo.flow.domain.Survey;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compares the time it takes to open a large form by parsing its xml file with the time it
+ * takes to load its compiled snapshot.
+ */
+public class SurveySnapshotBenchmark extends AndroidTestCase {
+
+    private static final String TAG = SurveySnapshotBenchmark.class.getSimpleName();
+
+    private static final int GROUPS = 20;
+    private static final int QUESTIONS = 25;// Per group
+    private static final int OPTIONS = 8;// Per option question
+    private static final String[] LANGUAGES = { "fr", "es", "sw" };
+    private static final int RUNS = 5;
+
+    private static final SurveySnapshot.Header HEADER =
+            new SurveySnapshot.Header("123", 1.0, 0L, 0L);
+
+    public void testSnapshotLoadsFasterThanXml() throws Exception {
+        byte[] xml = formXml();
+        Survey parsed = new SaxSurveyParser().parse(new ByteArrayInputStream(xml));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SurveySnapshot.write(HEADER, parsed, out);
+        byte[] snapshot = out.toByteArray();
+
+        long xmlTime = 0, snapshotTime = 0;
+        Survey loaded = null;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            new SaxSurveyParser().parse(new ByteArrayInputStream(xml));
+            xmlTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            loaded = SurveySnapshot.read(new ByteArrayInputStream(snapshot), HEADER);
+            snapshotTime += System.nanoTime() - start;
+        }
+        xmlTime /= RUNS * 1000000L;
+        snapshotTime /= RUNS * 1000000L;
+
+        Log.i(TAG, GROUPS * QUESTIONS + " questions. XML: " + xml.length + " bytes, "
+                + xmlTime + " ms. Snapshot: " + snapshot.length + " bytes, " + snapshotTime
+                + " ms");
+        assertEquals(count(parsed), count(loaded));
+        assertTrue(snapshotTime <= xmlTime);
+    }
+
+    private static int count(Survey survey) {
+        int count = 0;
+        for (QuestionGroup group : survey.getQuestionGroups()) {
+            for (Question question : group.getQuestions()) {
+                count++;
+                if (question.getOptions() != null) {
+                    count += question.getOptions().size();
+                }
+            }
+        }
+        return count;
+    }
+
+    private static byte[] formXml() throws Exception {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .append("<survey name=\"Benchmark\" version=\"1.0\" defaultLanguageCode=\"en\"")
+                .append(" surveyGroupId=\"1\" surveyGroupName=\"Benchmark\">");
+        for (int g = 0; g < GROUPS; g++) {
+            xml.append("<questionGroup order=\"").append(g + 1).append("\">")
+                    .append("<heading>Group ").append(g).append("</heading>");
+            for (int q = 0; q < QUESTIONS; q++) {
+                String id = String.valueOf(g * QUESTIONS + q + 1);
+                boolean option = q % 2 == 0;
+                xml.append("<question order=\"").append(q + 1).append("\" id=\"").append(id)
+                        .append("\" type=\"").append(option ? "option" : "free")
+                        .append("\" mandatory=\"true\">")
+                        .append("<text>Question ").append(id).append(" text</text>");
+                appendAltTexts(xml, "Question " + id);
+                xml.append("<help type=\"tip\"><text>Help for ").append(id).append("</text>");
+                appendAltTexts(xml, "Help " + id);
+                xml.append("</help>");
+                if (option) {
+                    xml.append("<options allowOther=\"true\">");
+                    for (int o = 0; o < OPTIONS; o++) {
+                        xml.append("<option value=\"Option ").append(o).append("\" code=\"C")
+                                .append(o).append("\"><text>Option ").append(o).append("</text>");
+                        appendAltTexts(xml, "Option " + o);
+                        xml.append("</option>");
+                    }
+                    xml.append("</options>");
+                } else {
+                    xml.append("<validationRule validationType=\"numeric\" signed=\"false\"")
+                            .append(" allowDecimal=\"true\" minVal=\"0\" maxVal=\"100\"/>")
+                            .append("<dependency question=\"").append(Integer.parseInt(id) - 1)
+                            .append("\" answer-value=\"Option 1\"/>");
+                }
+                xml.append("</question>");
+            }
+            xml.append("</questionGroup>");
+        }
+        xml.append("</survey>");
+        return xml.toString().getBytes("UTF-8");
+    }
+
+    private static void appendAltTexts(StringBuilder xml, String text) {
+        for (String language : LANGUAGES) {
+            xml.append("<altText type=\"translation\" language=\"").append(language)
+                    .append("\">").append(text).append(" (").append(language)
+                    .append(")</altText>");
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo FLOW.
+ *
+ *  Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ *  the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ *  either version 3 of the License or any later version.
+ *
+ *  Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Affero General Public License included below for more details.
+ *
+ *  The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package org.akvo.flow.util.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.os.Build;
+import android.os.Environment;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.akvo.flow.util.ConstantUtil;
+import org.akvo.flow.util.FileUtil;
+import org.akvo.flow.util.ImageUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reports the size and time of the captured images pipeline, for each encoder and size
+ * preference. Sample photos are read from akvoflow/benchmark/photos in the external storage
+ * (i.e. adb push photos/ /sdcard/akvoflow/benchmark/photos). If there are none, synthetic
+ * ones are used instead. Results are logged with the ImageEncoderBenchmark tag.
+ */
+public class ImageEncoderBenchmark extends AndroidTestCase {
+
+    private static final String TAG = ImageEncoderBenchmark.class.getSimpleName();
+
+    private static final String CORPUS_DIR = "akvoflow/benchmark/photos";
+    private static final int SYNTHETIC_PHOTOS = 3;
+    private static final int BYTE_BUDGET = 100 * 1024;
+
+    private static final int[] SIZES = {
+            ConstantUtil.IMAGE_SIZE_320_240,
+            ConstantUtil.IMAGE_SIZE_640_480,
+            ConstantUtil.IMAGE_SIZE_1280_960
+    };
+    private static final int[][] BOUNDS = { { 320, 240 }, { 640, 480 }, { 1280, 960 } };
+
+    private File workDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        workDir = new File(getContext().getCacheDir(), "benchmark");
+        FileUtil.deleteFilesInDirectory(workDir, true);
+        assertTrue(workDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.deleteFilesInDirectory(workDir, true);
+        super.tearDown();
+    }
+
+    public void testEncoders() throws Exception {
+        List<File> photos = getCorpus();
+        List<ImageEncoder> encoders = getEncoders();
+
+        Log.i(TAG, "Photos: " + photos.size());
+        for (int s = 0; s < SIZES.length; s++) {
+            for (ImageEncoder encoder : encoders) {
+                long bytes = 0, nanos = 0;
+                for (File photo : photos) {
+                    File out = new File(workDir, "out" + encoder.getSuffix());
+                    long start = System.nanoTime();
+                    assertTrue(ImageUtil.resizeImage(photo.getAbsolutePath(),
+                            out.getAbsolutePath(), SIZES[s], encoder));
+                    nanos += System.nanoTime() - start;
+                    bytes += out.length();
+                    assertFitsIn(out, photo, BOUNDS[s]);
+                    assertTrue(out.delete());
+                }
+                Log.i(TAG, String.format("%dx%d %s: avg %d bytes, avg %d ms",
+                        BOUNDS[s][0], BOUNDS[s][1], encoder, bytes / photos.size(),
+                        nanos / photos.size() / 1000000));
+            }
+        }
+    }
+
+    private static List<ImageEncoder> getEncoders() {
+        List<ImageEncoder> encoders = new ArrayList<>();
+        encoders.add(new QualityImageEncoder(CompressFormat.JPEG, ImageEncoders.DEFAULT_QUALITY));
+        encoders.add(new QualityImageEncoder(CompressFormat.JPEG, 60));
+        encoders.add(new ByteBudgetImageEncoder(CompressFormat.JPEG, BYTE_BUDGET));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            encoders.add(new QualityImageEncoder(CompressFormat.WEBP,
+                    ImageEncoders.DEFAULT_QUALITY));
+            encoders.add(new ByteBudgetImageEncoder(CompressFormat.WEBP, BYTE_BUDGET));
+        }
+        return encoders;
+    }
+
+    private static void assertFitsIn(File image, File original, int[] bounds) {
+        int[] size = getSize(image), originalSize = getSize(original);
+        int max = Math.max(bounds[0], bounds[1]), min = Math.min(bounds[0], bounds[1]);
+        assertTrue(Math.max(size[0], size[1]) <= max);
+        assertTrue(Math.min(size[0], size[1]) <= min);
+        if (Math.max(originalSize[0], originalSize[1]) > max
+                || Math.min(originalSize[0], originalSize[1]) > min) {
+            // Exact scaling: one of the dimensions matches its bound
+            assertTrue(Math.max(size[0], size[1]) == max || Math.min(size[0], size[1]) == min);
+        }
+    }
+
+    private static int[] getSize(File image) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(image.getAbsolutePath(), options);
+        return new int[] { options.outWidth, options.outHeight };
+    }
+
+    private List<File> getCorpus() throws IOException {
+        List<File> photos = new ArrayList<>();
+        File[] files = new File(Environment.getExternalStorageDirectory(), CORPUS_DIR)
+                .listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().toLowerCase().endsWith(ConstantUtil.JPG_SUFFIX)) {
+                    photos.add(f);
+                }
+            }
+        }
+        if (photos.isEmpty()) {
+            for (int i = 0; i < SYNTHETIC_PHOTOS; i++) {
+                photos.add(createPhoto(new File(workDir, "photo" + i + ConstantUtil.JPG_SUFFIX),
+                        i));
+            }
+        }
+        return photos;
+    }
+
+    /**
+     * Create a camera sized JPEG, with gradients and noise, so it does not compress unusually
+     * well
+     */
+    private static File createPhoto(File file, int seed) throws IOException {
+        final int width = 2592, height = 1944;
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, height, Color.rgb(40, 90, 160),
+                Color.rgb(200, 170, 90), Shader.TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, paint);
+        paint.setShader(null);
+
+        Random random = new Random(seed);
+        for (int i = 0; i < 20000; i++) {
+            paint.setColor(Color.argb(60, random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256)));
+            canvas.drawCircle(random.nextInt(width), random.nextInt(height),
+                    2 + random.nextInt(20), paint);
+        }
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(CompressFormat.JPEG, 95, out);
+        } finally {
+            FileUtil.close(out);
+            bitmap.recycle();
+        }
+        return file;
+    }
+}
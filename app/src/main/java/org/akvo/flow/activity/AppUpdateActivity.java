@@ -35,6 +35,7 @@ import org.akvo.flow.data.preference.Prefs;
 import org.akvo.flow.util.ConnectivityStateManager;
 import org.akvo.flow.util.FileUtil;
 import org.akvo.flow.util.FileUtil.FileType;
+import org.akvo.flow.util.HttpClient;
 import org.akvo.flow.util.PlatformUtil;
 
 import java.io.BufferedInputStream;
@@ -46,7 +47,6 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
-import java.net.URL;
 
 import timber.log.Timber;
 
@@ -272,9 +272,9 @@ public class AppUpdateActivity extends Activity {
             InputStream in = null;
             OutputStream out = null;
             HttpURLConnection conn = null;
+            boolean responseReceived = false;
             try {
-                URL url = new URL(location);
-                conn = (HttpURLConnection) url.openConnection();
+                conn = HttpClient.getInstance().open(location);
 
                 in = new BufferedInputStream(conn.getInputStream());
                 out = new BufferedOutputStream(new FileOutputStream(localPath));
@@ -297,6 +297,7 @@ public class AppUpdateActivity extends Activity {
                 out.flush();
 
                 final int status = conn.getResponseCode();
+                responseReceived = true;
 
                 if (status == HttpURLConnection.HTTP_OK) {
                     final String checksum = FileUtil.hexMd5(new File(localPath));
@@ -319,11 +320,10 @@ public class AppUpdateActivity extends Activity {
             } catch (IOException e) {
                 Timber.e(e, e.getMessage());
             } finally {
-                if (conn != null) {
-                    conn.disconnect();
-                }
                 FileUtil.close(in);
                 FileUtil.close(out);
+                // A cancelled download is not drained, its connection is just closed
+                HttpClient.release(conn, responseReceived);
             }
 
             return ok;
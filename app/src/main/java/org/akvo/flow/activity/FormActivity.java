@@ -24,24 +24,34 @@ import android.content.ActivityNotFoundException;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.StatFs;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
 import android.support.v4.view.ViewPager;
 import android.support.v7.app.AlertDialog;
 import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.SubMenu;
+import android.view.View;
+import android.view.ViewTreeObserver;
 
 import org.akvo.flow.R;
-import org.akvo.flow.data.dao.SurveyDao;
+import org.akvo.flow.async.FileChecksumTask;
+import org.akvo.flow.async.MediaProcessingQueue;
 import org.akvo.flow.data.database.SurveyDbAdapter;
 import org.akvo.flow.data.database.SurveyDbAdapter.SurveyedLocaleMeta;
 import org.akvo.flow.data.database.SurveyInstanceStatus;
+import org.akvo.flow.data.loader.FormLoader;
+import org.akvo.flow.data.loader.models.FormData;
 import org.akvo.flow.data.preference.Prefs;
+import org.akvo.flow.domain.FormManifest;
 import org.akvo.flow.domain.QuestionGroup;
 import org.akvo.flow.domain.QuestionResponse;
 import org.akvo.flow.domain.Survey;
@@ -54,17 +64,11 @@ import org.akvo.flow.ui.view.QuestionView;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.FileUtil;
 import org.akvo.flow.util.FileUtil.FileType;
-import org.akvo.flow.util.ImageUtil;
 import org.akvo.flow.util.LangsPreferenceData;
 import org.akvo.flow.util.LangsPreferenceUtil;
-import org.akvo.flow.util.PlatformUtil;
 import org.akvo.flow.util.ViewUtil;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -72,7 +76,8 @@ import java.util.Map;
 import timber.log.Timber;
 
 public class FormActivity extends BackActivity implements SurveyListener,
-        QuestionInteractionListener {
+        QuestionInteractionListener, MediaProcessingQueue.Listener,
+        LoaderManager.LoaderCallbacks<FormData> {
 
     private static final int PHOTO_ACTIVITY_REQUEST = 1;
     private static final int VIDEO_ACTIVITY_REQUEST = 2;
@@ -94,14 +99,17 @@ public class FormActivity extends BackActivity implements SurveyListener,
     private String mRequestQuestionId;
 
     private ViewPager mPager;
+    private View mSkeleton;
     private SurveyTabAdapter mAdapter;
 
     private boolean mReadOnly;//flag to represent whether the Survey can be edited or not
     private long mSurveyInstanceId;
     private long mSessionStartTime;
+    private long mCreateTime;// Start of the form loading, to measure the time to interact
     private String mRecordId;
     private SurveyGroup mSurveyGroup;
     private Survey mSurvey;
+    private FormManifest mManifest;
     private SurveyDbAdapter mDatabase;
     private Prefs prefs;
 
@@ -112,10 +120,10 @@ public class FormActivity extends BackActivity implements SurveyListener,
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreateTime = SystemClock.elapsedRealtime();
         setContentView(R.layout.form_activity);
 
         // Read all the params. Note that the survey instance id is now mandatory
-        final String surveyId = getIntent().getStringExtra(ConstantUtil.SURVEY_ID_KEY);
         mReadOnly = getIntent().getBooleanExtra(ConstantUtil.READONLY_KEY, false);
         mSurveyInstanceId = getIntent().getLongExtra(ConstantUtil.RESPONDENT_ID_KEY, 0);
         mSurveyGroup = (SurveyGroup) getIntent().getSerializableExtra(ConstantUtil.SURVEY_GROUP);
@@ -126,31 +134,93 @@ public class FormActivity extends BackActivity implements SurveyListener,
         mDatabase.open();
         prefs = new Prefs(getApplicationContext());
 
-        loadSurvey(
-                surveyId);// Load Survey. This task would be better off if executed in a worker thread
-        loadLanguages();
+        mPager = (ViewPager) findViewById(R.id.pager);
+        mSkeleton = findViewById(R.id.form_skeleton);
 
-        if (mSurvey == null) {
-            Timber.e("mSurvey is null. Finishing the Activity...");
+        // The form and its responses are loaded in the background. A fresh load is
+        // requested each time, as the responses of a previous instance may be outdated
+        getSupportLoaderManager().restartLoader(0, null, this);
+
+        spaceLeftOnCard();
+        Timber.d("form activity");
+    }
+
+    @Override
+    public Loader<FormData> onCreateLoader(int id, Bundle args) {
+        return new FormLoader(this, getIntent().getStringExtra(ConstantUtil.SURVEY_ID_KEY),
+                mSurveyInstanceId);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<FormData> loader, FormData data) {
+        if (mSurvey != null) {
+            return;// The loader delivers its data again when the activity is restarted
+        }
+        if (data == null) {
+            Timber.e("Form could not be loaded. Finishing the Activity...");
             finish();
+            return;
         }
+        Timber.i("Form " + data.getSurvey().getId() + " loaded in "
+                + (SystemClock.elapsedRealtime() - mCreateTime) + " ms");
+        displayForm(data);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<FormData> loader) {
+        // Nothing to release
+    }
+
+    /**
+     * Set up the tabs of a loaded form. Only the first question group is displayed right
+     * away, the rest of them are loaded afterwards.
+     */
+    private void displayForm(FormData data) {
+        mSurvey = data.getSurvey();
+        mManifest = data.getManifest();
+        mLanguages = data.getLanguages();
 
         // Set the survey name as Activity title
         getSupportActionBar().setTitle(mSurvey.getName());
-        getSupportActionBar().setSubtitle("v " + getVersion());
+        getSupportActionBar().setSubtitle("v " + data.getVersion());
+
+        // Initialize new survey or load previous responses
+        mQuestionResponses = data.getResponses();
 
-        mPager = (ViewPager) findViewById(R.id.pager);
         mAdapter = new SurveyTabAdapter(this, getSupportActionBar(), mPager, this, this);
         mPager.setAdapter(mAdapter);
-
-        // Initialize new survey or load previous responses
-        Map<String, QuestionResponse> responses = mDatabase.getResponses(mSurveyInstanceId);
-        if (!responses.isEmpty()) {
-            displayResponses(responses);
+        logTimeToInteract();
+        mSkeleton.setVisibility(View.GONE);
+        mPager.setVisibility(View.VISIBLE);
+
+        // Media files captured before the form was closed may still be processed, or even
+        // be left behind by a previous app process
+        MediaProcessingQueue mediaQueue = MediaProcessingQueue.getInstance();
+        mediaQueue.recover(this, mSurveyInstanceId);
+        for (String questionId : mediaQueue.getPendingQuestions(mSurveyInstanceId)) {
+            mAdapter.onQuestionComplete(questionId, getMediaProcessingData());
         }
+        mediaQueue.setListener(mSurveyInstanceId, this);
 
-        spaceLeftOnCard();
-        Timber.d("form activity");
+        supportInvalidateOptionsMenu();
+    }
+
+    /**
+     * Log the time elapsed since the activity was created, once the first tab is drawn
+     */
+    private void logTimeToInteract() {
+        mPager.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        if (mPager.getChildCount() > 0) {
+                            mPager.getViewTreeObserver().removeOnPreDrawListener(this);
+                            Timber.i("Form " + mSurvey.getId() + " interactive in "
+                                    + (SystemClock.elapsedRealtime() - mCreateTime) + " ms");
+                        }
+                        return true;
+                    }
+                });
     }
 
     /**
@@ -193,43 +263,6 @@ public class FormActivity extends BackActivity implements SurveyListener,
         displayResponses(responses);
     }
 
-    private void loadSurvey(String surveyId) {
-        Survey surveyMeta = mDatabase.getSurvey(surveyId);
-        InputStream in = null;
-        try {
-            // load from file
-            File file = new File(FileUtil.getFilesDir(FileType.FORMS), surveyMeta.getFileName());
-            in = new FileInputStream(file);
-            mSurvey = SurveyDao.loadSurvey(surveyMeta, in);
-            mSurvey.setId(surveyId);
-        } catch (FileNotFoundException e) {
-            Timber.e(e, "Could not load survey xml file");
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    //EMPTY
-                }
-            }
-        }
-    }
-
-    private double getVersion() {
-        double version = 0.0;
-        Cursor c = mDatabase.getFormInstance(mSurveyInstanceId);
-        if (c.moveToFirst()) {
-            version = c.getDouble(SurveyDbAdapter.FormInstanceQuery.VERSION);
-        }
-        c.close();
-
-        if (version == 0.0) {
-            version = mSurvey.getVersion();// Default to current value
-        }
-
-        return version;
-    }
-
     /**
      * Load state for the current survey instance
      */
@@ -271,7 +304,7 @@ public class FormActivity extends BackActivity implements SurveyListener,
     }
 
     private void saveState() {
-        if (!mReadOnly) {
+        if (!mReadOnly && mSurvey != null) {
             mDatabase.updateSurveyStatus(mSurveyInstanceId, SurveyInstanceStatus.SAVED);
             mDatabase.updateRecordModifiedDate(mRecordId, System.currentTimeMillis());
 
@@ -286,7 +319,7 @@ public class FormActivity extends BackActivity implements SurveyListener,
     private void saveRecordMetaData() {
         // META_NAME
         StringBuilder builder = new StringBuilder();
-        List<String> localeNameQuestions = mSurvey.getLocaleNameQuestions();
+        List<String> localeNameQuestions = mManifest.getLocaleNameQuestions();
 
         // Check the responses given to these questions (marked as name)
         // and concatenate them so it becomes the Locale name.
@@ -314,7 +347,7 @@ public class FormActivity extends BackActivity implements SurveyListener,
         }
 
         // META_GEO
-        String localeGeoQuestion = mSurvey.getLocaleGeoQuestion();
+        String localeGeoQuestion = mManifest.getLocaleGeoQuestion();
         if (localeGeoQuestion != null) {
             QuestionResponse response = mDatabase.getResponse(mSurveyInstanceId, localeGeoQuestion);
             if (response != null) {
@@ -327,7 +360,9 @@ public class FormActivity extends BackActivity implements SurveyListener,
     @Override
     protected void onResume() {
         super.onResume();
-        mAdapter.onResume();
+        if (mAdapter != null) {
+            mAdapter.onResume();
+        }
         recordDuration(true);// Keep track of this session's duration.
         mPager.setKeepScreenOn(
                 prefs.getBoolean(Prefs.KEY_SCREEN_ON, Prefs.DEFAULT_VALUE_SCREEN_ON));
@@ -337,7 +372,9 @@ public class FormActivity extends BackActivity implements SurveyListener,
     public void onPause() {
         super.onPause();
         mPager.setKeepScreenOn(false);
-        mAdapter.onPause();
+        if (mAdapter != null) {
+            mAdapter.onPause();
+        }
         recordDuration(false);
         saveState();
     }
@@ -345,12 +382,18 @@ public class FormActivity extends BackActivity implements SurveyListener,
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mAdapter.onDestroy();
+        MediaProcessingQueue.getInstance().setListener(mSurveyInstanceId, null);
+        if (mAdapter != null) {
+            mAdapter.onDestroy();
+        }
         mDatabase.close();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
+        if (mSurvey == null) {
+            return super.onCreateOptionsMenu(menu);// Set up once the form is loaded
+        }
         getMenuInflater().inflate(R.menu.form_activity, menu);
         SubMenu subMenu = menu.findItem(R.id.more_submenu).getSubMenu();
         if (isReadOnly()) {
@@ -444,34 +487,14 @@ public class FormActivity extends BackActivity implements SurveyListener,
         switch (requestCode) {
             case PHOTO_ACTIVITY_REQUEST:
             case VIDEO_ACTIVITY_REQUEST:
-                String fileSuffix =
-                        requestCode == PHOTO_ACTIVITY_REQUEST ? IMAGE_SUFFIX : VIDEO_SUFFIX;
-                File tmp = getTmpFile(requestCode == PHOTO_ACTIVITY_REQUEST);
-
-                // Ensure no image is saved in the DCIM folder
-                FileUtil.cleanDCIM(this, tmp.getAbsolutePath());
-
-                String filename = PlatformUtil.uuid() + fileSuffix;
-                File imgFile = new File(FileUtil.getFilesDir(FileType.MEDIA), filename);
-
+                // The file is resized and stored in the background. The question will not
+                // be valid, thus the form not submittable, until that is done
                 int maxImgSize = prefs
                         .getInt(Prefs.KEY_MAX_IMG_SIZE, Prefs.DEFAULT_VALUE_IMAGE_SIZE);
-
-                if (ImageUtil.resizeImage(tmp.getAbsolutePath(), imgFile.getAbsolutePath(),
-                        maxImgSize)) {
-                    Timber.i("Image resized to: " +
-                            getResources().getStringArray(R.array.max_image_size_pref)[maxImgSize]);
-                    if (!tmp.delete()) { // must check return value to know if it failed
-                        Timber.e("Media file delete failed");
-                    }
-                } else if (!tmp.renameTo(imgFile)) {
-                    // must check  return  value to  know if it  failed!
-                    Timber.e("Media file resize failed");
-                }
-
-                Bundle photoData = new Bundle();
-                photoData.putString(ConstantUtil.MEDIA_FILE_KEY, imgFile.getAbsolutePath());
-                mAdapter.onQuestionComplete(mRequestQuestionId, photoData);
+                mAdapter.onQuestionComplete(mRequestQuestionId, getMediaProcessingData());
+                MediaProcessingQueue.getInstance().process(this, mSurveyInstanceId,
+                        mRequestQuestionId, getTmpFile(requestCode == PHOTO_ACTIVITY_REQUEST),
+                        requestCode == PHOTO_ACTIVITY_REQUEST, maxImgSize);
                 break;
             case EXTERNAL_SOURCE_REQUEST:
             case CADDISFLY_REQUEST:
@@ -486,6 +509,24 @@ public class FormActivity extends BackActivity implements SurveyListener,
         mRequestQuestionId = null;// Reset the tmp reference
     }
 
+    @Override
+    public void onMediaProcessed(@NonNull String questionId, @Nullable File file) {
+        Bundle mediaData = new Bundle();
+        if (file != null) {
+            new FileChecksumTask(this, mSurveyInstanceId, mSurvey.getId(), file).execute();
+            mediaData.putString(ConstantUtil.MEDIA_FILE_KEY, file.getAbsolutePath());
+        }
+        mAdapter.onQuestionComplete(questionId, mediaData);
+        mAdapter.refreshSubmitTab();
+    }
+
+    @NonNull
+    private static Bundle getMediaProcessingData() {
+        Bundle mediaData = new Bundle();
+        mediaData.putBoolean(ConstantUtil.MEDIA_PROCESSING_KEY, true);
+        return mediaData;
+    }
+
     private String getDefaultLang() {
         String lang = mSurvey.getLanguage();
         if (TextUtils.isEmpty(lang)) {
@@ -495,14 +536,7 @@ public class FormActivity extends BackActivity implements SurveyListener,
     }
 
     private void loadLanguages() {
-        String langsSelection = mDatabase.getPreference(ConstantUtil.SURVEY_LANG_SETTING_KEY);
-        String langsPresentIndexes = mDatabase.getPreference(ConstantUtil.SURVEY_LANG_PRESENT_KEY);
-        LangsPreferenceData langsPrefData = LangsPreferenceUtil.createLangPrefData(this,
-                langsSelection, langsPresentIndexes);
-        mLanguages = LangsPreferenceUtil.getSelectedLangCodes(this,
-                langsPrefData.getLangsSelectedMasterIndexArray(),
-                langsPrefData.getLangsSelectedBooleanArray(),
-                R.array.alllanguagecodes);
+        mLanguages = LangsPreferenceUtil.getSelectedLangCodes(this, mDatabase);
     }
 
     @Override
@@ -22,6 +22,7 @@ package org.akvo.flow.activity;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.util.Base64;
 import android.app.Activity;
 import android.view.View;
 import android.view.Window;
@@ -30,6 +31,9 @@ import org.akvo.flow.R;
 import org.akvo.flow.ui.view.SignatureView;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.ImageUtil;
+import org.akvo.flow.util.SignatureStore;
+
+import java.io.File;
 
 public class SignatureActivity extends Activity {
     private static final int SIGNATURE_WIDTH = 320;
@@ -72,9 +76,16 @@ public class SignatureActivity extends Activity {
 
     private void save() {
         Bitmap bitmap = mSignatureView.getBitmap();
-        String data = ImageUtil.encodeBase64(bitmap, SIGNATURE_WIDTH, SIGNATURE_HEIGHT);
+        byte[] png = ImageUtil.encodePng(bitmap, SIGNATURE_WIDTH, SIGNATURE_HEIGHT);
         Intent intent = new Intent();
-        intent.putExtra(ConstantUtil.SIGNATURE_IMAGE, data);
+        File file = SignatureStore.save(png);
+        if (file != null) {
+            intent.putExtra(ConstantUtil.SIGNATURE_FILE, file.getAbsolutePath());
+        } else {
+            // Storage not available. Keep the image inline
+            intent.putExtra(ConstantUtil.SIGNATURE_IMAGE,
+                    Base64.encodeToString(png, Base64.DEFAULT));
+        }
         setResult(RESULT_OK, intent);
         finish();
     }
@@ -26,16 +26,19 @@ import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Base64;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import org.akvo.flow.BuildConfig;
 import org.akvo.flow.data.preference.Prefs;
 import org.akvo.flow.domain.Survey;
-import org.akvo.flow.domain.SurveyedLocale;
-import org.akvo.flow.domain.response.SurveyedLocalesResponse;
 import org.akvo.flow.exception.HttpException;
 import org.akvo.flow.exception.HttpException.Status;
 import org.akvo.flow.serialization.form.SurveyMetaParser;
 import org.akvo.flow.serialization.response.SurveyedLocaleParser;
 import org.akvo.flow.util.HttpUtil;
+import org.akvo.flow.util.HttpValidator;
 import org.akvo.flow.util.PlatformUtil;
 import org.akvo.flow.util.ServerManager;
 import org.akvo.flow.util.StatusUtil;
@@ -43,17 +46,21 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 import javax.crypto.Mac;
@@ -77,7 +84,13 @@ public class FlowApi {
 
     private static final String HTTPS_PREFIX = "https";
     private static final String HTTP_PREFIX = "http";
+    /**
+     * Maximum number of files notified in a single batch request
+     */
+    private static final int MAX_BATCH_SIZE = 50;
+
     private final String baseUrl;
+    private final Prefs prefs;
 
     public FlowApi(Context context) {
         ServerManager serverManager = new ServerManager(context);
@@ -86,11 +99,22 @@ public class FlowApi {
         this.phoneNumber = StatusUtil.getPhoneNumber(context);
         this.imei = StatusUtil.getImei(context);
         this.androidId = PlatformUtil.getAndroidID(context);
-        Prefs prefs = new Prefs(context);
+        this.prefs = new Prefs(context);
         this.deviceIdentifier = prefs
                 .getString(Prefs.KEY_DEVICE_IDENTIFIER, Prefs.DEFAULT_VALUE_DEVICE_IDENTIFIER);
     }
 
+    FlowApi(String baseUrl, String apiKey, String phoneNumber, String imei, String androidId,
+            String deviceIdentifier, Prefs prefs) {
+        this.baseUrl = baseUrl;
+        this.prefs = prefs;
+        this.apiKey = apiKey;
+        this.phoneNumber = phoneNumber;
+        this.imei = imei;
+        this.androidId = androidId;
+        this.deviceIdentifier = deviceIdentifier;
+    }
+
     public String getServerTime() throws IOException {
         String serverBase = baseUrl;
         if (serverBase.startsWith(HTTPS_PREFIX)) {
@@ -149,15 +173,19 @@ public class FlowApi {
         return builder.build().toString();
     }
 
-    @NonNull
-    public List<Survey> getSurveyHeader(@NonNull String surveyId)
-            throws IOException {
+    /**
+     * @param validator validators of the previous response, updated with the new ones
+     * @return the survey header, or null if it has not changed since the previous response
+     */
+    @Nullable
+    public List<Survey> getSurveyHeader(@NonNull String surveyId,
+            @NonNull HttpValidator validator) throws IOException {
         final String url = buildSurveyHeaderUrl(baseUrl, surveyId);
-        String response = HttpUtil.httpGet(url);
-        if (response != null) {
-            return new SurveyMetaParser().parseList(response, true);
+        String response = HttpUtil.httpGet(url, validator);
+        if (response == null) {
+            return null;// Not modified
         }
-        return Collections.emptyList();
+        return new SurveyMetaParser().parseList(response, true);
     }
 
     @NonNull
@@ -170,14 +198,19 @@ public class FlowApi {
         return builder.build().toString();
     }
 
-    public List<Survey> getSurveys() throws IOException {
-        List<Survey> surveys = new ArrayList<>();
+    /**
+     * @param validator validators of the previous response, updated with the new ones
+     * @return the surveys assigned to this device, or null if the assignment has not changed
+     * since the previous response
+     */
+    @Nullable
+    public List<Survey> getSurveys(@NonNull HttpValidator validator) throws IOException {
         final String url = buildSurveysUrl(baseUrl);
-        String response = HttpUtil.httpGet(url);
-        if (response != null) {
-            surveys = new SurveyMetaParser().parseList(response);
+        String response = HttpUtil.httpGet(url, validator);
+        if (response == null) {
+            return null;// Not modified
         }
-        return surveys;
+        return new SurveyMetaParser().parseList(response);
     }
 
     @NonNull
@@ -209,34 +242,136 @@ public class FlowApi {
         }
     }
 
+    /**
+     * Notify GAE back-end that several files of the same form are available, sending their
+     * names in as few requests as possible. Files not confirmed by the server, i.e. because
+     * the batch request is rejected or not supported, are notified one by one.
+     *
+     * Servers without batch support are remembered, and only sent single requests from then on.
+     *
+     * @return the notification status of each file, keyed by file name
+     */
+    @NonNull
+    public Map<String, Integer> sendProcessingNotifications(@NonNull String formId,
+            @NonNull String action, @NonNull List<String> fileNames) {
+        Map<String, Integer> statuses = new HashMap<>();
+        boolean batchRejected = false;
+        if (fileNames.size() > 1 && !isBatchNotificationUnsupported()) {
+            for (int start = 0; start < fileNames.size(); start += MAX_BATCH_SIZE) {
+                List<String> batch = fileNames
+                        .subList(start, Math.min(start + MAX_BATCH_SIZE, fileNames.size()));
+                Set<String> confirmed = sendBatchProcessingNotification(formId, action, batch);
+                if (confirmed == null) {
+                    batchRejected = true;
+                    break;
+                }
+                for (String fileName : confirmed) {
+                    statuses.put(fileName, HttpURLConnection.HTTP_OK);
+                }
+            }
+        }
+        for (String fileName : fileNames) {
+            if (!statuses.containsKey(fileName)) {
+                int status = sendProcessingNotification(formId, action, fileName);
+                statuses.put(fileName, status);
+                if (batchRejected && status == HttpURLConnection.HTTP_OK) {
+                    // A deleted form is rejected by both endpoints. This server just does not
+                    // know about batches
+                    Timber.i("Batch notifications are not supported by " + baseUrl);
+                    prefs.setString(Prefs.KEY_BATCH_NOTIFICATION_REJECTED, baseUrl);
+                    batchRejected = false;
+                }
+            }
+        }
+        return statuses;
+    }
+
+    private boolean isBatchNotificationUnsupported() {
+        return baseUrl.equals(prefs.getString(Prefs.KEY_BATCH_NOTIFICATION_REJECTED, null));
+    }
+
+    /**
+     * @return the names of the files the server confirmed, or null if the batch request was
+     * rejected as a whole, i.e. the endpoint does not exist
+     */
+    @Nullable
+    private Set<String> sendBatchProcessingNotification(@NonNull String formId,
+            @NonNull String action, @NonNull List<String> fileNames) {
+        Set<String> confirmed = new HashSet<>();
+        String url = baseUrl + "/" + Path.BATCH_NOTIFICATION;
+        try {
+            String response = HttpUtil.httpPost(url,
+                    buildProcessingNotificationQuery(formId, action, fileNames));
+            JsonNode jFiles = new ObjectMapper().readTree(response).get(Param.FILENAMES);
+            if (jFiles != null) {
+                for (JsonNode jFile : jFiles) {
+                    if (fileNames.contains(jFile.asText())) {
+                        confirmed.add(jFile.asText());
+                    }
+                }
+            }
+        } catch (HttpException e) {
+            Timber.w(e.getStatus() + " response for batch notification. formId: " + formId);
+            if (e.getStatus() == HttpURLConnection.HTTP_NOT_FOUND
+                    || e.getStatus() == HttpURLConnection.HTTP_BAD_METHOD) {
+                return null;
+            }
+        } catch (IOException e) {
+            Timber.w(e, "GAE batch notification failed for formId: " + formId);
+        }
+        return confirmed;
+    }
+
     @NonNull
     private String buildProcessingNotificationUrl(@NonNull String serverBaseUrl,
             @NonNull String formId, @NonNull
             String action, @NonNull String fileName) {
-        Uri.Builder builder = Uri.parse(serverBaseUrl).buildUpon();
-        builder.appendPath(Path.NOTIFICATION);
-        builder.appendQueryParameter(Param.PARAM_ACTION, action);
-        builder.appendQueryParameter(Param.FORM_ID, formId);
-        builder.appendQueryParameter(Param.FILENAME, fileName);
-        appendDeviceParams(builder);
-        return builder.build().toString();
+        return serverBaseUrl + "/" + Path.NOTIFICATION + "?" + buildProcessingNotificationQuery(
+                formId, action, Collections.singletonList(fileName));
     }
 
-    @Nullable
-    public List<SurveyedLocale> getSurveyedLocales(long surveyGroup, @NonNull String timestamp)
-            throws IOException {
+    @NonNull
+    private String buildProcessingNotificationQuery(@NonNull String formId,
+            @NonNull String action, @NonNull List<String> fileNames) {
+        StringBuilder queryStringBuilder = new StringBuilder();
+        appendParam(queryStringBuilder, Param.PARAM_ACTION, encodeParam(action));
+        appendParam(queryStringBuilder, Param.FORM_ID, encodeParam(formId));
+        for (String fileName : fileNames) {
+            appendParam(queryStringBuilder, Param.FILENAME, encodeParam(fileName));
+        }
+        appendParam(queryStringBuilder, Param.PHONE_NUMBER, encodeParam(phoneNumber));
+        appendParam(queryStringBuilder, Param.ANDROID_ID, encodeParam(androidId));
+        appendParam(queryStringBuilder, Param.IMEI, encodeParam(imei));
+        appendParam(queryStringBuilder, Param.VERSION, encodeParam(BuildConfig.VERSION_NAME));
+        queryStringBuilder.append(Param.DEVICE_ID).append(Param.EQUALS)
+                .append(encodeParam(deviceIdentifier));
+        return queryStringBuilder.toString();
+    }
+
+    /**
+     * Fetch the next page of SurveyedLocales modified after the given timestamp. They are
+     * handed to the sink while the response is still being received.
+     *
+     * @throws HttpException with status MALFORMED_RESPONSE if the response cannot be parsed.
+     *                       Any SurveyedLocale handed to the sink before that point is valid.
+     */
+    public void getSurveyedLocales(long surveyGroup, @NonNull String timestamp,
+            @NonNull final SurveyedLocaleParser.Sink sink) throws IOException {
         // Note: To compute the HMAC auth token, query params must be alphabetically ordered
         String url = buildSyncUrl(baseUrl, surveyGroup, timestamp);
-        String response = HttpUtil.httpGet(url);
-        if (response != null) {
-            SurveyedLocalesResponse slRes = new SurveyedLocaleParser().parseResponse(response);
-            if (slRes.getError() != null) {
-                throw new HttpException(slRes.getError(), Status.MALFORMED_RESPONSE);
-            }
-            return slRes.getSurveyedLocales();
+        try {
+            HttpUtil.httpGet(url, null, new HttpUtil.ResponseReader() {
+                @Override
+                public void read(@NonNull InputStream in) throws IOException {
+                    new SurveyedLocaleParser().parseResponse(in, sink);
+                }
+            });
+        } catch (JsonProcessingException e) {
+            // Something went wrong in the parsing. We consider this invalid data,
+            // and will stop the sync, to avoid storing corrupted data.
+            Timber.e(e, e.getMessage());
+            throw new HttpException("Invalid JSON response", Status.MALFORMED_RESPONSE);
         }
-
-        return null;
     }
 
     @NonNull
@@ -263,7 +398,7 @@ public class FlowApi {
     }
 
     private String encodeParam(@Nullable String param) {
-        if (TextUtils.isEmpty(param)) {
+        if (param == null || param.isEmpty()) {
             return "";
         }
         try {
@@ -317,6 +452,7 @@ public class FlowApi {
 
         String SURVEYED_LOCALE = "surveyedlocale";
         String NOTIFICATION = "processor";
+        String BATCH_NOTIFICATION = "processor/batch";
         String SURVEY_LIST_SERVICE = "surveymanager";
         String SURVEY_HEADER_SERVICE = "surveymanager";
         String DEVICE_NOTIFICATION = "devicenotification";
@@ -339,6 +475,7 @@ public class FlowApi {
         String FORM_ID = "formID";
         String SURVEY_ID = "surveyId";
         String FILENAME = "fileName";
+        String FILENAMES = "fileNames";
 
         String VALUE_HEADER = "getSurveyHeader";
         String VALUE_SURVEY = "getAvailableSurveysDevice";
@@ -1,5 +1,5 @@
 /*
- *  Copyright (C) 2013 Stichting Akvo (Akvo Foundation)
+ *  Copyright (C) 2013-2017 Stichting Akvo (Akvo Foundation)
  *
  *  This file is part of Akvo Flow.
  *
@@ -22,9 +22,11 @@ package org.akvo.flow.api;
 import android.content.Context;
 import android.util.Base64;
 
+import org.akvo.flow.domain.MultipartUpload;
 import org.akvo.flow.exception.HttpException;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.FileUtil;
+import org.akvo.flow.util.HttpClient;
 import org.akvo.flow.util.HttpUtil;
 import org.akvo.flow.util.PropertyUtil;
 
@@ -37,7 +39,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URLEncoder;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
@@ -45,6 +47,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 import javax.crypto.Mac;
@@ -53,57 +56,121 @@ import javax.crypto.spec.SecretKeySpec;
 import timber.log.Timber;
 
 public class S3Api {
-    private static final String URL = "https://%s.s3.amazonaws.com/%s";
+    private static final String ENDPOINT = "https://%s.s3.amazonaws.com";// bucket
     private static final String PAYLOAD_GET = "GET\n\n\n%s\n/%s/%s";// date, bucket, obj
     private static final String PAYLOAD_PUT_PUBLIC = "PUT\n%s\n%s\n%s\nx-amz-acl:public-read\n/%s/%s";// md5, type, date, bucket, obj
     private static final String PAYLOAD_PUT_PRIVATE = "PUT\n%s\n%s\n%s\n/%s/%s";// md5, type, date, bucket, obj
     private static final String PAYLOAD_HEAD = "HEAD\n\n\n%s\n/%s/%s";// date, bucket, obj
 
-    private String mBucket;
-    private String mAccessKey;
-    private String mSecret;
+    // Multipart upload payloads. Sub-resources are part of the signed resource
+    private static final String PAYLOAD_INITIATE_PUBLIC = "POST\n\n%s\n%s\nx-amz-acl:public-read\n/%s/%s?uploads";// type, date, bucket, obj
+    private static final String PAYLOAD_INITIATE_PRIVATE = "POST\n\n%s\n%s\n/%s/%s?uploads";// type, date, bucket, obj
+    private static final String PAYLOAD_PUT_PART = "PUT\n%s\n%s\n%s\n/%s/%s?partNumber=%d&uploadId=%s";// md5, type, date, bucket, obj, part, upload
+    private static final String PAYLOAD_COMPLETE = "POST\n\n%s\n%s\n/%s/%s?uploadId=%s";// type, date, bucket, obj, upload
+
+    private static final String XML_CONTENT_TYPE = "application/xml";
+
+    /**
+     * Files above this size are uploaded in parts, which can be resumed after a failure
+     */
+    private static final long MULTIPART_THRESHOLD = 8 * 1024 * 1024;
+
+    /**
+     * Size of each uploaded part. S3 requires every part but the last one to be at least 5 MB.
+     * Changing this value invalidates the progress of any upload started with a different size.
+     */
+    private static final long PART_SIZE = 5 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Receives the state of multipart uploads each time it changes, so it can be persisted
+     */
+    public interface MultipartUploadListener {
+        void onUploadProgress(MultipartUpload upload);
+    }
+
+    private final String mEndpoint;
+    private final String mBucket;
+    private final String mAccessKey;
+    private final String mSecret;
+    private final long mMultipartThreshold;
+    private final long mPartSize;
 
     public S3Api(Context c) {
         PropertyUtil properties = new PropertyUtil(c.getResources());
         mBucket = properties.getProperty(ConstantUtil.S3_BUCKET);
         mAccessKey = properties.getProperty(ConstantUtil.S3_ACCESSKEY);
         mSecret = properties.getProperty(ConstantUtil.S3_SECRET);
+        mEndpoint = String.format(ENDPOINT, mBucket);
+        mMultipartThreshold = MULTIPART_THRESHOLD;
+        mPartSize = PART_SIZE;
+    }
+
+    S3Api(String endpoint, String bucket, String accessKey, String secret,
+            long multipartThreshold, long partSize) {
+        mEndpoint = endpoint;
+        mBucket = bucket;
+        mAccessKey = accessKey;
+        mSecret = secret;
+        mMultipartThreshold = multipartThreshold;
+        mPartSize = partSize;
     }
 
     public String getEtag(String objectKey) throws IOException {
+        ObjectMetadata metadata = head(objectKey);
+        return metadata != null ? metadata.etag : null;
+    }
+
+    /**
+     * @return the ETag and size of the object, or null if it could not be found
+     */
+    private ObjectMetadata head(String objectKey) throws IOException {
         // Get date and signature
         final String date = getDate();
         final String payload = String.format(PAYLOAD_HEAD, date, mBucket, objectKey);
         final String signature = getSignature(payload);
-        final URL url = new URL(String.format(URL, mBucket, objectKey));
+        final String url = getUrl(objectKey);
 
         HttpURLConnection conn = null;
-        String etag = null;
+        boolean responseReceived = false;
         try {
-            conn = (HttpURLConnection) url.openConnection();
+            conn = HttpClient.getInstance().open(url);
             conn.setRequestProperty("Date", date);
             conn.setRequestProperty("Authorization", "AWS " + mAccessKey + ":" + signature);
             // Handle EOS bug in Android pre Jelly Bean: https://code.google.com/p/android/issues/detail?id=24672
             conn.setRequestProperty("Accept-Encoding", "");
             conn.setRequestMethod("HEAD");
 
-            if (conn.getResponseCode() == 200) {
-                etag = getEtag(conn);
+            final int status = conn.getResponseCode();
+            responseReceived = true;
+            if (status != 200) {
+                return null;
             }
-            return etag;
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
+            long length = -1;
+            String contentLength = conn.getHeaderField("Content-Length");
+            if (contentLength != null) {
+                try {
+                    length = Long.parseLong(contentLength);
+                } catch (NumberFormatException e) {
+                    Timber.w("Invalid Content-Length: " + contentLength);
+                }
             }
+            return new ObjectMetadata(getEtag(conn), length);
+        } finally {
+            HttpClient.release(conn, responseReceived);
         }
     }
 
     public void syncFile(String objectKey, File dst) throws IOException {
-        final String etag = getEtag(objectKey);
+        final ObjectMetadata metadata = head(objectKey);
+        final String etag = metadata != null ? metadata.etag : null;
         if (etag == null) {
             throw new HttpException("Could not read ETag from object: " + objectKey, 404);
         }
-        if (dst.exists() && etag.equals(FileUtil.hexMd5(dst))) {
+        // Only hash the local copy if its size matches. Otherwise it is outdated anyway
+        boolean sameSize = metadata.length == -1 || metadata.length == dst.length();
+        if (dst.exists() && sameSize && etag.equals(FileUtil.hexMd5(dst))) {
             // No need to re-fetch the file. The integrity of the local copy has been verified
             return;
         }
@@ -115,17 +182,19 @@ public class S3Api {
         final String date = getDate();
         final String payload = String.format(PAYLOAD_GET, date, mBucket, objectKey);
         final String signature = getSignature(payload);
-        final URL url = new URL(String.format(URL, mBucket, objectKey));
+        final String url = getUrl(objectKey);
 
         InputStream in = null;
         OutputStream out = null;
         HttpURLConnection conn = null;
+        boolean responseReceived = false;
         try {
-            conn = (HttpURLConnection) url.openConnection();
+            conn = HttpClient.getInstance().open(url);
             conn.setRequestProperty("Date", date);
             conn.setRequestProperty("Authorization", "AWS " + mAccessKey + ":" + signature);
 
             in = new BufferedInputStream(conn.getInputStream());
+            responseReceived = true;
             out = new BufferedOutputStream(new FileOutputStream(dst));
 
             HttpUtil.copyStream(in, out);
@@ -135,33 +204,41 @@ public class S3Api {
                 throw new IOException("Status Code: " + status + ". Expected: 200 - OK");
             }
         } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
             FileUtil.close(in);
             FileUtil.close(out);
+            HttpClient.release(conn, responseReceived);
         }
     }
 
     public boolean put(String objectKey, File file, String type, boolean isPublic) throws IOException {
+        final byte[] rawMd5 = FileUtil.getMD5Checksum(file);
+        return rawMd5 != null && put(objectKey, file, type, isPublic, rawMd5);
+    }
+
+    /**
+     * Upload a file whose MD5 checksum is already known, saving a full read of the file.
+     * The checksum must match the current content, or S3 will reject the upload.
+     */
+    public boolean put(String objectKey, File file, String type, boolean isPublic,
+            byte[] rawMd5) throws IOException {
         // Calculate data size, up to 2 GB
         final int size = file.length() < Integer.MAX_VALUE ? (int)file.length() : -1;
 
         // Get date and signature
-        final byte[] rawMd5 = FileUtil.getMD5Checksum(file);
         final String md5Base64 = Base64.encodeToString(rawMd5, Base64.NO_WRAP);
         final String md5Hex = FileUtil.hexMd5(rawMd5);
         final String date = getDate();
         String payloadStr = isPublic ? PAYLOAD_PUT_PUBLIC : PAYLOAD_PUT_PRIVATE;
         final String payload = String.format(payloadStr, md5Base64, type, date, mBucket, objectKey);
         final String signature = getSignature(payload);
-        final URL url = new URL(String.format(URL, mBucket, objectKey));
+        final String url = getUrl(objectKey);
 
         InputStream in = null;
         OutputStream out = null;
         HttpURLConnection conn = null;
+        boolean responseReceived = false;
         try {
-            conn = (HttpURLConnection) url.openConnection();
+            conn = HttpClient.getInstance().open(url);
             conn.setDoOutput(true);
             if (size > 0) {
                 conn.setFixedLengthStreamingMode(size);
@@ -185,6 +262,7 @@ public class S3Api {
             out.flush();
 
             int status = conn.getResponseCode();
+            responseReceived = true;
             if (status != 200 && status != 201) {
                 Timber.e("Status Code: " + status + ". Expected: 200 or 201");
                 return false;
@@ -198,14 +276,264 @@ public class S3Api {
             Timber.d("File successfully uploaded: " + file.getName());
             return true;
         } finally {
-            if (conn != null) {
-                conn.disconnect();
+            FileUtil.close(in);
+            FileUtil.close(out);
+            HttpClient.release(conn, responseReceived);
+        }
+    }
+
+    /**
+     * @return true if the file is big enough to be uploaded with putMultipart()
+     */
+    public boolean isMultipart(File file) {
+        return file.length() > mMultipartThreshold;
+    }
+
+    /**
+     * Upload a file using S3 multipart upload. Parts already present in the given upload
+     * state are skipped, thus resuming a previous attempt from its last completed part.
+     * The listener is notified every time the upload state changes.
+     */
+    public boolean putMultipart(String objectKey, File file, String type, boolean isPublic,
+            MultipartUpload upload, MultipartUploadListener listener) throws IOException {
+        try {
+            if (!upload.isStarted()) {
+                String uploadId = initiateMultipartUpload(objectKey, type, isPublic);
+                if (uploadId == null) {
+                    return false;
+                }
+                upload.setUploadId(uploadId);
+                listener.onUploadProgress(upload);
+            } else {
+                Timber.d("Resuming upload of " + file.getName() + ". Completed parts: "
+                        + upload.getParts().size());
+            }
+
+            final long length = file.length();
+            final int parts = (int) ((length + mPartSize - 1) / mPartSize);
+            for (int partNumber = 1; partNumber <= parts; partNumber++) {
+                if (upload.hasPart(partNumber)) {
+                    continue;// Uploaded in a previous attempt
+                }
+                final long offset = (partNumber - 1) * mPartSize;
+                final long partLength = Math.min(mPartSize, length - offset);
+                String etag = uploadPart(objectKey, file, type, upload.getUploadId(), partNumber,
+                        offset, partLength);
+                if (etag == null) {
+                    return false;
+                }
+                upload.addPart(partNumber, etag);
+                listener.onUploadProgress(upload);
+            }
+
+            if (!completeMultipartUpload(objectKey, upload)) {
+                return false;
+            }
+            Timber.d("File successfully uploaded: " + file.getName() + " (" + parts + " parts)");
+
+            // The upload ID is void once the object is complete. Forget it right away, as the
+            // transmission may still fail afterwards, i.e. the processing notification
+            upload.reset();
+            listener.onUploadProgress(upload);
+            return true;
+        } catch (HttpException e) {
+            if (e.getStatus() == HttpURLConnection.HTTP_NOT_FOUND) {
+                // The upload has expired or been aborted. Start over in the next attempt
+                Timber.e("Multipart upload not found: " + upload.getUploadId());
+                upload.reset();
+                listener.onUploadProgress(upload);
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private String initiateMultipartUpload(String objectKey, String type, boolean isPublic)
+            throws IOException {
+        final String date = getDate();
+        String payloadStr = isPublic ? PAYLOAD_INITIATE_PUBLIC : PAYLOAD_INITIATE_PRIVATE;
+        final String payload = String.format(payloadStr, type, date, mBucket, objectKey);
+        final String signature = getSignature(payload);
+        final String url = getUrl(objectKey) + "?uploads";
+
+        HttpURLConnection conn = null;
+        boolean responseReceived = false;
+        try {
+            conn = HttpClient.getInstance().open(url);
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(0);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", type);
+            conn.setRequestProperty("Date", date);
+            if (isPublic) {
+                // The ACL of the resulting object is set when the upload is initiated
+                conn.setRequestProperty("x-amz-acl", "public-read");
+            }
+            conn.setRequestProperty("Authorization", "AWS " + mAccessKey + ":" + signature);
+            conn.getOutputStream().close();
+
+            int status = conn.getResponseCode();
+            responseReceived = true;
+            if (status != HttpURLConnection.HTTP_OK) {
+                Timber.e("Status Code: " + status + ". Expected: 200");
+                return null;
+            }
+            return getXmlValue(HttpUtil.readStream(conn.getInputStream()), "UploadId");
+        } finally {
+            HttpClient.release(conn, responseReceived);
+        }
+    }
+
+    private String uploadPart(String objectKey, File file, String type, String uploadId,
+            int partNumber, long offset, long length) throws IOException {
+        final byte[] rawMd5 = FileUtil.getMD5Checksum(file, offset, length);
+        if (rawMd5 == null) {
+            return null;
+        }
+        final String md5Base64 = Base64.encodeToString(rawMd5, Base64.NO_WRAP);
+        final String md5Hex = FileUtil.hexMd5(rawMd5);
+        final String date = getDate();
+        final String payload = String.format(Locale.US, PAYLOAD_PUT_PART, md5Base64, type, date,
+                mBucket, objectKey, partNumber, uploadId);
+        final String signature = getSignature(payload);
+        final String url = getUrl(objectKey) + "?partNumber=" + partNumber + "&uploadId="
+                + URLEncoder.encode(uploadId, "UTF-8");
+
+        FileInputStream in = null;
+        OutputStream out = null;
+        HttpURLConnection conn = null;
+        boolean responseReceived = false;
+        try {
+            conn = HttpClient.getInstance().open(url);
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode((int) length);
+            conn.setRequestMethod("PUT");
+            conn.setRequestProperty("Content-MD5", md5Base64);
+            conn.setRequestProperty("Content-Type", type);
+            conn.setRequestProperty("Date", date);
+            conn.setRequestProperty("Authorization", "AWS " + mAccessKey + ":" + signature);
+
+            in = new FileInputStream(file);
+            in.getChannel().position(offset);
+            out = new BufferedOutputStream(conn.getOutputStream());
+
+            copyRange(in, out, length);
+            out.flush();
+
+            int status = conn.getResponseCode();
+            responseReceived = true;
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new HttpException("Upload not found: " + uploadId, status);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                Timber.e("Status Code: " + status + ". Expected: 200");
+                return null;
             }
+            String etag = getEtag(conn);
+            if (!md5Hex.equals(etag)) {
+                Timber.e("ETag comparison failed for part " + partNumber + ". Response ETag: "
+                        + etag + " Locally computed MD5: " + md5Hex);
+                return null;
+            }
+            return etag;
+        } finally {
             FileUtil.close(in);
             FileUtil.close(out);
+            HttpClient.release(conn, responseReceived);
         }
     }
 
+    private boolean completeMultipartUpload(String objectKey, MultipartUpload upload)
+            throws IOException {
+        StringBuilder builder = new StringBuilder("<CompleteMultipartUpload>");
+        for (Map.Entry<Integer, String> part : upload.getParts().entrySet()) {
+            builder.append("<Part><PartNumber>").append(part.getKey()).append("</PartNumber>")
+                    .append("<ETag>\"").append(part.getValue()).append("\"</ETag></Part>");
+        }
+        builder.append("</CompleteMultipartUpload>");
+        final byte[] body = builder.toString().getBytes("UTF-8");
+
+        final String date = getDate();
+        final String payload = String.format(PAYLOAD_COMPLETE, XML_CONTENT_TYPE, date, mBucket,
+                objectKey, upload.getUploadId());
+        final String signature = getSignature(payload);
+        final String url = getUrl(objectKey) + "?uploadId="
+                + URLEncoder.encode(upload.getUploadId(), "UTF-8");
+
+        OutputStream out = null;
+        HttpURLConnection conn = null;
+        boolean responseReceived = false;
+        try {
+            conn = HttpClient.getInstance().open(url);
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(body.length);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", XML_CONTENT_TYPE);
+            conn.setRequestProperty("Date", date);
+            conn.setRequestProperty("Authorization", "AWS " + mAccessKey + ":" + signature);
+
+            out = conn.getOutputStream();
+            out.write(body);
+            out.flush();
+
+            int status = conn.getResponseCode();
+            responseReceived = true;
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new HttpException("Upload not found: " + upload.getUploadId(), status);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                Timber.e("Status Code: " + status + ". Expected: 200");
+                return false;
+            }
+            // S3 may report an error *after* sending the 200 status code
+            String response = HttpUtil.readStream(conn.getInputStream());
+            if (getXmlValue(response, "Code") != null) {
+                Timber.e("Multipart upload completion failed: " + response);
+                return false;
+            }
+            return true;
+        } finally {
+            FileUtil.close(out);
+            HttpClient.release(conn, responseReceived);
+        }
+    }
+
+    private static void copyRange(InputStream in, OutputStream out, long length)
+            throws IOException {
+        byte[] b = new byte[BUFFER_SIZE];
+        long remaining = length;
+        int read;
+        while (remaining > 0 && (read = in.read(b, 0, (int) Math.min(b.length, remaining))) != -1) {
+            out.write(b, 0, read);
+            remaining -= read;
+        }
+        if (remaining > 0) {
+            throw new IOException("Unexpected end of file. Missing bytes: " + remaining);
+        }
+    }
+
+    /**
+     * Extract the text of the first element with the given name. S3 responses are
+     * small and flat, so there is no need to involve a full XML parser.
+     */
+    private static String getXmlValue(String xml, String element) {
+        if (xml == null) {
+            return null;
+        }
+        final String open = "<" + element + ">";
+        final String close = "</" + element + ">";
+        int start = xml.indexOf(open);
+        int end = start != -1 ? xml.indexOf(close, start) : -1;
+        if (end == -1) {
+            return null;
+        }
+        return xml.substring(start + open.length(), end).trim();
+    }
+
+    private String getUrl(String objectKey) {
+        return mEndpoint + "/" + objectKey;
+    }
+
     private String getDate() {
         final DateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss ", Locale.US);
         df.setTimeZone(TimeZone.getTimeZone("GMT"));
@@ -233,4 +561,15 @@ public class S3Api {
         return etag != null ? etag.replaceAll("\"", "") : null;// Remove quotes
     }
 
+    private static class ObjectMetadata {
+
+        final String etag;
+        final long length;// -1 if unknown
+
+        ObjectMetadata(String etag, long length) {
+            this.etag = etag;
+            this.length = length;
+        }
+    }
+
 }
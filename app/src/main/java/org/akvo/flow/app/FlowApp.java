@@ -29,6 +29,7 @@ import android.widget.Toast;
 import org.akvo.flow.R;
 import org.akvo.flow.data.database.SurveyDbAdapter;
 import org.akvo.flow.data.database.UserColumns;
+import org.akvo.flow.domain.FormManifest;
 import org.akvo.flow.domain.Survey;
 import org.akvo.flow.domain.SurveyGroup;
 import org.akvo.flow.domain.User;
@@ -236,7 +237,10 @@ public class FlowApp extends Application {
                 // Recompute all the surveys, and store their languages
                 List<Survey> surveyList = database.getSurveyList(SurveyGroup.ID_NONE);
                 for (Survey survey : surveyList) {
-                    String[] langs = LangsPreferenceUtil.determineLanguages(FlowApp.this, survey);
+                    FormManifest manifest = database.getFormManifest(survey.getId());
+                    String[] langs = manifest != null ?
+                            LangsPreferenceUtil.determineLanguages(survey, manifest) :
+                            LangsPreferenceUtil.determineLanguages(FlowApp.this, survey);
                     Timber.d("Adding languages: " + Arrays.toString(langs));
                     database.addLanguages(langs);
                 }
@@ -0,0 +1,70 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.async;
+
+import android.content.Context;
+import android.database.SQLException;
+import android.os.AsyncTask;
+
+import org.akvo.flow.data.database.SurveyDbAdapter;
+import org.akvo.flow.domain.FileChecksum;
+
+import java.io.File;
+
+import timber.log.Timber;
+
+/**
+ * Computes the checksum of a captured media file and stores it in the transmission
+ * table, so the upload does not need to read the whole file again. Files modified
+ * after this point (i.e. EXIF updates) will simply be hashed again on upload.
+ */
+public class FileChecksumTask extends AsyncTask<Void, Void, Void> {
+
+    private final SurveyDbAdapter mDatabase;
+    private final long mSurveyInstanceId;
+    private final String mFormId;
+    private final File mFile;
+
+    public FileChecksumTask(Context context, long surveyInstanceId, String formId, File file) {
+        // Use the Application Context, so the Activity can be GC if it's finished
+        mDatabase = new SurveyDbAdapter(context.getApplicationContext());
+        mSurveyInstanceId = surveyInstanceId;
+        mFormId = formId;
+        mFile = file;
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        FileChecksum checksum = FileChecksum.compute(mFile);
+        if (checksum == null) {
+            return null;
+        }
+        try {
+            mDatabase.open();
+            mDatabase.saveFileChecksum(mSurveyInstanceId, mFormId, mFile.getAbsolutePath(),
+                    checksum);
+        } catch (SQLException e) {
+            Timber.e(e, "Could not save checksum of " + mFile.getName());
+        } finally {
+            mDatabase.close();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.async;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.R;
+import org.akvo.flow.data.preference.Prefs;
+import org.akvo.flow.util.FileUtil;
+import org.akvo.flow.util.FileUtil.FileType;
+import org.akvo.flow.util.ImageUtil;
+import org.akvo.flow.util.PlatformUtil;
+import org.akvo.flow.util.PropertyUtil;
+import org.akvo.flow.util.image.ImageEncoder;
+import org.akvo.flow.util.image.ImageEncoders;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Processes captured media files off the main thread: the duplicate some cameras leave in the
+ * DCIM folder is removed, images are resized, and the result is moved into the media folder.
+ * Files are processed one at a time, in capture order.
+ *
+ * Results are delivered on the main thread, to the listener of the survey instance they
+ * belong to. If there is none, i.e. the form was closed while the file was being processed,
+ * they are held until one is set. Every method must be invoked from the main thread.
+ *
+ * Jobs are persisted until their result is delivered, so a job left behind when the app
+ * process is killed can be recovered by the next form of its survey instance.
+ */
+public class MediaProcessingQueue {
+
+    public interface Listener {
+
+        /**
+         * @param file the processed file, or null if the file could not be processed
+         */
+        void onMediaProcessed(@NonNull String questionId, @Nullable File file);
+    }
+
+    private static MediaProcessingQueue sInstance;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<Long, Listener> mListeners = new HashMap<>();
+    private final Map<Long, Set<String>> mPending = new HashMap<>();// Questions being processed
+    private final Map<Long, Map<String, File>> mResults = new HashMap<>();// Undelivered results
+    private final Set<String> mJobs = new HashSet<>();// Source files of the known jobs
+
+    private Prefs mPrefs;
+
+    public static MediaProcessingQueue getInstance() {
+        if (sInstance == null) {
+            sInstance = new MediaProcessingQueue();
+        }
+        return sInstance;
+    }
+
+    private MediaProcessingQueue() {
+    }
+
+    /**
+     * Queue a captured file. The file is moved out of the way first, so the camera can
+     * capture the next one while this one is waiting to be processed.
+     *
+     * @param maxImgSize the image size preference (index)
+     */
+    public void process(@NonNull Context context, final long surveyInstanceId,
+            @NonNull final String questionId, @NonNull File tmp, final boolean image,
+            final int maxImgSize) {
+        final Context appContext = context.getApplicationContext();
+        final String suffix = tmp.getName().substring(tmp.getName().lastIndexOf("."));
+        final File src = new File(tmp.getParentFile(), PlatformUtil.uuid() + suffix);
+        if (!tmp.renameTo(src)) {
+            Timber.e("Could not move captured file " + tmp.getAbsolutePath());
+            deliver(surveyInstanceId, questionId, null);
+            return;
+        }
+
+        Job job = new Job(surveyInstanceId, questionId, src.getAbsolutePath(), image,
+                maxImgSize);
+        List<Job> jobs = loadJobs(appContext);
+        jobs.add(job);
+        saveJobs(jobs);
+        execute(appContext, job);
+    }
+
+    /**
+     * Recover the jobs of the survey instance left behind by a previous app process. Their
+     * files are processed again, or their results held until a listener is set.
+     */
+    public void recover(@NonNull Context context, long surveyInstanceId) {
+        final Context appContext = context.getApplicationContext();
+        for (Job job : loadJobs(appContext)) {
+            if (job.surveyInstanceId != surveyInstanceId || mJobs.contains(job.src)) {
+                continue;
+            }
+            Timber.i("Recovering media file of question " + job.questionId);
+            if (job.processed) {
+                File result = job.result != null ? new File(job.result) : null;
+                mJobs.add(job.src);
+                onProcessed(job, result != null && result.exists() ? result : null);
+            } else if (new File(job.src).exists()) {
+                execute(appContext, job);
+            } else {
+                mJobs.add(job.src);
+                onProcessed(job, null);
+            }
+        }
+    }
+
+    /**
+     * @return the questions of the survey instance whose files are still being processed
+     */
+    @NonNull
+    public List<String> getPendingQuestions(long surveyInstanceId) {
+        return new ArrayList<>(getPending(surveyInstanceId));
+    }
+
+    /**
+     * Set the listener of the survey instance results, delivering any result held so far.
+     * A null listener stops the delivery.
+     */
+    public void setListener(long surveyInstanceId, @Nullable Listener listener) {
+        if (listener == null) {
+            mListeners.remove(surveyInstanceId);
+            return;
+        }
+        mListeners.put(surveyInstanceId, listener);
+        Map<String, File> results = mResults.remove(surveyInstanceId);
+        if (results != null) {
+            for (Map.Entry<String, File> result : results.entrySet()) {
+                listener.onMediaProcessed(result.getKey(), result.getValue());
+            }
+            removeProcessedJobs(surveyInstanceId);
+        }
+    }
+
+    private void execute(final Context appContext, final Job job) {
+        mJobs.add(job.src);
+        getPending(job.surveyInstanceId).add(job.questionId);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final File src = new File(job.src);
+                final String suffix = src.getName().substring(src.getName().lastIndexOf("."));
+                final File file = processMedia(appContext, src, suffix, job.image,
+                        job.maxImgSize);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        getPending(job.surveyInstanceId).remove(job.questionId);
+                        onProcessed(job, file);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Deliver the result of the job. The job is forgotten once delivered, or updated with its
+     * result while it is held.
+     */
+    private void onProcessed(Job job, @Nullable File file) {
+        List<Job> jobs = loadJobs(null);
+        if (deliver(job.surveyInstanceId, job.questionId, file)) {
+            jobs.remove(job);
+        } else {
+            job.processed = true;
+            job.result = file != null ? file.getAbsolutePath() : null;
+            int index = jobs.indexOf(job);
+            if (index != -1) {
+                jobs.set(index, job);
+            }
+        }
+        saveJobs(jobs);
+    }
+
+    /**
+     * @return true if the result has been delivered, false if it is held
+     */
+    private boolean deliver(long surveyInstanceId, String questionId, @Nullable File file) {
+        Listener listener = mListeners.get(surveyInstanceId);
+        if (listener != null) {
+            listener.onMediaProcessed(questionId, file);
+            return true;
+        }
+        Map<String, File> results = mResults.get(surveyInstanceId);
+        if (results == null) {
+            results = new HashMap<>();
+            mResults.put(surveyInstanceId, results);
+        }
+        results.put(questionId, file);
+        return false;
+    }
+
+    @NonNull
+    private Set<String> getPending(long surveyInstanceId) {
+        Set<String> pending = mPending.get(surveyInstanceId);
+        if (pending == null) {
+            pending = new LinkedHashSet<>();
+            mPending.put(surveyInstanceId, pending);
+        }
+        return pending;
+    }
+
+    private void removeProcessedJobs(long surveyInstanceId) {
+        List<Job> jobs = loadJobs(null);
+        for (Iterator<Job> iterator = jobs.iterator(); iterator.hasNext(); ) {
+            Job job = iterator.next();
+            if (job.surveyInstanceId == surveyInstanceId && job.processed) {
+                iterator.remove();
+            }
+        }
+        saveJobs(jobs);
+    }
+
+    /**
+     * @param appContext needed the first time only, to open the preferences
+     * @return the persisted jobs, in capture order
+     */
+    @NonNull
+    private List<Job> loadJobs(@Nullable Context appContext) {
+        if (mPrefs == null && appContext != null) {
+            mPrefs = new Prefs(appContext);
+        }
+        List<Job> jobs = new ArrayList<>();
+        if (mPrefs == null) {
+            return jobs;
+        }
+        try {
+            JSONArray array = new JSONArray(mPrefs.getString(Prefs.KEY_MEDIA_JOBS, "[]"));
+            for (int i = 0; i < array.length(); i++) {
+                jobs.add(Job.fromJson(array.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            Timber.e(e, "Could not read media processing jobs");
+        }
+        return jobs;
+    }
+
+    private void saveJobs(List<Job> jobs) {
+        if (mPrefs == null) {
+            return;
+        }
+        if (jobs.isEmpty()) {
+            mPrefs.removePreference(Prefs.KEY_MEDIA_JOBS);
+            return;
+        }
+        try {
+            JSONArray array = new JSONArray();
+            for (Job job : jobs) {
+                array.put(job.toJson());
+            }
+            mPrefs.setString(Prefs.KEY_MEDIA_JOBS, array.toString());
+        } catch (JSONException e) {
+            Timber.e(e, "Could not save media processing jobs");
+        }
+    }
+
+    /**
+     * Runs in the worker thread
+     *
+     * @return the processed file, or null if it could not be processed
+     */
+    @Nullable
+    private static File processMedia(Context context, File src, String suffix, boolean image,
+            int maxImgSize) {
+        // Ensure no image is saved in the DCIM folder
+        FileUtil.cleanDCIM(context, src.getAbsolutePath());
+
+        final File mediaDir = FileUtil.getFilesDir(FileType.MEDIA);
+        File file = null;
+        if (image) {
+            ImageEncoder encoder = ImageEncoders.fromProperties(
+                    new PropertyUtil(context.getResources()));
+            File resized = new File(mediaDir, PlatformUtil.uuid() + encoder.getSuffix());
+            if (ImageUtil.resizeImage(src.getAbsolutePath(), resized.getAbsolutePath(),
+                    maxImgSize, encoder)) {
+                Timber.i("Image resized to: " + context.getResources()
+                        .getStringArray(R.array.max_image_size_pref)[maxImgSize]);
+                file = resized;
+                if (!src.delete()) { // must check return value to know if it failed
+                    Timber.e("Media file delete failed");
+                }
+            }
+        }
+        if (file == null) {
+            // Videos, and images that could not be resized, are kept as they are
+            file = new File(mediaDir, PlatformUtil.uuid() + suffix);
+            if (!src.renameTo(file)) {
+                // must check  return  value to  know if it  failed!
+                Timber.e("Media file resize failed");
+                return null;
+            }
+        }
+
+        // Photos are not added to the MediaFileStore: their location is written into the
+        // EXIF data once known, and stored files are shared by every identical capture
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * A captured file, identified by its source file. Processed jobs are kept until their
+     * result is delivered.
+     */
+    private static class Job {
+
+        final long surveyInstanceId;
+        final String questionId;
+        final String src;
+        final boolean image;
+        final int maxImgSize;
+        boolean processed;
+        String result;
+
+        Job(long surveyInstanceId, String questionId, String src, boolean image,
+                int maxImgSize) {
+            this.surveyInstanceId = surveyInstanceId;
+            this.questionId = questionId;
+            this.src = src;
+            this.image = image;
+            this.maxImgSize = maxImgSize;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("surveyInstanceId", surveyInstanceId);
+            json.put("questionId", questionId);
+            json.put("src", src);
+            json.put("image", image);
+            json.put("maxImgSize", maxImgSize);
+            json.put("processed", processed);
+            if (result != null) {
+                json.put("result", result);
+            }
+            return json;
+        }
+
+        static Job fromJson(JSONObject json) throws JSONException {
+            Job job = new Job(json.getLong("surveyInstanceId"), json.getString("questionId"),
+                    json.getString("src"), json.getBoolean("image"), json.getInt("maxImgSize"));
+            job.processed = json.optBoolean("processed");
+            job.result = json.has("result") ? json.getString("result") : null;
+            return job;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Job && src.equals(((Job) o).src);
+        }
+
+        @Override
+        public int hashCode() {
+            return src.hashCode();
+        }
+    }
+}
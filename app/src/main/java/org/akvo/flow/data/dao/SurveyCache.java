@@ -0,0 +1,90 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.data.dao;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+
+import org.akvo.flow.domain.Question;
+import org.akvo.flow.domain.QuestionGroup;
+import org.akvo.flow.domain.Survey;
+import org.akvo.flow.serialization.form.SurveySnapshot;
+
+/**
+ * Process-wide cache of the parsed forms, so that the services installing a form, the
+ * language detection and the form rendering share a single copy of it. Forms are keyed by
+ * id, and only returned if they were loaded from the same version and xml file, as described
+ * by their snapshot header.
+ *
+ * The cache is bounded by the number of questions and options held. Cached forms are shared,
+ * thus callers must not modify them.
+ */
+class SurveyCache {
+
+    private static final int MAX_SIZE = 5000;// Questions and options
+
+    private static final LruCache<String, Entry> CACHE = new LruCache<String, Entry>(MAX_SIZE) {
+        @Override
+        protected int sizeOf(String key, Entry entry) {
+            return entry.size;
+        }
+    };
+
+    private SurveyCache() {
+    }
+
+    @Nullable
+    static Survey get(@NonNull SurveySnapshot.Header header) {
+        if (header.formId == null) {
+            return null;
+        }
+        Entry entry = CACHE.get(header.formId);
+        return entry != null && entry.header.equals(header) ? entry.survey : null;
+    }
+
+    static void put(@NonNull SurveySnapshot.Header header, @NonNull Survey survey) {
+        if (header.formId == null) {
+            return;
+        }
+        CACHE.put(header.formId, new Entry(header, survey));
+    }
+
+    private static class Entry {
+        final SurveySnapshot.Header header;
+        final Survey survey;
+        final int size;
+
+        Entry(SurveySnapshot.Header header, Survey survey) {
+            this.header = header;
+            this.survey = survey;
+            int size = 1;
+            for (QuestionGroup group : survey.getQuestionGroups()) {
+                for (Question question : group.getQuestions()) {
+                    size++;
+                    if (question.getOptions() != null) {
+                        size += question.getOptions().size();
+                    }
+                }
+            }
+            this.size = size;
+        }
+    }
+}
@@ -19,13 +19,28 @@
 
 package org.akvo.flow.data.dao;
 
+import android.content.Context;
+import android.content.res.Resources;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import org.akvo.flow.domain.Survey;
 import org.akvo.flow.serialization.form.SaxSurveyParser;
+import org.akvo.flow.serialization.form.SurveySnapshot;
+import org.akvo.flow.util.ConstantUtil;
+import org.akvo.flow.util.FileUtil;
+import org.akvo.flow.util.FileUtil.FileType;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+
+import timber.log.Timber;
 
 /**
  * utility to read survey xml files from wherever they may reside
@@ -34,6 +49,9 @@ import java.io.InputStream;
  */
 public class SurveyDao {
 
+    private static final String COMPILED_DIR = "compiled";
+    private static final String COMPILED_SUFFIX = ".form";
+
     /**
      * loads a survey xml depending on the survey location type in the survey
      * object passed in. It will look at either the sd card or the resource
@@ -56,4 +74,127 @@ public class SurveyDao {
         }
         return survey;
     }
+
+    /**
+     * Load the survey from the apk resources or the forms folder, depending on its location
+     *
+     * @param survey the survey meta data, as stored in the database
+     */
+    public static Survey loadSurvey(@NonNull Context context, @NonNull Survey survey)
+            throws FileNotFoundException {
+        if (ConstantUtil.RESOURCE_LOCATION.equalsIgnoreCase(survey.getLocation())) {
+            Resources res = context.getResources();
+            InputStream in = res.openRawResource(res.getIdentifier(survey.getFileName(),
+                    ConstantUtil.RAW_RESOURCE, ConstantUtil.RESOURCE_PACKAGE));
+            try {
+                return loadSurvey(survey, in);
+            } finally {
+                FileUtil.close(in);
+            }
+        }
+        return loadSurvey(survey, new File(FileUtil.getFilesDir(FileType.FORMS),
+                survey.getFileName()));
+    }
+
+    /**
+     * Load the survey xml file, reusing the form already loaded by this process, or its
+     * compiled snapshot, when possible. The snapshot is built again whenever it is missing or
+     * stale, i.e. the form version or the xml file changed since it was written.
+     *
+     * The returned survey may be shared with other callers, and must not be modified.
+     *
+     * @param survey the survey meta data, as stored in the database
+     */
+    public static Survey loadSurvey(Survey survey, File file) throws FileNotFoundException {
+        if (survey == null) {
+            return null;
+        }
+        SurveySnapshot.Header header = getHeader(survey, file);
+        Survey cached = SurveyCache.get(header);
+        if (cached != null) {
+            return cached;
+        }
+
+        File compiled = getCompiledFile(survey.getId());
+        if (compiled.exists()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(compiled);
+                Survey snapshot = SurveySnapshot.read(in, header);
+                snapshot.setId(survey.getId());
+                SurveyCache.put(header, snapshot);
+                return snapshot;
+            } catch (IOException e) {
+                Timber.w("Compiled form " + compiled.getName() + " is stale: " + e.getMessage());
+            } finally {
+                FileUtil.close(in);
+            }
+        }
+
+        InputStream in = new FileInputStream(file);
+        Survey parsed;
+        try {
+            parsed = loadSurvey(survey, in);
+        } finally {
+            FileUtil.close(in);
+        }
+        if (parsed != null) {
+            compileSurvey(survey, file, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Write the compiled snapshot of a survey that has just been parsed, i.e. when it is
+     * installed, so that opening the form does not need to parse the xml file again. The
+     * parsed survey is cached too, and must not be modified afterwards.
+     *
+     * @param survey the survey meta data, as it will be stored in the database
+     * @param file the survey xml file
+     * @param parsed the survey parsed from the xml file
+     */
+    public static void compileSurvey(@NonNull Survey survey, @NonNull File file,
+            @NonNull Survey parsed) {
+        SurveySnapshot.Header header = getHeader(survey, file);
+        SurveyCache.put(header, parsed);
+
+        File compiled = getCompiledFile(survey.getId());
+        File dir = compiled.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            Timber.e("Could not create directory " + dir.getAbsolutePath());
+            return;
+        }
+
+        // Write to a temporary file first, so a half-written snapshot is never read
+        File tmp = new File(dir, compiled.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            SurveySnapshot.write(header, parsed, out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(compiled)) {
+                Timber.e("Could not save compiled form " + compiled.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            Timber.e(e, "Could not compile form " + survey.getId());
+        } finally {
+            FileUtil.close(out);
+            if (tmp.exists() && !tmp.delete()) {
+                Timber.e("Could not delete " + tmp.getAbsolutePath());
+            }
+        }
+    }
+
+    @NonNull
+    private static File getCompiledFile(@Nullable String surveyId) {
+        return new File(new File(FileUtil.getFilesDir(FileType.FORMS), COMPILED_DIR),
+                surveyId + COMPILED_SUFFIX);
+    }
+
+    @NonNull
+    private static SurveySnapshot.Header getHeader(@NonNull Survey survey, @NonNull File file) {
+        return new SurveySnapshot.Header(survey.getId(), survey.getVersion(), file.length(),
+                file.lastModified());
+    }
 }
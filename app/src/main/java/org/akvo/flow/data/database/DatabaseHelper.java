@@ -49,7 +49,16 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final int VER_FORM_VERSION = 81;
     private static final int VER_CADDISFLY_QN = 82;
     private static final int VER_PREFERENCES_MIGRATE = 83;
-    private static final int DATABASE_VERSION = VER_PREFERENCES_MIGRATE;
+    private static final int VER_MULTIPART_UPLOAD = 84;
+    private static final int VER_FILE_CHECKSUM = 85;
+    private static final int VER_TRANSMISSION_RETRY = 86;
+    private static final int VER_HTTP_VALIDATOR = 87;
+    private static final int VER_RESPONSE_UNIQUE = 88;
+    private static final int VER_INSTANCE_RECORD_IDX = 89;
+    private static final int VER_EXPORT_BUNDLE = 90;
+    private static final int VER_SIGNATURE_FILES = 91;
+    private static final int VER_FORM_MANIFEST = 92;
+    private static final int DATABASE_VERSION = VER_FORM_MANIFEST;
 
     /**
      * Default values for languages
@@ -90,6 +99,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + SurveyColumns.LANGUAGE + " TEXT,"
                 + SurveyColumns.HELP_DOWNLOADED + " INTEGER NOT NULL DEFAULT 0,"
                 + SurveyColumns.DELETED + " INTEGER NOT NULL DEFAULT 0,"
+                + SurveyColumns.MANIFEST + " TEXT,"
                 + "UNIQUE (" + SurveyColumns.SURVEY_ID + ") ON CONFLICT REPLACE)");
 
         db.execSQL("CREATE TABLE " + Tables.SURVEY_GROUP + " ("
@@ -144,6 +154,15 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + TransmissionColumns.STATUS + " INTEGER,"
                 + TransmissionColumns.START_DATE + " INTEGER,"
                 + TransmissionColumns.END_DATE + " INTEGER,"
+                + TransmissionColumns.UPLOAD_ID + " TEXT,"
+                + TransmissionColumns.UPLOAD_PARTS + " TEXT,"
+                + TransmissionColumns.CHECKSUM + " TEXT,"
+                + TransmissionColumns.FILE_SIZE + " INTEGER,"
+                + TransmissionColumns.FILE_MODIFIED + " INTEGER,"
+                + TransmissionColumns.ATTEMPTS + " INTEGER NOT NULL DEFAULT 0,"
+                + TransmissionColumns.LAST_ERROR + " TEXT,"
+                + TransmissionColumns.NEXT_ATTEMPT + " INTEGER NOT NULL DEFAULT 0,"
+                + TransmissionColumns.BUNDLE_INSTANCES + " TEXT,"
                 + "UNIQUE (" + TransmissionColumns.FILENAME + ") ON CONFLICT REPLACE)");
 
         db.execSQL("CREATE TABLE " + Tables.PREFERENCES + " ("
@@ -156,6 +175,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + SyncTimeColumns.TIME + " TEXT,"
                 + "UNIQUE (" + SyncTimeColumns.SURVEY_GROUP_ID + ") ON CONFLICT REPLACE)");
 
+        createHttpValidatorTable(db);
+
         createIndexes(db);
         for (int i = 0; i < DEFAULT_INSERTS.length; i++) {
             db.execSQL(DEFAULT_INSERTS[i]);
@@ -167,7 +188,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         Timber.d("Upgrading database from version " + oldVersion + " to " + newVersion);
 
         Context context = contextWeakReference.get();
-        if (oldVersion < DATABASE_VERSION && context != null) {
+        if (oldVersion < VER_PREFERENCES_MIGRATE && context != null) {
             migratePreferences(context, db);
         }
         // Apply database updates sequentially. It starts in the current
@@ -188,6 +209,54 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.execSQL("ALTER TABLE " + Tables.RESPONSE
                         + " ADD COLUMN " + ResponseColumns.FILENAME + " TEXT");
                 oldVersion = VER_CADDISFLY_QN;
+            case VER_CADDISFLY_QN:
+            case VER_PREFERENCES_MIGRATE:
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION
+                        + " ADD COLUMN " + TransmissionColumns.UPLOAD_ID + " TEXT");
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION
+                        + " ADD COLUMN " + TransmissionColumns.UPLOAD_PARTS + " TEXT");
+            case VER_MULTIPART_UPLOAD:
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION
+                        + " ADD COLUMN " + TransmissionColumns.CHECKSUM + " TEXT");
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION
+                        + " ADD COLUMN " + TransmissionColumns.FILE_SIZE + " INTEGER");
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION
+                        + " ADD COLUMN " + TransmissionColumns.FILE_MODIFIED + " INTEGER");
+            case VER_FILE_CHECKSUM:
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                        + TransmissionColumns.ATTEMPTS + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION
+                        + " ADD COLUMN " + TransmissionColumns.LAST_ERROR + " TEXT");
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                        + TransmissionColumns.NEXT_ATTEMPT + " INTEGER NOT NULL DEFAULT 0");
+            case VER_TRANSMISSION_RETRY:
+                createHttpValidatorTable(db);
+            case VER_HTTP_VALIDATOR:
+                // Enforcing uniqueness requires dropping duplicated responses. The newest copy
+                // of each one is kept, that is the one with the highest id: ids are
+                // AUTOINCREMENT, never reused. Older copies are stale values of previous syncs.
+                // The former response_idx, not unique, speeds up the lookup of the newest copy
+                db.execSQL("DELETE FROM " + Tables.RESPONSE + " WHERE " + ResponseColumns._ID
+                        + " < (SELECT MAX(newest." + ResponseColumns._ID + ") FROM "
+                        + Tables.RESPONSE + " newest WHERE newest."
+                        + ResponseColumns.SURVEY_INSTANCE_ID + " = " + Tables.RESPONSE + "."
+                        + ResponseColumns.SURVEY_INSTANCE_ID + " AND newest."
+                        + ResponseColumns.QUESTION_ID + " = " + Tables.RESPONSE + "."
+                        + ResponseColumns.QUESTION_ID + ")");
+                db.execSQL("DROP INDEX IF EXISTS response_idx");
+                createResponseIndex(db);
+            case VER_RESPONSE_UNIQUE:
+                createInstanceRecordIndex(db);
+            case VER_INSTANCE_RECORD_IDX:
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION
+                        + " ADD COLUMN " + TransmissionColumns.BUNDLE_INSTANCES + " TEXT");
+            case VER_EXPORT_BUNDLE:
+                // Inline signatures are moved into files by the next DataSyncService run.
+                // Until then, they are still exported as they are
+            case VER_SIGNATURE_FILES:
+                // Manifests are extracted when forms are next loaded
+                db.execSQL("ALTER TABLE " + Tables.SURVEY
+                        + " ADD COLUMN " + SurveyColumns.MANIFEST + " TEXT");
         }
 
         if (oldVersion < VER_CADDISFLY_QN) {
@@ -202,11 +271,20 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             db.execSQL("DROP TABLE IF EXISTS " + Tables.SURVEY_INSTANCE);
             db.execSQL("DROP TABLE IF EXISTS " + Tables.RECORD);
             db.execSQL("DROP TABLE IF EXISTS " + Tables.TRANSMISSION);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.HTTP_VALIDATOR);
 
             onCreate(db);
         }
     }
 
+    private void createHttpValidatorTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Tables.HTTP_VALIDATOR + " ("
+                + HttpValidatorColumns.ENDPOINT + " TEXT PRIMARY KEY,"
+                + HttpValidatorColumns.URL + " TEXT,"
+                + HttpValidatorColumns.ETAG + " TEXT,"
+                + HttpValidatorColumns.LAST_MODIFIED + " TEXT)");
+    }
+
     private void migratePreferences(Context context, SQLiteDatabase db) {
         PreferenceMapper mapper = new PreferenceMapper();
         Prefs prefs = new Prefs(context.getApplicationContext());
@@ -249,16 +327,27 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     private void createIndexes(SQLiteDatabase db) {
-        // Included in point updates
-        db.execSQL("CREATE INDEX response_idx ON " + Tables.RESPONSE + "("
-                + ResponseColumns.SURVEY_INSTANCE_ID + ", " + ResponseColumns.QUESTION_ID
-                + ")");
+        createResponseIndex(db);
         db.execSQL("CREATE INDEX record_name_idx ON " + Tables.RECORD
                 + "(" + RecordColumns.NAME + ")");
         db.execSQL("CREATE INDEX response_status_idx ON " + Tables.SURVEY_INSTANCE
                 + "(" + SurveyInstanceColumns.STATUS + ")");
         db.execSQL("CREATE INDEX response_modified_idx ON " + Tables.SURVEY_INSTANCE
                 + "(" + SurveyInstanceColumns.SUBMITTED_DATE + ")");
+        createInstanceRecordIndex(db);
+    }
+
+    private void createResponseIndex(SQLiteDatabase db) {
+        // Included in point updates. Being unique, it lets the sync upsert responses
+        db.execSQL("CREATE UNIQUE INDEX response_idx ON " + Tables.RESPONSE + "("
+                + ResponseColumns.SURVEY_INSTANCE_ID + ", " + ResponseColumns.QUESTION_ID
+                + ")");
+    }
+
+    private void createInstanceRecordIndex(SQLiteDatabase db) {
+        // Included in the cleanup of empty records
+        db.execSQL("CREATE INDEX survey_instance_record_idx ON " + Tables.SURVEY_INSTANCE
+                + "(" + SurveyInstanceColumns.RECORD_ID + ")");
     }
 
     /**
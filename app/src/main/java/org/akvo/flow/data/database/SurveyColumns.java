@@ -29,4 +29,5 @@ public class SurveyColumns {
     public static final String LANGUAGE = "language";
     public static final String HELP_DOWNLOADED = "help_downloaded_flag";
     public static final String DELETED = "deleted";
+    public static final String MANIFEST = "manifest";
 }
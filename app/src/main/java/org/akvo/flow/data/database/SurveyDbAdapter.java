@@ -27,28 +27,40 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import org.akvo.flow.R;
 import org.akvo.flow.data.preference.PreferenceHandler;
+import org.akvo.flow.domain.FileChecksum;
 import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.domain.FormManifest;
 import org.akvo.flow.domain.QuestionResponse;
 import org.akvo.flow.domain.Survey;
 import org.akvo.flow.domain.SurveyGroup;
 import org.akvo.flow.domain.SurveyInstance;
 import org.akvo.flow.domain.SurveyedLocale;
 import org.akvo.flow.domain.User;
+import org.akvo.flow.domain.response.value.Signature;
+import org.akvo.flow.serialization.form.FormManifestSerializer;
+import org.akvo.flow.serialization.response.value.SignatureValue;
 import org.akvo.flow.util.ConstantUtil;
+import org.akvo.flow.util.HttpValidator;
 import org.akvo.flow.util.PlatformUtil;
+import org.akvo.flow.util.SignatureStore;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import timber.log.Timber;
@@ -64,6 +76,13 @@ import static org.akvo.flow.data.database.SurveyInstanceStatus.SAVED;
  */
 public class SurveyDbAdapter {
 
+    /**
+     * Keys of the cache validators of the form downloads: the list of assigned forms, and
+     * the header of a single form (followed by its id)
+     */
+    public static final String ENDPOINT_SURVEY_LIST = "survey_list";
+    public static final String ENDPOINT_SURVEY_HEADER = "survey_header_";
+
     private static final String SURVEY_INSTANCE_JOIN_RESPONSE_USER = "survey_instance "
             + "LEFT OUTER JOIN response ON survey_instance._id=response.survey_instance_id "
             + "LEFT OUTER JOIN user ON survey_instance.user_id=user._id";
@@ -74,8 +93,41 @@ public class SurveyDbAdapter {
     public static final String SURVEY_JOIN_SURVEY_INSTANCE = "survey LEFT OUTER JOIN survey_instance ON "
             + "survey.survey_id=survey_instance.survey_id";
 
+    private static final String[] TRANSMISSION_PROJECTION = {
+            TransmissionColumns._ID, TransmissionColumns.SURVEY_INSTANCE_ID,
+            TransmissionColumns.SURVEY_ID, TransmissionColumns.STATUS,
+            TransmissionColumns.FILENAME, TransmissionColumns.START_DATE,
+            TransmissionColumns.END_DATE, TransmissionColumns.UPLOAD_ID,
+            TransmissionColumns.UPLOAD_PARTS, TransmissionColumns.CHECKSUM,
+            TransmissionColumns.FILE_SIZE, TransmissionColumns.FILE_MODIFIED,
+            TransmissionColumns.ATTEMPTS, TransmissionColumns.LAST_ERROR,
+            TransmissionColumns.NEXT_ATTEMPT, TransmissionColumns.BUNDLE_INSTANCES
+    };
+
+    /**
+     * Upload order of the transmissions: form data first, then images, then videos, so
+     * submissions reach the dashboard as soon as possible. Within each type, files of older
+     * survey instances go first, and smaller files before bigger ones.
+     */
+    private static final String TRANSMISSION_PRIORITY_ORDER = "CASE"
+            + " WHEN " + TransmissionColumns.FILENAME + " LIKE '%" + ConstantUtil.ARCHIVE_SUFFIX
+            + "' THEN 0"
+            + " WHEN " + TransmissionColumns.FILENAME + " LIKE '%" + ConstantUtil.JPG_SUFFIX
+            + "' OR " + TransmissionColumns.FILENAME + " LIKE '%" + ConstantUtil.PNG_SUFFIX
+            + "' OR " + TransmissionColumns.FILENAME + " LIKE '%" + ConstantUtil.WEBP_SUFFIX
+            + "' THEN 1"
+            + " WHEN " + TransmissionColumns.FILENAME + " LIKE '%" + ConstantUtil.VIDEO_SUFFIX
+            + "' THEN 2"
+            + " ELSE 3 END, "
+            + TransmissionColumns.SURVEY_INSTANCE_ID + ", "
+            + TransmissionColumns.FILE_SIZE + " IS NULL, " + TransmissionColumns.FILE_SIZE + ", "
+            + TransmissionColumns._ID;
+
     private static final int DOES_NOT_EXIST = -1;
 
+    // SQLite allows up to 999 arguments per statement
+    private static final int MAX_SQL_ARGS = 500;
+
     private DatabaseHelper databaseHelper;
     private SQLiteDatabase database;
 
@@ -111,7 +163,10 @@ public class SurveyDbAdapter {
 
     public Cursor getSurveyInstancesByStatus(int status) {
         return database.query(Tables.SURVEY_INSTANCE,
-                new String[] { SurveyInstanceColumns._ID, SurveyInstanceColumns.UUID },
+                new String[] {
+                        SurveyInstanceColumns._ID, SurveyInstanceColumns.UUID,
+                        SurveyInstanceColumns.SURVEY_ID
+                },
                 SurveyInstanceColumns.STATUS + " = ?",
                 new String[] { String.valueOf(status) },
                 null, null, null);
@@ -286,6 +341,49 @@ public class SurveyDbAdapter {
         return responses;
     }
 
+    /**
+     * Move the signature images stored inline, as Base64, into files. Only the survey
+     * instances created on this device are migrated, as downloaded ones are overwritten by
+     * the next sync. Signatures whose file cannot be written, i.e. storage not available,
+     * are left inline, as these are still supported.
+     *
+     * @return the number of signatures moved
+     */
+    public int moveSignaturesToFiles() {
+        Cursor cursor = database.query(Tables.RESPONSE,
+                new String[] { ResponseColumns._ID, ResponseColumns.ANSWER },
+                ResponseColumns.TYPE + " = ? AND " + ResponseColumns.SURVEY_INSTANCE_ID
+                        + " IN (SELECT " + SurveyInstanceColumns._ID + " FROM "
+                        + Tables.SURVEY_INSTANCE + " WHERE " + SurveyInstanceColumns.STATUS
+                        + " != ?)",
+                new String[] {
+                        ConstantUtil.SIGNATURE_RESPONSE_TYPE,
+                        String.valueOf(SurveyInstanceStatus.DOWNLOADED)
+                },
+                null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        int moved = 0;
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                Signature signature = SignatureValue.deserialize(cursor.getString(1));
+                if (TextUtils.isEmpty(signature.getImage())
+                        || !SignatureStore.moveToFile(signature)) {
+                    continue;
+                }
+                values.put(ResponseColumns.ANSWER, SignatureValue.serialize(signature));
+                database.update(Tables.RESPONSE, values, ResponseColumns._ID + " = ?",
+                        new String[] { String.valueOf(cursor.getLong(0)) });
+                moved++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return moved;
+    }
+
     /**
      * loads a single question response
      *
@@ -337,7 +435,9 @@ public class SurveyDbAdapter {
     public QuestionResponse createOrUpdateSurveyResponse(QuestionResponse resp) {
         QuestionResponse responseToSave = getResponse(
                 resp.getRespondentId(), resp.getQuestionId());
+        String previousFilename = null;
         if (responseToSave != null) {
+            previousFilename = responseToSave.getFilename();
             responseToSave.setValue(resp.getValue());
             responseToSave.setFilename(resp.getFilename());
             if (resp.getType() != null) {
@@ -366,6 +466,10 @@ public class SurveyDbAdapter {
         }
         responseToSave.setId(id);
         resp.setId(id);
+        if (previousFilename != null && !previousFilename.equals(resp.getFilename())) {
+            // The media file has been captured again
+            deleteStalePendingTransmissions(resp.getRespondentId());
+        }
         return responseToSave;
     }
 
@@ -483,6 +587,35 @@ public class SurveyDbAdapter {
         }
     }
 
+    /**
+     * Store the manifest of an installed survey
+     */
+    public void saveFormManifest(String surveyId, FormManifest manifest) {
+        ContentValues values = new ContentValues();
+        values.put(SurveyColumns.MANIFEST, FormManifestSerializer.serialize(manifest));
+        if (database.update(Tables.SURVEY, values, SurveyColumns.SURVEY_ID + " = ?",
+                new String[] { surveyId }) < 1) {
+            Timber.e("Could not save manifest of Survey " + surveyId);
+        }
+    }
+
+    /**
+     * @return the manifest of the survey, or null if it has not been extracted yet
+     */
+    @Nullable
+    public FormManifest getFormManifest(String surveyId) {
+        String manifest = null;
+        Cursor cursor = database.query(Tables.SURVEY, new String[] { SurveyColumns.MANIFEST },
+                SurveyColumns.SURVEY_ID + " = ?", new String[] { surveyId }, null, null, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                manifest = cursor.getString(0);
+            }
+            cursor.close();
+        }
+        return FormManifestSerializer.deserialize(manifest);
+    }
+
     /**
      * Gets a single survey from the db using its survey id
      */
@@ -549,6 +682,7 @@ public class SurveyDbAdapter {
     public void deleteAllSurveys() {
         database.delete(Tables.SURVEY, null, null);
         database.delete(Tables.SURVEY_GROUP, null, null);
+        clearHttpValidators();
     }
 
     /**
@@ -559,6 +693,7 @@ public class SurveyDbAdapter {
                 new String[] {
                         surveyInstanceId
                 });
+        deleteStalePendingTransmissions(Long.parseLong(surveyInstanceId));
     }
 
     /**
@@ -586,6 +721,7 @@ public class SurveyDbAdapter {
                 String.valueOf(surveyInstanceId),
                 questionId
         });
+        deleteStalePendingTransmissions(surveyInstanceId);
     }
 
     public void createTransmission(long surveyInstanceId, String formID, String filename) {
@@ -594,6 +730,18 @@ public class SurveyDbAdapter {
 
     public void createTransmission(long surveyInstanceId, String formID, String filename,
             int status) {
+        createTransmission(surveyInstanceId, formID, filename, status, null);
+    }
+
+    /**
+     * Create (or replace) the transmission of the given file. If no checksum is supplied,
+     * any checksum previously stored for the file, i.e. at capture time, is kept.
+     */
+    public void createTransmission(long surveyInstanceId, String formID, String filename,
+            int status, @Nullable FileChecksum checksum) {
+        if (checksum == null) {
+            checksum = getFileChecksum(filename);
+        }
         ContentValues values = new ContentValues();
         values.put(TransmissionColumns.SURVEY_INSTANCE_ID, surveyInstanceId);
         values.put(TransmissionColumns.SURVEY_ID, formID);
@@ -604,9 +752,216 @@ public class SurveyDbAdapter {
             values.put(TransmissionColumns.START_DATE, date);
             values.put(TransmissionColumns.END_DATE, date);
         }
+        if (checksum != null) {
+            putChecksum(values, checksum);
+        }
         database.insert(Tables.TRANSMISSION, null, values);
     }
 
+    /**
+     * Queue the transmission of a media file, unless it is synced already, or queued by
+     * another survey instance. Responses may share a file, i.e. prefilled from a previous
+     * survey instance, or stored by content in the MediaFileStore, and it only needs to be
+     * uploaded once. See hasUnsyncedMedia().
+     *
+     * @return true if the transmission has been queued
+     */
+    public boolean queueMediaTransmission(long surveyInstanceId, String formID,
+            String filename) {
+        Cursor cursor = database.query(Tables.TRANSMISSION,
+                new String[] {
+                        TransmissionColumns.STATUS, TransmissionColumns.SURVEY_INSTANCE_ID
+                },
+                TransmissionColumns.FILENAME + " = ?",
+                new String[] { filename },
+                null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    int status = cursor.getInt(0);
+                    long owner = cursor.getLong(1);
+                    if (status == TransmissionStatus.SYNCED || (status != TransmissionStatus.PENDING
+                            && owner != surveyInstanceId)) {
+                        return false;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        createTransmission(surveyInstanceId, formID, filename);
+        return true;
+    }
+
+    /**
+     * Get the exported survey instances pointing at the given media file. Only one of them
+     * owns its transmission, see queueMediaTransmission().
+     */
+    @NonNull
+    public Set<Long> getExportedSurveyInstances(@NonNull String filename) {
+        Cursor cursor = database.rawQuery("SELECT DISTINCT " + Tables.RESPONSE + "."
+                        + ResponseColumns.SURVEY_INSTANCE_ID + " FROM " + Tables.SURVEY_INSTANCE
+                        + " JOIN " + Tables.RESPONSE + " ON " + Tables.RESPONSE + "."
+                        + ResponseColumns.SURVEY_INSTANCE_ID + " = " + Tables.SURVEY_INSTANCE
+                        + "." + SurveyInstanceColumns._ID + " WHERE " + Tables.SURVEY_INSTANCE
+                        + "." + SurveyInstanceColumns.STATUS + " = ? AND " + Tables.RESPONSE
+                        + "." + ResponseColumns.FILENAME + " = ?",
+                new String[] { String.valueOf(SurveyInstanceStatus.EXPORTED), filename });
+        Set<Long> surveyInstanceIds = new HashSet<>();
+        while (cursor.moveToNext()) {
+            surveyInstanceIds.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return surveyInstanceIds;
+    }
+
+    /**
+     * @return true if any media file of the survey instance has not been synced yet,
+     * including the files whose transmission is owned by another survey instance
+     */
+    public boolean hasUnsyncedMedia(long surveyInstanceId) {
+        Cursor cursor = database.rawQuery("SELECT 1 FROM " + Tables.RESPONSE + " JOIN "
+                        + Tables.TRANSMISSION + " ON " + Tables.TRANSMISSION + "."
+                        + TransmissionColumns.FILENAME + " = " + Tables.RESPONSE + "."
+                        + ResponseColumns.FILENAME + " WHERE " + Tables.RESPONSE + "."
+                        + ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND " + Tables.TRANSMISSION
+                        + "." + TransmissionColumns.STATUS + " != ? LIMIT 1",
+                new String[] {
+                        String.valueOf(surveyInstanceId), String.valueOf(TransmissionStatus.SYNCED)
+                });
+        boolean unsynced = cursor.moveToFirst();
+        cursor.close();
+        return unsynced;
+    }
+
+    /**
+     * Create the transmission of an export bundle, recording the survey instances packed in
+     * it. The first one is used as the respondent of the transmission.
+     */
+    public void createBundleTransmission(@NonNull long[] surveyInstanceIds, String formID,
+            String filename, @NonNull FileChecksum checksum) {
+        ContentValues values = new ContentValues();
+        values.put(TransmissionColumns.SURVEY_INSTANCE_ID, surveyInstanceIds[0]);
+        values.put(TransmissionColumns.SURVEY_ID, formID);
+        values.put(TransmissionColumns.FILENAME, filename);
+        values.put(TransmissionColumns.STATUS, TransmissionStatus.QUEUED);
+        values.put(TransmissionColumns.BUNDLE_INSTANCES, joinIds(surveyInstanceIds));
+        putChecksum(values, checksum);
+        database.insert(Tables.TRANSMISSION, null, values);
+    }
+
+    /**
+     * Get the export bundle files of the given survey instances
+     *
+     * @return the bundle filename, keyed by survey instance id. Instances exported on their
+     * own are not included.
+     */
+    @NonNull
+    public Map<Long, String> getBundleFilenames(@NonNull Collection<Long> surveyInstanceIds) {
+        Map<Long, String> filenames = new HashMap<>();
+        if (surveyInstanceIds.isEmpty()) {
+            return filenames;
+        }
+        Cursor cursor = database.query(Tables.TRANSMISSION,
+                new String[] {
+                        TransmissionColumns.FILENAME, TransmissionColumns.BUNDLE_INSTANCES
+                },
+                TransmissionColumns.BUNDLE_INSTANCES + " IS NOT NULL",
+                null, null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                for (long id : parseIds(cursor.getString(1))) {
+                    if (surveyInstanceIds.contains(id)) {
+                        filenames.put(id, cursor.getString(0));
+                    }
+                }
+            }
+            cursor.close();
+        }
+        return filenames;
+    }
+
+    /**
+     * Delete the transmission of the given file, i.e. an export bundle that has been lost
+     */
+    public void deleteTransmission(String filename) {
+        database.delete(Tables.TRANSMISSION, TransmissionColumns.FILENAME + " = ?",
+                new String[] { filename });
+    }
+
+    /**
+     * Store the checksum of a captured media file. Until the form is submitted and the
+     * file exported, the checksum is held by a PENDING transmission, which is replaced
+     * by the actual transmission on export.
+     */
+    public void saveFileChecksum(long surveyInstanceId, String formID, String filename,
+            @NonNull FileChecksum checksum) {
+        if (updateTransmissionChecksum(filename, checksum) == 0) {
+            ContentValues values = new ContentValues();
+            values.put(TransmissionColumns.SURVEY_INSTANCE_ID, surveyInstanceId);
+            values.put(TransmissionColumns.SURVEY_ID, formID);
+            values.put(TransmissionColumns.FILENAME, filename);
+            values.put(TransmissionColumns.STATUS, TransmissionStatus.PENDING);
+            putChecksum(values, checksum);
+            database.insert(Tables.TRANSMISSION, null, values);
+        }
+    }
+
+    /**
+     * Delete the PENDING transmissions of the survey instance whose file is no longer held
+     * by any of its responses, i.e. the media was captured again, or the response cleared
+     */
+    public void deleteStalePendingTransmissions(long surveyInstanceId) {
+        final String id = String.valueOf(surveyInstanceId);
+        database.delete(Tables.TRANSMISSION,
+                TransmissionColumns.SURVEY_INSTANCE_ID + " = ? AND "
+                        + TransmissionColumns.STATUS + " = ? AND "
+                        + TransmissionColumns.FILENAME + " NOT IN (SELECT "
+                        + ResponseColumns.FILENAME + " FROM " + Tables.RESPONSE + " WHERE "
+                        + ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
+                        + ResponseColumns.FILENAME + " IS NOT NULL)",
+                new String[] { id, String.valueOf(TransmissionStatus.PENDING), id });
+    }
+
+    /**
+     * @return the number of rows affected
+     */
+    public int updateTransmissionChecksum(String filename, @NonNull FileChecksum checksum) {
+        ContentValues values = new ContentValues();
+        putChecksum(values, checksum);
+        return database.update(Tables.TRANSMISSION, values,
+                TransmissionColumns.FILENAME + " = ?",
+                new String[] { filename });
+    }
+
+    @Nullable
+    private FileChecksum getFileChecksum(String filename) {
+        FileChecksum checksum = null;
+        Cursor cursor = database.query(Tables.TRANSMISSION,
+                new String[] {
+                        TransmissionColumns.CHECKSUM, TransmissionColumns.FILE_SIZE,
+                        TransmissionColumns.FILE_MODIFIED
+                },
+                TransmissionColumns.FILENAME + " = ? AND "
+                        + TransmissionColumns.CHECKSUM + " IS NOT NULL",
+                new String[] { filename },
+                null, null, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                checksum = new FileChecksum(cursor.getString(0), cursor.getLong(1),
+                        cursor.getLong(2));
+            }
+            cursor.close();
+        }
+        return checksum;
+    }
+
+    private void putChecksum(ContentValues values, @NonNull FileChecksum checksum) {
+        values.put(TransmissionColumns.CHECKSUM, checksum.getMd5());
+        values.put(TransmissionColumns.FILE_SIZE, checksum.getSize());
+        values.put(TransmissionColumns.FILE_MODIFIED, checksum.getModified());
+    }
+
     /**
      * Updates the matching transmission history records with the status
      * passed in. If the status == Completed, the completion date is updated. If
@@ -622,6 +977,12 @@ public class SurveyDbAdapter {
         vals.put(TransmissionColumns.STATUS, status);
         if (TransmissionStatus.SYNCED == status) {
             vals.put(TransmissionColumns.END_DATE, System.currentTimeMillis() + "");
+            // Multipart upload state is meaningless once the object is complete
+            vals.putNull(TransmissionColumns.UPLOAD_ID);
+            vals.putNull(TransmissionColumns.UPLOAD_PARTS);
+            vals.put(TransmissionColumns.ATTEMPTS, 0);
+            vals.putNull(TransmissionColumns.LAST_ERROR);
+            vals.put(TransmissionColumns.NEXT_ATTEMPT, 0);
         } else if (TransmissionStatus.IN_PROGRESS == status) {
             vals.put(TransmissionColumns.START_DATE, System.currentTimeMillis() + "");
         }
@@ -631,6 +992,33 @@ public class SurveyDbAdapter {
                 new String[] { fileName });
     }
 
+    /**
+     * Persist the progress of a multipart upload, so it can be resumed in a later sync.
+     * A null uploadId clears any previous progress.
+     */
+    public void updateTransmissionUpload(String fileName, String uploadId, String parts) {
+        ContentValues vals = new ContentValues();
+        vals.put(TransmissionColumns.UPLOAD_ID, uploadId);
+        vals.put(TransmissionColumns.UPLOAD_PARTS, uploadId != null ? parts : null);
+        database.update(Tables.TRANSMISSION, vals,
+                TransmissionColumns.FILENAME + " = ?",
+                new String[] { fileName });
+    }
+
+    /**
+     * Record a failed attempt, so the transmission is not retried before nextAttempt
+     */
+    public void updateTransmissionRetry(String fileName, int attempts, String lastError,
+            long nextAttempt) {
+        ContentValues vals = new ContentValues();
+        vals.put(TransmissionColumns.ATTEMPTS, attempts);
+        vals.put(TransmissionColumns.LAST_ERROR, lastError);
+        vals.put(TransmissionColumns.NEXT_ATTEMPT, nextAttempt);
+        database.update(Tables.TRANSMISSION, vals,
+                TransmissionColumns.FILENAME + " = ?",
+                new String[] { fileName });
+    }
+
     private List<FileTransmission> getFileTransmissions(Cursor cursor) {
         List<FileTransmission> transmissions = new ArrayList<>();
 
@@ -644,6 +1032,19 @@ public class SurveyDbAdapter {
                         .getColumnIndexOrThrow(TransmissionColumns.SURVEY_INSTANCE_ID);
                 final int fileCol = cursor.getColumnIndexOrThrow(TransmissionColumns.FILENAME);
                 final int statusCol = cursor.getColumnIndexOrThrow(TransmissionColumns.STATUS);
+                final int uploadIdCol = cursor.getColumnIndexOrThrow(TransmissionColumns.UPLOAD_ID);
+                final int uploadPartsCol = cursor
+                        .getColumnIndexOrThrow(TransmissionColumns.UPLOAD_PARTS);
+                final int checksumCol = cursor.getColumnIndexOrThrow(TransmissionColumns.CHECKSUM);
+                final int sizeCol = cursor.getColumnIndexOrThrow(TransmissionColumns.FILE_SIZE);
+                final int modifiedCol = cursor
+                        .getColumnIndexOrThrow(TransmissionColumns.FILE_MODIFIED);
+                final int attemptsCol = cursor.getColumnIndexOrThrow(TransmissionColumns.ATTEMPTS);
+                final int errorCol = cursor.getColumnIndexOrThrow(TransmissionColumns.LAST_ERROR);
+                final int nextAttemptCol = cursor
+                        .getColumnIndexOrThrow(TransmissionColumns.NEXT_ATTEMPT);
+                final int bundleCol = cursor
+                        .getColumnIndexOrThrow(TransmissionColumns.BUNDLE_INSTANCES);
 
                 transmissions = new ArrayList<>();
                 do {
@@ -653,6 +1054,18 @@ public class SurveyDbAdapter {
                     trans.setRespondentId(cursor.getLong(surveyInstanceCol));
                     trans.setFileName(cursor.getString(fileCol));
                     trans.setStatus(cursor.getInt(statusCol));
+                    trans.setUploadId(cursor.getString(uploadIdCol));
+                    trans.setUploadParts(cursor.getString(uploadPartsCol));
+                    if (!cursor.isNull(checksumCol)) {
+                        trans.setChecksum(new FileChecksum(cursor.getString(checksumCol),
+                                cursor.getLong(sizeCol), cursor.getLong(modifiedCol)));
+                    }
+                    trans.setAttempts(cursor.getInt(attemptsCol));
+                    trans.setLastError(cursor.getString(errorCol));
+                    trans.setNextAttempt(cursor.getLong(nextAttemptCol));
+                    if (!cursor.isNull(bundleCol)) {
+                        trans.setBundleInstances(parseIds(cursor.getString(bundleCol)));
+                    }
 
                     // Start and End date. Handle null cases
                     if (!cursor.isNull(startCol)) {
@@ -671,38 +1084,41 @@ public class SurveyDbAdapter {
         return transmissions;
     }
 
+    /**
+     * Get the transmissions of the survey instance, including the export bundle it was
+     * packed in, if any
+     */
     public List<FileTransmission> getFileTransmissions(long surveyInstanceId) {
         Cursor cursor = database.query(Tables.TRANSMISSION,
+                TRANSMISSION_PROJECTION,
+                "(" + TransmissionColumns.SURVEY_INSTANCE_ID + " = ? OR ',' || "
+                        + TransmissionColumns.BUNDLE_INSTANCES + " || ',' LIKE ?) AND "
+                        + TransmissionColumns.STATUS + " <> ?",
                 new String[] {
-                        TransmissionColumns._ID, TransmissionColumns.SURVEY_INSTANCE_ID,
-                        TransmissionColumns.SURVEY_ID, TransmissionColumns.STATUS,
-                        TransmissionColumns.FILENAME, TransmissionColumns.START_DATE,
-                        TransmissionColumns.END_DATE
+                        String.valueOf(surveyInstanceId),
+                        "%," + surveyInstanceId + ",%",
+                        String.valueOf(TransmissionStatus.PENDING)
                 },
-                TransmissionColumns.SURVEY_INSTANCE_ID + " = ?",
-                new String[] { String.valueOf(surveyInstanceId) },
                 null, null, null);
 
         return getFileTransmissions(cursor);
     }
 
     /**
-     * Get the list of queued and failed transmissions
+     * Get the list of queued and failed transmissions that are due, i.e. whose retry
+     * delay, if any, has expired, sorted by upload priority
      */
     public List<FileTransmission> getUnsyncedTransmissions() {
         Cursor cursor = database.query(Tables.TRANSMISSION,
-                new String[] {
-                        TransmissionColumns._ID, TransmissionColumns.SURVEY_INSTANCE_ID,
-                        TransmissionColumns.SURVEY_ID, TransmissionColumns.STATUS,
-                        TransmissionColumns.FILENAME, TransmissionColumns.START_DATE,
-                        TransmissionColumns.END_DATE
-                },
-                TransmissionColumns.STATUS + " IN (?, ?, ?)",
+                TRANSMISSION_PROJECTION,
+                TransmissionColumns.STATUS + " IN (?, ?, ?) AND "
+                        + TransmissionColumns.NEXT_ATTEMPT + " <= ?",
                 new String[] {
                         String.valueOf(TransmissionStatus.FAILED),
                         String.valueOf(TransmissionStatus.IN_PROGRESS),// Stalled IN_PROGRESS files
-                        String.valueOf(TransmissionStatus.QUEUED)
-                }, null, null, null);
+                        String.valueOf(TransmissionStatus.QUEUED),
+                        String.valueOf(System.currentTimeMillis())
+                }, null, null, TRANSMISSION_PRIORITY_ORDER);
 
         return getFileTransmissions(cursor);
     }
@@ -745,6 +1161,7 @@ public class SurveyDbAdapter {
         executeSql("DELETE FROM " + Tables.SURVEY);
         executeSql("DELETE FROM " + Tables.SURVEY_GROUP);
         executeSql("DELETE FROM " + Tables.USER);
+        executeSql("DELETE FROM " + Tables.HTTP_VALIDATOR);
     }
 
     /**
@@ -782,6 +1199,28 @@ public class SurveyDbAdapter {
         return set;
     }
 
+    @NonNull
+    private static String joinIds(@NonNull long[] ids) {
+        StringBuilder builder = new StringBuilder();
+        for (long id : ids) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(id);
+        }
+        return builder.toString();
+    }
+
+    @NonNull
+    private static long[] parseIds(@NonNull String ids) {
+        String[] tokens = ids.split(",");
+        long[] values = new long[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            values[i] = Long.parseLong(tokens[i]);
+        }
+        return values;
+    }
+
     private String setToString(HashSet<String> set) {
         boolean isFirst = true;
         StringBuilder buffer = new StringBuilder();
@@ -1026,6 +1465,8 @@ public class SurveyDbAdapter {
     }
 
     public void deleteSurveyGroup(long surveyGroupId) {
+        clearSurveyHttpValidators(SurveyColumns.SURVEY_GROUP_ID + " = ?",
+                String.valueOf(surveyGroupId));
         // First the group
         database.delete(Tables.SURVEY_GROUP, SurveyGroupColumns.SURVEY_GROUP_ID + " = ? ",
                 new String[] { String.valueOf(surveyGroupId) });
@@ -1040,6 +1481,7 @@ public class SurveyDbAdapter {
      * @param surveyId
      */
     public void deleteSurvey(String surveyId) {
+        clearSurveyHttpValidators(SurveyColumns.SURVEY_ID + " = ?", surveyId);
         ContentValues updatedValues = new ContentValues();
         updatedValues.put(SurveyColumns.DELETED, 1);
         database.update(Tables.SURVEY, updatedValues, SurveyColumns.SURVEY_ID + " = ?",
@@ -1255,105 +1697,44 @@ public class SurveyDbAdapter {
     // =========== SurveyedLocales synchronization =========== //
     // ======================================================= //
 
-    private void syncResponses(List<QuestionResponse> responses, long surveyInstanceId) {
-        for (QuestionResponse response : responses) {
-            Cursor cursor = database.query(Tables.RESPONSE,
-                    new String[] { ResponseColumns.SURVEY_INSTANCE_ID, ResponseColumns.QUESTION_ID
-                    },
-                    ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
-                            + ResponseColumns.QUESTION_ID + " = ?",
-                    new String[] { String.valueOf(surveyInstanceId), response.getQuestionId() },
-                    null, null, null);
-
-            boolean exists = cursor.getCount() > 0;
-            cursor.close();
-
-            ContentValues values = new ContentValues();
-            values.put(ResponseColumns.ANSWER, response.getValue());
-            values.put(ResponseColumns.TYPE, response.getType());
-            values.put(ResponseColumns.QUESTION_ID, response.getQuestionId());
-            values.put(ResponseColumns.INCLUDE, response.getIncludeFlag());
-            values.put(ResponseColumns.SURVEY_INSTANCE_ID, surveyInstanceId);
-
-            if (exists) {
-                database.update(Tables.RESPONSE, values,
-                        ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
-                                + ResponseColumns.QUESTION_ID + " = ?",
-                        new String[] { String.valueOf(surveyInstanceId), response.getQuestionId()
-                        });
-            } else {
-                database.insert(Tables.RESPONSE, null, values);
-            }
-        }
-    }
-
-    private void syncSurveyInstances(List<SurveyInstance> surveyInstances,
-            String surveyedLocaleId) {
-        for (SurveyInstance surveyInstance : surveyInstances) {
-            Cursor cursor = database.query(Tables.SURVEY_INSTANCE, new String[] {
-                            SurveyInstanceColumns._ID, SurveyInstanceColumns.UUID
-                    },
-                    SurveyInstanceColumns.UUID + " = ?",
-                    new String[] { surveyInstance.getUuid() },
-                    null, null, null);
-
-            long id = DOES_NOT_EXIST;
-            if (cursor.moveToFirst()) {
-                id = cursor.getLong(0);
-            }
-            cursor.close();
-
-            ContentValues values = new ContentValues();
-            values.put(SurveyInstanceColumns.SURVEY_ID, surveyInstance.getSurveyId());
-            values.put(SurveyInstanceColumns.SUBMITTED_DATE, surveyInstance.getDate());
-            values.put(SurveyInstanceColumns.RECORD_ID, surveyedLocaleId);
-            values.put(SurveyInstanceColumns.STATUS, SurveyInstanceStatus.DOWNLOADED);
-            values.put(SurveyInstanceColumns.SYNC_DATE, System.currentTimeMillis());
-            values.put(SurveyInstanceColumns.SUBMITTER, surveyInstance.getSubmitter());
-
-            if (id != DOES_NOT_EXIST) {
-                database.update(Tables.SURVEY_INSTANCE, values, SurveyInstanceColumns.UUID
-                        + " = ?", new String[] { surveyInstance.getUuid() });
-            } else {
-                values.put(SurveyInstanceColumns.UUID, surveyInstance.getUuid());
-                id = database.insert(Tables.SURVEY_INSTANCE, null, values);
-            }
-
-            // Now the responses...
-            syncResponses(surveyInstance.getResponses(), id);
-
-            // The filename is a unique column in the transmission table, and as we do not have
-            // a file to hold this data, we set the value to the instance UUID
-            createTransmission(id, surveyInstance.getSurveyId(), surveyInstance.getUuid(),
-                    TransmissionStatus.SYNCED);
+    /**
+     * Store a page of SurveyedLocales, along with their survey instances and responses, in a
+     * single transaction. The sync time is set to the last modification date of the last
+     * SurveyedLocale, thus it is committed along with the data it refers to. Any of these
+     * Records left empty, i.e. corrupted data points, is deleted.
+     */
+    public void syncSurveyedLocales(@NonNull List<SurveyedLocale> surveyedLocales) {
+        if (surveyedLocales.isEmpty()) {
+            return;
         }
-    }
-
-    public void syncSurveyedLocale(SurveyedLocale surveyedLocale) {
-        final String id = surveyedLocale.getId();
+        final long t0 = System.currentTimeMillis();
+        SyncStatements statements = null;
         try {
             database.beginTransaction();
+            statements = new SyncStatements(database);
 
-            ContentValues values = new ContentValues();
-            values.put(RecordColumns.RECORD_ID, id);
-            values.put(RecordColumns.SURVEY_GROUP_ID, surveyedLocale.getSurveyGroupId());
-            values.put(RecordColumns.NAME, surveyedLocale.getName());
-            values.put(RecordColumns.LATITUDE, surveyedLocale.getLatitude());
-            values.put(RecordColumns.LONGITUDE, surveyedLocale.getLongitude());
-            database.insert(Tables.RECORD, null, values);
-
-            syncSurveyInstances(surveyedLocale.getSurveyInstances(), id);
+            Set<String> recordIds = new HashSet<>();
+            for (SurveyedLocale surveyedLocale : surveyedLocales) {
+                statements.syncSurveyedLocale(surveyedLocale);
+                recordIds.add(surveyedLocale.getId());
+            }
 
-            // Update the record last modification date, if necessary
-            updateRecordModifiedDate(id, surveyedLocale.getLastModified());
+            // Delete empty or corrupted data received from server
+            deleteEmptySurveyInstances(recordIds);
+            deleteEmptyRecords(recordIds);
 
-            String syncTime = String.valueOf(surveyedLocale.getLastModified());
-            setSyncTime(surveyedLocale.getSurveyGroupId(), syncTime);
+            SurveyedLocale last = surveyedLocales.get(surveyedLocales.size() - 1);
+            setSyncTime(last.getSurveyGroupId(), String.valueOf(last.getLastModified()));
 
             database.setTransactionSuccessful();
         } finally {
+            if (statements != null) {
+                statements.close();
+            }
             database.endTransaction();
         }
+        Timber.d("Synced " + surveyedLocales.size() + " SurveyedLocales in "
+                + (System.currentTimeMillis() - t0) + " ms");
     }
 
     /**
@@ -1390,6 +1771,63 @@ public class SurveyDbAdapter {
         database.insert(Tables.SYNC_TIME, null, values);
     }
 
+    /**
+     * @param endpoint key identifying the request
+     * @return the cache validators of the last response processed, or an empty validator
+     */
+    @NonNull
+    public HttpValidator getHttpValidator(@NonNull String endpoint) {
+        Cursor cursor = database.query(Tables.HTTP_VALIDATOR,
+                new String[] {
+                        HttpValidatorColumns.URL, HttpValidatorColumns.ETAG,
+                        HttpValidatorColumns.LAST_MODIFIED
+                },
+                HttpValidatorColumns.ENDPOINT + " = ?",
+                new String[] { endpoint },
+                null, null, null);
+
+        HttpValidator validator = new HttpValidator();
+        if (cursor.moveToFirst()) {
+            validator = new HttpValidator(cursor.getString(0), cursor.getString(1),
+                    cursor.getString(2));
+        }
+        cursor.close();
+        return validator;
+    }
+
+    /**
+     * Save the cache validators of a response. Only do so once the response has been
+     * successfully processed, a 304 response will skip it from now on.
+     */
+    public void saveHttpValidator(@NonNull String endpoint, @NonNull HttpValidator validator) {
+        ContentValues values = new ContentValues();
+        values.put(HttpValidatorColumns.ENDPOINT, endpoint);
+        values.put(HttpValidatorColumns.URL, validator.getUrl());
+        values.put(HttpValidatorColumns.ETAG, validator.getEtag());
+        values.put(HttpValidatorColumns.LAST_MODIFIED, validator.getLastModified());
+        database.replace(Tables.HTTP_VALIDATOR, null, values);
+    }
+
+    /**
+     * Forget all cache validators, so the next requests download the full responses
+     */
+    public void clearHttpValidators() {
+        database.delete(Tables.HTTP_VALIDATOR, null, null);
+    }
+
+    /**
+     * Forget the cache validators of the survey list and of the headers of the selected
+     * surveys. Otherwise the next sync would get a 304 response, and the deleted surveys
+     * would never be downloaded again. Call it before the surveys are deleted.
+     */
+    private void clearSurveyHttpValidators(String surveySelection, String surveyArg) {
+        database.delete(Tables.HTTP_VALIDATOR,
+                HttpValidatorColumns.ENDPOINT + " = ? OR " + HttpValidatorColumns.ENDPOINT
+                        + " IN (SELECT ? || " + SurveyColumns.SURVEY_ID + " FROM "
+                        + Tables.SURVEY + " WHERE " + surveySelection + ")",
+                new String[] { ENDPOINT_SURVEY_LIST, ENDPOINT_SURVEY_HEADER, surveyArg });
+    }
+
     /**
      * Delete any SurveyInstance that contains no response.
      */
@@ -1410,6 +1848,48 @@ public class SurveyDbAdapter {
                 + " FROM " + Tables.SURVEY_INSTANCE + ")");
     }
 
+    /**
+     * Delete the SurveyInstances of the given Records that contain no response. Unlike
+     * deleteEmptySurveyInstances(), which scans the whole table, the cost only depends on the
+     * number of Records, so it can run after each synced page.
+     */
+    public void deleteEmptySurveyInstances(@NonNull Collection<String> recordIds) {
+        deleteByRecordIds("DELETE FROM " + Tables.SURVEY_INSTANCE
+                + " WHERE " + SurveyInstanceColumns.RECORD_ID + " IN (", ") AND NOT EXISTS "
+                + "(SELECT 1 FROM " + Tables.RESPONSE + " WHERE " + Tables.RESPONSE + "."
+                + ResponseColumns.SURVEY_INSTANCE_ID + " = " + Tables.SURVEY_INSTANCE + "."
+                + SurveyInstanceColumns._ID + ")", recordIds);
+    }
+
+    /**
+     * Delete those of the given Records that contain no SurveyInstance. Unlike
+     * deleteEmptyRecords(), which scans the whole table, the cost only depends on the
+     * number of Records, so it can run after each synced page.
+     */
+    public void deleteEmptyRecords(@NonNull Collection<String> recordIds) {
+        deleteByRecordIds("DELETE FROM " + Tables.RECORD
+                + " WHERE " + RecordColumns.RECORD_ID + " IN (", ") AND NOT EXISTS "
+                + "(SELECT 1 FROM " + Tables.SURVEY_INSTANCE + " WHERE " + Tables.SURVEY_INSTANCE
+                + "." + SurveyInstanceColumns.RECORD_ID + " = " + Tables.RECORD + "."
+                + RecordColumns.RECORD_ID + ")", recordIds);
+    }
+
+    /**
+     * Run the statement for the given Records, in batches, as the number of SQL arguments
+     * is limited. The placeholders are inserted between the given prefix and suffix.
+     */
+    private void deleteByRecordIds(String prefix, String suffix, Collection<String> recordIds) {
+        List<String> ids = new ArrayList<>(recordIds);
+        for (int start = 0; start < ids.size(); start += MAX_SQL_ARGS) {
+            List<String> batch = ids.subList(start, Math.min(start + MAX_SQL_ARGS, ids.size()));
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < batch.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ", ?");
+            }
+            database.execSQL(prefix + placeholders + suffix, batch.toArray());
+        }
+    }
+
     /**
      * Query the given table, returning a Cursor over the result set.
      */
@@ -1471,4 +1951,172 @@ public class SurveyDbAdapter {
         int SUBMITTER = 12;
     }
 
+    /**
+     * Precompiled statements for the SurveyedLocales sync. Rows are upserted without looking
+     * them up first: the INSERT OR IGNORE statements rely on the unique indexes to skip the
+     * rows that already exist, which are then updated. Every insert and its update take the
+     * same arguments, in the same order.
+     */
+    private static class SyncStatements {
+
+        // Returned by executeInsert() if the row already exists
+        private static final long IGNORED = -1;
+
+        private final SQLiteStatement insertRecord;
+        private final SQLiteStatement updateRecord;
+        private final SQLiteStatement insertSurveyInstance;
+        private final SQLiteStatement updateSurveyInstance;
+        private final SQLiteStatement querySurveyInstanceId;
+        private final SQLiteStatement insertResponse;
+        private final SQLiteStatement updateResponse;
+        private final SQLiteStatement insertTransmission;
+
+        SyncStatements(SQLiteDatabase database) {
+            insertRecord = database.compileStatement("INSERT OR IGNORE INTO " + Tables.RECORD
+                    + " (" + RecordColumns.SURVEY_GROUP_ID + ", " + RecordColumns.NAME + ", "
+                    + RecordColumns.LATITUDE + ", " + RecordColumns.LONGITUDE + ", "
+                    + RecordColumns.LAST_MODIFIED + ", " + RecordColumns.RECORD_ID
+                    + ") VALUES (?, ?, ?, ?, ?, ?)");
+            updateRecord = database.compileStatement("UPDATE " + Tables.RECORD + " SET "
+                    + RecordColumns.SURVEY_GROUP_ID + " = ?, " + RecordColumns.NAME + " = ?, "
+                    + RecordColumns.LATITUDE + " = ?, " + RecordColumns.LONGITUDE + " = ?, "
+                    + RecordColumns.LAST_MODIFIED + " = MAX(" + RecordColumns.LAST_MODIFIED
+                    + ", ?) WHERE " + RecordColumns.RECORD_ID + " = ?");
+            insertSurveyInstance = database.compileStatement("INSERT OR IGNORE INTO "
+                    + Tables.SURVEY_INSTANCE + " (" + SurveyInstanceColumns.SURVEY_ID + ", "
+                    + SurveyInstanceColumns.SUBMITTED_DATE + ", "
+                    + SurveyInstanceColumns.RECORD_ID + ", " + SurveyInstanceColumns.STATUS + ", "
+                    + SurveyInstanceColumns.SYNC_DATE + ", " + SurveyInstanceColumns.SUBMITTER
+                    + ", " + SurveyInstanceColumns.UUID + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+            updateSurveyInstance = database.compileStatement("UPDATE " + Tables.SURVEY_INSTANCE
+                    + " SET " + SurveyInstanceColumns.SURVEY_ID + " = ?, "
+                    + SurveyInstanceColumns.SUBMITTED_DATE + " = ?, "
+                    + SurveyInstanceColumns.RECORD_ID + " = ?, "
+                    + SurveyInstanceColumns.STATUS + " = ?, "
+                    + SurveyInstanceColumns.SYNC_DATE + " = ?, "
+                    + SurveyInstanceColumns.SUBMITTER + " = ? WHERE "
+                    + SurveyInstanceColumns.UUID + " = ?");
+            querySurveyInstanceId = database.compileStatement("SELECT "
+                    + SurveyInstanceColumns._ID + " FROM " + Tables.SURVEY_INSTANCE + " WHERE "
+                    + SurveyInstanceColumns.UUID + " = ?");
+            insertResponse = database.compileStatement("INSERT OR IGNORE INTO " + Tables.RESPONSE
+                    + " (" + ResponseColumns.ANSWER + ", " + ResponseColumns.TYPE + ", "
+                    + ResponseColumns.INCLUDE + ", " + ResponseColumns.SURVEY_INSTANCE_ID + ", "
+                    + ResponseColumns.QUESTION_ID + ") VALUES (?, ?, ?, ?, ?)");
+            updateResponse = database.compileStatement("UPDATE " + Tables.RESPONSE + " SET "
+                    + ResponseColumns.ANSWER + " = ?, " + ResponseColumns.TYPE + " = ?, "
+                    + ResponseColumns.INCLUDE + " = ? WHERE "
+                    + ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
+                    + ResponseColumns.QUESTION_ID + " = ?");
+            // The filename is a unique column in the transmission table, and as we do not have
+            // a file to hold this data, we set the value to the instance UUID
+            insertTransmission = database.compileStatement("INSERT OR REPLACE INTO "
+                    + Tables.TRANSMISSION + " (" + TransmissionColumns.SURVEY_INSTANCE_ID + ", "
+                    + TransmissionColumns.SURVEY_ID + ", " + TransmissionColumns.FILENAME + ", "
+                    + TransmissionColumns.STATUS + ", " + TransmissionColumns.START_DATE + ", "
+                    + TransmissionColumns.END_DATE + ") VALUES (?, ?, ?, ?, ?, ?)");
+        }
+
+        void syncSurveyedLocale(SurveyedLocale surveyedLocale) {
+            final String id = surveyedLocale.getId();
+            for (SQLiteStatement statement : new SQLiteStatement[] { insertRecord, updateRecord }) {
+                statement.bindLong(1, surveyedLocale.getSurveyGroupId());
+                bindString(statement, 2, surveyedLocale.getName());
+                bindDouble(statement, 3, surveyedLocale.getLatitude());
+                bindDouble(statement, 4, surveyedLocale.getLongitude());
+                statement.bindLong(5, surveyedLocale.getLastModified());
+                bindString(statement, 6, id);
+            }
+            if (insertRecord.executeInsert() == IGNORED) {
+                updateRecord.execute();
+            }
+
+            final long syncDate = System.currentTimeMillis();
+            for (SurveyInstance surveyInstance : surveyedLocale.getSurveyInstances()) {
+                syncSurveyInstance(surveyInstance, id, syncDate);
+            }
+        }
+
+        private void syncSurveyInstance(SurveyInstance surveyInstance, String recordId,
+                long syncDate) {
+            final String uuid = surveyInstance.getUuid();
+            for (SQLiteStatement statement : new SQLiteStatement[] {
+                    insertSurveyInstance, updateSurveyInstance
+            }) {
+                bindString(statement, 1, surveyInstance.getSurveyId());
+                statement.bindLong(2, surveyInstance.getDate());
+                bindString(statement, 3, recordId);
+                statement.bindLong(4, SurveyInstanceStatus.DOWNLOADED);
+                statement.bindLong(5, syncDate);
+                bindString(statement, 6, surveyInstance.getSubmitter());
+                bindString(statement, 7, uuid);
+            }
+            long id = insertSurveyInstance.executeInsert();
+            if (id == IGNORED) {
+                updateSurveyInstance.execute();
+                bindString(querySurveyInstanceId, 1, uuid);
+                id = querySurveyInstanceId.simpleQueryForLong();
+            }
+
+            // Now the responses...
+            for (QuestionResponse response : surveyInstance.getResponses()) {
+                if (response.getQuestionId() == null || response.getValue() == null
+                        || response.getType() == null) {
+                    // Breaks the NOT NULL constraints. Skipped, as database.insert() would do
+                    Timber.w("Skipping incomplete response of survey instance " + uuid);
+                    continue;
+                }
+                for (SQLiteStatement statement : new SQLiteStatement[] {
+                        insertResponse, updateResponse
+                }) {
+                    bindString(statement, 1, response.getValue());
+                    bindString(statement, 2, response.getType());
+                    statement.bindLong(3, response.getIncludeFlag() ? 1 : 0);
+                    statement.bindLong(4, id);
+                    bindString(statement, 5, response.getQuestionId());
+                }
+                if (insertResponse.executeInsert() == IGNORED) {
+                    updateResponse.execute();
+                }
+            }
+
+            final String date = String.valueOf(syncDate);
+            insertTransmission.bindLong(1, id);
+            bindString(insertTransmission, 2, surveyInstance.getSurveyId());
+            bindString(insertTransmission, 3, uuid);
+            insertTransmission.bindLong(4, TransmissionStatus.SYNCED);
+            insertTransmission.bindString(5, date);
+            insertTransmission.bindString(6, date);
+            insertTransmission.executeInsert();
+        }
+
+        void close() {
+            insertRecord.close();
+            updateRecord.close();
+            insertSurveyInstance.close();
+            updateSurveyInstance.close();
+            querySurveyInstanceId.close();
+            insertResponse.close();
+            updateResponse.close();
+            insertTransmission.close();
+        }
+
+        private static void bindString(SQLiteStatement statement, int index,
+                @Nullable String value) {
+            if (value != null) {
+                statement.bindString(index, value);
+            } else {
+                statement.bindNull(index);
+            }
+        }
+
+        private static void bindDouble(SQLiteStatement statement, int index,
+                @Nullable Double value) {
+            if (value != null) {
+                statement.bindDouble(index, value);
+            } else {
+                statement.bindNull(index);
+            }
+        }
+    }
 }
@@ -25,4 +25,13 @@ public class TransmissionColumns {
     public static final String STATUS = "status";// separate table/constants?
     public static final String START_DATE = "start_date";// do we really need this column?
     public static final String END_DATE = "end_date";
+    public static final String UPLOAD_ID = "upload_id";// S3 multipart upload ID
+    public static final String UPLOAD_PARTS = "upload_parts";// Completed parts ETags
+    public static final String CHECKSUM = "checksum";// Hex MD5 of the file content
+    public static final String FILE_SIZE = "file_size";// File size when CHECKSUM was computed
+    public static final String FILE_MODIFIED = "file_modified";// File mtime when CHECKSUM was computed
+    public static final String ATTEMPTS = "attempts";// Failed attempts since the last success
+    public static final String LAST_ERROR = "last_error";
+    public static final String NEXT_ATTEMPT = "next_attempt";// Not retried before this time (ms)
+    public static final String BUNDLE_INSTANCES = "bundle_instances";// Instance ids packed in the file
 }
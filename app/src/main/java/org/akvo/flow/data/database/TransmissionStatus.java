@@ -23,4 +23,5 @@ public class TransmissionStatus {
     public static final int SYNCED = 2;
     public static final int FAILED = 3;
     public static final int FORM_DELETED = 4;
+    public static final int PENDING = 5;// Captured media, not yet exported. Holds the checksum
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.loader;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import org.akvo.flow.data.dao.SurveyDao;
+import org.akvo.flow.data.database.SurveyDbAdapter;
+import org.akvo.flow.data.loader.base.AsyncLoader;
+import org.akvo.flow.data.loader.models.FormData;
+import org.akvo.flow.domain.FormManifest;
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.Survey;
+import org.akvo.flow.util.FileUtil;
+import org.akvo.flow.util.FileUtil.FileType;
+import org.akvo.flow.util.LangsPreferenceUtil;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Loader to read the form definition, from its compiled snapshot if possible, along with the
+ * responses of the survey instance being filled. Returns null if the form cannot be loaded.
+ */
+public class FormLoader extends AsyncLoader<FormData> {
+
+    private final String mSurveyId;
+    private final long mSurveyInstanceId;
+
+    public FormLoader(Context context, String surveyId, long surveyInstanceId) {
+        super(context);
+        mSurveyId = surveyId;
+        mSurveyInstanceId = surveyInstanceId;
+    }
+
+    @Override
+    public FormData loadInBackground() {
+        SurveyDbAdapter database = new SurveyDbAdapter(getContext());
+        database.open();
+        try {
+            Survey surveyMeta = database.getSurvey(mSurveyId);
+            if (surveyMeta == null) {
+                Timber.e("Survey " + mSurveyId + " is not installed");
+                return null;
+            }
+            File file = new File(FileUtil.getFilesDir(FileType.FORMS), surveyMeta.getFileName());
+            Survey survey = SurveyDao.loadSurvey(surveyMeta, file);
+            if (survey == null) {
+                Timber.e("Could not parse survey xml file " + file.getName());
+                return null;
+            }
+            survey.setId(mSurveyId);
+
+            FormManifest manifest = database.getFormManifest(mSurveyId);
+            if (manifest == null) {
+                // Installed before manifests were stored
+                manifest = FormManifest.fromSurvey(survey);
+                database.saveFormManifest(mSurveyId, manifest);
+            }
+
+            Map<String, QuestionResponse> responses = database.getResponses(mSurveyInstanceId);
+            String[] languages = LangsPreferenceUtil.getSelectedLangCodes(getContext(), database);
+            return new FormData(survey, manifest, getVersion(database, survey), responses,
+                    languages);
+        } catch (FileNotFoundException e) {
+            Timber.e(e, "Could not load survey xml file");
+            return null;
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * @return the form version the survey instance was started with, or the current one
+     */
+    private double getVersion(SurveyDbAdapter database, Survey survey) {
+        double version = 0.0;
+        Cursor c = database.getFormInstance(mSurveyInstanceId);
+        if (c.moveToFirst()) {
+            version = c.getDouble(SurveyDbAdapter.FormInstanceQuery.VERSION);
+        }
+        c.close();
+
+        if (version == 0.0) {
+            version = survey.getVersion();// Default to current value
+        }
+        return version;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.loader.models;
+
+import org.akvo.flow.domain.FormManifest;
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.Survey;
+
+import java.util.Map;
+
+/**
+ * Everything a form needs before it can be displayed: its definition and manifest, the
+ * version and responses of the survey instance, and the languages selected by the user.
+ */
+public class FormData {
+
+    private final Survey survey;
+    private final FormManifest manifest;
+    private final double version;
+    private final Map<String, QuestionResponse> responses;
+    private final String[] languages;
+
+    public FormData(Survey survey, FormManifest manifest, double version,
+            Map<String, QuestionResponse> responses, String[] languages) {
+        this.survey = survey;
+        this.manifest = manifest;
+        this.version = version;
+        this.responses = responses;
+        this.languages = languages;
+    }
+
+    public Survey getSurvey() {
+        return survey;
+    }
+
+    public FormManifest getManifest() {
+        return manifest;
+    }
+
+    public double getVersion() {
+        return version;
+    }
+
+    public Map<String, QuestionResponse> getResponses() {
+        return responses;
+    }
+
+    public String[] getLanguages() {
+        return languages;
+    }
+}
@@ -41,6 +41,10 @@ public class Prefs {
     public static final String KEY_SCREEN_ON = "screen.keepon";
     public static final String KEY_DEVICE_IDENTIFIER = "device.identifier";
     public static final String KEY_MAX_IMG_SIZE = "media.img.maxsize";
+    public static final String KEY_UPLOAD_CONCURRENCY = "data.upload.concurrency";
+    public static final String KEY_BATCH_NOTIFICATION_REJECTED = "notification.batch.rejected";
+    public static final String KEY_MEDIA_JOBS = "media.processing.jobs";
+    public static final String KEY_SIGNATURES_MIGRATED = "data.signatures.migrated";
 
     private static final String PREFS_NAME = "flow_prefs";
     private static final int PREFS_MODE = Context.MODE_PRIVATE;
@@ -49,6 +53,7 @@ public class Prefs {
     public static final int DEFAULT_VALUE_IMAGE_SIZE = ConstantUtil.IMAGE_SIZE_320_240;
     public static final boolean DEFAULT_VALUE_CELL_UPLOAD = false;
     public static final boolean DEFAULT_VALUE_SCREEN_ON = true;
+    public static final int DEFAULT_VALUE_UPLOAD_CONCURRENCY = 3;
 
     private final Context context;
 
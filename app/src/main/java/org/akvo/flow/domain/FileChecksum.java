@@ -0,0 +1,93 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.domain;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.util.FileUtil;
+
+import java.io.File;
+
+/**
+ * MD5 digest of a file, along with the size and modification time the file had when
+ * the digest was computed. As long as these still match the file, the digest can be
+ * trusted without reading the file again.
+ */
+public class FileChecksum {
+
+    private final String md5;
+    private final long size;
+    private final long modified;
+
+    public FileChecksum(@NonNull String md5, long size, long modified) {
+        this.md5 = md5;
+        this.size = size;
+        this.modified = modified;
+    }
+
+    /**
+     * Build the checksum of a file whose digest has just been computed, i.e. while writing it
+     */
+    public FileChecksum(@NonNull byte[] rawMd5, @NonNull File file) {
+        this(FileUtil.hexMd5(rawMd5), file.length(), file.lastModified());
+    }
+
+    /**
+     * Read the whole file to compute its checksum
+     *
+     * @return the checksum, or null if the file could not be read
+     */
+    @Nullable
+    public static FileChecksum compute(@NonNull File file) {
+        // Take the file attributes first, so a concurrent change invalidates the result
+        final long size = file.length();
+        final long modified = file.lastModified();
+        final byte[] rawMd5 = FileUtil.getMD5Checksum(file);
+        return rawMd5 != null ? new FileChecksum(FileUtil.hexMd5(rawMd5), size, modified) : null;
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    public byte[] getRawMd5() {
+        byte[] raw = new byte[md5.length() / 2];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) Integer.parseInt(md5.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * @return true if the file has not changed since the checksum was computed
+     */
+    public boolean isValidFor(@NonNull File file) {
+        return file.exists() && file.length() == size && file.lastModified() == modified;
+    }
+}
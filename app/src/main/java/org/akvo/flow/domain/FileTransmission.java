@@ -34,6 +34,13 @@ public class FileTransmission {
     private Date startDate;
     private Date endDate;
     private int status;
+    private String uploadId;
+    private String uploadParts;
+    private FileChecksum checksum;
+    private int attempts;
+    private String lastError;
+    private long nextAttempt;
+    private long[] bundleInstances;
 
     public int getStatus() {
         return status;
@@ -90,4 +97,73 @@ public class FileTransmission {
     public void setFormId(String formId) {
         this.formId = formId;
     }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public String getUploadParts() {
+        return uploadParts;
+    }
+
+    public void setUploadParts(String uploadParts) {
+        this.uploadParts = uploadParts;
+    }
+
+    /**
+     * @return the stored checksum of the file, or null if it has not been computed yet
+     */
+    public FileChecksum getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(FileChecksum checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return the number of failed attempts since the file was queued
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    /**
+     * @return the time (in milliseconds) before which the transmission must not be retried
+     */
+    public long getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(long nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    /**
+     * @return the ids of the survey instances packed in this file, if it is an export bundle,
+     * or null otherwise. The respondent id is the first of them.
+     */
+    public long[] getBundleInstances() {
+        return bundleInstances;
+    }
+
+    public void setBundleInstances(long[] bundleInstances) {
+        this.bundleInstances = bundleInstances;
+    }
 }
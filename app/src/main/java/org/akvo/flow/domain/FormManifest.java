@@ -0,0 +1,142 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.domain;
+
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+
+import org.akvo.flow.util.ConstantUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Form attributes needed without loading the whole form: its languages, the resources it
+ * depends on, and the questions describing the datapoint. The manifest is extracted once,
+ * when the form is installed, and stored along with the form.
+ */
+public class FormManifest {
+    private String language;// Default language
+    private List<String> languages = new ArrayList<>();// Default language first
+    private List<String> resources = new ArrayList<>();// Help media and cascade resources
+    private List<String> localeNameQuestions = new ArrayList<>();
+    private String localeGeoQuestion;
+    private int questionCount;
+    private List<Integer> repeatableGroups = new ArrayList<>();// Group positions
+
+    public FormManifest() {
+    }
+
+    @NonNull
+    public static FormManifest fromSurvey(@NonNull Survey survey) {
+        FormManifest manifest = new FormManifest();
+        manifest.language = survey.getLanguage();
+        Set<String> languages = new LinkedHashSet<>();
+        if (!TextUtils.isEmpty(survey.getLanguage())) {
+            languages.add(survey.getLanguage());
+        }
+        Set<String> resources = new LinkedHashSet<>();
+        List<QuestionGroup> groups = survey.getQuestionGroups();
+        for (int i = 0; i < groups.size(); i++) {
+            QuestionGroup group = groups.get(i);
+            if (group.isRepeatable()) {
+                manifest.repeatableGroups.add(i);
+            }
+            for (Question question : group.getQuestions()) {
+                manifest.questionCount++;
+                languages.addAll(question.getAltTextMap().keySet());
+                List<QuestionHelp> videos = question.getHelpByType(ConstantUtil.VIDEO_HELP_TYPE);
+                if (!videos.isEmpty()) {
+                    resources.add(videos.get(0).getValue());
+                }
+                for (QuestionHelp help : question.getHelpByType(ConstantUtil.IMAGE_HELP_TYPE)) {
+                    resources.add(help.getValue());
+                }
+                // Question src data (i.e. cascading question resources)
+                if (question.getSrc() != null) {
+                    resources.add(question.getSrc());
+                }
+            }
+        }
+        manifest.languages.addAll(languages);
+        manifest.resources.addAll(resources);
+        manifest.localeNameQuestions.addAll(survey.getLocaleNameQuestions());
+        manifest.localeGeoQuestion = survey.getLocaleGeoQuestion();
+        return manifest;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
+    public List<String> getLanguages() {
+        return languages;
+    }
+
+    public void setLanguages(List<String> languages) {
+        this.languages = languages;
+    }
+
+    public List<String> getResources() {
+        return resources;
+    }
+
+    public void setResources(List<String> resources) {
+        this.resources = resources;
+    }
+
+    public List<String> getLocaleNameQuestions() {
+        return localeNameQuestions;
+    }
+
+    public void setLocaleNameQuestions(List<String> localeNameQuestions) {
+        this.localeNameQuestions = localeNameQuestions;
+    }
+
+    public String getLocaleGeoQuestion() {
+        return localeGeoQuestion;
+    }
+
+    public void setLocaleGeoQuestion(String localeGeoQuestion) {
+        this.localeGeoQuestion = localeGeoQuestion;
+    }
+
+    public int getQuestionCount() {
+        return questionCount;
+    }
+
+    public void setQuestionCount(int questionCount) {
+        this.questionCount = questionCount;
+    }
+
+    public List<Integer> getRepeatableGroups() {
+        return repeatableGroups;
+    }
+
+    public void setRepeatableGroups(List<Integer> repeatableGroups) {
+        this.repeatableGroups = repeatableGroups;
+    }
+}
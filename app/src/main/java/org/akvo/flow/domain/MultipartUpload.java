@@ -0,0 +1,106 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.domain;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * State of an S3 multipart upload: the upload ID assigned by S3 and the ETags of
+ * the parts completed so far. The state is persisted with the transmission, so an
+ * interrupted upload can be resumed from the last completed part.
+ */
+public class MultipartUpload {
+
+    private static final String PART_SEPARATOR = ",";
+    private static final String ETAG_SEPARATOR = ":";
+
+    private String uploadId;
+    private final SortedMap<Integer, String> parts = new TreeMap<>();
+
+    public MultipartUpload() {
+    }
+
+    public MultipartUpload(String uploadId, String serializedParts) {
+        this.uploadId = uploadId;
+        if (uploadId != null && serializedParts != null) {
+            for (String part : serializedParts.split(PART_SEPARATOR)) {
+                String[] tokens = part.split(ETAG_SEPARATOR);
+                if (tokens.length == 2) {
+                    try {
+                        parts.put(Integer.valueOf(tokens[0]), tokens[1]);
+                    } catch (NumberFormatException e) {
+                        // Ignore corrupted entries. The part will be uploaded again
+                    }
+                }
+            }
+        }
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public boolean isStarted() {
+        return uploadId != null;
+    }
+
+    public boolean hasPart(int partNumber) {
+        return parts.containsKey(partNumber);
+    }
+
+    public void addPart(int partNumber, String etag) {
+        parts.put(partNumber, etag);
+    }
+
+    /**
+     * Completed parts, ordered by part number
+     */
+    public SortedMap<Integer, String> getParts() {
+        return parts;
+    }
+
+    /**
+     * Forget any progress, so the next attempt starts a new upload from the first byte
+     */
+    public void reset() {
+        uploadId = null;
+        parts.clear();
+    }
+
+    /**
+     * @return the completed parts as a "partNumber:etag" comma-separated list
+     */
+    public String serializeParts() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Integer, String> part : parts.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(PART_SEPARATOR);
+            }
+            builder.append(part.getKey()).append(ETAG_SEPARATOR).append(part.getValue());
+        }
+        return builder.toString();
+    }
+}
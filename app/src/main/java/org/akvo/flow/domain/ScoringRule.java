@@ -48,6 +48,10 @@ public class ScoringRule {
         }
     }
 
+    public String getText() {
+        return text;
+    }
+
     public String getType() {
         return type;
     }
@@ -21,9 +21,17 @@ package org.akvo.flow.domain.response.value;
 
 import android.text.TextUtils;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The signature image is either stored inline, as a Base64 PNG, or in a file referenced by
+ * its path. The latter is only used locally: exported signatures are always inline.
+ */
 public class Signature {
     private String name;
     private String image;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String file;
 
     public String getName() {
         return name;
@@ -41,12 +49,24 @@ public class Signature {
         this.image = image;
     }
 
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public boolean hasImage() {
+        return !TextUtils.isEmpty(image) || !TextUtils.isEmpty(file);
+    }
+
     public boolean isValid() {
         // Either both or none
         if (TextUtils.isEmpty(name)) {
-            return TextUtils.isEmpty(image);
+            return !hasImage();
         }
-        return !TextUtils.isEmpty(image);
+        return hasImage();
     }
 
 }
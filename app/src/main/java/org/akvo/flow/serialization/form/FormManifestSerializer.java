@@ -0,0 +1,67 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.serialization.form;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.akvo.flow.domain.FormManifest;
+
+import java.io.IOException;
+
+import timber.log.Timber;
+
+/**
+ * Stores the FormManifest as JSON. Unknown attributes are ignored, so manifests written by
+ * a later version of the app can still be read.
+ */
+public class FormManifestSerializer {
+
+    @Nullable
+    public static String serialize(@NonNull FormManifest manifest) {
+        try {
+            return new ObjectMapper().writeValueAsString(manifest);
+        } catch (IOException e) {
+            Timber.e(e, "Could not serialize form manifest");
+        }
+        return null;
+    }
+
+    /**
+     * @return the manifest, or null if the data is missing or not valid
+     */
+    @Nullable
+    public static FormManifest deserialize(@Nullable String data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            ObjectMapper mapper = new ObjectMapper()
+                    .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+            return mapper.readValue(data, FormManifest.class);
+        } catch (IOException e) {
+            Timber.e("Value is not a valid form manifest: " + data);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.serialization.form;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.domain.AltText;
+import org.akvo.flow.domain.Dependency;
+import org.akvo.flow.domain.Level;
+import org.akvo.flow.domain.Option;
+import org.akvo.flow.domain.Question;
+import org.akvo.flow.domain.QuestionGroup;
+import org.akvo.flow.domain.QuestionHelp;
+import org.akvo.flow.domain.ScoringRule;
+import org.akvo.flow.domain.Survey;
+import org.akvo.flow.domain.SurveyGroup;
+import org.akvo.flow.domain.ValidationRule;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary representation of a parsed form, i.e. the Survey, QuestionGroup and Question
+ * graph built by SurveyHandler. Reading it back is much cheaper than parsing the XML again.
+ *
+ * The format is versioned: snapshots written with a different FORMAT_VERSION are rejected
+ * with an IOException, and must be built again from the XML. Bump it whenever the format,
+ * or the attributes stored, change.
+ */
+public class SurveySnapshot {
+
+    private static final int MAGIC = 0x464c4f57;// "FLOW"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int NULL = -1;
+
+    /**
+     * The header attributes, used to check whether the snapshot is stale
+     */
+    public static class Header {
+        public final String formId;
+        public final double formVersion;
+        public final long sourceLength;
+        public final long sourceModified;
+
+        public Header(String formId, double formVersion, long sourceLength,
+                long sourceModified) {
+            this.formId = formId;
+            this.formVersion = formVersion;
+            this.sourceLength = sourceLength;
+            this.sourceModified = sourceModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Header)) {
+                return false;
+            }
+            Header h = (Header) o;
+            return formVersion == h.formVersion && sourceLength == h.sourceLength
+                    && sourceModified == h.sourceModified
+                    && (formId != null ? formId.equals(h.formId) : h.formId == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return formId != null ? formId.hashCode() : 0;
+        }
+    }
+
+    private SurveySnapshot() {
+    }
+
+    public static void write(@NonNull Header header, @NonNull Survey survey,
+            @NonNull OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeString(out, header.formId);
+        out.writeDouble(header.formVersion);
+        out.writeLong(header.sourceLength);
+        out.writeLong(header.sourceModified);
+
+        writeString(out, survey.getName());
+        out.writeDouble(survey.getVersion());
+        writeString(out, survey.getLanguage());
+        writeString(out, survey.getSourceSurveyId());
+        writeString(out, survey.getApp());
+        SurveyGroup surveyGroup = survey.getSurveyGroup();
+        out.writeBoolean(surveyGroup != null);
+        if (surveyGroup != null) {
+            out.writeLong(surveyGroup.getId());
+            writeString(out, surveyGroup.getName());
+            writeString(out, surveyGroup.getRegisterSurveyId());
+            out.writeBoolean(surveyGroup.isMonitored());
+        }
+        List<QuestionGroup> groups = survey.getQuestionGroups();
+        out.writeInt(groups.size());
+        for (QuestionGroup group : groups) {
+            out.writeInt(group.getOrder());
+            writeString(out, group.getHeading());
+            out.writeBoolean(group.isRepeatable());
+            out.writeInt(group.getQuestions().size());
+            for (Question question : group.getQuestions()) {
+                writeQuestion(out, question);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the header of the snapshot, leaving the stream positioned at the form data
+     */
+    @NonNull
+    public static Header readHeader(@NonNull DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported form snapshot format");
+        }
+        return new Header(readString(in), in.readDouble(), in.readLong(), in.readLong());
+    }
+
+    /**
+     * Read the whole snapshot, checking it matches the expected header
+     *
+     * @throws IOException if the snapshot cannot be read, or does not match the header
+     */
+    @NonNull
+    public static Survey read(@NonNull InputStream is, @NonNull Header expected)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        if (!expected.equals(readHeader(in))) {
+            throw new IOException("Stale form snapshot");
+        }
+
+        Survey survey = new Survey();
+        survey.setName(readString(in));
+        survey.setVersion(in.readDouble());
+        survey.setLanguage(readString(in));
+        survey.setSourceSurveyId(readString(in));
+        survey.setApp(readString(in));
+        if (in.readBoolean()) {
+            survey.setSurveyGroup(new SurveyGroup(in.readLong(), readString(in),
+                    readString(in), in.readBoolean()));
+        }
+        int groupCount = in.readInt();
+        for (int i = 0; i < groupCount; i++) {
+            QuestionGroup group = new QuestionGroup();
+            group.setOrder(in.readInt());
+            group.setHeading(readString(in));
+            group.setRepeatable(in.readBoolean());
+            int questionCount = in.readInt();
+            for (int j = 0; j < questionCount; j++) {
+                group.addQuestion(readQuestion(in));
+            }
+            survey.addQuestionGroup(group);
+        }
+        return survey;
+    }
+
+    private static void writeQuestion(DataOutputStream out, Question q) throws IOException {
+        writeString(out, q.getId());
+        writeString(out, q.getText());
+        out.writeInt(q.getOrder());
+        writeString(out, q.getType());
+        writeString(out, q.getRenderType());
+        out.writeBoolean(q.isMandatory());
+        out.writeBoolean(q.isAllowOther());
+        out.writeBoolean(q.isAllowMultiple());
+        out.writeBoolean(q.isLocked());
+        out.writeBoolean(q.useStrength());
+        out.writeInt(q.getStrengthMin());
+        out.writeInt(q.getStrengthMax());
+        out.writeBoolean(q.isLocaleName());
+        out.writeBoolean(q.isLocaleLocation());
+        writeString(out, q.getSourceQuestionId());
+        out.writeBoolean(q.isDoubleEntry());
+        out.writeBoolean(q.useExternalSource());
+        out.writeBoolean(q.isAllowPoints());
+        out.writeBoolean(q.isAllowLine());
+        out.writeBoolean(q.isAllowPolygon());
+        writeString(out, q.getCaddisflyRes());
+        writeString(out, q.getSrc());
+        writeAltTexts(out, q.getAltTextMap());
+
+        ValidationRule rule = q.getValidationRule();
+        out.writeBoolean(rule != null);
+        if (rule != null) {
+            writeString(out, rule.getValidationType());
+            writeNullableInt(out, rule.getMaxLength());
+            writeNullableBoolean(out, rule.getAllowSigned());
+            writeNullableBoolean(out, rule.getAllowDecimal());
+            writeNullableDouble(out, rule.getMinVal());
+            writeNullableDouble(out, rule.getMaxVal());
+        }
+
+        List<QuestionHelp> help = q.getQuestionHelp();
+        writeSize(out, help);
+        if (help != null) {
+            for (QuestionHelp h : help) {
+                writeString(out, h.getType());
+                writeString(out, h.getText());
+                writeString(out, h.getValue());
+                writeAltTexts(out, h.getAltTextMap());
+            }
+        }
+
+        List<Option> options = q.getOptions();
+        writeSize(out, options);
+        if (options != null) {
+            for (Option o : options) {
+                writeString(out, o.getText());
+                writeString(out, o.getCode());
+                out.writeBoolean(o.isOther());
+                writeAltTexts(out, o.getAltTextMap());
+            }
+        }
+
+        List<Dependency> dependencies = q.getDependencies();
+        writeSize(out, dependencies);
+        if (dependencies != null) {
+            for (Dependency d : dependencies) {
+                writeString(out, d.getQuestion());
+                writeString(out, d.getAnswer());
+            }
+        }
+
+        List<ScoringRule> scoringRules = q.getScoringRules();
+        writeSize(out, scoringRules);
+        if (scoringRules != null) {
+            for (ScoringRule s : scoringRules) {
+                writeString(out, s.getType());
+                writeString(out, s.getMin());
+                writeString(out, s.getMax());
+                writeString(out, s.getText());
+                writeString(out, s.getValue());
+            }
+        }
+
+        List<Level> levels = q.getLevels();
+        writeSize(out, levels);
+        if (levels != null) {
+            for (Level l : levels) {
+                writeString(out, l.getText());
+                writeAltTexts(out, l.getAltTextMap());
+            }
+        }
+    }
+
+    private static Question readQuestion(DataInputStream in) throws IOException {
+        Question q = new Question();
+        q.setId(readString(in));
+        q.setText(readString(in));
+        q.setOrder(in.readInt());
+        q.setType(readString(in));
+        q.setRenderType(readString(in));
+        q.setMandatory(in.readBoolean());
+        q.setAllowOther(in.readBoolean());
+        q.setAllowMultiple(in.readBoolean());
+        q.setLocked(in.readBoolean());
+        q.setUseStrength(in.readBoolean());
+        q.setStrengthMin(in.readInt());
+        q.setStrengthMax(in.readInt());
+        q.setIsLocaleName(in.readBoolean());
+        q.setIsLocaleLocation(in.readBoolean());
+        q.setSourceQuestionId(readString(in));
+        q.setIsDoubleEntry(in.readBoolean());
+        q.useExternalSource(in.readBoolean());
+        q.setAllowPoints(in.readBoolean());
+        q.setAllowLine(in.readBoolean());
+        q.setAllowPolygon(in.readBoolean());
+        q.setCaddisflyRes(readString(in));
+        q.setSrc(readString(in));
+        for (AltText altText : readAltTexts(in)) {
+            q.addAltText(altText);
+        }
+
+        if (in.readBoolean()) {
+            ValidationRule rule = new ValidationRule(readString(in));
+            Integer maxLength = readNullableInt(in);
+            Boolean allowSigned = readNullableBoolean(in);
+            Boolean allowDecimal = readNullableBoolean(in);
+            Double minVal = readNullableDouble(in);
+            Double maxVal = readNullableDouble(in);
+            rule.setMaxLength(maxLength);
+            rule.setAllowSigned(allowSigned);
+            rule.setAllowDecimal(allowDecimal);
+            rule.setMinVal(minVal);
+            rule.setMaxVal(maxVal);
+            q.setValidationRule(rule);
+        }
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            QuestionHelp help = new QuestionHelp();
+            help.setType(readString(in));
+            help.setText(readString(in));
+            help.setValue(readString(in));
+            for (AltText altText : readAltTexts(in)) {
+                help.addAltText(altText);
+            }
+            q.addQuestionHelp(help);
+        }
+
+        count = in.readInt();
+        if (count != NULL) {
+            ArrayList<Option> options = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Option option = new Option();
+                option.setText(readString(in));
+                option.setCode(readString(in));
+                option.setIsOther(in.readBoolean());
+                for (AltText altText : readAltTexts(in)) {
+                    option.addAltText(altText);
+                }
+                options.add(option);
+            }
+            q.setOptions(options);
+        }
+
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Dependency dependency = new Dependency();
+            dependency.setQuestion(readString(in));
+            dependency.setAnswer(readString(in));
+            q.addDependency(dependency);
+        }
+
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            q.addScoringRule(new ScoringRule(readString(in), readString(in), readString(in),
+                    readString(in), readString(in)));
+        }
+
+        count = in.readInt();
+        if (count != NULL) {
+            List<Level> levels = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Level level = new Level();
+                level.setText(readString(in));
+                for (AltText altText : readAltTexts(in)) {
+                    level.addAltText(altText);
+                }
+                levels.add(level);
+            }
+            q.setLevels(levels);
+        }
+        return q;
+    }
+
+    private static void writeAltTexts(DataOutputStream out, Map<String, AltText> altTexts)
+            throws IOException {
+        out.writeInt(altTexts.size());
+        for (AltText altText : altTexts.values()) {
+            writeString(out, altText.getLanguage());
+            writeString(out, altText.getType());
+            writeString(out, altText.getText());
+        }
+    }
+
+    private static List<AltText> readAltTexts(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<AltText> altTexts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            AltText altText = new AltText();
+            altText.setLanguage(readString(in));
+            altText.setType(readString(in));
+            altText.setText(readString(in));
+            altTexts.add(altText);
+        }
+        return altTexts;
+    }
+
+    /**
+     * Write the size of a list, or NULL if there is no list. Empty and null lists have a
+     * different meaning in some attributes, i.e. options
+     */
+    private static void writeSize(DataOutputStream out, @Nullable List<?> list)
+            throws IOException {
+        out.writeInt(list != null ? list.size() : NULL);
+    }
+
+    /**
+     * Strings are written as UTF-8 bytes, prefixed by their length. Unlike writeUTF(), there
+     * is no 64KB limit, and null values are supported
+     */
+    private static void writeString(DataOutputStream out, @Nullable String s)
+            throws IOException {
+        if (s == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeNullableInt(DataOutputStream out, @Nullable Integer value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    @Nullable
+    private static Integer readNullableInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeNullableBoolean(DataOutputStream out, @Nullable Boolean value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeBoolean(value);
+        }
+    }
+
+    @Nullable
+    private static Boolean readNullableBoolean(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readBoolean() : null;
+    }
+
+    private static void writeNullableDouble(DataOutputStream out, @Nullable Double value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    @Nullable
+    private static Double readNullableDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.serialization.response;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the manifest of an export bundle, i.e. a zip file packing several form instances
+ * of the same form. Each instance is stored under its own directory, and the manifest lists
+ * the zip entries holding its data and signature:
+ *
+ * {"version":1,"formId":"123","instances":[{"uuid":"...","data":"uuid/data.json",
+ * "signature":"uuid/.sig"}]}
+ *
+ * The target stream is left open, i.e. the zip file entry being written.
+ */
+public class BundleManifestWriter {
+
+    public static final String FILENAME = "manifest.json";
+    public static final int VERSION = 1;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final String formId;
+    private final List<String[]> instances = new ArrayList<>();
+
+    public BundleManifestWriter(@NonNull String formId) {
+        this.formId = formId;
+    }
+
+    /**
+     * @param signatureEntry the entry holding the data signature, if the data is signed
+     */
+    public void addInstance(@NonNull String uuid, @NonNull String dataEntry,
+            @Nullable String signatureEntry) {
+        instances.add(new String[] { uuid, dataEntry, signatureEntry });
+    }
+
+    public int getInstanceCount() {
+        return instances.size();
+    }
+
+    public void write(@NonNull OutputStream out) throws IOException {
+        JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        generator.writeStartObject();
+        generator.writeNumberField(Attrs.VERSION, VERSION);
+        generator.writeStringField(Attrs.FORM_ID, formId);
+        generator.writeArrayFieldStart(Attrs.INSTANCES);
+        for (String[] instance : instances) {
+            generator.writeStartObject();
+            generator.writeStringField(Attrs.UUID, instance[0]);
+            generator.writeStringField(Attrs.DATA, instance[1]);
+            if (instance[2] != null) {
+                generator.writeStringField(Attrs.SIGNATURE, instance[2]);
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    interface Attrs {
+        String VERSION = "version";
+        String FORM_ID = "formId";
+        String INSTANCES = "instances";
+        String UUID = "uuid";
+        String DATA = "data";
+        String SIGNATURE = "signature";
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.serialization.response;
+
+import android.support.annotation.NonNull;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.akvo.flow.domain.response.FormInstance;
+import org.akvo.flow.domain.response.Response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams a FormInstance as JSON, one response at a time, so the whole form never needs to
+ * be held in memory. The output matches the one of an ObjectMapper serializing the
+ * FormInstance: the header attributes first, then the responses array.
+ *
+ * The target stream is left open, i.e. the zip file entry being written.
+ */
+public class FormInstanceWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final JsonGenerator generator;
+
+    public FormInstanceWriter(@NonNull OutputStream out) throws IOException {
+        generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+    }
+
+    /**
+     * Write the FormInstance attributes, and open the responses array. The responses of the
+     * given FormInstance, if any, are ignored.
+     */
+    public void writeHeader(@NonNull FormInstance formInstance) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(Attrs.UUID, formInstance.getUUID());
+        generator.writeStringField(Attrs.DATA_POINT_ID, formInstance.getDataPointId());
+        generator.writeStringField(Attrs.DEVICE_ID, formInstance.getDeviceId());
+        generator.writeStringField(Attrs.USERNAME, formInstance.getUsername());
+        generator.writeStringField(Attrs.EMAIL, formInstance.getEmail());
+        generator.writeNumberField(Attrs.FORM_ID, formInstance.getFormId());
+        generator.writeNumberField(Attrs.SUBMISSION_DATE, formInstance.getSubmissionDate());
+        generator.writeNumberField(Attrs.DURATION, formInstance.getDuration());
+        generator.writeArrayFieldStart(Attrs.RESPONSES);
+    }
+
+    public void writeResponse(@NonNull Response response) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(Attrs.QUESTION_ID, response.getQuestionId());
+        generator.writeStringField(Attrs.ANSWER_TYPE, response.getAnswerType());
+        generator.writeStringField(Attrs.VALUE, response.getValue());
+        if (response.getIteration() != null) {
+            generator.writeNumberField(Attrs.ITERATION, response.getIteration());
+        } else {
+            generator.writeNullField(Attrs.ITERATION);
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Close the responses array and the FormInstance, and flush the output
+     */
+    public void writeEnd() throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    interface Attrs {
+        String UUID = "uuid";
+        String DATA_POINT_ID = "dataPointId";
+        String DEVICE_ID = "deviceId";
+        String USERNAME = "username";
+        String EMAIL = "email";
+        String FORM_ID = "formId";
+        String SUBMISSION_DATE = "submissionDate";
+        String DURATION = "duration";
+        String RESPONSES = "responses";
+        String QUESTION_ID = "questionId";
+        String ANSWER_TYPE = "answerType";
+        String VALUE = "value";
+        String ITERATION = "iteration";
+    }
+}
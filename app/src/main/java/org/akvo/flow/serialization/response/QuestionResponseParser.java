@@ -19,12 +19,13 @@
 
 package org.akvo.flow.serialization.response;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
 import org.akvo.flow.domain.QuestionResponse;
 import org.akvo.flow.util.ConstantUtil;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,30 +33,44 @@ import timber.log.Timber;
 
 public class QuestionResponseParser {
 
-    public QuestionResponse parse(JSONObject jSurveyedLocale) {
-        try {
-            String val = jSurveyedLocale.getString(Attrs.ANSWER);
-            String questionId = jSurveyedLocale.getString(Attrs.QUESTION_ID);
-            
-            return new QuestionResponse(val, ConstantUtil.VALUE_RESPONSE_TYPE, questionId);
-        } catch (JSONException e) {
-            Timber.e(e.getMessage());
+    /**
+     * Parse the response object the parser is positioned at
+     *
+     * @return the response, or null if it is incomplete
+     */
+    public QuestionResponse parse(JsonParser parser) throws IOException {
+        String val = null;
+        String questionId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case Attrs.ANSWER:
+                    val = parser.getValueAsString();
+                    break;
+                case Attrs.QUESTION_ID:
+                    questionId = parser.getValueAsString();
+                    break;
+            }
+            parser.skipChildren();// Unknown or unexpected objects and arrays
+        }
+        if (val == null || questionId == null) {
+            Timber.e("Incomplete response for question: " + questionId);
             return null;
         }
+        return new QuestionResponse(val, ConstantUtil.VALUE_RESPONSE_TYPE, questionId);
     }
 
-    public List<QuestionResponse> parseList(JSONArray jResponses) {
+    /**
+     * Parse the array of responses the parser is positioned at
+     */
+    public List<QuestionResponse> parseList(JsonParser parser) throws IOException {
         List<QuestionResponse> responses = new ArrayList<QuestionResponse>();
-        try {
-            for (int i=0; i<jResponses.length(); i++) {
-                JSONObject jQResponse = jResponses.getJSONObject(i);
-                QuestionResponse response = parse(jQResponse);
-                if (response != null) {
-                    responses.add(response);
-                }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            QuestionResponse response = parse(parser);
+            if (response != null) {
+                responses.add(response);
             }
-        } catch (JSONException e) {
-            Timber.e(e.getMessage());
         }
         
         return responses;
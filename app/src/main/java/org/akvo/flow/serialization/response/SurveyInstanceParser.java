@@ -19,38 +19,76 @@
 
 package org.akvo.flow.serialization.response;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import org.akvo.flow.domain.QuestionResponse;
 import org.akvo.flow.domain.SurveyInstance;
 
 public class SurveyInstanceParser {
 
-    public SurveyInstance parse(JSONObject jSurveyInstance) throws JSONException {
-        String uuid = jSurveyInstance.getString(Attrs.UUID);
-        String surveyId = jSurveyInstance.getString(Attrs.SURVEY_ID);
-        long date = jSurveyInstance.getLong(Attrs.DATE);
-        String submitter = jSurveyInstance.optString(Attrs.SUBMITTER);
+    /**
+     * Parse the SurveyInstance object the parser is positioned at
+     */
+    public SurveyInstance parse(JsonParser parser) throws IOException {
+        String uuid = null;
+        String surveyId = null;
+        Long date = null;
+        String submitter = "";
+        List<QuestionResponse> responses = null;
 
-        JSONArray jQuestionResponses = jSurveyInstance.getJSONArray(Attrs.QUESTION_RESPONSE_LIST);
-        List<QuestionResponse> responses = new QuestionResponseParser().parseList(jQuestionResponses);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case Attrs.UUID:
+                    uuid = parser.getValueAsString();
+                    break;
+                case Attrs.SURVEY_ID:
+                    surveyId = parser.getValueAsString();
+                    break;
+                case Attrs.DATE:
+                    date = parser.getValueAsLong();
+                    break;
+                case Attrs.SUBMITTER:
+                    submitter = parser.getValueAsString("");
+                    break;
+                case Attrs.QUESTION_RESPONSE_LIST:
+                    if (token == JsonToken.START_ARRAY) {
+                        responses = new QuestionResponseParser().parseList(parser);
+                    }
+                    break;
+            }
+            parser.skipChildren();// Unknown or unexpected objects and arrays
+        }
+
+        if (uuid == null) {
+            throw SurveyedLocaleParser.missing(parser, Attrs.UUID);
+        } else if (surveyId == null) {
+            throw SurveyedLocaleParser.missing(parser, Attrs.SURVEY_ID);
+        } else if (date == null) {
+            throw SurveyedLocaleParser.missing(parser, Attrs.DATE);
+        } else if (responses == null) {
+            throw SurveyedLocaleParser.missing(parser, Attrs.QUESTION_RESPONSE_LIST);
+        }
 
         return new SurveyInstance(uuid, surveyId, submitter, date, responses);
     }
 
-    public List<SurveyInstance> parseList(JSONArray jSurveyInstances) throws JSONException {
+    /**
+     * Parse the array of SurveyInstances the parser is positioned at
+     */
+    public List<SurveyInstance> parseList(JsonParser parser) throws IOException {
         List<SurveyInstance> surveyInstances = new ArrayList<SurveyInstance>();
-        for (int i=0; i<jSurveyInstances.length(); i++) {
-            JSONObject jSurveyInstance = jSurveyInstances.getJSONObject(i);
-            SurveyInstance surveyInstance = parse(jSurveyInstance);
-            if (surveyInstance != null) {
-                surveyInstances.add(surveyInstance);
-            }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            surveyInstances.add(parse(parser));
         }
 
         return surveyInstances;
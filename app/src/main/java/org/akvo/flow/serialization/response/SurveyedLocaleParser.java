@@ -19,58 +19,133 @@
 
 package org.akvo.flow.serialization.response;
 
+import android.support.annotation.NonNull;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
 import org.akvo.flow.domain.SurveyInstance;
 import org.akvo.flow.domain.SurveyedLocale;
-import org.akvo.flow.domain.response.SurveyedLocalesResponse;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
-import timber.log.Timber;
-
+/**
+ * Streaming parser for the surveyedlocale responses. The JSON is parsed as it is read,
+ * and each SurveyedLocale is handed to a Sink as soon as it is complete, so the whole
+ * response is never held in memory.
+ */
 public class SurveyedLocaleParser {
 
-    public SurveyedLocalesResponse parseResponse(String response) {
-        final List<SurveyedLocale> surveyedLocales = new ArrayList<SurveyedLocale>();
-        String error = null;
+    /**
+     * Receives the SurveyedLocales, in the same order they are found in the response
+     */
+    public interface Sink {
+        void onSurveyedLocale(@NonNull SurveyedLocale surveyedLocale) throws IOException;
+    }
+
+    // Thread-safe, and expensive to create. Share it across parsers
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Parse the response, handing each SurveyedLocale to the sink. If the response is
+     * malformed, the parsing stops at that point. SurveyedLocales already handed to the
+     * sink were fully parsed, and thus remain valid.
+     *
+     * @return the number of SurveyedLocales found in the response
+     * @throws JsonParseException if the response is malformed
+     */
+    public int parseResponse(@NonNull InputStream in, @NonNull Sink sink) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(in);
         try {
-            JSONObject jResponse = new JSONObject(response);
-            JSONArray jSurveyedLocales = jResponse.getJSONArray(Attrs.SURVEYED_LOCALE_DATA);
-            for (int i = 0; i < jSurveyedLocales.length(); i++) {
-                JSONObject jSurveyedLocale = jSurveyedLocales.getJSONObject(i);
-                SurveyedLocale surveyedLocale = parseSurveyedLocale(jSurveyedLocale);
-                surveyedLocales.add(surveyedLocale);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException("Invalid JSON response", parser.getCurrentLocation());
+            }
+            int count = -1;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (Attrs.SURVEYED_LOCALE_DATA.equals(field) && token == JsonToken.START_ARRAY) {
+                    count = 0;
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        sink.onSurveyedLocale(parseSurveyedLocale(parser));
+                        count++;
+                    }
+                    if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+                        throw new JsonParseException("Invalid " + Attrs.SURVEYED_LOCALE_DATA,
+                                parser.getCurrentLocation());
+                    }
+                } else {
+                    parser.skipChildren();
+                }
             }
-        } catch (JSONException e) {
-            // Something went wrong in the parsing. We consider this invalid data,
-            // and will stop the sync, to avoid storing corrupted data.
-            Timber.e(e, e.getMessage());
-            error = "Invalid JSON response";
+            if (count == -1) {
+                throw missing(parser, Attrs.SURVEYED_LOCALE_DATA);
+            }
+            return count;
+        } finally {
+            parser.close();
         }
-
-        return new SurveyedLocalesResponse(surveyedLocales, error);
     }
 
-    public SurveyedLocale parseSurveyedLocale(JSONObject jSurveyedLocale) throws JSONException {
-        String id = jSurveyedLocale.getString(Attrs.ID);
-        long lastModified = jSurveyedLocale.getLong(Attrs.LAST_MODIFIED);
-        long surveyGroupId = jSurveyedLocale.getLong(Attrs.SURVEY_GROUP_ID);
-        Double latitude =
-                jSurveyedLocale.has(Attrs.LATITUDE) && !jSurveyedLocale.isNull(Attrs.LATITUDE) ?
-                        jSurveyedLocale.getDouble(Attrs.LATITUDE) : null;
-        Double longitude =
-                jSurveyedLocale.has(Attrs.LONGITUDE) && !jSurveyedLocale.isNull(Attrs.LONGITUDE) ?
-                        jSurveyedLocale.getDouble(Attrs.LONGITUDE) : null;
+    /**
+     * Parse the SurveyedLocale object the parser is positioned at
+     */
+    public SurveyedLocale parseSurveyedLocale(JsonParser parser) throws IOException {
+        String id = null;
+        Long lastModified = null;
+        Long surveyGroupId = null;
+        Double latitude = null;
+        Double longitude = null;
+        String name = null;
+        List<SurveyInstance> surveyInstances = null;
 
-        String name = jSurveyedLocale.has(Attrs.NAME) && !jSurveyedLocale.isNull(Attrs.NAME) ?
-                jSurveyedLocale.getString(Attrs.NAME) : null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case Attrs.ID:
+                    id = parser.getValueAsString();
+                    break;
+                case Attrs.LAST_MODIFIED:
+                    lastModified = parser.getValueAsLong();
+                    break;
+                case Attrs.SURVEY_GROUP_ID:
+                    surveyGroupId = parser.getValueAsLong();
+                    break;
+                case Attrs.LATITUDE:
+                    latitude = parser.getValueAsDouble();
+                    break;
+                case Attrs.LONGITUDE:
+                    longitude = parser.getValueAsDouble();
+                    break;
+                case Attrs.NAME:
+                    name = parser.getValueAsString();
+                    break;
+                case Attrs.SURVEY_INSTANCES:
+                    if (token == JsonToken.START_ARRAY) {
+                        surveyInstances = new SurveyInstanceParser().parseList(parser);
+                    }
+                    break;
+            }
+            parser.skipChildren();// Unknown or unexpected objects and arrays
+        }
 
-        JSONArray jSurveyInstances = jSurveyedLocale.getJSONArray(Attrs.SURVEY_INSTANCES);
-        List<SurveyInstance> surveyInstances = new SurveyInstanceParser()
-                .parseList(jSurveyInstances);
+        if (id == null) {
+            throw missing(parser, Attrs.ID);
+        } else if (lastModified == null) {
+            throw missing(parser, Attrs.LAST_MODIFIED);
+        } else if (surveyGroupId == null) {
+            throw missing(parser, Attrs.SURVEY_GROUP_ID);
+        } else if (surveyInstances == null) {
+            throw missing(parser, Attrs.SURVEY_INSTANCES);
+        }
 
         SurveyedLocale surveyedLocale = new SurveyedLocale(id, name, lastModified, surveyGroupId,
                 latitude, longitude);
@@ -79,6 +154,10 @@ public class SurveyedLocaleParser {
         return surveyedLocale;
     }
 
+    static JsonParseException missing(JsonParser parser, String attr) {
+        return new JsonParseException("Missing attribute: " + attr, parser.getCurrentLocation());
+    }
+
     interface Attrs {
         // Main response
         String SURVEYED_LOCALE_DATA = "surveyedLocaleData";
@@ -30,6 +30,7 @@ import android.text.TextUtils;
 import org.akvo.flow.R;
 import org.akvo.flow.data.dao.SurveyDao;
 import org.akvo.flow.data.database.SurveyDbAdapter;
+import org.akvo.flow.domain.FormManifest;
 import org.akvo.flow.domain.Survey;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.FileUtil;
@@ -256,8 +257,11 @@ public class BootstrapService extends IntentService {
             survey.setVersion(1d);
         }
 
-        // Save the Survey, SurveyGroup, and languages.
-        updateSurveyStorage(survey);
+        // Compile the form now, so that opening it does not need to parse the xml again
+        SurveyDao.compileSurvey(survey, surveyFile, loadedSurvey);
+
+        // Save the Survey, SurveyGroup, manifest and languages.
+        updateSurveyStorage(survey, FormManifest.fromSurvey(loadedSurvey));
     }
 
     /**
@@ -275,10 +279,11 @@ public class BootstrapService extends IntentService {
         }
     }
 
-    private void updateSurveyStorage(@NonNull Survey survey) {
+    private void updateSurveyStorage(@NonNull Survey survey, @NonNull FormManifest manifest) {
         databaseAdapter.addSurveyGroup(survey.getSurveyGroup());
         databaseAdapter.saveSurvey(survey);
-        String[] languages = LangsPreferenceUtil.determineLanguages(this, survey);
+        databaseAdapter.saveFormManifest(survey.getId(), manifest);
+        String[] languages = LangsPreferenceUtil.determineLanguages(survey, manifest);
         databaseAdapter.addLanguages(languages);
     }
 
@@ -0,0 +1,223 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.service;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.serialization.response.SurveyedLocaleParser;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import timber.log.Timber;
+
+/**
+ * Two-stage datapoint sync. A download thread fetches and parses the pages, while the calling
+ * thread writes them to the database. The next page only depends on the last modification
+ * date of the current one, known as soon as it is parsed, so page N + 1 is downloaded while
+ * page N is still being written.
+ *
+ * Both stages are connected through a bounded queue: if the writer falls behind, the download
+ * blocks until there is room again. The sync time checkpoint is left to the Writer, which must
+ * store it along with the SurveyedLocales, thus it never gets ahead of the written data.
+ */
+public class DataPointSyncPipeline {
+
+    /**
+     * Fetches the page of SurveyedLocales modified after the given time
+     */
+    public interface Source {
+        void fetch(@Nullable String syncTime, @NonNull SurveyedLocaleParser.Sink sink)
+                throws IOException;
+    }
+
+    /**
+     * Stores the SurveyedLocales. Invoked from the thread calling run()
+     */
+    public interface Writer {
+
+        /**
+         * The SurveyedLocale may be buffered, until the end of its page
+         */
+        void write(@NonNull SurveyedLocale surveyedLocale);
+
+        /**
+         * Invoked once every SurveyedLocale of the page has been handed to write()
+         *
+         * @param records ids of the new records found in the page
+         */
+        void onPageEnd(@NonNull Set<String> records);
+    }
+
+    /**
+     * Max number of SurveyedLocales downloaded ahead of the writer
+     */
+    static final int DEFAULT_CAPACITY = 500;
+
+    private final Source mSource;
+    private final Writer mWriter;
+    private final BlockingQueue<Item> mQueue;
+
+    public DataPointSyncPipeline(@NonNull Source source, @NonNull Writer writer) {
+        this(source, writer, DEFAULT_CAPACITY);
+    }
+
+    DataPointSyncPipeline(@NonNull Source source, @NonNull Writer writer, int capacity) {
+        mSource = source;
+        mWriter = writer;
+        mQueue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Sync all the pages, starting at the given time. It returns once every page has been
+     * written, or as soon as any of the stages fails.
+     *
+     * @return the number of records synced
+     */
+    public int run(@Nullable final String syncTime) throws IOException {
+        Thread downloader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                download(syncTime);
+            }
+        }, "DataPointSyncPipeline");
+        downloader.start();
+
+        int records = 0;
+        boolean finished = false;
+        try {
+            while (true) {
+                Item item = mQueue.take();
+                if (item.surveyedLocale != null) {
+                    mWriter.write(item.surveyedLocale);
+                } else if (item.records != null) {
+                    mWriter.onPageEnd(item.records);
+                    records += item.records.size();
+                } else if (item.error != null) {
+                    throw item.error;
+                } else {
+                    finished = true;
+                    return records;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Sync interrupted");
+        } finally {
+            if (!finished) {
+                // Do not leave the download running, i.e. blocked on a full queue
+                downloader.interrupt();
+            }
+        }
+    }
+
+    private void download(@Nullable String syncTime) {
+        try {
+            Set<String> lastPage = new HashSet<>();
+            while (true) {
+                PageReader page = new PageReader(syncTime);
+                mSource.fetch(syncTime, page);
+
+                // The page starts at the last modification date of the previous one. Records
+                // sharing that date are sent again, and must not be counted twice
+                Set<String> records = new HashSet<>(page.records);
+                records.removeAll(lastPage);
+                if (records.isEmpty()) {
+                    break;
+                }
+                mQueue.put(Item.endOfPage(records));
+                lastPage = page.records;
+                syncTime = page.syncTime;
+            }
+            mQueue.put(Item.END);
+        } catch (IOException e) {
+            putError(e);
+        } catch (InterruptedException e) {
+            Timber.d("Sync download cancelled");
+        } catch (RuntimeException e) {
+            putError(new IOException(e));
+        }
+    }
+
+    private void putError(IOException error) {
+        try {
+            mQueue.put(Item.error(error));
+        } catch (InterruptedException e) {
+            // The writer stopped already
+        }
+    }
+
+    /**
+     * Queues the SurveyedLocales of a page as soon as they are parsed
+     */
+    private class PageReader implements SurveyedLocaleParser.Sink {
+
+        final Set<String> records = new HashSet<>();
+        String syncTime;
+
+        PageReader(String syncTime) {
+            this.syncTime = syncTime;
+        }
+
+        @Override
+        public void onSurveyedLocale(@NonNull SurveyedLocale surveyedLocale)
+                throws IOException {
+            try {
+                mQueue.put(Item.surveyedLocale(surveyedLocale));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Sync cancelled");
+            }
+            records.add(surveyedLocale.getId());
+            syncTime = String.valueOf(surveyedLocale.getLastModified());
+        }
+    }
+
+    private static class Item {
+
+        static final Item END = new Item(null, null, null);
+
+        final SurveyedLocale surveyedLocale;
+        final Set<String> records;
+        final IOException error;
+
+        private Item(SurveyedLocale surveyedLocale, Set<String> records, IOException error) {
+            this.surveyedLocale = surveyedLocale;
+            this.records = records;
+            this.error = error;
+        }
+
+        static Item surveyedLocale(SurveyedLocale surveyedLocale) {
+            return new Item(surveyedLocale, null, null);
+        }
+
+        static Item endOfPage(Set<String> records) {
+            return new Item(null, records, null);
+        }
+
+        static Item error(IOException error) {
+            return new Item(null, null, error);
+        }
+    }
+}
@@ -28,8 +28,6 @@ import android.support.v4.content.LocalBroadcastManager;
 import android.text.TextUtils;
 import android.util.Base64;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import org.akvo.flow.R;
 import org.akvo.flow.api.FlowApi;
 import org.akvo.flow.api.S3Api;
@@ -40,32 +38,58 @@ import org.akvo.flow.data.database.SurveyInstanceStatus;
 import org.akvo.flow.data.database.TransmissionStatus;
 import org.akvo.flow.data.database.UserColumns;
 import org.akvo.flow.data.preference.Prefs;
+import org.akvo.flow.domain.FileChecksum;
 import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.domain.MultipartUpload;
 import org.akvo.flow.domain.Survey;
 import org.akvo.flow.domain.response.FormInstance;
 import org.akvo.flow.domain.response.Response;
+import org.akvo.flow.serialization.response.BundleManifestWriter;
+import org.akvo.flow.serialization.response.FormInstanceWriter;
 import org.akvo.flow.util.ConnectivityStateManager;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.FileUtil;
 import org.akvo.flow.util.FileUtil.FileType;
 import org.akvo.flow.util.NotificationHelper;
 import org.akvo.flow.util.PropertyUtil;
+import org.akvo.flow.util.RetryBackoff;
+import org.akvo.flow.util.SignatureStore;
 import org.akvo.flow.util.StringUtil;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.security.DigestOutputStream;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.Adler32;
 import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipEntry;
@@ -85,8 +109,8 @@ import timber.log.Timber;
  * execution of the service, until the zip file finally gets exported. A possible scenario for
  * this is the submission of a survey when the external storage is not available, postponing the
  * export until it gets ready.
- * After the export of the zip files, the sync will be run, attempting to upload all the non synced
- * files to the datastore.
+ * Zip files are created in the background while the sync runs, attempting to upload all the non
+ * synced files to the datastore, along with the new zip files as soon as they are ready.
  *
  * @author Christopher Fagiani
  */
@@ -99,12 +123,23 @@ public class DataSyncService extends IntentService {
     private static final String SIGNING_KEY_PROP = "signingKey";
     private static final String SIGNING_ALGORITHM = "HmacSHA1";
 
+    /**
+     * Instance property enabling export bundles, for backends able to process them
+     */
+    private static final String EXPORT_BUNDLES_PROP = "exportBundles";
+
+    /**
+     * Max number of form instances packed in a single export bundle
+     */
+    private static final int MAX_BUNDLE_INSTANCES = 50;
+
     private static final String SURVEY_DATA_FILE_JSON = "data.json";
     private static final String SIG_FILE_NAME = ".sig";
 
     private static final String DATA_CONTENT_TYPE = "application/zip";
     private static final String JPEG_CONTENT_TYPE = "image/jpeg";
     private static final String PNG_CONTENT_TYPE = "image/png";
+    private static final String WEBP_CONTENT_TYPE = "image/webp";
     private static final String VIDEO_CONTENT_TYPE = "video/mp4";
 
     private static final String ACTION_SUBMIT = "submit";
@@ -120,10 +155,47 @@ public class DataSyncService extends IntentService {
      */
     private static final int FILE_UPLOAD_RETRIES = 2;
 
+    /**
+     * Delay between the upload retries of a single sync
+     */
+    private static final RetryBackoff UPLOAD_RETRY_BACKOFF = new RetryBackoff(
+            1000, 8 * 1000);// 1 second to 8 seconds
+
+    /**
+     * Delay before a failed transmission becomes due again in a later sync
+     */
+    private static final RetryBackoff TRANSMISSION_RETRY_BACKOFF = new RetryBackoff(
+            60 * 1000, 12 * 60 * 60 * 1000);// 1 minute to 12 hours
+
+    /**
+     * Upper bound for the number of simultaneous uploads
+     */
+    private static final int MAX_UPLOAD_CONCURRENCY = 6;
+
+    /**
+     * How often the sync thread wakes up to apply writes posted by the upload workers
+     */
+    private static final long WRITE_POLL_INTERVAL_MS = 500;
+
+    /**
+     * How often the sync thread checks for new zip files, while the export is running
+     */
+    private static final long EXPORT_POLL_INTERVAL_MS = 50;
+
+    /**
+     * Upper bound for the number of zip files created simultaneously
+     */
+    private static final int MAX_EXPORT_CONCURRENCY = 3;
+
     private PropertyUtil mProps;
     private SurveyDbAdapter mDatabase;
     private Prefs preferences;
     private ConnectivityStateManager connectivityStateManager;
+    private final BlockingQueue<Runnable> pendingWrites = new LinkedBlockingQueue<>();
+    private ExecutorService exportExecutor;
+    private CompletionService<ZipFileData> exports;
+    private int pendingExports = 0;
+    private final Set<Long> exportingInstances = new HashSet<>();
 
     public DataSyncService() {
         super(TAG);
@@ -137,44 +209,168 @@ public class DataSyncService extends IntentService {
             mDatabase.open();
             preferences = new Prefs(getApplicationContext());
             connectivityStateManager = new ConnectivityStateManager(getApplicationContext());
-            exportSurveys();// Create zip files, if necessary
+            migrateSignatures();
+            exportSurveys();// Create zip files, if necessary, in the background
 
             if (connectivityStateManager.isConnectionAvailable(preferences
                     .getBoolean(Prefs.KEY_CELL_UPLOAD, Prefs.DEFAULT_VALUE_CELL_UPLOAD))) {
-                syncFiles();// Sync everything
+                syncFiles();// Sync everything, uploading zip files as soon as they are ready
             }
+            finishExport();// Queue any zip file not handled by the sync
         } catch (Exception e) {
             Timber.e(e, e.getMessage());
         } finally {
+            if (exportExecutor != null) {
+                exportExecutor.shutdownNow();
+            }
             if (mDatabase != null) {
                 mDatabase.close();
             }
         }
     }
 
+    /**
+     * Move the signatures stored inline, before they were stored as files, out of the
+     * database. It only runs once after the upgrade, off the UI thread.
+     */
+    private void migrateSignatures() {
+        if (preferences.getBoolean(Prefs.KEY_SIGNATURES_MIGRATED, false)) {
+            return;
+        }
+        Timber.i("Signatures moved into files: " + mDatabase.moveSignaturesToFiles());
+        preferences.setBoolean(Prefs.KEY_SIGNATURES_MIGRATED, true);
+    }
+
     // ================================================================= //
     // ============================ EXPORT ============================= //
     // ================================================================= //
 
+    /**
+     * Start creating the zip files of the unexported survey instances. Zip files are created
+     * concurrently by a small pool of workers, which only read from the database. Finished
+     * zip files are queued for transmission by the calling thread, either while syncing,
+     * so they are uploaded as soon as they are ready, or in finishExport().
+     */
     private void exportSurveys() {
         // First off, ensure surveys marked as 'exported' are indeed found in the external storage.
         // Missing surveys will be set to 'submitted', so the next step re-creates these files too.
         checkExportedFiles();
 
-        for (long id : getUnexportedSurveys()) {
-            ZipFileData zipFileData = formZip(id);
-            if (zipFileData != null) {
-                displayNotification(getString(R.string.exportcomplete), zipFileData.formName);
+        List<ExportTask> tasks = new ArrayList<>();
+        if (mProps.getBoolean(EXPORT_BUNDLES_PROP)) {
+            // Pack the instances of each form together, saving an upload and a processing
+            // notification per instance
+            for (Map.Entry<String, List<Long>> form : getUnexportedSurveysByForm().entrySet()) {
+                List<Long> ids = form.getValue();
+                for (int i = 0; i < ids.size(); i += MAX_BUNDLE_INSTANCES) {
+                    tasks.add(new ExportTask(form.getKey(), new ArrayList<>(
+                            ids.subList(i, Math.min(i + MAX_BUNDLE_INSTANCES, ids.size())))));
+                }
+                exportingInstances.addAll(ids);
+            }
+        } else {
+            for (long id : getUnexportedSurveys()) {
+                tasks.add(new ExportTask(id));
+                exportingInstances.add(id);
+            }
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        int concurrency = Math.min(tasks.size(), Math.min(MAX_EXPORT_CONCURRENCY,
+                Runtime.getRuntime().availableProcessors()));
+        exportExecutor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        exports = new ExecutorCompletionService<>(exportExecutor);
+        for (ExportTask task : tasks) {
+            exports.submit(task);
+            pendingExports++;
+        }
+    }
+
+    /**
+     * Wait for the zip files still being created, and queue them for transmission
+     */
+    private void finishExport() {
+        try {
+            while (pendingExports > 0) {
+                queueExport(takeExport(exports.take()));
+            }
+        } catch (InterruptedException e) {
+            // Survey instances not exported yet are still SUBMITTED, and will be exported again
+            Timber.e(e, "Export interrupted");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Timber.e(e, "Export failed");
+        }
+    }
 
-                // Create new entries in the transmission queue
-                mDatabase.createTransmission(id, zipFileData.formId, zipFileData.filename);
-                updateSurveyStatus(id, SurveyInstanceStatus.EXPORTED);
+    @Nullable
+    private ZipFileData takeExport(@NonNull Future<ZipFileData> export)
+            throws ExecutionException, InterruptedException {
+        pendingExports--;
+        return export.get();
+    }
 
-                for (String image : zipFileData.imagePaths) {
-                    mDatabase.createTransmission(id, zipFileData.formId, image);
+    /**
+     * Create the transmissions of an exported zip file, and the media files of its survey
+     * instances, which are then set to EXPORTED.
+     *
+     * @return the new transmissions, the one of the zip file first
+     */
+    @NonNull
+    private List<FileTransmission> queueExport(@Nullable ZipFileData zipFileData) {
+        List<FileTransmission> transmissions = new ArrayList<>();
+        if (zipFileData == null) {
+            return transmissions;
+        }
+        displayNotification(getString(R.string.exportcomplete), zipFileData.formName);
+
+        // Create new entries in the transmission queue
+        Set<Long> ids = zipFileData.imagePaths.keySet();
+        long respondentId = ids.iterator().next();
+        FileTransmission archive = newTransmission(respondentId, zipFileData.formId,
+                zipFileData.filename);
+        archive.setChecksum(zipFileData.checksum);
+        if (zipFileData.bundle) {
+            long[] bundleInstances = new long[ids.size()];
+            int i = 0;
+            for (long id : ids) {
+                bundleInstances[i++] = id;
+            }
+            mDatabase.createBundleTransmission(bundleInstances, zipFileData.formId,
+                    zipFileData.filename, zipFileData.checksum);
+            archive.setBundleInstances(bundleInstances);
+        } else {
+            mDatabase.createTransmission(respondentId, zipFileData.formId,
+                    zipFileData.filename, TransmissionStatus.QUEUED, zipFileData.checksum);
+        }
+        transmissions.add(archive);
+
+        for (Map.Entry<Long, List<String>> instance : zipFileData.imagePaths.entrySet()) {
+            long id = instance.getKey();
+            updateSurveyStatus(id, SurveyInstanceStatus.EXPORTED);
+            // A file may be referenced by several responses
+            for (String image : new LinkedHashSet<>(instance.getValue())) {
+                if (mDatabase.queueMediaTransmission(id, zipFileData.formId, image)) {
+                    transmissions.add(newTransmission(id, zipFileData.formId, image));
                 }
             }
+            // Checksums stored for files discarded before the form was submitted
+            mDatabase.deleteStalePendingTransmissions(id);
         }
+        return transmissions;
+    }
+
+    @NonNull
+    private static FileTransmission newTransmission(long surveyInstanceId, String formId,
+            String filename) {
+        FileTransmission transmission = new FileTransmission();
+        transmission.setRespondentId(surveyInstanceId);
+        transmission.setFormId(formId);
+        transmission.setFileName(filename);
+        transmission.setStatus(TransmissionStatus.QUEUED);
+        return transmission;
     }
 
     @NonNull
@@ -183,23 +379,37 @@ public class DataSyncService extends IntentService {
     }
 
     private void checkExportedFiles() {
+        Map<Long, String> exported = new LinkedHashMap<>();
         Cursor cursor = mDatabase.getSurveyInstancesByStatus(SurveyInstanceStatus.EXPORTED);
         if (cursor != null) {
             if (cursor.moveToFirst()) {
                 do {
-                    long id = cursor
-                            .getLong(cursor.getColumnIndexOrThrow(SurveyInstanceColumns._ID));
-                    String uuid = cursor
-                            .getString(cursor.getColumnIndexOrThrow(SurveyInstanceColumns.UUID));
-                    if (!getSurveyInstanceFile(uuid).exists()) {
-                        Timber.d("Exported file for survey " + uuid + " not found. It's status " +
-                                "will be set to 'submitted', and will be reprocessed");
-                        updateSurveyStatus(id, SurveyInstanceStatus.SUBMITTED);
-                    }
+                    exported.put(
+                            cursor.getLong(cursor.getColumnIndexOrThrow(SurveyInstanceColumns._ID)),
+                            cursor.getString(
+                                    cursor.getColumnIndexOrThrow(SurveyInstanceColumns.UUID)));
                 } while (cursor.moveToNext());
             }
             cursor.close();
         }
+
+        // Bundled instances are found in their bundle. Once a bundle is lost, its instances
+        // are packed again in a new one, and the old transmission is discarded
+        Map<Long, String> bundles = mDatabase.getBundleFilenames(exported.keySet());
+        for (Map.Entry<Long, String> instance : exported.entrySet()) {
+            long id = instance.getKey();
+            String uuid = instance.getValue();
+            String bundle = bundles.get(id);
+            File file = bundle != null ? new File(bundle) : getSurveyInstanceFile(uuid);
+            if (!file.exists()) {
+                Timber.d("Exported file for survey " + uuid + " not found. It's status " +
+                        "will be set to 'submitted', and will be reprocessed");
+                if (bundle != null) {
+                    mDatabase.deleteTransmission(bundle);
+                }
+                updateSurveyStatus(id, SurveyInstanceStatus.SUBMITTED);
+            }
+        }
     }
 
     @NonNull
@@ -219,21 +429,49 @@ public class DataSyncService extends IntentService {
         return surveyInstanceIds;
     }
 
+    /**
+     * @return the ids of the unexported survey instances, grouped by form id
+     */
+    @NonNull
+    private Map<String, List<Long>> getUnexportedSurveysByForm() {
+        Map<String, List<Long>> forms = new LinkedHashMap<>();
+        Cursor cursor = mDatabase.getSurveyInstancesByStatus(SurveyInstanceStatus.SUBMITTED);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                final int idCol = cursor.getColumnIndexOrThrow(SurveyInstanceColumns._ID);
+                final int formIdCol = cursor.getColumnIndexOrThrow(SurveyInstanceColumns.SURVEY_ID);
+                do {
+                    String formId = cursor.getString(formIdCol);
+                    List<Long> ids = forms.get(formId);
+                    if (ids == null) {
+                        ids = new ArrayList<>();
+                        forms.put(formId, ids);
+                    }
+                    ids.add(cursor.getLong(idCol));
+                } while (cursor.moveToNext());
+            }
+            cursor.close();
+        }
+        return forms;
+    }
+
     private ZipFileData formZip(long surveyInstanceId) {
+        Cursor data = mDatabase.getResponsesData(surveyInstanceId);
+        if (data == null) {
+            return null;
+        }
+        ZipOutputStream zos = null;
         try {
-            ZipFileData zipFileData = new ZipFileData();
-            // Process form instance data and collect image filenames
-            FormInstance formInstance = processFormInstance(surveyInstanceId,
-                    zipFileData.imagePaths);
-
-            if (formInstance == null) {
+            if (!data.moveToFirst()) {
+                Timber.e("No responses found for survey instance " + surveyInstanceId);
                 return null;
             }
-
-            // Serialize form instance as JSON
-            zipFileData.data = new ObjectMapper().writeValueAsString(formInstance);
+            ZipFileData zipFileData = new ZipFileData();
+            FormInstance formInstance = readFormInstance(data);
             zipFileData.uuid = formInstance.getUUID();
             zipFileData.formId = String.valueOf(formInstance.getFormId());
+            List<String> imagePaths = new ArrayList<>();
+            zipFileData.imagePaths.put(surveyInstanceId, imagePaths);
             zipFileData.formName = mDatabase.getSurvey(zipFileData.formId).getName();
 
             File zipFile = getSurveyInstanceFile(
@@ -244,34 +482,143 @@ public class DataSyncService extends IntentService {
             zipFileData.filename = fileName;
             Timber.i("Creating zip file: " + fileName);
             FileOutputStream fout = new FileOutputStream(zipFile);
-            CheckedOutputStream checkedOutStream = new CheckedOutputStream(fout, new Adler32());
-            ZipOutputStream zos = new ZipOutputStream(checkedOutStream);
-
-            writeTextToZip(zos, zipFileData.data, SURVEY_DATA_FILE_JSON);
-            String signingKeyString = mProps.getProperty(SIGNING_KEY_PROP);
-            if (!StringUtil.isNullOrEmpty(signingKeyString)) {
-                MessageDigest sha1Digest = MessageDigest.getInstance("SHA1");
-                byte[] digest = sha1Digest.digest(zipFileData.data.getBytes(UTF_8_CHARSET));
-                SecretKeySpec signingKey = new SecretKeySpec(
-                        signingKeyString.getBytes(UTF_8_CHARSET),
-                        SIGNING_ALGORITHM);
-                Mac mac = Mac.getInstance(SIGNING_ALGORITHM);
-                mac.init(signingKey);
-                byte[] hmac = mac.doFinal(digest);
-                String encodedHmac = Base64.encodeToString(hmac, Base64.DEFAULT);
-                writeTextToZip(zos, encodedHmac, SIG_FILE_NAME);
-            }
+            // Compute the MD5 while writing, so the upload does not need to read the file again
+            MessageDigest md5Digest = MessageDigest.getInstance("MD5");
+            DigestOutputStream digestOutStream = new DigestOutputStream(fout, md5Digest);
+            CheckedOutputStream checkedOutStream = new CheckedOutputStream(digestOutStream,
+                    new Adler32());
+            zos = new ZipOutputStream(checkedOutStream);
+
+            writeFormInstance(zos, "", formInstance, data, imagePaths);
 
             final String checksum = "" + checkedOutStream.getChecksum().getValue();
             zos.close();
+            zipFileData.checksum = new FileChecksum(md5Digest.digest(), zipFile);
             Timber.i("Closed zip output stream for file: " + fileName + ". Checksum: " + checksum);
             return zipFileData;
         } catch (@NonNull IOException | NoSuchAlgorithmException | InvalidKeyException e) {
             Timber.e(e, e.getMessage());
             return null;
+        } finally {
+            FileUtil.close(zos);
+            data.close();
+        }
+    }
+
+    /**
+     * Pack the given survey instances of a form into a single zip file. Each instance is
+     * stored in a directory named after its UUID, and listed in the bundle manifest.
+     *
+     * @return the bundle data, or null if no survey instance could be exported
+     */
+    @Nullable
+    private ZipFileData formBundle(@NonNull String formId, @NonNull List<Long> surveyInstanceIds) {
+        ZipFileData zipFileData = new ZipFileData();
+        zipFileData.bundle = true;
+        zipFileData.uuid = UUID.randomUUID().toString();
+        zipFileData.formId = formId;
+        Survey survey = mDatabase.getSurvey(formId);
+        zipFileData.formName = survey != null ? survey.getName() : formId;
+
+        File zipFile = getSurveyInstanceFile(zipFileData.uuid);
+        String fileName = zipFile.getAbsolutePath();
+        zipFileData.filename = fileName;
+        Timber.i("Creating bundle file: " + fileName);
+        ZipOutputStream zos = null;
+        try {
+            MessageDigest md5Digest = MessageDigest.getInstance("MD5");
+            zos = new ZipOutputStream(new DigestOutputStream(new FileOutputStream(zipFile),
+                    md5Digest));
+            BundleManifestWriter manifest = new BundleManifestWriter(formId);
+            for (long id : surveyInstanceIds) {
+                Cursor data = mDatabase.getResponsesData(id);
+                if (data == null) {
+                    continue;
+                }
+                try {
+                    if (!data.moveToFirst()) {
+                        Timber.e("No responses found for survey instance " + id);
+                        continue;
+                    }
+                    FormInstance formInstance = readFormInstance(data);
+                    String prefix = formInstance.getUUID() + "/";
+                    List<String> imagePaths = new ArrayList<>();
+                    String signatureEntry = writeFormInstance(zos, prefix, formInstance, data,
+                            imagePaths);
+                    manifest.addInstance(formInstance.getUUID(), prefix + SURVEY_DATA_FILE_JSON,
+                            signatureEntry);
+                    zipFileData.imagePaths.put(id, imagePaths);
+                } finally {
+                    data.close();
+                }
+            }
+            if (manifest.getInstanceCount() == 0) {
+                zos.close();
+                zipFile.delete();
+                return null;
+            }
+
+            // The manifest goes last, once every instance has been written
+            zos.putNextEntry(new ZipEntry(BundleManifestWriter.FILENAME));
+            manifest.write(zos);
+            zos.closeEntry();
+            zos.close();
+            zipFileData.checksum = new FileChecksum(md5Digest.digest(), zipFile);
+            Timber.i("Closed bundle file: " + fileName + ". Instances: "
+                    + manifest.getInstanceCount());
+            return zipFileData;
+        } catch (@NonNull IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            Timber.e(e, e.getMessage());
+            FileUtil.close(zos);
+            zipFile.delete();
+            return null;
+        } finally {
+            FileUtil.close(zos);
         }
     }
 
+    /**
+     * Stream the responses of a form instance straight into a zip entry, followed by the
+     * entry with its signature, if the data has to be signed. The SHA1 of the data is
+     * computed on the fly, as the JSON is written. The cursor must be positioned at the
+     * first row.
+     *
+     * @param prefix path of the entries within the zip file
+     * @return the name of the signature entry, or null if the data is not signed
+     */
+    @Nullable
+    private String writeFormInstance(@NonNull ZipOutputStream zos, @NonNull String prefix,
+            @NonNull FormInstance formInstance, @NonNull Cursor data,
+            @NonNull List<String> imagePaths)
+            throws IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String signingKeyString = mProps.getProperty(SIGNING_KEY_PROP);
+        MessageDigest sha1Digest = null;
+        OutputStream jsonOut = zos;
+        if (!StringUtil.isNullOrEmpty(signingKeyString)) {
+            sha1Digest = MessageDigest.getInstance("SHA1");
+            jsonOut = new DigestOutputStream(zos, sha1Digest);
+        }
+        zos.putNextEntry(new ZipEntry(prefix + SURVEY_DATA_FILE_JSON));
+        FormInstanceWriter writer = new FormInstanceWriter(jsonOut);
+        writer.writeHeader(formInstance);
+        writeResponses(data, writer, imagePaths);
+        writer.writeEnd();
+        zos.closeEntry();
+
+        if (sha1Digest == null) {
+            return null;
+        }
+        SecretKeySpec signingKey = new SecretKeySpec(
+                signingKeyString.getBytes(UTF_8_CHARSET),
+                SIGNING_ALGORITHM);
+        Mac mac = Mac.getInstance(SIGNING_ALGORITHM);
+        mac.init(signingKey);
+        byte[] hmac = mac.doFinal(sha1Digest.digest());
+        String encodedHmac = Base64.encodeToString(hmac, Base64.DEFAULT);
+        writeTextToZip(zos, encodedHmac, prefix + SIG_FILE_NAME);
+        return prefix + SIG_FILE_NAME;
+    }
+
     /**
      * Writes the contents of text to a zip entry within the Zip file behind zos
      * named fileName
@@ -287,99 +634,95 @@ public class DataSyncService extends IntentService {
     }
 
     /**
-     * Iterate over the survey data returned from the database and populate the
-     * ZipFileData information, setting the UUID, Survey ID, image paths, and String data.
+     * Read the form instance attributes from the survey data returned from the database. These
+     * are repeated in every row, the first one is used.
      */
     @NonNull
-    private FormInstance processFormInstance(long surveyInstanceId,
-            @NonNull List<String> imagePaths) {
+    private FormInstance readFormInstance(@NonNull Cursor data) {
+        String deviceIdentifier = preferences
+                .getString(Prefs.KEY_DEVICE_IDENTIFIER, Prefs.DEFAULT_VALUE_DEVICE_IDENTIFIER);
         FormInstance formInstance = new FormInstance();
-        List<Response> responses = new ArrayList<>();
-        Cursor data = mDatabase.getResponsesData(surveyInstanceId);
+        formInstance.setUUID(data.getString(
+                data.getColumnIndexOrThrow(SurveyInstanceColumns.UUID)));
+        formInstance.setFormId(data.getLong(data.getColumnIndexOrThrow(
+                SurveyInstanceColumns.SURVEY_ID)));// FormInstance uses a number for this attr
+        formInstance.setDataPointId(data.getString(
+                data.getColumnIndexOrThrow(SurveyInstanceColumns.RECORD_ID)));
+        formInstance.setDeviceId(cleanVal(deviceIdentifier));
+        formInstance.setSubmissionDate(data.getLong(
+                data.getColumnIndexOrThrow(SurveyInstanceColumns.SUBMITTED_DATE)));
+        formInstance.setDuration(data.getLong(
+                data.getColumnIndexOrThrow(SurveyInstanceColumns.DURATION)) / 1000);
+        formInstance.setUsername(cleanVal(data.getString(
+                data.getColumnIndexOrThrow(UserColumns.NAME))));
+        formInstance.setEmail(cleanVal(data.getString(
+                data.getColumnIndexOrThrow(UserColumns.EMAIL))));
+        return formInstance;
+    }
 
-        if (data != null && data.moveToFirst()) {
-            String deviceIdentifier = preferences
-                    .getString(Prefs.KEY_DEVICE_IDENTIFIER, Prefs.DEFAULT_VALUE_DEVICE_IDENTIFIER);
-            deviceIdentifier = cleanVal(deviceIdentifier);
-            // evaluate indices once, outside the loop
-            int survey_fk_col = data.getColumnIndexOrThrow(SurveyInstanceColumns.SURVEY_ID);
-            int question_fk_col = data.getColumnIndexOrThrow(ResponseColumns.QUESTION_ID);
-            int answer_type_col = data.getColumnIndexOrThrow(ResponseColumns.TYPE);
-            int answer_col = data.getColumnIndexOrThrow(ResponseColumns.ANSWER);
-            int filename_col = data.getColumnIndexOrThrow(ResponseColumns.FILENAME);
-            int disp_name_col = data.getColumnIndexOrThrow(UserColumns.NAME);
-            int email_col = data.getColumnIndexOrThrow(UserColumns.EMAIL);
-            int submitted_date_col = data
-                    .getColumnIndexOrThrow(SurveyInstanceColumns.SUBMITTED_DATE);
-            int uuid_col = data.getColumnIndexOrThrow(SurveyInstanceColumns.UUID);
-            int duration_col = data.getColumnIndexOrThrow(SurveyInstanceColumns.DURATION);
-            int localeId_col = data.getColumnIndexOrThrow(SurveyInstanceColumns.RECORD_ID);
-            // Note: No need to query the surveyInstanceId, we already have that value
-
-            do {
-                // Sanitize answer value. No newlines or tabs!
-                String value = data.getString(answer_col);
-                if (value != null) {
-                    value = value.replace("\n", SPACE);
-                    value = value.replace(DELIMITER, SPACE);
-                    value = value.trim();
-                }
-                // never send empty answers
-                if (value == null || value.length() == 0) {
-                    continue;
-                }
-                final long submitted_date = data.getLong(submitted_date_col);
-                final long surveyal_time = (data.getLong(duration_col)) / 1000;
-
-                if (formInstance.getUUID() == null) {
-                    formInstance.setUUID(data.getString(uuid_col));
-                    formInstance.setFormId(
-                            data.getLong(survey_fk_col));// FormInstance uses a number for this attr
-                    formInstance.setDataPointId(data.getString(localeId_col));
-                    formInstance.setDeviceId(deviceIdentifier);
-                    formInstance.setSubmissionDate(submitted_date);
-                    formInstance.setDuration(surveyal_time);
-                    formInstance.setUsername(cleanVal(data.getString(disp_name_col)));
-                    formInstance.setEmail(cleanVal(data.getString(email_col)));
-                }
+    /**
+     * Iterate over the survey data returned from the database, writing each response as it
+     * is read, and collecting the image paths. The cursor must be positioned at the first row.
+     */
+    private void writeResponses(@NonNull Cursor data, @NonNull FormInstanceWriter writer,
+            @NonNull List<String> imagePaths) throws IOException {
+        // evaluate indices once, outside the loop
+        int question_fk_col = data.getColumnIndexOrThrow(ResponseColumns.QUESTION_ID);
+        int answer_type_col = data.getColumnIndexOrThrow(ResponseColumns.TYPE);
+        int answer_col = data.getColumnIndexOrThrow(ResponseColumns.ANSWER);
+        int filename_col = data.getColumnIndexOrThrow(ResponseColumns.FILENAME);
+        // Note: No need to query the surveyInstanceId, we already have that value
+
+        do {
+            // Sanitize answer value. No newlines or tabs!
+            String value = data.getString(answer_col);
+            if (value != null) {
+                value = value.replace("\n", SPACE);
+                value = value.replace(DELIMITER, SPACE);
+                value = value.trim();
+            }
+            // never send empty answers
+            if (value == null || value.length() == 0) {
+                continue;
+            }
 
-                // If the response has any file attached, enqueue it to the image list
-                String filename = data.getString(filename_col);
-                if (!TextUtils.isEmpty(filename)) {
-                    imagePaths.add(filename);
-                }
+            // If the response has any file attached, enqueue it to the image list
+            String filename = data.getString(filename_col);
+            if (!TextUtils.isEmpty(filename)) {
+                imagePaths.add(filename);
+            }
 
-                // Ensure backwards compatibility. Old image responses may contain filenames
-                String type = data.getString(answer_type_col);
-                if (ConstantUtil.IMAGE_RESPONSE_TYPE.equals(type)
-                        || ConstantUtil.VIDEO_RESPONSE_TYPE.equals(type)) {
-                    if (!TextUtils.isEmpty(value) && new File(value).exists()) {
-                        imagePaths.add(value);
-                    }
-                }
+            String type = data.getString(answer_type_col);
+            if (ConstantUtil.SIGNATURE_RESPONSE_TYPE.equals(type)) {
+                // Signature files are sent inline, as the dashboard expects them. A signature
+                // that cannot be read aborts the export, so the instance stays SUBMITTED
+                value = SignatureStore.inline(value);
+            }
 
-                int iteration = 0;
-                String qid = data.getString(question_fk_col);
-                String[] tokens = qid.split("\\|", -1);
-                if (tokens.length == 2) {
-                    // This is a compound ID from a repeatable question
-                    qid = tokens[0];
-                    iteration = Integer.parseInt(tokens[1]);
+            // Ensure backwards compatibility. Old image responses may contain filenames
+            if (ConstantUtil.IMAGE_RESPONSE_TYPE.equals(type)
+                    || ConstantUtil.VIDEO_RESPONSE_TYPE.equals(type)) {
+                if (!TextUtils.isEmpty(value) && new File(value).exists()) {
+                    imagePaths.add(value);
                 }
+            }
 
-                Response response = new Response();
-                response.setQuestionId(qid);
-                response.setAnswerType(type);
-                response.setValue(value);
-                response.setIteration(iteration);
-                responses.add(response);
-            } while (data.moveToNext());
-
-            formInstance.setResponses(responses);
-            data.close();
-        }
+            int iteration = 0;
+            String qid = data.getString(question_fk_col);
+            String[] tokens = qid.split("\\|", -1);
+            if (tokens.length == 2) {
+                // This is a compound ID from a repeatable question
+                qid = tokens[0];
+                iteration = Integer.parseInt(tokens[1]);
+            }
 
-        return formInstance;
+            Response response = new Response();
+            response.setQuestionId(qid);
+            response.setAnswerType(type);
+            response.setValue(value);
+            response.setIteration(iteration);
+            writer.writeResponse(response);
+        } while (data.moveToNext());
     }
 
     // replace troublesome chars in user-provided values
@@ -407,11 +750,17 @@ public class DataSyncService extends IntentService {
     /**
      * Sync every file (zip file, images, etc) that has a non synced state. This refers to:
      * - Queued transmissions
-     * - Failed transmissions
+     * - Failed transmissions whose retry delay has expired
      * Each transmission will be retried up to three times. If the transmission does
-     * not succeed in those attempts, it will be marked as failed, and retried in the next sync.
+     * not succeed in those attempts, it will be marked as failed, and retried in a later sync,
+     * once a delay that grows exponentially with the number of failed attempts has elapsed.
      * Files are uploaded to S3 and the response's ETag is compared against a locally computed
      * MD5 checksum. Only if these fields match the transmission will be considered successful.
+     * Uploads run concurrently on a bounded pool of workers, whereas every database write is
+     * performed by the calling thread, as results come back, so SQLite is never contended.
+     * Uploads are sent by priority, and the backend is notified of them in batches.
+     * Zip files still being exported are uploaded along with the form data, as soon as they
+     * are ready, and their media files along with the other ones.
      */
     private void syncFiles() {
         // Check notifications for this device. This will update the status of the transmissions
@@ -420,30 +769,144 @@ public class DataSyncService extends IntentService {
 
         List<FileTransmission> transmissions = mDatabase.getUnsyncedTransmissions();
 
-        if (transmissions.isEmpty()) {
+        if (transmissions.isEmpty() && pendingExports == 0) {
             return;
         }
 
         Set<Long> syncedSurveys = new HashSet<>();// Successful transmissions
         Set<Long> unsyncedSurveys = new HashSet<>();// Unsuccessful transmissions
 
-        final int totalFiles = transmissions.size();
-        displayProgressNotification(0, totalFiles);
+        // Transmissions come sorted by priority, form data first. Each group of files sharing
+        // the processing action is uploaded and notified before the next one starts, so the
+        // submissions reach the dashboard even if connectivity is lost while sending media.
+        List<List<FileTransmission>> groups = new ArrayList<>();
+        List<String> groupActions = new ArrayList<>();
+        int totalFiles = 0;// Grows as new zip files are exported
+        int handled = 0;
+        for (FileTransmission transmission : transmissions) {
+            if (exportingInstances.contains(transmission.getRespondentId())) {
+                // Its files are being created again, and will be queued once they are ready
+                continue;
+            }
+            totalFiles++;
+            UploadDestination destination = getUploadDestination(transmission.getFileName());
+            if (destination == null) {
+                addSurveyInstances(unsyncedSurveys, transmission);
+                handled++;
+                continue;
+            }
+            if (groups.isEmpty()
+                    || !destination.action.equals(groupActions.get(groups.size() - 1))) {
+                groups.add(new ArrayList<FileTransmission>());
+                groupActions.add(destination.action);
+            }
+            groups.get(groups.size() - 1).add(transmission);
+        }
+        if (pendingExports > 0
+                && (groups.isEmpty() || !ACTION_SUBMIT.equals(groupActions.get(0)))) {
+            // The zip files being exported are uploaded within the form data group
+            groups.add(0, new ArrayList<FileTransmission>());
+            groupActions.add(0, ACTION_SUBMIT);
+        }
+        List<FileTransmission> exportedMedia = new ArrayList<>();
+        displayProgressNotification(handled, totalFiles);
+
+        ExecutorService executor = Executors.newFixedThreadPool(getUploadConcurrency());
+        CompletionService<UploadResult> completionService = new ExecutorCompletionService<>(
+                executor);
+        List<FileTransmission> uploaded = new ArrayList<>();
+        try {
+            for (int i = 0; i < groups.size(); i++) {
+                List<FileTransmission> group = groups.get(i);
+                final boolean exporting = ACTION_SUBMIT.equals(groupActions.get(i));
+                if (ACTION_IMAGE.equals(groupActions.get(i))) {
+                    group.addAll(exportedMedia);
+                    exportedMedia.clear();
+                }
+                int pending = 0;
+                for (FileTransmission transmission : group) {
+                    startUpload(completionService, transmission);
+                    pending++;
+                }
 
-        for (int i = 0; i < totalFiles; i++) {
-            FileTransmission transmission = transmissions.get(i);
-            final long surveyInstanceId = transmission.getRespondentId();
-            if (syncFile(transmission.getFileName(), transmission.getFormId()
-            )) {
-                syncedSurveys.add(surveyInstanceId);
-            } else {
-                unsyncedSurveys.add(surveyInstanceId);
+                // Results are collected in completion order. The SYNCED/EXPORTED rollup below
+                // only depends on the final content of both sets, not on that order.
+                while (pending > 0 || (exporting && pendingExports > 0)) {
+                    // Workers may post progress updates while running. Apply them before any
+                    // result, as results always supersede the progress of that transmission.
+                    applyPendingWrites();
+                    if (exporting && pendingExports > 0) {
+                        Future<ZipFileData> export = exports.poll(
+                                pending > 0 ? 0 : EXPORT_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                        if (export != null) {
+                            List<FileTransmission> exported = queueExport(takeExport(export));
+                            if (!exported.isEmpty()) {
+                                startUpload(completionService, exported.get(0));
+                                pending++;
+                                exportedMedia.addAll(exported.subList(1, exported.size()));
+                                totalFiles += exported.size();
+                            }
+                        }
+                        if (pending == 0) {
+                            continue;
+                        }
+                    }
+                    long timeout = exporting && pendingExports > 0 ? EXPORT_POLL_INTERVAL_MS
+                            : WRITE_POLL_INTERVAL_MS;
+                    Future<UploadResult> future = completionService
+                            .poll(timeout, TimeUnit.MILLISECONDS);
+                    if (future == null) {
+                        continue;
+                    }
+                    pending--;
+                    applyPendingWrites();
+                    UploadResult result = future.get();
+                    if (result.uploaded) {
+                        // Stays IN_PROGRESS until the backend is notified
+                        uploaded.add(result.transmission);
+                    } else {
+                        mDatabase.updateTransmissionHistory(result.transmission.getFileName(),
+                                TransmissionStatus.FAILED);
+                        scheduleRetry(result.transmission, result.error);
+                        addSurveyInstances(unsyncedSurveys, result.transmission);
+                    }
+                    // Progress is the % of files handled so far
+                    displayProgressNotification(++handled, totalFiles);
+                }
+
+                notifyUploadedFiles(uploaded, syncedSurveys, unsyncedSurveys);
+                uploaded.clear();
+
+                if (i == groups.size() - 1 && !exportedMedia.isEmpty()) {
+                    // No media group found. Upload the new media files on their own
+                    groups.add(new ArrayList<FileTransmission>());
+                    groupActions.add(ACTION_IMAGE);
+                }
             }
-            displayProgressNotification(i, totalFiles);// Progress is the % of files handled so far
+        } catch (InterruptedException e) {
+            // Stalled IN_PROGRESS transmissions will be picked up again in the next sync
+            Timber.e(e, "File sync interrupted");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Timber.e(e, "File sync failed");
+        } finally {
+            executor.shutdownNow();
+            applyPendingWrites();
         }
 
-        // Retain successful survey instances, to mark them as SYNCED
+        // Files uploaded before the sync was interrupted
+        notifyUploadedFiles(uploaded, syncedSurveys, unsyncedSurveys);
+
+        // Retain successful survey instances, to mark them as SYNCED. A media file shared
+        // with another survey instance is uploaded by that one, and may not be synced yet
         syncedSurveys.removeAll(unsyncedSurveys);
+        for (Iterator<Long> iterator = syncedSurveys.iterator(); iterator.hasNext(); ) {
+            long surveyInstanceId = iterator.next();
+            if (mDatabase.hasUnsyncedMedia(surveyInstanceId)) {
+                iterator.remove();
+                unsyncedSurveys.add(surveyInstanceId);
+            }
+        }
 
         displaySyncedNotification(syncedSurveys.size(), unsyncedSurveys.size());
 
@@ -457,87 +920,246 @@ public class DataSyncService extends IntentService {
         }
     }
 
-    private boolean syncFile(@NonNull String filename, @NonNull String formId) {
+    /**
+     * Set the transmission status to IN_PROGRESS, and start uploading it. Its status should
+     * *always* be updated with the outcome of the upload operation.
+     */
+    private void startUpload(@NonNull CompletionService<UploadResult> completionService,
+            @NonNull FileTransmission transmission) {
+        mDatabase.updateTransmissionHistory(transmission.getFileName(),
+                TransmissionStatus.IN_PROGRESS);
+        completionService.submit(new UploadTask(transmission));
+    }
+
+    /**
+     * Queue a database write issued by an upload worker. Writes are applied by the
+     * thread running syncFiles(), which is the only one writing to the database.
+     */
+    private void postWrite(@NonNull Runnable write) {
+        pendingWrites.add(write);
+    }
+
+    private void applyPendingWrites() {
+        Runnable write;
+        while ((write = pendingWrites.poll()) != null) {
+            write.run();
+        }
+    }
+
+    private int getUploadConcurrency() {
+        int concurrency = preferences.getInt(Prefs.KEY_UPLOAD_CONCURRENCY,
+                Prefs.DEFAULT_VALUE_UPLOAD_CONCURRENCY);
+        return Math.max(1, Math.min(concurrency, MAX_UPLOAD_CONCURRENCY));
+    }
+
+    /**
+     * Resolve the S3 directory, processing action and access policy for the given file.
+     *
+     * @return the destination, or null if this kind of file cannot be uploaded
+     */
+    @Nullable
+    private UploadDestination getUploadDestination(@Nullable String filename) {
         if (TextUtils.isEmpty(filename) || filename.lastIndexOf(".") < 0) {
-            return false;
+            return null;
         }
 
-        String contentType, dir, action;
-        boolean isPublic;
         String ext = filename.substring(filename.lastIndexOf("."));
-        contentType = contentType(ext);
+        String contentType = contentType(ext);
         switch (ext) {
             case ConstantUtil.JPG_SUFFIX:
             case ConstantUtil.PNG_SUFFIX:
+            case ConstantUtil.WEBP_SUFFIX:
             case ConstantUtil.VIDEO_SUFFIX:
-                dir = ConstantUtil.S3_IMAGE_DIR;
-                action = ACTION_IMAGE;
-                isPublic = true;// Images/Videos have a public read policy
-                break;
+                // Images/Videos have a public read policy
+                return new UploadDestination(ConstantUtil.S3_IMAGE_DIR, ACTION_IMAGE, contentType,
+                        true);
             case ConstantUtil.ARCHIVE_SUFFIX:
-                dir = ConstantUtil.S3_DATA_DIR;
-                action = ACTION_SUBMIT;
-                isPublic = false;
-                break;
+                return new UploadDestination(ConstantUtil.S3_DATA_DIR, ACTION_SUBMIT, contentType,
+                        false);
             default:
-                return false;
+                return null;
         }
+    }
 
-        // Temporarily set the status to 'IN PROGRESS'. Transmission status should
-        // *always* be updated with the outcome of the upload operation.
-        mDatabase.updateTransmissionHistory(filename, TransmissionStatus.IN_PROGRESS);
+    /**
+     * Notify the backend of the uploaded files, so it can start processing them. Files
+     * of the same form and action are notified together, saving a round trip per file.
+     * The outcome of each transmission is recorded, along with its survey instance.
+     */
+    private void notifyUploadedFiles(@NonNull List<FileTransmission> uploaded,
+            @NonNull Set<Long> syncedSurveys, @NonNull Set<Long> unsyncedSurveys) {
+        if (uploaded.isEmpty()) {
+            return;
+        }
+        Map<String, List<FileTransmission>> groups = new LinkedHashMap<>();
+        for (FileTransmission transmission : uploaded) {
+            UploadDestination destination = getUploadDestination(transmission.getFileName());
+            String key = transmission.getFormId() + " " + destination.action;
+            List<FileTransmission> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(transmission);
+        }
 
-        int status = TransmissionStatus.FAILED;
-        boolean synced = false;
+        FlowApi api = new FlowApi(getApplicationContext());
+        for (List<FileTransmission> group : groups.values()) {
+            final String formId = group.get(0).getFormId();
+            final String action = getUploadDestination(group.get(0).getFileName()).action;
+            List<String> destNames = new ArrayList<>();
+            for (FileTransmission transmission : group) {
+                destNames.add(getDestName(transmission.getFileName()));
+            }
 
-        if (sendFile(filename, dir, contentType, isPublic, FILE_UPLOAD_RETRIES)) {
-            FlowApi api = new FlowApi(getApplicationContext());
-            switch (api.sendProcessingNotification(formId, action,
-                    getDestName(filename))) {
-                case HttpURLConnection.HTTP_OK:
-                    status = TransmissionStatus.SYNCED;// Mark everything completed
-                    synced = true;
-                    break;
-                case HttpURLConnection.HTTP_NOT_FOUND:
-                    // This form has been deleted in the dashboard, thus we cannot sync it
-                    displayErrorNotification(formId);
-                    status = TransmissionStatus.FORM_DELETED;
-                    break;
-                default:// Any error code
-                    break;
+            Map<String, Integer> responses = api
+                    .sendProcessingNotifications(formId, action, destNames);
+            boolean formDeleted = false;
+            for (FileTransmission transmission : group) {
+                int status = TransmissionStatus.FAILED;
+                Integer response = responses.get(getDestName(transmission.getFileName()));
+                if (response != null) {
+                    switch (response) {
+                        case HttpURLConnection.HTTP_OK:
+                            status = TransmissionStatus.SYNCED;// Mark everything completed
+                            break;
+                        case HttpURLConnection.HTTP_NOT_FOUND:
+                            // This form has been deleted in the dashboard, thus we cannot sync it
+                            formDeleted = true;
+                            status = TransmissionStatus.FORM_DELETED;
+                            break;
+                        default:// Any error code
+                            break;
+                    }
+                }
+                mDatabase.updateTransmissionHistory(transmission.getFileName(), status);
+                if (status == TransmissionStatus.FAILED) {
+                    scheduleRetry(transmission, "Processing notification failed: " + response);
+                }
+                if (status == TransmissionStatus.SYNCED) {
+                    addSurveyInstances(syncedSurveys, transmission);
+                    if (!transmission.getFileName().endsWith(ConstantUtil.ARCHIVE_SUFFIX)) {
+                        // Media file shared by other survey instances, which skipped its upload
+                        syncedSurveys.addAll(
+                                mDatabase.getExportedSurveyInstances(transmission.getFileName()));
+                    }
+                } else {
+                    addSurveyInstances(unsyncedSurveys, transmission);
+                }
+            }
+            if (formDeleted) {
+                displayErrorNotification(formId);
             }
         }
+    }
 
-        mDatabase.updateTransmissionHistory(filename, status);
-        return synced;
+    /**
+     * Add the survey instance of the transmission to the given set, or every survey
+     * instance packed in it, if the file is an export bundle
+     */
+    private static void addSurveyInstances(@NonNull Set<Long> surveys,
+            @NonNull FileTransmission transmission) {
+        long[] bundleInstances = transmission.getBundleInstances();
+        if (bundleInstances == null) {
+            surveys.add(transmission.getRespondentId());
+            return;
+        }
+        for (long id : bundleInstances) {
+            surveys.add(id);
+        }
     }
 
-    private boolean sendFile(@NonNull String fileAbsolutePath, String dir, String contentType,
-            boolean isPublic, int retries) {
+    /**
+     * Upload the file to S3. Failed uploads are retried a few times, after a short delay.
+     *
+     * @throws IOException with the reason of the last failure, if the file was not uploaded
+     */
+    private void sendFile(@NonNull String fileAbsolutePath, String dir, String contentType,
+            boolean isPublic, @NonNull MultipartUpload upload, @Nullable FileChecksum checksum)
+            throws IOException {
         final File file = new File(fileAbsolutePath);
         if (!file.exists()) {
-            return false;
+            throw new FileNotFoundException("File not found: " + fileAbsolutePath);
         }
 
-        boolean ok = false;
-        try {
-            String fileName = fileAbsolutePath;
-            if (fileName.contains(File.separator)) {
-                fileName = fileName.substring(fileName.lastIndexOf(File.separator) + 1);
+        String fileName = fileAbsolutePath;
+        if (fileName.contains(File.separator)) {
+            fileName = fileName.substring(fileName.lastIndexOf(File.separator) + 1);
+        }
+        final String objectKey = dir + fileName;
+        S3Api s3Api = new S3Api(this);
+
+        IOException error = null;
+        for (int attempt = 0; attempt <= FILE_UPLOAD_RETRIES; attempt++) {
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(UPLOAD_RETRY_BACKOFF.getDelay(attempt));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Upload interrupted: " + fileAbsolutePath);
+                }
             }
-
-            final String objectKey = dir + fileName;
-            S3Api s3Api = new S3Api(this);
-            ok = s3Api.put(objectKey, file, contentType, isPublic);
-            if (!ok && retries > 0) {
-                // If we have not expired all the retry attempts, try again.
-                ok = sendFile(fileAbsolutePath, dir, contentType, isPublic, --retries);
+            try {
+                boolean ok;
+                if (s3Api.isMultipart(file)) {
+                    // Large files are uploaded in parts. Completed parts are persisted, so both
+                    // the retries and any later sync resume from the last completed part.
+                    ok = s3Api.putMultipart(objectKey, file, contentType, isPublic, upload,
+                            new UploadProgressWriter(fileAbsolutePath));
+                } else {
+                    checksum = getChecksum(fileAbsolutePath, file, checksum);
+                    if (checksum == null) {
+                        throw new IOException("Could not read file: " + fileAbsolutePath);
+                    }
+                    ok = s3Api.put(objectKey, file, contentType, isPublic, checksum.getRawMd5());
+                }
+                if (ok) {
+                    return;
+                }
+                error = new IOException("S3 upload failed: " + fileAbsolutePath);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                Timber.e(e, "Could not send file: " + fileAbsolutePath + ". " + e.getMessage());
+                error = e;
             }
-        } catch (IOException e) {
-            Timber.e(e, "Could not send file: " + fileAbsolutePath + ". " + e.getMessage());
         }
+        throw error;
+    }
 
-        return ok;
+    /**
+     * Record a failed attempt, delaying the next one with a capped exponential backoff.
+     * Until then, the transmission is left out of the sync, so it does not starve others.
+     */
+    private void scheduleRetry(@NonNull FileTransmission transmission, @Nullable String error) {
+        final int attempts = transmission.getAttempts() + 1;
+        final long delay = TRANSMISSION_RETRY_BACKOFF.getDelay(attempts);
+        Timber.d("Transmission " + transmission.getFileName() + " failed " + attempts
+                + " times. Next attempt in " + delay / 1000 + " seconds");
+        mDatabase.updateTransmissionRetry(transmission.getFileName(), attempts, error,
+                System.currentTimeMillis() + delay);
+    }
+
+    /**
+     * Get the checksum of the file, reusing the stored one unless the file has been
+     * modified since it was computed. Freshly computed checksums are persisted.
+     */
+    @Nullable
+    private FileChecksum getChecksum(@NonNull final String filename, @NonNull File file,
+            @Nullable FileChecksum stored) {
+        if (stored != null && stored.isValidFor(file)) {
+            return stored;
+        }
+        final FileChecksum checksum = FileChecksum.compute(file);
+        if (checksum != null) {
+            postWrite(new Runnable() {
+                @Override
+                public void run() {
+                    mDatabase.updateTransmissionChecksum(filename, checksum);
+                }
+            });
+        }
+        return checksum;
     }
 
     /**
@@ -691,6 +1313,8 @@ public class DataSyncService extends IntentService {
                 return PNG_CONTENT_TYPE;
             case ConstantUtil.JPG_SUFFIX:
                 return JPEG_CONTENT_TYPE;
+            case ConstantUtil.WEBP_SUFFIX:
+                return WEBP_CONTENT_TYPE;
             case ConstantUtil.VIDEO_SUFFIX:
                 return VIDEO_CONTENT_TYPE;
             case ConstantUtil.ARCHIVE_SUFFIX:
@@ -712,11 +1336,133 @@ public class DataSyncService extends IntentService {
         }
     }
 
+    /**
+     * Uploads a single transmission. Any unexpected error is reported as a failed upload,
+     * so every submitted task yields a result the writer thread can record.
+     */
+    private class UploadTask implements Callable<UploadResult> {
+
+        private final FileTransmission transmission;
+
+        UploadTask(FileTransmission transmission) {
+            this.transmission = transmission;
+        }
+
+        @Override
+        public UploadResult call() {
+            try {
+                String filename = transmission.getFileName();
+                UploadDestination destination = getUploadDestination(filename);
+                if (destination == null) {
+                    return new UploadResult(transmission, false, "Unsupported file type");
+                }
+                MultipartUpload upload = new MultipartUpload(transmission.getUploadId(),
+                        transmission.getUploadParts());
+                sendFile(filename, destination.dir, destination.contentType,
+                        destination.isPublic, upload, transmission.getChecksum());
+                return new UploadResult(transmission, true, null);
+            } catch (Exception e) {
+                Timber.e(e, "Could not sync file: " + transmission.getFileName());
+                return new UploadResult(transmission, false, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the zip file of a survey instance, or the bundle of several ones. It only
+     * reads from the database, leaving the writes to the sync thread.
+     */
+    private class ExportTask implements Callable<ZipFileData> {
+
+        private final String formId;// Only set for bundles
+        private final List<Long> surveyInstanceIds;
+
+        ExportTask(long surveyInstanceId) {
+            this.formId = null;
+            this.surveyInstanceIds = Collections.singletonList(surveyInstanceId);
+        }
+
+        ExportTask(String formId, List<Long> surveyInstanceIds) {
+            this.formId = formId;
+            this.surveyInstanceIds = surveyInstanceIds;
+        }
+
+        @Override
+        public ZipFileData call() {
+            try {
+                if (formId != null) {
+                    return formBundle(formId, surveyInstanceIds);
+                }
+                return formZip(surveyInstanceIds.get(0));
+            } catch (Exception e) {
+                Timber.e(e, "Could not export survey instances: " + surveyInstanceIds);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Persists the progress of multipart uploads through the database writer queue
+     */
+    private class UploadProgressWriter implements S3Api.MultipartUploadListener {
+
+        private final String filename;
+
+        UploadProgressWriter(String filename) {
+            this.filename = filename;
+        }
+
+        @Override
+        public void onUploadProgress(MultipartUpload upload) {
+            final String uploadId = upload.getUploadId();
+            final String parts = upload.serializeParts();
+            postWrite(new Runnable() {
+                @Override
+                public void run() {
+                    mDatabase.updateTransmissionUpload(filename, uploadId, parts);
+                }
+            });
+        }
+    }
+
+    private static class UploadResult {
+
+        final FileTransmission transmission;
+        final boolean uploaded;
+        final String error;
+
+        UploadResult(FileTransmission transmission, boolean uploaded, String error) {
+            this.transmission = transmission;
+            this.uploaded = uploaded;
+            this.error = error;
+        }
+    }
+
+    private static class UploadDestination {
+
+        final String dir;
+        final String action;
+        final String contentType;
+        final boolean isPublic;
+
+        UploadDestination(String dir, String action, String contentType, boolean isPublic) {
+            this.dir = dir;
+            this.action = action;
+            this.contentType = contentType;
+            this.isPublic = isPublic;
+        }
+    }
+
     /**
      * Helper class to wrap zip file's meta-data
      */
     class ZipFileData {
 
+        /**
+         * Whether the zip file is an export bundle, packing several survey instances
+         */
+        boolean bundle = false;
+
         @Nullable
         String uuid = null;
         @Nullable
@@ -726,7 +1472,10 @@ public class DataSyncService extends IntentService {
         @Nullable
         String filename = null;
         @Nullable
-        String data = null;
-        final List<String> imagePaths = new ArrayList<>();
+        FileChecksum checksum = null;
+        /**
+         * Media files of each survey instance in the zip file, keyed by survey instance id
+         */
+        final Map<Long, List<String>> imagePaths = new LinkedHashMap<>();
     }
 }
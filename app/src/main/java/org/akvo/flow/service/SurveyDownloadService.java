@@ -22,7 +22,6 @@ package org.akvo.flow.service;
 import android.app.IntentService;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -32,9 +31,7 @@ import org.akvo.flow.api.S3Api;
 import org.akvo.flow.data.dao.SurveyDao;
 import org.akvo.flow.data.database.SurveyDbAdapter;
 import org.akvo.flow.data.preference.Prefs;
-import org.akvo.flow.domain.Question;
-import org.akvo.flow.domain.QuestionGroup;
-import org.akvo.flow.domain.QuestionHelp;
+import org.akvo.flow.domain.FormManifest;
 import org.akvo.flow.domain.Survey;
 import org.akvo.flow.domain.SurveyGroup;
 import org.akvo.flow.util.ConnectivityStateManager;
@@ -42,6 +39,7 @@ import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.FileUtil;
 import org.akvo.flow.util.FileUtil.FileType;
 import org.akvo.flow.util.HttpUtil;
+import org.akvo.flow.util.HttpValidator;
 import org.akvo.flow.util.LangsPreferenceUtil;
 import org.akvo.flow.util.NotificationHelper;
 
@@ -49,10 +47,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipInputStream;
 
@@ -135,11 +134,13 @@ public class SurveyDownloadService extends IntentService {
             return;
         }
 
+        // Validators of the responses. Only saved if every survey is successfully downloaded
+        Map<String, HttpValidator> validators = new HashMap<>();
         List<Survey> surveys;
         if (surveyIds != null) {
-            surveys = getSurveyHeaders(surveyIds);
+            surveys = getSurveyHeaders(surveyIds, validators);
         } else {
-            surveys = checkForSurveys();
+            surveys = checkForSurveys(validators);
         }
 
         // Update all survey groups
@@ -148,16 +149,20 @@ public class SurveyDownloadService extends IntentService {
         // Check synced versions, and omit up-to-date surveys
         surveys = databaseAdaptor.checkSurveyVersions(surveys);
 
+        int failed = 0;
         if (!surveys.isEmpty()) {
-            int synced = 0, failed = 0;
+            int synced = 0;
             displayNotification(synced, failed, surveys.size());
             for (Survey survey : surveys) {
                 try {
                     downloadSurvey(survey);
                     databaseAdaptor.saveSurvey(survey);
-                    String[] langs = LangsPreferenceUtil.determineLanguages(this, survey);
-                    databaseAdaptor.addLanguages(langs);
-                    downloadResources(survey);
+                    FormManifest manifest = saveManifest(survey);
+                    if (manifest != null) {
+                        databaseAdaptor.addLanguages(
+                                LangsPreferenceUtil.determineLanguages(survey, manifest));
+                        downloadResources(survey.getId(), manifest);
+                    }
                     synced++;
                 } catch (IOException e) {
                     failed++;
@@ -168,13 +173,25 @@ public class SurveyDownloadService extends IntentService {
                 displayNotification(synced, failed, surveys.size());
             }
         }
+        if (failed == 0) {
+            for (Map.Entry<String, HttpValidator> validator : validators.entrySet()) {
+                databaseAdaptor.saveHttpValidator(validator.getKey(), validator.getValue());
+            }
+        }
 
         // now check if any previously downloaded surveys still need
         // don't have their help media pre-cached
         surveys = databaseAdaptor.getSurveyList(SurveyGroup.ID_NONE);
         for (Survey survey : surveys) {
             if (!survey.isHelpDownloaded()) {
-                downloadResources(survey);
+                FormManifest manifest = databaseAdaptor.getFormManifest(survey.getId());
+                if (manifest == null) {
+                    // Installed before manifests were stored
+                    manifest = saveManifest(survey);
+                }
+                if (manifest != null) {
+                    downloadResources(survey.getId(), manifest);
+                }
             }
         }
     }
@@ -215,60 +232,36 @@ public class SurveyDownloadService extends IntentService {
         survey.setLocation(ConstantUtil.FILE_LOCATION);
     }
 
+    /**
+     * Extract the manifest of an installed survey, and store it along with the survey. The
+     * form is loaded, and its compiled snapshot written, here.
+     *
+     * @return the manifest, or null if the form could not be loaded
+     */
     @Nullable
-    private Survey loadSurvey(@NonNull Survey survey) {
-        InputStream in = null;
-        Survey hydratedDurvey = null;
+    private FormManifest saveManifest(@NonNull Survey survey) {
+        Survey hydratedSurvey = null;
         try {
-            if (ConstantUtil.RESOURCE_LOCATION.equalsIgnoreCase(survey.getLocation())) {
-                // load from resource
-                Resources res = getResources();
-                in = res.openRawResource(res.getIdentifier(survey.getFileName(),
-                        ConstantUtil.RAW_RESOURCE, ConstantUtil.RESOURCE_PACKAGE));
-            } else {
-                // load from file
-                File f = new File(FileUtil.getFilesDir(FileType.FORMS), survey.getFileName());
-                in = new FileInputStream(f);
-            }
-            hydratedDurvey = SurveyDao.loadSurvey(survey, in);
+            hydratedSurvey = SurveyDao.loadSurvey(this, survey);
         } catch (FileNotFoundException e) {
             Timber.e(e, "Could not parse survey survey file");
-        } finally {
-            FileUtil.close(in);
         }
-        return hydratedDurvey;
+        if (hydratedSurvey == null) {
+            return null;
+        }
+        FormManifest manifest = FormManifest.fromSurvey(hydratedSurvey);
+        databaseAdaptor.saveFormManifest(survey.getId(), manifest);
+        return manifest;
     }
 
     /**
-     * checks to see if we should pre-cache help media files (based on the
-     * property in the settings db) and, if we should, downloads the files
-     *
-     * @param survey
+     * Downloads the help media files (images & videos) and common resources listed in the
+     * survey manifest
      */
-    private void downloadResources(@NonNull Survey survey) {
-        Survey hydratedSurvey = loadSurvey(survey);
-        if (hydratedSurvey != null) {
-            // collect files in a set just in case the same binary is
-            // used in multiple questions we only need to download once
-            Set<String> resources = new HashSet<>();
-            for (QuestionGroup group : hydratedSurvey.getQuestionGroups()) {
-                for (Question question : group.getQuestions()) {
-                    if (!question.getHelpByType(ConstantUtil.VIDEO_HELP_TYPE).isEmpty()) {
-                        resources.add(question.getHelpByType(ConstantUtil.VIDEO_HELP_TYPE)
-                                .get(0).getValue());
-                    }
-                    for (QuestionHelp help : question.getHelpByType(ConstantUtil.IMAGE_HELP_TYPE)) {
-                        resources.add(help.getValue());
-                    }
-                    // Question src data (i.e. cascading question resources)
-                    if (question.getSrc() != null) {
-                        resources.add(question.getSrc());
-                    }
-                }
-            }
-            // Download help media files (images & videos) and common resources
-            downloadResources(survey.getId(), resources);
-        }
+    private void downloadResources(@NonNull String sid, @NonNull FormManifest manifest) {
+        // collect files in a set just in case the same binary is
+        // used in multiple questions we only need to download once
+        downloadResources(sid, new HashSet<>(manifest.getResources()));
     }
 
     private void downloadResources(@NonNull final String sid,
@@ -324,15 +317,26 @@ public class SurveyDownloadService extends IntentService {
     }
 
     /**
-     * invokes a service call to get the header information for multiple surveys
+     * invokes a service call to get the header information for multiple surveys.
+     * Unchanged headers, according to the stored validators, are omitted. The validators
+     * of the new headers are added to the given map.
      */
     @NonNull
-    private List<Survey> getSurveyHeaders(@NonNull String[] surveyIds) {
+    private List<Survey> getSurveyHeaders(@NonNull String[] surveyIds,
+            @NonNull Map<String, HttpValidator> validators) {
         List<Survey> surveys = new ArrayList<>();
         FlowApi flowApi = new FlowApi(getApplicationContext());
         for (String id : surveyIds) {
+            final String endpoint = SurveyDbAdapter.ENDPOINT_SURVEY_HEADER + id;
+            HttpValidator validator = databaseAdaptor.getHttpValidator(endpoint);
             try {
-                surveys.addAll(flowApi.getSurveyHeader(id));
+                List<Survey> header = flowApi.getSurveyHeader(id, validator);
+                if (header != null) {
+                    surveys.addAll(header);
+                    validators.put(endpoint, validator);
+                } else {
+                    Timber.d("Survey header not modified: " + id);
+                }
             } catch (IllegalArgumentException | IOException e) {
                 if (e instanceof IllegalArgumentException) {
                     Timber.e(e, e.getMessage());
@@ -348,14 +352,24 @@ public class SurveyDownloadService extends IntentService {
      * invokes a service call to list all surveys that have been designated for
      * this device (based on phone number).
      *
+     * If the list has not changed since the last successful download, it is empty.
+     *
      * @return - an arrayList of Survey objects with the id and version populated
      * TODO: Move this feature to FLOWApi
      */
-    private List<Survey> checkForSurveys() {
+    private List<Survey> checkForSurveys(@NonNull Map<String, HttpValidator> validators) {
         List<Survey> surveys = new ArrayList<>();
         FlowApi api = new FlowApi(getApplicationContext());
+        HttpValidator validator = databaseAdaptor
+                .getHttpValidator(SurveyDbAdapter.ENDPOINT_SURVEY_LIST);
         try {
-            surveys = api.getSurveys();
+            List<Survey> assigned = api.getSurveys(validator);
+            if (assigned != null) {
+                surveys = assigned;
+                validators.put(SurveyDbAdapter.ENDPOINT_SURVEY_LIST, validator);
+            } else {
+                Timber.d("Survey list not modified");
+            }
         } catch (@NonNull IllegalArgumentException | IOException e) {
             if (e instanceof IllegalArgumentException) {
                 Timber.e(e, e.getMessage());
@@ -23,8 +23,8 @@ import android.app.IntentService;
 import android.content.Intent;
 import android.os.Handler;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
-import android.support.v4.util.Pair;
 
 import org.akvo.flow.R;
 import org.akvo.flow.api.FlowApi;
@@ -33,12 +33,13 @@ import org.akvo.flow.domain.SurveyGroup;
 import org.akvo.flow.domain.SurveyInstance;
 import org.akvo.flow.domain.SurveyedLocale;
 import org.akvo.flow.exception.HttpException;
+import org.akvo.flow.serialization.response.SurveyedLocaleParser;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.NotificationHelper;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -61,37 +62,19 @@ public class SurveyedDataPointSyncService extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         final long surveyGroupId = intent.getLongExtra(SURVEY_GROUP, SurveyGroup.ID_NONE);
-        int syncedRecords = 0;
         FlowApi api = new FlowApi(getApplicationContext());
         SurveyDbAdapter database = new SurveyDbAdapter(getApplicationContext()).open();
-        boolean correctSync = true;
         NotificationHelper
                 .displayNotificationWithProgress(this, getString(R.string.syncing_records),
                         getString(R.string.pleasewait), true, true,
                         ConstantUtil.NOTIFICATION_RECORD_SYNC);
+        LocaleWriter writer = new LocaleWriter(database);
         try {
-            Set<String> batch, lastBatch = new HashSet<>();
-            while (true) {
-                Pair<Set<String>, Boolean> syncResult = sync(database, api, surveyGroupId);
-                batch = syncResult.first;
-                if (!syncResult.second) {
-                    //at least one of the data points seems corrupted
-                    correctSync = syncResult.second;
-                }
-                batch.removeAll(lastBatch);// Remove duplicates.
-                if (batch.isEmpty()) {
-                    break;
-                }
-                syncedRecords += batch.size();
-                sendBroadcastNotification();// Keep the UI fresh!
-                NotificationHelper
-                        .displayNotificationWithProgress(this, getString(R.string.syncing_records),
-                                String.format(getString(R.string.synced_records),
-                                        syncedRecords), true, true,
-                                ConstantUtil.NOTIFICATION_RECORD_SYNC);
-                lastBatch = batch;
-            }
-            if (correctSync) {
+            final String syncTime = database.getSyncTime(surveyGroupId);
+            Timber.d("sync() - SurveyGroup: " + surveyGroupId + ". SyncTime: " + syncTime);
+            int syncedRecords = new DataPointSyncPipeline(new ApiSource(api, surveyGroupId),
+                    writer).run(syncTime);
+            if (writer.correctData) {
                 NotificationHelper
                         .displayNotificationWithProgress(this, getString(R.string.syncing_records),
                                 String.format(getString(R.string.synced_records),
@@ -131,34 +114,6 @@ public class SurveyedDataPointSyncService extends IntentService {
         sendBroadcastNotification();
     }
 
-    /**
-     * Sync a Record batch, and return the Set of Record IDs within the response
-     */
-    @NonNull
-    private Pair<Set<String>, Boolean> sync(@NonNull SurveyDbAdapter database, @NonNull FlowApi api,
-            long surveyGroupId)
-            throws IOException {
-        final String syncTime = database.getSyncTime(surveyGroupId);
-        Set<String> records = new HashSet<>();
-        Timber.d("sync() - SurveyGroup: " + surveyGroupId + ". SyncTime: " + syncTime);
-        List<SurveyedLocale> locales = api
-                .getSurveyedLocales(surveyGroupId, syncTime);
-        boolean correctData = true;
-        if (locales != null) {
-            for (SurveyedLocale locale : locales) {
-                List<SurveyInstance> surveyInstances = locale.getSurveyInstances();
-                if (surveyInstances == null || surveyInstances.isEmpty()) {
-                    correctData = false;
-                }
-                database.syncSurveyedLocale(locale);
-                records.add(locale.getId());
-            }
-        }
-        //Delete empty or corrupted data received from server
-        database.deleteEmptyRecords();
-        return new Pair<>(records, correctData);
-    }
-
     private void displayToast(final String text) {
         mHandler.post(new ServiceToastRunnable(getApplicationContext(), text));
     }
@@ -172,4 +127,64 @@ public class SurveyedDataPointSyncService extends IntentService {
         Intent intentBroadcast = new Intent(ConstantUtil.ACTION_LOCALE_SYNC);
         LocalBroadcastManager.getInstance(this).sendBroadcast(intentBroadcast);
     }
+
+    /**
+     * Fetches the pages from the API, parsing each SurveyedLocale as soon as it is received
+     */
+    private static class ApiSource implements DataPointSyncPipeline.Source {
+
+        private final FlowApi api;
+        private final long surveyGroupId;
+
+        ApiSource(FlowApi api, long surveyGroupId) {
+            this.api = api;
+            this.surveyGroupId = surveyGroupId;
+        }
+
+        @Override
+        public void fetch(@Nullable String syncTime, @NonNull SurveyedLocaleParser.Sink sink)
+                throws IOException {
+            api.getSurveyedLocales(surveyGroupId, syncTime, sink);
+        }
+    }
+
+    /**
+     * Stores the SurveyedLocales, a whole page at a time, and keeps the UI up to date
+     */
+    private class LocaleWriter implements DataPointSyncPipeline.Writer {
+
+        private final SurveyDbAdapter database;
+        private final List<SurveyedLocale> page = new ArrayList<>();
+        private int syncedRecords = 0;
+        boolean correctData = true;
+
+        LocaleWriter(SurveyDbAdapter database) {
+            this.database = database;
+        }
+
+        @Override
+        public void write(@NonNull SurveyedLocale locale) {
+            List<SurveyInstance> surveyInstances = locale.getSurveyInstances();
+            if (surveyInstances == null || surveyInstances.isEmpty()) {
+                //at least one of the data points seems corrupted
+                correctData = false;
+            }
+            page.add(locale);
+        }
+
+        @Override
+        public void onPageEnd(@NonNull Set<String> records) {
+            // One transaction per page, which also stores the sync time and deletes the
+            // empty or corrupted data received from server
+            database.syncSurveyedLocales(page);
+            page.clear();
+
+            syncedRecords += records.size();
+            sendBroadcastNotification();// Keep the UI fresh!
+            NotificationHelper.displayNotificationWithProgress(SurveyedDataPointSyncService.this,
+                    getString(R.string.syncing_records),
+                    String.format(getString(R.string.synced_records), syncedRecords), true, true,
+                    ConstantUtil.NOTIFICATION_RECORD_SYNC);
+        }
+    }
 }
@@ -55,6 +55,7 @@ public class SurveyTabAdapter extends PagerAdapter
     private List<QuestionGroup> mQuestionGroups;
     private List<QuestionGroupTab> mQuestionGroupTabs;
     private SubmitTab mSubmitTab;
+    private boolean mDestroyed;
 
     public SurveyTabAdapter(Context context, ActionBar actionBar, ViewPager pager,
             SurveyListener surveyListener,
@@ -102,6 +103,20 @@ public class SurveyTabAdapter extends PagerAdapter
         }
     }
 
+    /**
+     * Load the tab once the current message is handled, i.e. after the displayed tab is drawn.
+     */
+    private void loadTabDeferred(final int position) {
+        mPager.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mDestroyed) {
+                    loadTab(position);
+                }
+            }
+        });
+    }
+
     /**
      * Check if the tab is loaded, and do so if it has not been loaded yet.
      */
@@ -154,13 +169,29 @@ public class SurveyTabAdapter extends PagerAdapter
     }
 
     public void onDestroy() {
+        mDestroyed = true;
         // Propagate onDestroy callback
         for (QuestionGroupTab questionGroupTab : mQuestionGroupTabs) {
             questionGroupTab.onDestroy();
         }
     }
 
+    /**
+     * Refresh the submit tab, if it is the one being displayed
+     */
+    public void refreshSubmitTab() {
+        if (mSubmitTab != null && mPager.getCurrentItem() == mQuestionGroupTabs.size()) {
+            mSubmitTab.refresh(checkInvalidQuestions());
+        }
+    }
+
     public void onQuestionComplete(String questionId, Bundle data) {
+        if (getQuestionView(questionId) == null) {
+            // Results may arrive for a tab not loaded yet, i.e. media processed in the background
+            for (int i = 0; i < mQuestionGroupTabs.size(); i++) {
+                loadTab(i);
+            }
+        }
         for (QuestionGroupTab questionGroupTab : mQuestionGroupTabs) {
             questionGroupTab.onQuestionComplete(questionId, data);
         }
@@ -198,7 +229,12 @@ public class SurveyTabAdapter extends PagerAdapter
         View view;
         if (position < mQuestionGroupTabs.size()) {
             view = mQuestionGroupTabs.get(position);// Already instantiated
-            loadTab(position);// Load tab state, if necessary
+            if (position == mPager.getCurrentItem()) {
+                loadTab(position);// Load tab state, if necessary
+            } else {
+                // Offscreen tabs do not delay the displayed one
+                loadTabDeferred(position);
+            }
         } else {
             view = mSubmitTab;
         }
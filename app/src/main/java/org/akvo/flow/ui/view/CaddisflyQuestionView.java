@@ -32,7 +32,7 @@ import org.akvo.flow.domain.QuestionResponse;
 import org.akvo.flow.event.QuestionInteractionEvent;
 import org.akvo.flow.event.SurveyListener;
 import org.akvo.flow.util.ConstantUtil;
-import org.akvo.flow.util.FileUtil;
+import org.akvo.flow.util.MediaFileStore;
 
 import java.io.File;
 
@@ -97,12 +97,14 @@ public class CaddisflyQuestionView extends QuestionView implements View.OnClickL
 
             File src = !TextUtils.isEmpty(image) ? new File(image) : null;
             if (src != null && src.exists()) {
-                // Move the image into the FLOW directory
-                File dst = new File(FileUtil.getFilesDir(FileUtil.FileType.MEDIA), src.getName());
-
-                if (!src.renameTo(dst)) {
-                    Timber.e(String.format("Could not move file %s to %s",
-                            src.getAbsoluteFile(), dst.getAbsoluteFile()));
+                // Move the image into the FLOW media store
+                String name = src.getName();
+                String suffix = name.contains(".") ? name.substring(name.lastIndexOf(".")) : "";
+                File dst = MediaFileStore.getDefault().add(src, suffix);
+
+                if (dst == null) {
+                    Timber.e(String.format("Could not move file %s to the media store",
+                            src.getAbsoluteFile()));
                 } else {
                     mImage = dst.getAbsolutePath();
                 }
@@ -22,10 +22,8 @@ package org.akvo.flow.ui.view;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.Intent;
-import android.media.ThumbnailUtils;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.text.TextUtils;
 import android.view.ContextThemeWrapper;
 import android.view.View;
@@ -50,6 +48,7 @@ import org.akvo.flow.serialization.response.value.MediaValue;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.FileUtil;
 import org.akvo.flow.util.ImageUtil;
+import org.akvo.flow.util.image.ThumbnailCache;
 
 import java.io.File;
 
@@ -69,6 +68,7 @@ public class MediaQuestionView extends QuestionView implements OnClickListener,
     private String mMediaType;
     private TimedLocationListener mLocationListener;
     private Media mMedia;
+    private boolean mProcessing;// The captured file is being processed in the background
 
     public MediaQuestionView(Context context, Question q, SurveyListener surveyListener,
             String type) {
@@ -157,7 +157,22 @@ public class MediaQuestionView extends QuestionView implements OnClickListener,
      */
     @Override
     public void questionComplete(Bundle mediaData) {
+        if (mediaData != null && mediaData.getBoolean(ConstantUtil.MEDIA_PROCESSING_KEY)) {
+            displayProcessing();
+            return;
+        }
         String result = mediaData != null ? mediaData.getString(ConstantUtil.MEDIA_FILE_KEY) : null;
+        if (mProcessing) {
+            mProcessing = false;
+            setError(null);
+            if (result == null) {
+                // Processing failed. Keep the previous response, if any
+                Toast.makeText(getContext(), R.string.error_media_processing_failed,
+                        Toast.LENGTH_SHORT).show();
+                displayThumbnail();
+                displayLocationInfo();
+            }
+        }
         if (result != null) {
             mMedia = new Media();
             mMedia.setFilename(result);
@@ -174,6 +189,28 @@ public class MediaQuestionView extends QuestionView implements OnClickListener,
         }
     }
 
+    /**
+     * While the captured file is processed, a progress bar replaces the thumbnail, and the
+     * question is not valid, so the form cannot be submitted without it
+     */
+    private void displayProcessing() {
+        mProcessing = true;
+        ThumbnailCache.getInstance(getContext()).cancel(mImageView);
+        mImageView.setImageDrawable(null);
+        mDownloadBtn.setVisibility(GONE);
+        mLocationInfo.setVisibility(GONE);
+        mProgressBar.setVisibility(VISIBLE);
+    }
+
+    @Override
+    public boolean isValid() {
+        if (mProcessing) {
+            setError(getResources().getString(R.string.error_media_processing));
+            return false;
+        }
+        return super.isValid();
+    }
+
     /**
      * restores the file path for the file and turns on the complete icon if the
      * file exists
@@ -213,10 +250,14 @@ public class MediaQuestionView extends QuestionView implements OnClickListener,
     public void resetQuestion(boolean fireEvent) {
         super.resetQuestion(fireEvent);
         mMedia = null;
+        ThumbnailCache.getInstance(getContext()).cancel(mImageView);
         mImageView.setImageDrawable(null);
         hideDownloadOptions();
         mLocationInfo.setVisibility(GONE);
         mLocationListener.stop();
+        if (mProcessing) {
+            displayProcessing();
+        }
     }
 
     @Override
@@ -239,22 +280,23 @@ public class MediaQuestionView extends QuestionView implements OnClickListener,
     }
 
     private void displayThumbnail() {
+        if (mProcessing) {
+            return;// Keep the progress bar until the file is processed
+        }
         hideDownloadOptions();
 
         String filename = mMedia != null ? mMedia.getFilename() : null;
         if (TextUtils.isEmpty(filename)) {
             return;
         }
+        ThumbnailCache thumbnails = ThumbnailCache.getInstance(getContext());
         if (!new File(filename).exists()) {
+            thumbnails.cancel(mImageView);
             mImageView.setImageResource(R.drawable.blurry_image);
             mDownloadBtn.setVisibility(VISIBLE);
-        } else if (isImage()) {
-            // Image thumbnail
-            ImageUtil.displayImage(mImageView, filename);
         } else {
-            // Video thumbnail
-            mImageView.setImageBitmap(ThumbnailUtils.createVideoThumbnail(
-                    filename, MediaStore.Video.Thumbnails.MINI_KIND));
+            // Image or video thumbnail, decoded in the background unless cached in memory
+            thumbnails.display(mImageView, filename, !isImage());
         }
     }
 
@@ -305,6 +347,9 @@ public class MediaQuestionView extends QuestionView implements OnClickListener,
     }
 
     private void displayLocationInfo() {
+        if (mProcessing) {
+            return;
+        }
         String filename = mMedia != null ? mMedia.getFilename() : null;
         if (TextUtils.isEmpty(filename) || !new File(filename).exists()) {
             mLocationInfo.setVisibility(GONE);
@@ -36,6 +36,7 @@ import org.akvo.flow.event.SurveyListener;
 import org.akvo.flow.serialization.response.value.SignatureValue;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.ImageUtil;
+import org.akvo.flow.util.image.ThumbnailCache;
 
 public class SignatureQuestionView extends QuestionView implements View.OnFocusChangeListener {
     private EditText mName;
@@ -79,6 +80,7 @@ public class SignatureQuestionView extends QuestionView implements View.OnFocusC
     public void questionComplete(Bundle data) {
         if (data != null) {
             mSignature.setImage(data.getString(ConstantUtil.SIGNATURE_IMAGE));
+            mSignature.setFile(data.getString(ConstantUtil.SIGNATURE_FILE));
             captureResponse();
             displayResponse();
         }
@@ -116,11 +118,17 @@ public class SignatureQuestionView extends QuestionView implements View.OnFocusC
 
     private void displayResponse() {
         mName.setText(mSignature.getName());
-        if (!TextUtils.isEmpty(mSignature.getImage())) {
-            // TODO: Resize image?
+        ThumbnailCache thumbnails = ThumbnailCache.getInstance(getContext());
+        if (!TextUtils.isEmpty(mSignature.getFile())) {
+            thumbnails.display(mImage, mSignature.getFile(), false);
+            mImage.setVisibility(VISIBLE);
+        } else if (!TextUtils.isEmpty(mSignature.getImage())) {
+            // Inline signatures, i.e. downloaded along with the data point
+            thumbnails.cancel(mImage);
             mImage.setImageBitmap(ImageUtil.decodeBase64(mSignature.getImage()));
             mImage.setVisibility(VISIBLE);
         } else {
+            thumbnails.cancel(mImage);
             mImage.setImageDrawable(null);
             mImage.setVisibility(GONE);
         }
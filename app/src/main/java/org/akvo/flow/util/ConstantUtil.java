@@ -32,6 +32,7 @@ public class ConstantUtil {
     public static final String ARCHIVE_SUFFIX = ".zip";
     public static final String JPG_SUFFIX = ".jpg";
     public static final String PNG_SUFFIX = ".png";
+    public static final String WEBP_SUFFIX = ".webp";
     public static final String VIDEO_SUFFIX = ".mp4";
     public static final String XML_SUFFIX = ".xml";
     public static final String BOOTSTRAP_DB_FILE = "dbinstructions.sql";
@@ -111,11 +112,13 @@ public class ConstantUtil {
      * media question support
      */
     public static final String MEDIA_FILE_KEY = "filename";
+    public static final String MEDIA_PROCESSING_KEY = "processing";
 
     /**
      * Signature result data
      */
     public static final String SIGNATURE_IMAGE = "signature_image";
+    public static final String SIGNATURE_FILE = "signature_file";
 
     /**
      * Plot measurement result data
@@ -266,6 +266,35 @@ public class FileUtil {
         return null;
     }
 
+    /**
+     * Compute MD5 checksum of a byte range within the given file
+     */
+    public static byte[] getMD5Checksum(File file, long offset, long length) {
+        FileInputStream in = null;
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            in = new FileInputStream(file);
+            in.getChannel().position(offset);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            int read;
+            while (remaining > 0
+                    && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                md.update(buffer, 0, read);
+                remaining -= read;
+            }
+
+            return remaining == 0 ? md.digest() : null;
+        } catch (NoSuchAlgorithmException | IOException e) {
+            Timber.e(e.getMessage());
+        } finally {
+            close(in);
+        }
+
+        return null;
+    }
+
     public static String hexMd5(byte[] rawHash) {
         if (rawHash != null) {
             StringBuilder builder = new StringBuilder();
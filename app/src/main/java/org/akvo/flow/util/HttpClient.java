@@ -0,0 +1,250 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Shared HTTP client. Every connection goes through the same Transport, with consistent
+ * timeouts, and is released with release() rather than disconnect(). Once a response has
+ * been fully read, the underlying socket returns to the platform's keep-alive pool, so the
+ * next request to that host skips both the TCP and the TLS handshake.
+ */
+public class HttpClient {
+
+    /**
+     * Opens the connections. Tests can plug in their own, i.e. targeting a local server.
+     */
+    public interface Transport {
+        HttpURLConnection open(@NonNull URL url) throws IOException;
+    }
+
+    public static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    public static final int READ_TIMEOUT_MS = 60 * 1000;
+
+    /**
+     * Idle connections kept alive per host. It must cover the concurrent uploads.
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String GZIP = "gzip";
+
+    private static final Transport DEFAULT_TRANSPORT = new Transport() {
+        @Override
+        public HttpURLConnection open(@NonNull URL url) throws IOException {
+            return (HttpURLConnection) url.openConnection();
+        }
+    };
+
+    private static volatile HttpClient sInstance;
+
+    private final Transport mTransport;
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+
+    static {
+        // Read by the platform when its connection pool is first created
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+    }
+
+    public HttpClient(@NonNull Transport transport, int connectTimeout, int readTimeout) {
+        mTransport = transport;
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    @NonNull
+    public static HttpClient getInstance() {
+        if (sInstance == null) {
+            synchronized (HttpClient.class) {
+                if (sInstance == null) {
+                    sInstance = new HttpClient(DEFAULT_TRANSPORT, CONNECT_TIMEOUT_MS,
+                            READ_TIMEOUT_MS);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Replace the shared client. Intended for tests, null restores the default one.
+     */
+    public static void setInstance(@Nullable HttpClient client) {
+        sInstance = client;
+    }
+
+    @NonNull
+    public HttpURLConnection open(@NonNull String url) throws IOException {
+        HttpURLConnection conn = mTransport.open(new URL(url));
+        conn.setConnectTimeout(mConnectTimeout);
+        conn.setReadTimeout(mReadTimeout);
+        return conn;
+    }
+
+    /**
+     * Let the server know we can handle a gzip-compressed response. Setting the header
+     * ourselves means the platform will not decompress the body: read it with
+     * getResponseStream(), which does.
+     */
+    public void acceptGzip(@NonNull HttpURLConnection conn) {
+        conn.setRequestProperty("Accept-Encoding", GZIP);
+    }
+
+    /**
+     * @return the response body, decompressed if the server sent it gzip-encoded. It counts
+     * the bytes of this response only, as transferred and once decoded.
+     */
+    @NonNull
+    public ResponseStream getResponseStream(@NonNull HttpURLConnection conn) throws IOException {
+        CountingInputStream received = new CountingInputStream(conn.getInputStream());
+        InputStream in = received;
+        if (GZIP.equalsIgnoreCase(conn.getContentEncoding())) {
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new ResponseStream(in, received);
+    }
+
+    /**
+     * Send the request body
+     */
+    public void writeBody(@NonNull HttpURLConnection conn, @NonNull byte[] body)
+            throws IOException {
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(body.length);
+        OutputStream out = conn.getOutputStream();
+        try {
+            out.write(body);
+            out.flush();
+        } finally {
+            FileUtil.close(out);
+        }
+    }
+
+    /**
+     * Release the connection once the call is over. If the response has been received, its
+     * remaining body (if any) is consumed, so the connection can be reused by the next call.
+     * Otherwise, the call failed halfway and the connection is closed. Never call disconnect()
+     * on a healthy connection: it evicts the socket from the keep-alive pool.
+     *
+     * @param responseReceived true if the status code of the response was successfully read
+     */
+    public static void release(@Nullable HttpURLConnection conn, boolean responseReceived) {
+        if (conn == null) {
+            return;
+        }
+        if (!responseReceived) {
+            conn.disconnect();
+            return;
+        }
+        InputStream in = null;
+        try {
+            in = conn.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST ?
+                    conn.getInputStream() : conn.getErrorStream();
+            if (in != null) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (in.read(buffer) != -1) {
+                    // Discard
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            // Body already consumed and closed, or broken connection, which is not pooled
+        } finally {
+            FileUtil.close(in);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Response body of a single request. The difference between the bytes received and the
+     * bytes decoded is what gzip saved.
+     */
+    public static class ResponseStream extends CountingInputStream {
+
+        private final CountingInputStream mReceived;
+
+        ResponseStream(InputStream decoded, CountingInputStream received) {
+            super(decoded);
+            mReceived = received;
+        }
+
+        /**
+         * @return response body bytes transferred so far, compressed or not
+         */
+        public long getBytesReceived() {
+            return mReceived.getCount();
+        }
+
+        /**
+         * @return response body bytes read so far, after decompression
+         */
+        public long getBytesDecoded() {
+            return getCount();
+        }
+    }
+}
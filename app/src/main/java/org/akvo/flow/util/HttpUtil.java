@@ -28,17 +28,13 @@ import org.akvo.flow.exception.HttpException;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -51,25 +47,87 @@ public class HttpUtil {
 
     private static final String TAG = HttpUtil.class.getSimpleName();
     private static final int BUFFER_SIZE = 8192;
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    /**
+     * Consumes a response body as it is received
+     */
+    public interface ResponseReader {
+        void read(@NonNull InputStream in) throws IOException;
+    }
 
     @NonNull
     public static String httpGet(String url) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) (new URL(url).openConnection());
+        return httpGet(url, (HttpValidator) null);
+    }
+
+    /**
+     * Conditional GET. If the validator was obtained from this same url, it is sent along with
+     * the request, and the server can skip the response body if nothing has changed. Otherwise,
+     * the validator is updated with the ones found in the response.
+     *
+     * @return the response body, or null if the resource has not been modified
+     */
+    public static String httpGet(String url, @Nullable HttpValidator validator)
+            throws IOException {
+        StringResponseReader reader = new StringResponseReader();
+        if (!httpGet(url, validator, reader)) {
+            return null;
+        }
+        return reader.response;
+    }
+
+    /**
+     * Conditional GET, streaming the response body to the given reader as it is received,
+     * instead of buffering it.
+     *
+     * @return false if the resource has not been modified, thus the reader was not invoked
+     */
+    public static boolean httpGet(String url, @Nullable HttpValidator validator,
+            @NonNull ResponseReader reader) throws IOException {
+        final HttpClient client = HttpClient.getInstance();
+        HttpURLConnection conn = client.open(url);
+        client.acceptGzip(conn);
+        if (validator != null && validator.isValidFor(url)) {
+            if (validator.getEtag() != null) {
+                conn.setRequestProperty("If-None-Match", validator.getEtag());
+            }
+            if (validator.getLastModified() != null) {
+                conn.setRequestProperty("If-Modified-Since", validator.getLastModified());
+            }
+        }
         final long t0 = System.currentTimeMillis();
+        boolean reusable = false;
+        HttpClient.ResponseStream in = null;
 
         try {
             int status = getStatusCode(conn);
+            reusable = true;
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && validator != null) {
+                Log.d(TAG, url + ": not modified, " + (System.currentTimeMillis() - t0) + " ms");
+                return false;
+            }
             if (status != HttpURLConnection.HTTP_OK) {
                 throw new HttpException(conn.getResponseMessage(), status);
             }
-            InputStream in = new BufferedInputStream(conn.getInputStream());
-            String response = readStream(in);
-            Log.d(TAG, url + ": " + (System.currentTimeMillis() - t0) + " ms");
-            return response;
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
+            if (validator != null) {
+                validator.update(url, conn.getHeaderField("ETag"),
+                        conn.getHeaderField("Last-Modified"));
             }
+            in = client.getResponseStream(conn);
+
+            // If the reader fails halfway, close the connection instead of draining the body
+            reusable = false;
+            reader.read(new BufferedInputStream(in));
+            reusable = true;
+
+            Log.d(TAG, url + ": " + (System.currentTimeMillis() - t0) + " ms, "
+                    + in.getBytesReceived() + " bytes received, "
+                    + in.getBytesDecoded() + " bytes decoded");
+            return true;
+        } finally {
+            FileUtil.close(in);
+            HttpClient.release(conn, reusable);
         }
     }
 
@@ -77,10 +135,12 @@ public class HttpUtil {
         InputStream in = null;
         OutputStream out = null;
         HttpURLConnection conn = null;
+        boolean responseReceived = false;
         try {
-            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn = HttpClient.getInstance().open(url);
 
             in = new BufferedInputStream(conn.getInputStream());
+            responseReceived = true;
             out = new BufferedOutputStream(new FileOutputStream(dst));
 
             copyStream(in, out);
@@ -91,11 +151,9 @@ public class HttpUtil {
                 throw new IOException("Status Code: " + status + ". Expected: 200 - OK");
             }
         } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
             FileUtil.close(in);
             FileUtil.close(out);
+            HttpClient.release(conn, responseReceived);
         }
     }
 
@@ -103,35 +161,34 @@ public class HttpUtil {
      * does an HTTP Post to the url specified using the params passed in
      */
     public static String httpPost(String url, Map<String, String> params) throws IOException {
-        OutputStream out = null;
+        return httpPost(url, getQuery(params));
+    }
+
+    /**
+     * does an HTTP Post to the url specified, sending the given url-encoded query as body
+     */
+    public static String httpPost(String url, @NonNull String query) throws IOException {
+        final HttpClient client = HttpClient.getInstance();
         InputStream in = null;
-        Writer writer;
         HttpURLConnection conn = null;
+        boolean responseReceived = false;
         try {
-            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn = client.open(url);
+            client.acceptGzip(conn);
             conn.setDoInput(true);
-            conn.setDoOutput(true);
-
-            out = new BufferedOutputStream(conn.getOutputStream());
-            writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
-
-            writer.write(getQuery(params));
-            writer.flush();
-            writer.close();
-
-            in = new BufferedInputStream(conn.getInputStream());
+            conn.setRequestProperty("Content-Type", FORM_CONTENT_TYPE);
+            client.writeBody(conn, query.getBytes("UTF-8"));
 
             int status = getStatusCode(conn);
+            responseReceived = true;
             if (status != HttpURLConnection.HTTP_OK) {
                 throw new HttpException(conn.getResponseMessage(), status);
             }
+            in = new BufferedInputStream(client.getResponseStream(conn));
             return readStream(in);
         } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
-            FileUtil.close(out);
             FileUtil.close(in);
+            HttpClient.release(conn, responseReceived);
         }
     }
 
@@ -161,7 +218,7 @@ public class HttpUtil {
         return builder.length() > 0 ? builder.substring(1) : builder.toString();
     }
 
-    private static String readStream(@NonNull InputStream in) throws IOException {
+    public static String readStream(@NonNull InputStream in) throws IOException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(in));
         StringBuilder builder = new StringBuilder();
 
@@ -185,4 +242,14 @@ public class HttpUtil {
             out.write(b, 0, read);
         }
     }
+
+    private static class StringResponseReader implements ResponseReader {
+
+        String response;
+
+        @Override
+        public void read(@NonNull InputStream in) throws IOException {
+            response = readStream(in);
+        }
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Cache validators (ETag and Last-Modified) of a response. Sending them back turns the next
+ * request to the same url into a conditional GET, answered with an empty 304 response if the
+ * resource has not changed. A successful response replaces the values with the new ones.
+ */
+public class HttpValidator {
+
+    private String url;
+    private String etag;
+    private String lastModified;
+
+    public HttpValidator() {
+    }
+
+    public HttpValidator(@Nullable String url, @Nullable String etag,
+            @Nullable String lastModified) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    @Nullable
+    public String getUrl() {
+        return url;
+    }
+
+    @Nullable
+    public String getEtag() {
+        return etag;
+    }
+
+    @Nullable
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Validators only apply to the url they were obtained from. If any request parameter
+     * changes, i.e. the device identifier, the resource must be fetched again.
+     */
+    public boolean isValidFor(@NonNull String url) {
+        return url.equals(this.url) && (etag != null || lastModified != null);
+    }
+
+    void update(@NonNull String url, @Nullable String etag, @Nullable String lastModified) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+}
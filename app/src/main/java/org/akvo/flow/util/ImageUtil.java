@@ -23,15 +23,18 @@ import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.media.ExifInterface;
+import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.Base64;
 import android.util.DisplayMetrics;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
+import org.akvo.flow.util.image.ImageEncoder;
+import org.akvo.flow.util.image.QualityImageEncoder;
+
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -41,16 +44,28 @@ import timber.log.Timber;
 
 public class ImageUtil {
 
-    public static String encodeBase64(Bitmap bitmap, int reqWidth, int reqHeight) {
+    /**
+     * Lossless, as signatures are rendered by the dashboard as they are
+     */
+    private static final ImageEncoder PNG_ENCODER =
+            new QualityImageEncoder(Bitmap.CompressFormat.PNG, 100);
+
+    /**
+     * Scale the image to fit in the requested size, and compress it as PNG
+     */
+    public static byte[] encodePng(Bitmap bitmap, int reqWidth, int reqHeight) {
         Matrix m = new Matrix();
         m.setRectToRect(new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight()),
                 new RectF(0, 0, reqWidth, reqHeight), Matrix.ScaleToFit.CENTER);
         Bitmap resizedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), m, true);
 
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        resizedBitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        byte[] image = stream.toByteArray();
-        return Base64.encodeToString(image, Base64.DEFAULT);
+        try {
+            PNG_ENCODER.encode(resizedBitmap, stream);
+        } catch (IOException e) {
+            Timber.e(e, "Could not encode image");// Not thrown by in-memory streams
+        }
+        return stream.toByteArray();
     }
 
     public static Bitmap decodeBase64(String data) {
@@ -59,10 +74,14 @@ public class ImageUtil {
     }
 
     /**
-     * resizeImage handles resizing a too-large image file from the camera,
+     * Scale the image to fit exactly in the bounds of the given size preference, and compress
+     * it with the given encoder. Images smaller than the bounds are not scaled up.
+     *
+     * @param size one of the IMAGE_SIZE_* constants
      * @return true if the image was successfully resized to the new file, false otherwise
      */
-    public static boolean resizeImage(String origFilename, String outFilename, int size) {
+    public static boolean resizeImage(String origFilename, String outFilename, int size,
+            @NonNull ImageEncoder encoder) {
         int reqWidth, reqHeight;
         switch (size) {
             case ConstantUtil.IMAGE_SIZE_1280_960:
@@ -92,20 +111,103 @@ public class ImageUtil {
         }
 
         Timber.d("Orig Image size: " + options.outWidth + "x" + options.outHeight);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return false;
+        }
 
-        // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        final int[] dstSize = getScaledSize(options.outWidth, options.outHeight, reqWidth,
+                reqHeight);
 
-        // Decode bitmap with inSampleSize set
+        // Decode as little as possible, but never less than the target size
+        options.inSampleSize = calculateExactInSampleSize(options.outWidth, options.outHeight,
+                dstSize[0], dstSize[1]);
         options.inJustDecodeBounds = false;
         Bitmap bitmap = BitmapFactory.decodeFile(origFilename, options);
+        if (bitmap == null) {
+            return false;
+        }
 
-        if (bitmap != null && saveImage(bitmap, outFilename)) {
+        if (bitmap.getWidth() != dstSize[0] || bitmap.getHeight() != dstSize[1]) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, dstSize[0], dstSize[1], true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+        }
+        if (!encoder.supportsExif()) {
+            // The orientation cannot be stored as metadata. Rotate the pixels instead
+            bitmap = rotate(bitmap, getExifRotation(origFilename));
+        }
+
+        boolean saved = saveImage(bitmap, outFilename, encoder);
+        Timber.d("Resized Image size: " + bitmap.getWidth() + "x" + bitmap.getHeight());
+        bitmap.recycle();
+        if (saved && encoder.supportsExif()) {
             checkOrientation(origFilename, outFilename);// Ensure the EXIF data is not lost
-            Timber.d("Resized Image size: " + bitmap.getWidth() + "x" + bitmap.getHeight());
-            return true;
         }
-        return false;
+        return saved;
+    }
+
+    /**
+     * @return the [width, height] fitting the given bounds, keeping the aspect ratio. Images
+     * within the bounds keep their size
+     */
+    static int[] getScaledSize(int width, int height, int maxWidth, int maxHeight) {
+        float scale = Math.min((float) maxWidth / width, (float) maxHeight / height);
+        if (scale >= 1) {
+            return new int[] { width, height };
+        }
+        return new int[] {
+                Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale))
+        };
+    }
+
+    /**
+     * @return the largest power of two inSampleSize decoding an image not smaller than the
+     * requested size. Decoders round other values down to a power of two anyway
+     */
+    static int calculateExactInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= reqWidth
+                && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static int getExifRotation(String image) {
+        try {
+            ExifInterface exif = new ExifInterface(image);
+            switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            Timber.e(e.getMessage());
+            return 0;
+        }
+    }
+
+    private static Bitmap rotate(Bitmap bitmap, int degrees) {
+        if (degrees == 0) {
+            return bitmap;
+        }
+        Matrix m = new Matrix();
+        m.postRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                m, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
     }
 
     private static void checkOrientation(String originalImage, String resizedImage) {
@@ -163,14 +265,14 @@ public class ImageUtil {
         return false;
     }
 
-    private static boolean saveImage(Bitmap bitmap, String filename) {
+    private static boolean saveImage(Bitmap bitmap, String filename, ImageEncoder encoder) {
         OutputStream out = null;
         try {
             out = new BufferedOutputStream(new FileOutputStream(filename));
-            if (bitmap.compress(Bitmap.CompressFormat.JPEG, 75, out)) {
+            if (encoder.encode(bitmap, out)) {
                 return true;
             }
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             Timber.e(e.getMessage());
         } finally {
             if (out != null) {
@@ -233,22 +335,33 @@ public class ImageUtil {
     }
 
     public static void displayImage(ImageView imageView, String filename) {
+        final int[] size = getImageSize(imageView);// [width, height]
+        Bitmap bitmap = decodeSampledBitmap(filename, size[0], size[1]);
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+        }
+    }
+
+    /**
+     * Decode the image, sampled down to about the requested size
+     *
+     * @return the Bitmap, or null if the file could not be decoded
+     */
+    public static Bitmap decodeSampledBitmap(String filename, int reqWidth, int reqHeight) {
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(filename, options);
 
         // Calculate inSampleSize
-        final int[] size = getImageSize(imageView);// [width, height]
-        options.inSampleSize = calculateInSampleSize(options, size[0], size[1]);
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
 
         // Decode bitmap with inSampleSize set
         options.inJustDecodeBounds = false;
         Bitmap bitmap = BitmapFactory.decodeFile(filename, options);
-
         if (bitmap != null) {
-            Timber.d("Displaying image with inSampleSize: " + options.inSampleSize);
-            imageView.setImageBitmap(bitmap);
+            Timber.d("Decoded image with inSampleSize: " + options.inSampleSize);
         }
+        return bitmap;
     }
 
     /**
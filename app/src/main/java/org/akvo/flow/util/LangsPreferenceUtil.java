@@ -22,25 +22,16 @@ package org.akvo.flow.util;
 import android.content.Context;
 import android.content.res.Resources;
 import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
-import android.text.TextUtils;
 
 import org.akvo.flow.R;
 import org.akvo.flow.data.dao.SurveyDao;
-import org.akvo.flow.domain.AltText;
-import org.akvo.flow.domain.Question;
-import org.akvo.flow.domain.QuestionGroup;
+import org.akvo.flow.data.database.SurveyDbAdapter;
+import org.akvo.flow.domain.FormManifest;
 import org.akvo.flow.domain.Survey;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import timber.log.Timber;
 
@@ -71,6 +62,20 @@ public class LangsPreferenceUtil {
         return codes.toArray(new String[codes.size()]);
     }
 
+    /**
+     * returns the codes of the languages selected in the preferences, amongst the ones
+     * present in the installed forms.
+     */
+    @NonNull
+    public static String[] getSelectedLangCodes(@NonNull Context context,
+            @NonNull SurveyDbAdapter database) {
+        LangsPreferenceData langsPrefData = createLangPrefData(context,
+                database.getPreference(ConstantUtil.SURVEY_LANG_SETTING_KEY),
+                database.getPreference(ConstantUtil.SURVEY_LANG_PRESENT_KEY));
+        return getSelectedLangCodes(context, langsPrefData.getLangsSelectedMasterIndexArray(),
+                langsPrefData.getLangsSelectedBooleanArray(), R.array.alllanguagecodes);
+    }
+
     /**
      * forms a comma-delimited string of array index values used to persist the
      * selected items to the db.
@@ -131,82 +136,38 @@ public class LangsPreferenceUtil {
     }
 
     /**
-     * Find all the languages available for a given survey
+     * Find all the languages available for a given survey, loading the form to extract
+     * them. Prefer determineLanguages(Survey, FormManifest) if the manifest is at hand.
      * @param context
      * @param survey
-     * @return an array with at least {'en'}, other languages are appended if available
+     * @return an array with the languages of the survey, the default one first
      */
     @NonNull
     public static String[] determineLanguages(@NonNull Context context, @NonNull Survey survey) {
-        /**
-         * Represents the survey languages we receive from the server
-         * Set of strings with language codes (ej: 'en')
-         *
-         */
-        Set<String> availableSurveyLanguages = new LinkedHashSet<>();
-
+        Survey hydratedSurvey = null;
         try {
-            InputStream in;
-            if (ConstantUtil.RESOURCE_LOCATION.equalsIgnoreCase(survey.getLocation())) {
-                in = loadFromRawResource(context, survey);
-            } else {
-                in = loadFromFile(survey);
-            }
-            Survey hydratedSurvey = SurveyDao.loadSurvey(survey, in);
-
-            appendAllLanguages(survey, availableSurveyLanguages, hydratedSurvey);
+            hydratedSurvey = SurveyDao.loadSurvey(context, survey);
         } catch (FileNotFoundException e) {
             Timber.e(e, "Could not parse survey file");
         }
-        return availableSurveyLanguages.toArray(new String[availableSurveyLanguages.size()]);
-    }
-
-    private static void appendAllLanguages(@NonNull Survey survey,
-            @NonNull Set<String> availableSurveyLanguages, @Nullable Survey hydratedSurvey) {
-        if (hydratedSurvey != null) {
-            // add main language to survey object. It is used in the next
-            // section to populate the languages
-            String surveyMainLanguage = hydratedSurvey.getLanguage();
-            survey.setLanguage(surveyMainLanguage);
-            if (!TextUtils.isEmpty(surveyMainLanguage)) {
-                //start by inserting the default language in the beginning
-                availableSurveyLanguages.add(surveyMainLanguage);
-            }
-            appendQuestionGroupLanguages(availableSurveyLanguages,
-                    hydratedSurvey.getQuestionGroups());
-        }
-    }
-
-    private static void appendQuestionGroupLanguages(Set<String> availableSurveyLanguages,
-            List<QuestionGroup> questionGroups) {
-        if (questionGroups != null) {
-            int size = questionGroups.size();
-            for (int i = 0; i < size; i++) {
-                ArrayList<Question> questions = questionGroups.get(i).getQuestions();
-                if (questions != null) {
-                    for (Question question : questions) {
-                        Map<String, AltText> questionAltTextMap = question.getAltTextMap();
-                        if (questionAltTextMap != null) {
-                            availableSurveyLanguages.addAll(questionAltTextMap.keySet());
-                        }
-                    }
-                }
-            }
+        if (hydratedSurvey == null) {
+            return new String[0];
         }
+        return determineLanguages(survey, FormManifest.fromSurvey(hydratedSurvey));
     }
 
+    /**
+     * Find all the languages available for a given survey, as listed in its manifest. The
+     * survey default language is set too.
+     * @return an array with the languages of the survey, the default one first
+     */
     @NonNull
-    private static InputStream loadFromFile(Survey survey) throws FileNotFoundException {
-        File f = new File(FileUtil.getFilesDir(FileUtil.FileType.FORMS), survey.getFileName());
-        return new FileInputStream(f);
-    }
-
-    @NonNull
-    private static InputStream loadFromRawResource(Context context, Survey survey) {
-        Resources res = context.getResources();
-        return res.openRawResource(
-                res.getIdentifier(survey.getFileName(), ConstantUtil.RAW_RESOURCE,
-                        ConstantUtil.RESOURCE_PACKAGE));
+    public static String[] determineLanguages(@NonNull Survey survey,
+            @NonNull FormManifest manifest) {
+        // add main language to survey object
+        survey.setLanguage(manifest.getLanguage());
+        List<String> languages = manifest.getLanguages();
+        return languages.toArray(new String[languages.size()]);
     }
 
 }
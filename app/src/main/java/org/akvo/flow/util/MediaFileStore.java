@@ -0,0 +1,106 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import timber.log.Timber;
+
+/**
+ * Content-addressed store of captured media files. Files are named after the MD5 of their
+ * content, thus byte-identical captures share a single file, and with it a single
+ * transmission: they are stored, uploaded and notified once, no matter how many responses
+ * point at them. Stored files must therefore never be modified, i.e. camera photos, which
+ * get their location written into the EXIF data, must not be stored here.
+ */
+public class MediaFileStore {
+
+    private final File mDir;
+
+    public MediaFileStore(@NonNull File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * @return the store of the media files of the app
+     */
+    @NonNull
+    public static MediaFileStore getDefault() {
+        return new MediaFileStore(FileUtil.getFilesDir(FileUtil.FileType.MEDIA));
+    }
+
+    /**
+     * Move a file into the store. If an identical file is stored already, the given one is
+     * discarded, and the stored one is returned instead.
+     *
+     * @param suffix the file extension, i.e. ".jpg"
+     * @return the stored file, or null if the file could not be read or moved
+     */
+    @Nullable
+    public File add(@NonNull File src, @NonNull String suffix) {
+        String md5 = FileUtil.hexMd5(src);
+        if (md5 == null) {
+            return null;
+        }
+        File dst = new File(mDir, md5 + suffix);
+        if (dst.exists() && dst.length() == src.length()) {
+            Timber.d("Media file " + src.getName() + " is already stored as " + dst.getName());
+            if (!src.equals(dst) && !src.delete()) {
+                Timber.e("Could not delete duplicate media file " + src.getAbsolutePath());
+            }
+            return dst;
+        }
+        if (src.renameTo(dst)) {
+            return dst;
+        }
+
+        // Not in the same filesystem. Copy the file instead
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(src);
+            out = new FileOutputStream(dst);
+            FileUtil.copy(in, out);
+        } catch (IOException e) {
+            Timber.e(e, "Could not store media file " + src.getAbsolutePath());
+            FileUtil.close(out);
+            out = null;
+            if (!dst.delete()) {
+                Timber.e("Could not delete partial media file " + dst.getAbsolutePath());
+            }
+            return null;
+        } finally {
+            FileUtil.close(in);
+            FileUtil.close(out);
+        }
+        if (!src.delete()) {
+            Timber.e("Could not delete media file " + src.getAbsolutePath());
+        }
+        return dst;
+    }
+}
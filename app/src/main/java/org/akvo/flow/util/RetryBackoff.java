@@ -0,0 +1,57 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util;
+
+import java.util.Random;
+
+/**
+ * Capped exponential backoff with jitter. The delay doubles with every failed attempt,
+ * up to a maximum. Only half of it is fixed, the other half is random, so operations
+ * failing at the same time do not keep retrying in lockstep.
+ */
+public class RetryBackoff {
+
+    private static final int MAX_EXPONENT = 30;
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final Random random;
+
+    public RetryBackoff(long baseDelay, long maxDelay) {
+        this(baseDelay, maxDelay, new Random());
+    }
+
+    RetryBackoff(long baseDelay, long maxDelay, Random random) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.random = random;
+    }
+
+    /**
+     * @param attempt number of failed attempts so far, starting at 1
+     * @return the delay, in milliseconds, to wait before the next attempt
+     */
+    public long getDelay(int attempt) {
+        final int exponent = Math.min(Math.max(attempt - 1, 0), MAX_EXPONENT);
+        final long delay = Math.min(baseDelay << exponent, maxDelay);
+        final long fixed = delay / 2;
+        return fixed + (long) (random.nextDouble() * (delay - fixed));
+    }
+}
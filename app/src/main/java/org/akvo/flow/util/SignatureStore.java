@@ -0,0 +1,124 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Base64;
+
+import org.akvo.flow.domain.response.value.Signature;
+import org.akvo.flow.serialization.response.value.SignatureValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import timber.log.Timber;
+
+/**
+ * Signature images are stored as PNG files in the media folder, so responses only hold a
+ * reference to them. The dashboard expects them inline, thus they are inlined back into the
+ * response value when the form instance is exported.
+ */
+public class SignatureStore {
+
+    private SignatureStore() {
+    }
+
+    /**
+     * @return the stored file, or null if it could not be written
+     */
+    @Nullable
+    public static File save(@NonNull byte[] png) {
+        File dir = FileUtil.getFilesDir(FileUtil.FileType.MEDIA);
+        File tmp = new File(dir, PlatformUtil.uuid() + ConstantUtil.PNG_SUFFIX);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(png);
+        } catch (IOException e) {
+            Timber.e(e, "Could not write signature file");
+            FileUtil.close(out);
+            out = null;
+            if (tmp.exists() && !tmp.delete()) {
+                Timber.e("Could not delete partial signature file " + tmp.getAbsolutePath());
+            }
+            return null;
+        } finally {
+            FileUtil.close(out);
+        }
+        return new MediaFileStore(dir).add(tmp, ConstantUtil.PNG_SUFFIX);
+    }
+
+    /**
+     * Move the inline image of the signature into a file
+     *
+     * @return true if the signature holds a file reference now
+     */
+    public static boolean moveToFile(@NonNull Signature signature) {
+        if (TextUtils.isEmpty(signature.getImage())) {
+            return !TextUtils.isEmpty(signature.getFile());
+        }
+        byte[] png;
+        try {
+            png = Base64.decode(signature.getImage(), Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            Timber.e(e, "Invalid signature image");
+            return false;
+        }
+        File file = save(png);
+        if (file == null) {
+            return false;
+        }
+        signature.setFile(file.getAbsolutePath());
+        signature.setImage(null);
+        return true;
+    }
+
+    /**
+     * @param value serialized signature response
+     * @return the serialized signature, with its image inline
+     * @throws IOException if the signature file is missing or cannot be read
+     */
+    @NonNull
+    public static String inline(@NonNull String value) throws IOException {
+        Signature signature = SignatureValue.deserialize(value);
+        if (TextUtils.isEmpty(signature.getFile())) {
+            return value;// Already inline
+        }
+        File file = new File(signature.getFile());
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream png = new ByteArrayOutputStream((int) file.length());
+            FileUtil.copy(in, png);
+            signature.setImage(Base64.encodeToString(png.toByteArray(), Base64.DEFAULT));
+        } finally {
+            FileUtil.close(in);
+        }
+        signature.setFile(null);
+        return SignatureValue.serialize(signature);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import timber.log.Timber;
+
+/**
+ * Compresses images with the highest quality whose output fits in the given byte budget.
+ * The quality is found with a binary search, thus an image is compressed about
+ * log2(MAX_QUALITY - MIN_QUALITY) times. If not even the lowest quality fits, the image is
+ * compressed with it anyway: images are never dropped for being too big.
+ */
+public class ByteBudgetImageEncoder implements ImageEncoder {
+
+    static final int MIN_QUALITY = 30;
+    static final int MAX_QUALITY = 90;
+
+    private final CompressFormat mFormat;
+    private final int mMaxBytes;
+
+    public ByteBudgetImageEncoder(@NonNull CompressFormat format, int maxBytes) {
+        mFormat = format;
+        mMaxBytes = maxBytes;
+    }
+
+    @NonNull
+    @Override
+    public String getSuffix() {
+        return ImageEncoders.getSuffix(mFormat);
+    }
+
+    @Override
+    public boolean supportsExif() {
+        return mFormat == CompressFormat.JPEG;
+    }
+
+    @Override
+    public boolean encode(@NonNull Bitmap bitmap, @NonNull OutputStream out) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(mMaxBytes);
+        byte[] best = null;
+        int bestQuality = MIN_QUALITY;
+        int low = MIN_QUALITY, high = MAX_QUALITY;
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            buffer.reset();
+            if (!bitmap.compress(mFormat, quality, buffer)) {
+                return false;
+            }
+            if (buffer.size() <= mMaxBytes) {
+                best = buffer.toByteArray();
+                bestQuality = quality;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+        if (best == null) {
+            buffer.reset();
+            if (!bitmap.compress(mFormat, MIN_QUALITY, buffer)) {
+                return false;
+            }
+            best = buffer.toByteArray();
+        }
+        Timber.d("Image encoded with quality " + bestQuality + ": " + best.length + " bytes");
+        out.write(best);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return mFormat + " <=" + mMaxBytes + "B";
+    }
+}
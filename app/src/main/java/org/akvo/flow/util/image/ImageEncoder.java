@@ -0,0 +1,48 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util.image;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Final stage of the image pipeline: compresses a decoded, already scaled, Bitmap.
+ */
+public interface ImageEncoder {
+
+    /**
+     * @return the extension of the encoded files, i.e. ".jpg"
+     */
+    @NonNull
+    String getSuffix();
+
+    /**
+     * @return true if the format holds EXIF metadata (orientation, location)
+     */
+    boolean supportsExif();
+
+    /**
+     * @return false if the Bitmap could not be compressed
+     */
+    boolean encode(@NonNull Bitmap bitmap, @NonNull OutputStream out) throws IOException;
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util.image;
+
+import android.graphics.Bitmap.CompressFormat;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+
+import org.akvo.flow.util.ConstantUtil;
+import org.akvo.flow.util.PropertyUtil;
+
+/**
+ * Factory of the encoders of captured images, configured in survey.properties:
+ *
+ * imageFormat = jpeg|webp (jpeg by default)
+ * imageMaxBytes = byte budget of each image. If not set, a fixed quality is used instead
+ *
+ * WebP images are smaller, but they do not hold EXIF metadata, thus the location the camera
+ * stores in JPEG images is lost. Devices not supporting WebP (API < 14) fall back to JPEG.
+ */
+public class ImageEncoders {
+
+    private static final String FORMAT_PROP = "imageFormat";
+    private static final String MAX_BYTES_PROP = "imageMaxBytes";
+
+    private static final String FORMAT_WEBP = "webp";
+
+    public static final int DEFAULT_QUALITY = 75;
+
+    private ImageEncoders() {
+    }
+
+    /**
+     * @return the encoder of captured images
+     */
+    @NonNull
+    public static ImageEncoder fromProperties(@NonNull PropertyUtil props) {
+        CompressFormat format = CompressFormat.JPEG;
+        if (FORMAT_WEBP.equalsIgnoreCase(props.getProperty(FORMAT_PROP))
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            format = CompressFormat.WEBP;
+        }
+        int maxBytes = 0;
+        String maxBytesProp = props.getProperty(MAX_BYTES_PROP);
+        if (!TextUtils.isEmpty(maxBytesProp)) {
+            try {
+                maxBytes = Integer.parseInt(maxBytesProp.trim());
+            } catch (NumberFormatException e) {
+                // Use the default quality
+            }
+        }
+        if (maxBytes > 0) {
+            return new ByteBudgetImageEncoder(format, maxBytes);
+        }
+        return new QualityImageEncoder(format, DEFAULT_QUALITY);
+    }
+
+    @NonNull
+    static String getSuffix(@NonNull CompressFormat format) {
+        switch (format) {
+            case PNG:
+                return ConstantUtil.PNG_SUFFIX;
+            case JPEG:
+                return ConstantUtil.JPG_SUFFIX;
+            default:
+                return ConstantUtil.WEBP_SUFFIX;
+        }
+    }
+}
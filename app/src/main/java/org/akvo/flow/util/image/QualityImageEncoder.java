@@ -0,0 +1,65 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses images with a fixed quality
+ */
+public class QualityImageEncoder implements ImageEncoder {
+
+    private final CompressFormat mFormat;
+    private final int mQuality;
+
+    /**
+     * @param quality 0-100. Ignored by lossless formats, i.e. PNG
+     */
+    public QualityImageEncoder(@NonNull CompressFormat format, int quality) {
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    @NonNull
+    @Override
+    public String getSuffix() {
+        return ImageEncoders.getSuffix(mFormat);
+    }
+
+    @Override
+    public boolean supportsExif() {
+        return mFormat == CompressFormat.JPEG;
+    }
+
+    @Override
+    public boolean encode(@NonNull Bitmap bitmap, @NonNull OutputStream out) throws IOException {
+        return bitmap.compress(mFormat, mQuality, out);
+    }
+
+    @Override
+    public String toString() {
+        return mFormat + " q" + mQuality;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util.image;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.widget.ImageView;
+
+import org.akvo.flow.util.FileUtil;
+import org.akvo.flow.util.ImageUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Thumbnails of the media responses, decoded off the main thread, and cached at two levels:
+ * an in-memory LRU, sized after the memory class of the device, and a disk cache, so
+ * reopening a form does not decode the original files again. Entries are keyed by the file
+ * path, its modification time and the thumbnail size, thus a modified file (i.e. EXIF location
+ * added) gets a new thumbnail, and the stale one is eventually evicted.
+ *
+ * Every method must be invoked from the main thread.
+ */
+public class ThumbnailCache {
+
+    private static final String DIR = "thumbnails";
+    private static final long MAX_DISK_BYTES = 20 * 1024 * 1024;
+    private static final int DISK_QUALITY = 80;
+    private static final int MEMORY_FRACTION = 8;// Share of the app memory class
+    private static final int THREADS = 2;
+
+    private static ThumbnailCache sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDiskDir;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREADS);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Latest request of each view. Views may be rebound before a previous load completes
+    private final Map<ImageView, String> mTargets = new WeakHashMap<>();
+
+    public static ThumbnailCache getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ThumbnailCache(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        final int maxBytes = am.getMemoryClass() * 1024 * 1024 / MEMORY_FRACTION;
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+        mDiskDir = new File(context.getCacheDir(), DIR);
+    }
+
+    /**
+     * Display the thumbnail of the image or video in the given view, sized after it. If the
+     * thumbnail is not in memory, the view is cleared until it is loaded.
+     */
+    public void display(@NonNull ImageView imageView, @NonNull String filename, boolean video) {
+        final int[] size = ImageUtil.getImageSize(imageView);// [width, height]
+        final File file = new File(filename);
+        final String key = getKey(file, size);
+
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            mTargets.remove(imageView);
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+
+        imageView.setImageDrawable(null);
+        if (key.equals(mTargets.put(imageView, key))) {
+            return;// Already being loaded
+        }
+        mExecutor.execute(new LoadTask(imageView, key, file, size, video));
+    }
+
+    /**
+     * Stop loading the thumbnail of the given view, if it is being loaded
+     */
+    public void cancel(@NonNull ImageView imageView) {
+        mTargets.remove(imageView);
+    }
+
+    private static String getKey(File file, int[] size) {
+        return file.getAbsolutePath() + ":" + file.lastModified() + ":" + size[0] + "x"
+                + size[1];
+    }
+
+    private class LoadTask implements Runnable {
+        private final ImageView mImageView;// Only accessed in the main thread
+        private final String mKey;
+        private final File mFile;
+        private final int[] mSize;
+        private final boolean mVideo;
+
+        LoadTask(ImageView imageView, String key, File file, int[] size, boolean video) {
+            mImageView = imageView;
+            mKey = key;
+            mFile = file;
+            mSize = size;
+            mVideo = video;
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap = load(mKey, mFile, mSize, mVideo);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (bitmap != null) {
+                        mMemoryCache.put(mKey, bitmap);
+                    }
+                    if (mKey.equals(mTargets.get(mImageView))) {
+                        mTargets.remove(mImageView);
+                        if (bitmap != null) {
+                            mImageView.setImageBitmap(bitmap);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs in a worker thread
+     */
+    @Nullable
+    private Bitmap load(String key, File file, int[] size, boolean video) {
+        File cached = new File(mDiskDir, hash(key) + ".jpg");
+        if (cached.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cached.getAbsolutePath());
+            if (bitmap != null) {
+                // Keep recently used thumbnails out of the trimming
+                if (!cached.setLastModified(System.currentTimeMillis())) {
+                    Timber.d("Could not touch thumbnail " + cached.getName());
+                }
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap = video ?
+                ThumbnailUtils.createVideoThumbnail(file.getAbsolutePath(),
+                        MediaStore.Video.Thumbnails.MINI_KIND) :
+                ImageUtil.decodeSampledBitmap(file.getAbsolutePath(), size[0], size[1]);
+        if (bitmap != null) {
+            save(bitmap, cached);
+        }
+        return bitmap;
+    }
+
+    private void save(Bitmap bitmap, File file) {
+        if (!mDiskDir.exists() && !mDiskDir.mkdirs()) {
+            return;
+        }
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_QUALITY, out);
+        } catch (IOException e) {
+            Timber.e(e, "Could not cache thumbnail");
+        } finally {
+            FileUtil.close(out);
+        }
+        trimDiskCache();
+    }
+
+    /**
+     * Delete the least recently used thumbnails, until the disk cache fits its size
+     */
+    private synchronized void trimDiskCache() {
+        File[] files = mDiskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File f : files) {
+            size += f.length();
+        }
+        if (size <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified(), r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && size > MAX_DISK_BYTES; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            return FileUtil.hexMd5(md.digest(key.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Should never happen
+            return String.valueOf(key.hashCode());
+        }
+    }
+}
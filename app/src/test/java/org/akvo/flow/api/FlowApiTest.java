@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.api;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.akvo.flow.data.preference.Prefs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+@SmallTest
+public class FlowApiTest {
+
+    private static final String FORM_ID = "123";
+    private static final String ACTION = "image";
+    private static final List<String> FILES = Arrays.asList("a.jpg", "b.jpg", "c.jpg",
+            "d.jpg", "e.jpg");
+
+    private FakeProcessor processor;
+    private LocalHttpServer server;
+    private MemoryPrefs prefs;
+    private FlowApi api;
+
+    @Before
+    public void setup() throws IOException {
+        processor = new FakeProcessor();
+        server = new LocalHttpServer(processor);
+        prefs = new MemoryPrefs();
+        api = new FlowApi(server.getUrl(), "key", "phone", "imei", "androidId", "device",
+                prefs);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void sendProcessingNotifications_ShouldNotifyAllFilesInOneRequest() {
+        Map<String, Integer> statuses = api.sendProcessingNotifications(FORM_ID, ACTION, FILES);
+
+        assertAllOk(statuses);
+        assertEquals(1, server.getRequestCount());
+        assertEquals(new HashSet<>(FILES), processor.notified);
+    }
+
+    @Test
+    public void sendProcessingNotifications_ShouldFallBackToSingleRequestsIfBatchIsRejected() {
+        processor.batchSupported = false;
+
+        Map<String, Integer> statuses = api.sendProcessingNotifications(FORM_ID, ACTION, FILES);
+
+        assertAllOk(statuses);
+        assertEquals(1 + FILES.size(), server.getRequestCount());
+        assertEquals(new HashSet<>(FILES), processor.notified);
+    }
+
+    @Test
+    public void sendProcessingNotifications_ShouldNotRetryBatchesOnceRejected() {
+        processor.batchSupported = false;
+        api.sendProcessingNotifications(FORM_ID, ACTION, FILES);
+        assertEquals(server.getUrl(), prefs.values.get(Prefs.KEY_BATCH_NOTIFICATION_REJECTED));
+
+        Map<String, Integer> statuses = api.sendProcessingNotifications(FORM_ID, ACTION, FILES);
+
+        assertAllOk(statuses);
+        assertEquals(1 + FILES.size() + FILES.size(), server.getRequestCount());
+    }
+
+    @Test
+    public void sendProcessingNotifications_ShouldKeepBatchesAfterDeletedForm() {
+        processor.formDeleted = true;
+        api.sendProcessingNotifications(FORM_ID, ACTION, FILES);
+        assertNull(prefs.values.get(Prefs.KEY_BATCH_NOTIFICATION_REJECTED));
+        final int requests = server.getRequestCount();
+
+        processor.formDeleted = false;
+        Map<String, Integer> statuses = api.sendProcessingNotifications(FORM_ID, ACTION, FILES);
+
+        assertAllOk(statuses);
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void sendProcessingNotifications_ShouldOnlyRetryUnconfirmedFiles() {
+        processor.maxBatchConfirmations = 3;
+
+        Map<String, Integer> statuses = api.sendProcessingNotifications(FORM_ID, ACTION, FILES);
+
+        assertAllOk(statuses);
+        assertEquals(1 + 2, server.getRequestCount());
+        assertEquals(new HashSet<>(FILES), processor.notified);
+    }
+
+    @Test
+    public void sendProcessingNotifications_ShouldReportDeletedForm() {
+        processor.formDeleted = true;
+
+        Map<String, Integer> statuses = api.sendProcessingNotifications(FORM_ID, ACTION, FILES);
+
+        for (String file : FILES) {
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, (int) statuses.get(file));
+        }
+    }
+
+    private static void assertAllOk(Map<String, Integer> statuses) {
+        assertEquals(FILES.size(), statuses.size());
+        for (String file : FILES) {
+            assertEquals(HttpURLConnection.HTTP_OK, (int) statuses.get(file));
+        }
+    }
+
+    /**
+     * Preferences held in memory, as there are no SharedPreferences in unit tests
+     */
+    private static class MemoryPrefs extends Prefs {
+
+        final Map<String, String> values = new HashMap<>();
+
+        MemoryPrefs() {
+            super(null);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return values.containsKey(key) ? values.get(key) : defValue;
+        }
+
+        @Override
+        public void setString(String key, String value) {
+            values.put(key, value);
+        }
+    }
+
+    /**
+     * Stand-in for the processor servlet, with or without support for batch notifications
+     */
+    private static class FakeProcessor implements LocalHttpServer.Handler {
+
+        final Set<String> notified = new HashSet<>();
+        boolean batchSupported = true;
+        boolean formDeleted = false;
+        int maxBatchConfirmations = Integer.MAX_VALUE;
+
+        @Override
+        public synchronized LocalHttpServer.Response handle(LocalHttpServer.Request request) {
+            if (formDeleted) {
+                return new LocalHttpServer.Response(404, "");
+            }
+            if ("/processor".equals(request.path)) {
+                notified.add(request.getQueryParameter("fileName"));
+                return new LocalHttpServer.Response(200, "");
+            }
+            if ("/processor/batch".equals(request.path) && batchSupported) {
+                LocalHttpServer.Request body = new LocalHttpServer.Request(request.method,
+                        request.path, request.getBodyAsString(), request.headers, request.body);
+                List<String> confirmed = new ArrayList<>();
+                for (String fileName : body.getQueryParameters("fileName")) {
+                    if (confirmed.size() < maxBatchConfirmations) {
+                        notified.add(fileName);
+                        confirmed.add("\"" + fileName + "\"");
+                    }
+                }
+                return new LocalHttpServer.Response(200, "{\"fileNames\":" + confirmed + "}");
+            }
+            return new LocalHttpServer.Response(404, "");
+        }
+    }
+}
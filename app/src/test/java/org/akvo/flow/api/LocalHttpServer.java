@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server bound to the loopback interface. It stands in for the Flow
+ * and S3 backends in tests: every request is handed to a Handler, and connections are
+ * kept alive unless the client asks otherwise. Network failures can be simulated by
+ * dropping a connection while the request body is being received.
+ */
+public class LocalHttpServer {
+
+    public interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    public static class Request {
+
+        public final String method;
+        public final String path;
+        public final String query;
+        public final Map<String, String> headers;
+        public final byte[] body;
+
+        Request(String method, String path, String query, Map<String, String> headers,
+                byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+        /**
+         * @return the decoded value of the first matching query parameter, or null
+         */
+        public String getQueryParameter(String name) {
+            List<String> values = getQueryParameters(name);
+            return values.isEmpty() ? null : values.get(0);
+        }
+
+        public List<String> getQueryParameters(String name) {
+            List<String> values = new ArrayList<>();
+            if (query == null) {
+                return values;
+            }
+            for (String param : query.split("&")) {
+                int separator = param.indexOf('=');
+                String key = separator != -1 ? param.substring(0, separator) : param;
+                if (name.equals(decode(key))) {
+                    values.add(separator != -1 ? decode(param.substring(separator + 1)) : "");
+                }
+            }
+            return values;
+        }
+
+        public String getBodyAsString() {
+            try {
+                return new String(body, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static String decode(String value) {
+            try {
+                return URLDecoder.decode(value, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    public static class Response {
+
+        final int status;
+        final byte[] body;
+        final Map<String, String> headers = new LinkedHashMap<>();
+
+        public Response(int status, String body) {
+            this(status, toBytes(body));
+        }
+
+        public Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body != null ? body : new byte[0];
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        private static byte[] toBytes(String body) {
+            try {
+                return body != null ? body.getBytes("UTF-8") : null;
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private final Handler handler;
+    private final ServerSocket serverSocket;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    private volatile String dropFragment;
+    private volatile int dropAfterBytes;
+
+    public LocalHttpServer(Handler handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "LocalHttpServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Number of requests handed to the Handler so far. Dropped requests are not counted.
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Number of TCP connections accepted so far
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Abruptly reset the connection of the next request whose request line contains the
+     * given text, as soon as the given amount of request body bytes has been received.
+     */
+    public void dropNextRequest(String requestLineFragment, int afterBodyBytes) {
+        dropAfterBytes = afterBodyBytes;
+        dropFragment = requestLineFragment;
+    }
+
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                sockets.add(socket);
+                Thread connectionThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "LocalHttpServer-connection");
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            } catch (IOException e) {
+                return;// Server stopped
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            // Responses spanning several segments would otherwise wait for delayed ACKs
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    return;// Connection closed by the client
+                }
+                String[] tokens = requestLine.split(" ");
+                String method = tokens[0];
+                String target = tokens[1];
+                int querySeparator = target.indexOf('?');
+                String path = querySeparator != -1 ? target.substring(0, querySeparator) : target;
+                String query = querySeparator != -1 ? target.substring(querySeparator + 1) : null;
+
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int separator = line.indexOf(':');
+                    headers.put(line.substring(0, separator).trim().toLowerCase(Locale.US),
+                            line.substring(separator + 1).trim());
+                }
+
+                final String fragment = dropFragment;
+                if (fragment != null && requestLine.contains(fragment)) {
+                    dropFragment = null;
+                    try {
+                        readFully(in, dropAfterBytes);
+                    } catch (EOFException e) {
+                        // The client gave up first
+                    }
+                    socket.setSoLinger(true, 0);// Send a RST instead of a graceful FIN
+                    return;
+                }
+
+                byte[] body = readBody(in, headers);
+                Request request = new Request(method, path, query, headers, body);
+                requestCount.incrementAndGet();
+                Response response = handler.handle(request);
+                writeResponse(out, response, !"HEAD".equals(method));
+
+                if ("close".equalsIgnoreCase(request.getHeader("Connection"))) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Connection closed by either side
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static byte[] readBody(InputStream in, Map<String, String> headers)
+            throws IOException {
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int size;
+            while ((size = Integer.parseInt(readLine(in).split(";")[0].trim(), 16)) > 0) {
+                body.write(readFully(in, size));
+                readLine(in);// Chunk CRLF
+            }
+            readLine(in);// Last CRLF
+            return body.toByteArray();
+        }
+        String length = headers.get("content-length");
+        return length != null ? readFully(in, Integer.parseInt(length)) : new byte[0];
+    }
+
+    private static void writeResponse(OutputStream out, Response response, boolean writeBody)
+            throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.status).append(" Status\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        if (writeBody) {
+            out.write(response.body);
+        }
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(data, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+        return data;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+}
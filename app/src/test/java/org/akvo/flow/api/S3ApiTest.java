@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.api;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Base64;
+
+import org.akvo.flow.domain.MultipartUpload;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+
+@SmallTest
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Base64.class)
+public class S3ApiTest {
+
+    private static final int PART_SIZE = 64 * 1024;
+    private static final String OBJECT_KEY = "images/test.jpg";
+    private static final String TYPE = "image/jpeg";
+
+    private FakeS3 s3;
+    private LocalHttpServer server;
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setup() throws IOException {
+        // The stand-in does not verify signatures nor Content-MD5 headers
+        PowerMockito.mockStatic(Base64.class);
+        PowerMockito.when(Base64.encodeToString(any(byte[].class), anyInt()))
+                .thenReturn("c2lnbmF0dXJl");
+
+        s3 = new FakeS3();
+        server = new LocalHttpServer(s3);
+
+        content = new byte[PART_SIZE * 3 + PART_SIZE / 2];// 4 parts
+        new Random(42).nextBytes(content);
+        file = File.createTempFile("upload", ".jpg");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        file.delete();
+    }
+
+    @Test
+    public void isMultipart_ShouldReturnTrueOnlyAboveThreshold() throws Exception {
+        assertTrue(newApi(content.length - 1).isMultipart(file));
+        assertFalse(newApi(content.length).isMultipart(file));
+    }
+
+    @Test
+    public void putMultipart_ShouldUploadAllParts() throws Exception {
+        RecordingListener listener = new RecordingListener();
+
+        boolean ok = newApi(PART_SIZE).putMultipart(OBJECT_KEY, file, TYPE, true,
+                new MultipartUpload(), listener);
+
+        assertTrue(ok);
+        assertArrayEquals(content, s3.objects.get("/bucket/" + OBJECT_KEY));
+        assertEquals(Arrays.asList(1, 2, 3, 4), s3.receivedParts);
+        assertEquals("public-read", s3.acl);
+    }
+
+    @Test
+    public void putMultipart_ShouldResumeFromLastCompletedPartAfterConnectionDrop()
+            throws Exception {
+        S3Api api = newApi(PART_SIZE);
+        RecordingListener listener = new RecordingListener();
+        server.dropNextRequest("partNumber=3", PART_SIZE / 2);
+
+        boolean ok;
+        try {
+            ok = api.putMultipart(OBJECT_KEY, file, TYPE, true, new MultipartUpload(), listener);
+        } catch (IOException e) {
+            ok = false;
+        }
+        assertFalse(ok);
+        assertEquals(Arrays.asList(1, 2), s3.receivedParts);
+
+        // A later sync only gets the state persisted by the listener
+        MultipartUpload persisted = new MultipartUpload(listener.uploadId, listener.parts);
+        assertEquals(2, persisted.getParts().size());
+
+        ok = api.putMultipart(OBJECT_KEY, file, TYPE, true, persisted, listener);
+
+        assertTrue(ok);
+        assertEquals(1, s3.initiatedUploads);
+        assertEquals(Arrays.asList(1, 2, 3, 4), s3.receivedParts);// No part sent twice
+        assertArrayEquals(content, s3.objects.get("/bucket/" + OBJECT_KEY));
+    }
+
+    @Test
+    public void putMultipart_ShouldResetUnknownUpload() throws Exception {
+        S3Api api = newApi(PART_SIZE);
+        RecordingListener listener = new RecordingListener();
+        MultipartUpload expired = new MultipartUpload("expired-upload", "1:abc");
+
+        boolean ok = api.putMultipart(OBJECT_KEY, file, TYPE, false, expired, listener);
+
+        assertFalse(ok);
+        assertFalse(expired.isStarted());
+        assertNull(listener.uploadId);
+
+        ok = api.putMultipart(OBJECT_KEY, file, TYPE, false, expired, listener);
+
+        assertTrue(ok);
+        assertArrayEquals(content, s3.objects.get("/bucket/" + OBJECT_KEY));
+    }
+
+    @Test
+    public void putMultipart_ShouldClearStateOnceCompleted() throws Exception {
+        S3Api api = newApi(PART_SIZE);
+        RecordingListener listener = new RecordingListener();
+        MultipartUpload upload = new MultipartUpload();
+
+        assertTrue(api.putMultipart(OBJECT_KEY, file, TYPE, false, upload, listener));
+
+        assertFalse(upload.isStarted());
+        assertNull(listener.uploadId);
+
+        // A retry, i.e. after the processing notification failed, must not hit a void upload
+        MultipartUpload persisted = new MultipartUpload(listener.uploadId, listener.parts);
+        assertTrue(api.putMultipart(OBJECT_KEY, file, TYPE, false, persisted, listener));
+        assertEquals(2, s3.initiatedUploads);
+        assertNull(listener.uploadId);
+    }
+
+    @Test
+    public void put_ShouldUploadWithSuppliedChecksum() throws Exception {
+        S3Api api = newApi(content.length);
+
+        assertTrue(api.put(OBJECT_KEY, file, TYPE, false, md5Digest(content)));
+        assertArrayEquals(content, s3.objects.get("/bucket/" + OBJECT_KEY));
+
+        // A stale checksum does not match the ETag of the uploaded content
+        assertFalse(api.put(OBJECT_KEY, file, TYPE, false, md5Digest(new byte[1])));
+    }
+
+    private S3Api newApi(long multipartThreshold) {
+        return new S3Api(server.getUrl() + "/bucket", "bucket", "access", "secret",
+                multipartThreshold, PART_SIZE);
+    }
+
+    private static byte[] md5Digest(byte[] data) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("MD5").digest(data);
+    }
+
+    private static class RecordingListener implements S3Api.MultipartUploadListener {
+
+        String uploadId;
+        String parts;
+
+        @Override
+        public void onUploadProgress(MultipartUpload upload) {
+            uploadId = upload.getUploadId();
+            parts = upload.serializeParts();
+        }
+    }
+
+    /**
+     * In-memory subset of the S3 REST API, covering single and multipart uploads
+     */
+    private static class FakeS3 implements LocalHttpServer.Handler {
+
+        final Map<String, byte[]> objects = new HashMap<>();
+        final Map<String, SortedMap<Integer, byte[]>> uploads = new HashMap<>();
+        final List<Integer> receivedParts = new ArrayList<>();
+        int initiatedUploads;
+        String acl;
+
+        @Override
+        public synchronized LocalHttpServer.Response handle(LocalHttpServer.Request request)
+                throws IOException {
+            String uploadId = request.getQueryParameter("uploadId");
+            if ("POST".equals(request.method) && request.getQueryParameter("uploads") != null) {
+                uploadId = "upload-" + (++initiatedUploads);
+                uploads.put(uploadId, new TreeMap<Integer, byte[]>());
+                acl = request.getHeader("x-amz-acl");
+                return new LocalHttpServer.Response(200, "<InitiateMultipartUploadResult>"
+                        + "<UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+            }
+            if (uploadId != null && !uploads.containsKey(uploadId)) {
+                return new LocalHttpServer.Response(404,
+                        "<Error><Code>NoSuchUpload</Code></Error>");
+            }
+            if ("PUT".equals(request.method) && uploadId != null) {
+                int partNumber = Integer.parseInt(request.getQueryParameter("partNumber"));
+                uploads.get(uploadId).put(partNumber, request.body);
+                receivedParts.add(partNumber);
+                return new LocalHttpServer.Response(200, "")
+                        .header("ETag", "\"" + md5(request.body) + "\"");
+            }
+            if ("POST".equals(request.method) && uploadId != null) {
+                ByteArrayOutputStream object = new ByteArrayOutputStream();
+                for (byte[] part : uploads.remove(uploadId).values()) {
+                    object.write(part);
+                }
+                objects.put(request.path, object.toByteArray());
+                return new LocalHttpServer.Response(200, "<CompleteMultipartUploadResult>"
+                        + "<ETag>\"multipart\"</ETag></CompleteMultipartUploadResult>");
+            }
+            if ("PUT".equals(request.method)) {
+                objects.put(request.path, request.body);
+                acl = request.getHeader("x-amz-acl");
+                return new LocalHttpServer.Response(200, "")
+                        .header("ETag", "\"" + md5(request.body) + "\"");
+            }
+            return new LocalHttpServer.Response(400, "");
+        }
+
+        private static String md5(byte[] data) {
+            try {
+                StringBuilder builder = new StringBuilder();
+                for (byte b : MessageDigest.getInstance("MD5").digest(data)) {
+                    builder.append(String.format("%02x", b));
+                }
+                return builder.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
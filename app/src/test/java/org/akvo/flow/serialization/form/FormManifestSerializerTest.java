@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.serialization.form;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.akvo.flow.domain.AltText;
+import org.akvo.flow.domain.FormManifest;
+import org.akvo.flow.domain.Question;
+import org.akvo.flow.domain.QuestionGroup;
+import org.akvo.flow.domain.QuestionHelp;
+import org.akvo.flow.domain.Survey;
+import org.akvo.flow.util.ConstantUtil;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+@SmallTest
+public class FormManifestSerializerTest {
+
+    @Test
+    public void fromSurvey_ShouldExtractTheFormAttributes() {
+        FormManifest manifest = FormManifest.fromSurvey(survey());
+
+        assertEquals("en", manifest.getLanguage());
+        assertEquals(Arrays.asList("en", "fr", "es"), manifest.getLanguages());
+        assertEquals(Arrays.asList("http://example.com/video1.mp4",
+                "http://example.com/image.jpg", "cascade-123.sqlite"), manifest.getResources());
+        assertEquals(Arrays.asList("q1", "q4"), manifest.getLocaleNameQuestions());
+        assertEquals("q3", manifest.getLocaleGeoQuestion());
+        assertEquals(4, manifest.getQuestionCount());
+        assertEquals(Arrays.asList(1), manifest.getRepeatableGroups());
+    }
+
+    @Test
+    public void deserialize_ShouldRestoreTheSerializedManifest() {
+        FormManifest manifest = FormManifestSerializer.deserialize(
+                FormManifestSerializer.serialize(FormManifest.fromSurvey(survey())));
+
+        assertEquals("en", manifest.getLanguage());
+        assertEquals(Arrays.asList("en", "fr", "es"), manifest.getLanguages());
+        assertEquals(3, manifest.getResources().size());
+        assertEquals(Arrays.asList("q1", "q4"), manifest.getLocaleNameQuestions());
+        assertEquals("q3", manifest.getLocaleGeoQuestion());
+        assertEquals(4, manifest.getQuestionCount());
+        assertEquals(Arrays.asList(1), manifest.getRepeatableGroups());
+    }
+
+    @Test
+    public void deserialize_ShouldIgnoreUnknownAttributes() {
+        FormManifest manifest = FormManifestSerializer.deserialize(
+                "{\"language\":\"fr\",\"questionCount\":2,\"groupHeadings\":[\"A\"]}");
+
+        assertEquals("fr", manifest.getLanguage());
+        assertEquals(2, manifest.getQuestionCount());
+        assertEquals(0, manifest.getLanguages().size());
+    }
+
+    @Test
+    public void deserialize_ShouldReturnNullForInvalidData() {
+        assertNull(FormManifestSerializer.deserialize(null));
+        assertNull(FormManifestSerializer.deserialize("not a manifest"));
+    }
+
+    private static Survey survey() {
+        Survey survey = new Survey();
+        survey.setLanguage("en");
+
+        QuestionGroup first = new QuestionGroup();
+        Question name = question("q1");
+        name.setIsLocaleName(true);
+        name.addAltText(altText("fr"));
+        name.addQuestionHelp(help(ConstantUtil.VIDEO_HELP_TYPE, "http://example.com/video1.mp4"));
+        name.addQuestionHelp(help(ConstantUtil.VIDEO_HELP_TYPE, "http://example.com/video2.mp4"));
+        first.addQuestion(name);
+        Question cascade = question("q2");
+        cascade.setSrc("cascade-123.sqlite");
+        cascade.addQuestionHelp(help(ConstantUtil.IMAGE_HELP_TYPE,
+                "http://example.com/image.jpg"));
+        first.addQuestion(cascade);
+        survey.addQuestionGroup(first);
+
+        QuestionGroup repeatable = new QuestionGroup();
+        repeatable.setRepeatable(true);
+        Question geo = question("q3");
+        geo.setIsLocaleLocation(true);
+        geo.addAltText(altText("es"));
+        geo.addAltText(altText("fr"));
+        repeatable.addQuestion(geo);
+        Question surname = question("q4");
+        surname.setIsLocaleName(true);
+        repeatable.addQuestion(surname);
+        survey.addQuestionGroup(repeatable);
+        return survey;
+    }
+
+    private static Question question(String id) {
+        Question question = new Question();
+        question.setId(id);
+        return question;
+    }
+
+    private static QuestionHelp help(String type, String value) {
+        QuestionHelp help = new QuestionHelp();
+        help.setType(type);
+        help.setValue(value);
+        return help;
+    }
+
+    private static AltText altText(String language) {
+        AltText altText = new AltText();
+        altText.setLanguage(language);
+        altText.setType("translation");
+        altText.setText("Text " + language);
+        return altText;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.serialization.form;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.akvo.flow.domain.AltText;
+import org.akvo.flow.domain.Dependency;
+import org.akvo.flow.domain.Level;
+import org.akvo.flow.domain.Option;
+import org.akvo.flow.domain.Question;
+import org.akvo.flow.domain.QuestionGroup;
+import org.akvo.flow.domain.QuestionHelp;
+import org.akvo.flow.domain.ScoringRule;
+import org.akvo.flow.domain.Survey;
+import org.akvo.flow.domain.SurveyGroup;
+import org.akvo.flow.domain.ValidationRule;
+import org.akvo.flow.util.ConstantUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@SmallTest
+public class SurveySnapshotTest {
+
+    private static final SurveySnapshot.Header HEADER =
+            new SurveySnapshot.Header("123", 4.0, 2048L, 1489400000000L);
+
+    @Test
+    public void read_ShouldRestoreTheFormGraph() throws Exception {
+        Survey survey = read(write(survey()), HEADER);
+
+        assertEquals("Household survey", survey.getName());
+        assertEquals(4.0, survey.getVersion());
+        assertEquals("en", survey.getLanguage());
+        assertNull(survey.getSourceSurveyId());
+        assertEquals("flowaglimmerofhope", survey.getApp());
+        assertEquals(7L, survey.getSurveyGroup().getId());
+        assertEquals("123", survey.getSurveyGroup().getRegisterSurveyId());
+        assertTrue(survey.getSurveyGroup().isMonitored());
+
+        assertEquals(1, survey.getQuestionGroups().size());
+        QuestionGroup group = survey.getQuestionGroups().get(0);
+        assertEquals("G\u00e9n\u00e9ral", group.getHeading());
+        assertTrue(group.isRepeatable());
+        assertEquals(2, group.getQuestions().size());
+
+        Question option = group.getQuestions().get(0);
+        assertEquals("q1", option.getId());
+        assertEquals("option", option.getType());
+        assertTrue(option.isMandatory());
+        assertTrue(option.isAllowOther());
+        assertEquals("Oui", option.getAltText("fr").getText());
+        assertEquals(2, option.getOptions().size());
+        assertEquals("B", option.getOptions().get(1).getCode());
+        assertEquals("Non", option.getOptions().get(1).getAltText("fr").getText());
+        assertEquals(1, option.getQuestionHelp().size());
+        assertEquals("Pick one", option.getQuestionHelp().get(0).getText());
+        assertEquals("5", option.getResponseScore("A"));
+        assertNull(option.getDependencies());
+        assertNull(option.getValidationRule());
+        assertNull(option.getLevels());
+
+        Question number = group.getQuestions().get(1);
+        assertTrue(number.isLocked());
+        assertEquals(10, number.getStrengthMax());
+        assertEquals("q1", number.getDependencies().get(0).getQuestion());
+        assertEquals("A", number.getDependencies().get(0).getAnswer());
+        ValidationRule rule = number.getValidationRule();
+        assertEquals("numeric", rule.getValidationType());
+        assertFalse(rule.getAllowDecimal());
+        assertEquals(1.5, rule.getMinVal());
+        assertNull(rule.getMaxVal());
+        assertNull(number.getOptions());
+        assertEquals(2, number.getLevels().size());
+        assertEquals("Provincia", number.getLevels().get(0).getAltText("es").getText());
+        assertEquals("cascade-123.sqlite", number.getSrc());
+    }
+
+    @Test
+    public void read_ShouldRejectAStaleSnapshot() throws Exception {
+        byte[] snapshot = write(survey());
+        SurveySnapshot.Header[] stale = {
+                new SurveySnapshot.Header("123", 5.0, 2048L, 1489400000000L),
+                new SurveySnapshot.Header("123", 4.0, 2049L, 1489400000000L),
+                new SurveySnapshot.Header("123", 4.0, 2048L, 1489400000001L),
+                new SurveySnapshot.Header("124", 4.0, 2048L, 1489400000000L),
+        };
+        for (SurveySnapshot.Header header : stale) {
+            try {
+                read(snapshot, header);
+                fail("Stale snapshot was read");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void read_ShouldRejectATruncatedSnapshot() throws Exception {
+        byte[] snapshot = write(survey());
+        try {
+            read(Arrays.copyOf(snapshot, snapshot.length / 2), HEADER);
+            fail("Truncated snapshot was read");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static byte[] write(Survey survey) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SurveySnapshot.write(HEADER, survey, out);
+        return out.toByteArray();
+    }
+
+    private static Survey read(byte[] snapshot, SurveySnapshot.Header header)
+            throws IOException {
+        return SurveySnapshot.read(new ByteArrayInputStream(snapshot), header);
+    }
+
+    private static Survey survey() {
+        Survey survey = new Survey();
+        survey.setName("Household survey");
+        survey.setVersion(4.0);
+        survey.setLanguage("en");
+        survey.setApp("flowaglimmerofhope");
+        survey.setSurveyGroup(new SurveyGroup(7L, "Households", "123", true));
+
+        QuestionGroup group = new QuestionGroup();
+        group.setOrder(1);
+        group.setHeading("G\u00e9n\u00e9ral");
+        group.setRepeatable(true);
+
+        Question option = new Question();
+        option.setId("q1");
+        option.setText("Yes or no?");
+        option.setType("option");
+        option.setMandatory(true);
+        option.setAllowOther(true);
+        option.addAltText(altText("fr", "Oui"));
+        ArrayList<Option> options = new ArrayList<>();
+        options.add(option("Yes", "A", altText("fr", "Oui")));
+        options.add(option("No", "B", altText("fr", "Non")));
+        option.setOptions(options);
+        QuestionHelp help = new QuestionHelp();
+        help.setType("tip");
+        help.setText("Pick one");
+        option.addQuestionHelp(help);
+        option.addScoringRule(new ScoringRule(ConstantUtil.TEXT_MATCH_SCORING, null, null,
+                "A", "5"));
+        group.addQuestion(option);
+
+        Question number = new Question();
+        number.setId("q2");
+        number.setType("free");
+        number.setLocked(true);
+        number.setUseStrength(true);
+        number.setStrengthMax(10);
+        Dependency dependency = new Dependency();
+        dependency.setQuestion("q1");
+        dependency.setAnswer("A");
+        number.addDependency(dependency);
+        ValidationRule rule = new ValidationRule("numeric");
+        rule.setAllowDecimal(false);
+        rule.setMinVal(1.5);
+        number.setValidationRule(rule);
+        Level province = new Level();
+        province.setText("Province");
+        province.addAltText(altText("es", "Provincia"));
+        Level district = new Level();
+        district.setText("District");
+        number.setLevels(Arrays.asList(province, district));
+        number.setSrc("cascade-123.sqlite");
+        group.addQuestion(number);
+
+        survey.addQuestionGroup(group);
+        return survey;
+    }
+
+    private static Option option(String text, String code, AltText altText) {
+        Option option = new Option();
+        option.setText(text);
+        option.setCode(code);
+        option.addAltText(altText);
+        return option;
+    }
+
+    private static AltText altText(String language, String text) {
+        AltText altText = new AltText();
+        altText.setLanguage(language);
+        altText.setType("translation");
+        altText.setText(text);
+        return altText;
+    }
+}
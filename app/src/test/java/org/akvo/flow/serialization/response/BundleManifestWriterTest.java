@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.serialization.response;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+@SmallTest
+public class BundleManifestWriterTest {
+
+    @Test
+    public void write_ShouldListEveryInstanceInOrder() throws Exception {
+        BundleManifestWriter writer = new BundleManifestWriter("123");
+        writer.addInstance("u1", "u1/data.json", "u1/.sig");
+        writer.addInstance("u2", "u2/data.json", "u2/.sig");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writer.write(out);
+
+        JsonNode manifest = new ObjectMapper().readTree(out.toByteArray());
+        assertEquals(BundleManifestWriter.VERSION, manifest.get("version").asInt());
+        assertEquals("123", manifest.get("formId").asText());
+        assertEquals(2, manifest.get("instances").size());
+        assertEquals("u2", manifest.get("instances").get(1).get("uuid").asText());
+        assertEquals("u2/data.json", manifest.get("instances").get(1).get("data").asText());
+        assertEquals("u2/.sig", manifest.get("instances").get(1).get("signature").asText());
+    }
+
+    @Test
+    public void write_ShouldOmitTheSignatureOfUnsignedData() throws Exception {
+        BundleManifestWriter writer = new BundleManifestWriter("123");
+        writer.addInstance("u1", "u1/data.json", null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writer.write(out);
+
+        JsonNode instance = new ObjectMapper().readTree(out.toByteArray())
+                .get("instances").get(0);
+        assertEquals("u1/data.json", instance.get("data").asText());
+        assertFalse(instance.has("signature"));
+    }
+}
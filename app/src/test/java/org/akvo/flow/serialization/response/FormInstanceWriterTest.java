@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.serialization.response;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.akvo.flow.domain.response.FormInstance;
+import org.akvo.flow.domain.response.Response;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@SmallTest
+public class FormInstanceWriterTest {
+
+    @Test
+    public void write_ShouldMatchTheSerializedFormInstance() throws Exception {
+        FormInstance formInstance = formInstance();
+        List<Response> responses = new ArrayList<>();
+        responses.add(response("101", "VALUE", "Yes", 0));
+        responses.add(response("102", "GEO", "52.1|4.3|0|", 0));
+        responses.add(response("103", "VALUE", "\u00dcn\u00efc\u00f8d\u00e9 \"quoted\"", 2));
+        responses.add(response("104", "VALUE", "No iteration", null));
+        formInstance.setResponses(responses);
+
+        String expected = new ObjectMapper().writeValueAsString(formInstance);
+
+        assertEquals(expected, new String(write(formInstance, new ByteArrayOutputStream()),
+                "UTF-8"));
+    }
+
+    @Test
+    public void write_ShouldLeaveTheTargetOpen() throws Exception {
+        final boolean[] closed = { false };
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+
+        write(formInstance(), out);
+
+        assertFalse(closed[0]);
+        assertTrue(out.size() > 0);
+    }
+
+    @Test
+    public void write_ShouldDigestTheSameBytesItWrites() throws Exception {
+        FormInstance formInstance = formInstance();
+        formInstance.setResponses(Arrays.asList(response("101", "VALUE", "Yes", 0)));
+        MessageDigest sha1 = MessageDigest.getInstance("SHA1");
+
+        byte[] json = write(formInstance, new DigestOutputStream(new ByteArrayOutputStream(),
+                sha1));
+
+        String serialized = new ObjectMapper().writeValueAsString(formInstance);
+        assertTrue(Arrays.equals(MessageDigest.getInstance("SHA1")
+                .digest(serialized.getBytes("UTF-8")), sha1.digest()));
+        assertEquals(0, json.length);// Only the digest stream was written
+    }
+
+    /**
+     * Stream the given FormInstance, and its responses, to the target
+     *
+     * @return the bytes written, if the target is a ByteArrayOutputStream
+     */
+    private static byte[] write(FormInstance formInstance, OutputStream out) throws IOException {
+        FormInstanceWriter writer = new FormInstanceWriter(out);
+        writer.writeHeader(formInstance);
+        if (formInstance.getResponses() != null) {
+            for (Response response : formInstance.getResponses()) {
+                writer.writeResponse(response);
+            }
+        }
+        writer.writeEnd();
+        return out instanceof ByteArrayOutputStream ?
+                ((ByteArrayOutputStream) out).toByteArray() : new byte[0];
+    }
+
+    private static FormInstance formInstance() {
+        FormInstance formInstance = new FormInstance();
+        formInstance.setUUID("8a6e7ba1-5b5e-4e3b-a0e5-1f3b3d1c4a55");
+        formInstance.setFormId(123456L);
+        formInstance.setDataPointId("abcd-efgh-ijkl");
+        formInstance.setDeviceId("device 1");
+        formInstance.setSubmissionDate(1489400000000L);
+        formInstance.setDuration(95);
+        formInstance.setUsername("Jo");
+        formInstance.setEmail(null);
+        return formInstance;
+    }
+
+    private static Response response(String questionId, String type, String value,
+            Integer iteration) {
+        Response response = new Response();
+        response.setQuestionId(questionId);
+        response.setAnswerType(type);
+        response.setValue(value);
+        response.setIteration(iteration);
+        return response;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.serialization.response;
+
+import android.support.annotation.NonNull;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.fasterxml.jackson.core.JsonParseException;
+
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.SurveyInstance;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+@SmallTest
+public class SurveyedLocaleParserTest {
+
+    private static final String LOCALE_1 = "{"
+            + "\"id\":\"abc-123\",\"displayName\":\"Well 1\",\"lat\":10.5,\"lon\":-2.25,"
+            + "\"surveyGroupId\":42,\"lastUpdateDateTime\":1489400000000,"
+            + "\"unknown\":{\"nested\":[1,2,{\"a\":\"b\"}]},"
+            + "\"surveyInstances\":[{"
+            + "\"uuid\":\"u-1\",\"surveyId\":7,\"collectionDate\":1489300000000,"
+            + "\"submitter\":\"Jo\",\"qasList\":["
+            + "{\"q\":\"q1\",\"a\":\"Yes\"},{\"q\":\"q2\"},{\"q\":\"q3\",\"a\":\"12\"}]}]}";
+
+    private static final String LOCALE_2 = "{"
+            + "\"id\":\"def-456\",\"displayName\":null,\"lat\":null,\"lon\":null,"
+            + "\"surveyGroupId\":42,\"lastUpdateDateTime\":\"1489500000000\","
+            + "\"surveyInstances\":[]}";
+
+    @Test
+    public void parseResponse_ShouldHandEachLocaleToTheSink() throws Exception {
+        String response = "{\"resultCount\":2,\"surveyedLocaleData\":[" + LOCALE_1 + ","
+                + LOCALE_2 + "],\"message\":\"\"}";
+        CollectingSink sink = new CollectingSink();
+
+        int count = new SurveyedLocaleParser().parseResponse(stream(response), sink);
+
+        assertEquals(2, count);
+        assertEquals(2, sink.locales.size());
+
+        SurveyedLocale locale = sink.locales.get(0);
+        assertEquals("abc-123", locale.getId());
+        assertEquals("Well 1", locale.getName());
+        assertEquals(10.5, locale.getLatitude(), 0);
+        assertEquals(-2.25, locale.getLongitude(), 0);
+        assertEquals(42, locale.getSurveyGroupId());
+        assertEquals(1489400000000L, locale.getLastModified());
+        assertEquals(1, locale.getSurveyInstances().size());
+
+        SurveyInstance instance = locale.getSurveyInstances().get(0);
+        assertEquals("u-1", instance.getUuid());
+        assertEquals("7", instance.getSurveyId());
+        assertEquals(1489300000000L, instance.getDate());
+        assertEquals("Jo", instance.getSubmitter());
+
+        List<QuestionResponse> responses = instance.getResponses();
+        assertEquals(2, responses.size());// Incomplete responses are skipped
+        assertEquals("q1", responses.get(0).getQuestionId());
+        assertEquals("Yes", responses.get(0).getValue());
+        assertEquals("q3", responses.get(1).getQuestionId());
+        assertEquals("12", responses.get(1).getValue());
+
+        locale = sink.locales.get(1);
+        assertEquals("def-456", locale.getId());
+        assertNull(locale.getName());
+        assertNull(locale.getLatitude());
+        assertNull(locale.getLongitude());
+        assertEquals(1489500000000L, locale.getLastModified());
+        assertEquals(0, locale.getSurveyInstances().size());
+    }
+
+    @Test
+    public void parseResponse_ShouldHandLocalesBeforeTheResponseIsComplete() throws Exception {
+        // The response is cut in the middle of the second locale
+        String response = "{\"surveyedLocaleData\":[" + LOCALE_1 + ","
+                + LOCALE_2.substring(0, 40);
+        CollectingSink sink = new CollectingSink();
+
+        try {
+            new SurveyedLocaleParser().parseResponse(stream(response), sink);
+            fail("A truncated response should not be parsed");
+        } catch (JsonParseException e) {
+            // Expected
+        }
+        assertEquals(1, sink.locales.size());
+        assertEquals("abc-123", sink.locales.get(0).getId());
+    }
+
+    @Test
+    public void parseResponse_ShouldRejectResponseWithoutLocaleData() throws Exception {
+        assertMalformed("{\"resultCount\":0,\"message\":\"Internal error\"}");
+        assertMalformed("[]");
+        assertMalformed("<html></html>");
+    }
+
+    @Test
+    public void parseResponse_ShouldRejectLocaleWithoutMandatoryAttributes() throws Exception {
+        assertMalformed("{\"surveyedLocaleData\":[{\"id\":\"abc\",\"surveyGroupId\":1,"
+                + "\"surveyInstances\":[]}]}");
+        assertMalformed("{\"surveyedLocaleData\":[{\"id\":\"abc\",\"surveyGroupId\":1,"
+                + "\"lastUpdateDateTime\":1,\"surveyInstances\":[{\"uuid\":\"u\"}]}]}");
+    }
+
+    private static void assertMalformed(String response) throws IOException {
+        try {
+            new SurveyedLocaleParser().parseResponse(stream(response), new CollectingSink());
+            fail("Malformed response should not be parsed: " + response);
+        } catch (JsonParseException e) {
+            // Expected
+        }
+    }
+
+    private static InputStream stream(String response) throws IOException {
+        return new ByteArrayInputStream(response.getBytes("UTF-8"));
+    }
+
+    private static class CollectingSink implements SurveyedLocaleParser.Sink {
+
+        final List<SurveyedLocale> locales = new ArrayList<>();
+
+        @Override
+        public void onSurveyedLocale(@NonNull SurveyedLocale surveyedLocale) {
+            locales.add(surveyedLocale);
+        }
+    }
+}
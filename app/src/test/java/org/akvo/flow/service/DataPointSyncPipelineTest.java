@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.service;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.akvo.flow.api.LocalHttpServer;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.exception.HttpException;
+import org.akvo.flow.serialization.response.SurveyedLocaleParser;
+import org.akvo.flow.util.HttpUtil;
+import org.akvo.flow.util.HttpValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@SmallTest
+public class DataPointSyncPipelineTest {
+
+    private static final int DATA_POINTS = 10000;
+    private static final int PAGE_SIZE = 100;
+
+    // Simulated costs: server response time, and database time per data point
+    private static final int PAGE_LATENCY_MS = 10;
+    private static final int WRITE_COST_MS_PER_10 = 1;
+
+    private LocalHttpServer server;
+    private volatile int failAtPage = -1;
+
+    @Before
+    public void setup() throws IOException {
+        server = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(LocalHttpServer.Request request)
+                    throws IOException {
+                sleep(PAGE_LATENCY_MS);
+                String lastUpdateTime = request.getQueryParameter("lastUpdateTime");
+                long since = lastUpdateTime != null ? Long.parseLong(lastUpdateTime) : 0;
+                if (failAtPage >= 0 && since >= failAtPage * PAGE_SIZE) {
+                    return new LocalHttpServer.Response(500, "Internal error");
+                }
+                return new LocalHttpServer.Response(200, page(since));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void run_ShouldWriteEveryDataPointOnceInOrder() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+
+        int records = new DataPointSyncPipeline(new ServerSource(), writer, 50).run(null);
+
+        assertEquals(DATA_POINTS, records);
+        assertEquals(DATA_POINTS, writer.records.size());
+        assertEquals(DATA_POINTS, writer.pageRecords);// No record counted twice
+
+        // The checkpoint must never go backwards, nor skip a data point
+        long lastModified = 0;
+        for (SurveyedLocale locale : writer.locales) {
+            assertTrue(locale.getLastModified() >= lastModified);
+            assertTrue(locale.getLastModified() <= lastModified + 1);
+            lastModified = locale.getLastModified();
+        }
+        assertEquals(DATA_POINTS, lastModified);
+    }
+
+    @Test
+    public void run_ShouldResumeFromTheGivenSyncTime() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+
+        int records = new DataPointSyncPipeline(new ServerSource(), writer).run("9500");
+
+        assertEquals(501, records);// 9500 is sent again, as the server's filter is inclusive
+        assertEquals(9500, writer.locales.get(0).getLastModified());
+    }
+
+    @Test
+    public void run_ShouldStopAtTheFirstFailedPage() throws Exception {
+        failAtPage = 30;
+        RecordingWriter writer = new RecordingWriter();
+
+        try {
+            new DataPointSyncPipeline(new ServerSource(), writer, 50).run(null);
+            fail("The sync should have failed");
+        } catch (HttpException e) {
+            assertEquals(500, e.getStatus());
+        }
+
+        // Every page received before the failure has been written
+        long lastModified = writer.locales.get(writer.locales.size() - 1).getLastModified();
+        assertTrue(lastModified >= 30 * PAGE_SIZE && lastModified < 31 * PAGE_SIZE);
+        assertEquals(lastModified, writer.records.size());
+    }
+
+    @Test
+    public void run_ShouldStopTheDownloadIfTheWriterFails() throws Exception {
+        DataPointSyncPipeline.Writer writer = new RecordingWriter() {
+            @Override
+            public void write(@NonNull SurveyedLocale surveyedLocale) {
+                if (surveyedLocale.getLastModified() == 250) {
+                    throw new IllegalStateException("Disk full");
+                }
+                super.write(surveyedLocale);
+            }
+        };
+        final Thread[] downloader = new Thread[1];
+        DataPointSyncPipeline.Source source = new ServerSource() {
+            @Override
+            public void fetch(@Nullable String syncTime,
+                    @NonNull SurveyedLocaleParser.Sink sink) throws IOException {
+                downloader[0] = Thread.currentThread();
+                super.fetch(syncTime, sink);
+            }
+        };
+
+        try {
+            new DataPointSyncPipeline(source, writer, 10).run(null);
+            fail("The sync should have failed");
+        } catch (IllegalStateException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+
+        // The download thread must finish without fetching the remaining pages
+        downloader[0].join(5000);
+        assertFalse(downloader[0].isAlive());
+        assertTrue(server.getRequestCount() < DATA_POINTS / PAGE_SIZE);
+    }
+
+    /**
+     * Compares the total time of the pipelined sync with the former serial one. Times depend
+     * on the machine, thus they are only logged.
+     */
+    @Test
+    public void benchmark_PipelinedSyncAgainstSerialSync() throws Exception {
+        // Warm up the connection, the parser and the JIT
+        new DataPointSyncPipeline(new ServerSource(), new RecordingWriter()).run("9000");
+        serialSync(new ServerSource(), new RecordingWriter(), "9000");
+
+        RecordingWriter serialWriter = new RecordingWriter(WRITE_COST_MS_PER_10);
+        long t0 = System.currentTimeMillis();
+        int serialRecords = serialSync(new ServerSource(), serialWriter, null);
+        long serialTime = System.currentTimeMillis() - t0;
+
+        RecordingWriter pipelinedWriter = new RecordingWriter(WRITE_COST_MS_PER_10);
+        t0 = System.currentTimeMillis();
+        int pipelinedRecords = new DataPointSyncPipeline(new ServerSource(), pipelinedWriter)
+                .run(null);
+        long pipelinedTime = System.currentTimeMillis() - t0;
+
+        System.out.println("Sync of " + DATA_POINTS + " data points, " + PAGE_SIZE
+                + " per page. Serial: " + serialTime + " ms. Pipelined: " + pipelinedTime
+                + " ms");
+        assertEquals(DATA_POINTS, serialRecords);
+        assertEquals(DATA_POINTS, pipelinedRecords);
+        assertEquals(serialWriter.records, pipelinedWriter.records);
+    }
+
+    /**
+     * The former sync loop: each page is fully downloaded, then written
+     */
+    private static int serialSync(DataPointSyncPipeline.Source source,
+            DataPointSyncPipeline.Writer writer, String syncTime) throws IOException {
+        int count = 0;
+        Set<String> lastPage = new HashSet<>();
+        while (true) {
+            final List<SurveyedLocale> locales = new ArrayList<>();
+            source.fetch(syncTime, new SurveyedLocaleParser.Sink() {
+                @Override
+                public void onSurveyedLocale(@NonNull SurveyedLocale surveyedLocale) {
+                    locales.add(surveyedLocale);
+                }
+            });
+            Set<String> records = new HashSet<>();
+            for (SurveyedLocale locale : locales) {
+                writer.write(locale);
+                records.add(locale.getId());
+                syncTime = String.valueOf(locale.getLastModified());
+            }
+            Set<String> page = new HashSet<>(records);
+            records.removeAll(lastPage);
+            if (records.isEmpty()) {
+                return count;
+            }
+            writer.onPageEnd(records);
+            count += records.size();
+            lastPage = page;
+        }
+    }
+
+    /**
+     * Data point i was modified at time i. Like the Flow API, the page includes the ones
+     * modified at the given time.
+     */
+    private static String page(long since) {
+        StringBuilder builder = new StringBuilder("{\"surveyedLocaleData\":[");
+        long first = Math.max(since, 1);
+        long last = Math.min(first + PAGE_SIZE - 1, DATA_POINTS);
+        for (long i = first; i <= last; i++) {
+            if (i > first) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"dp-").append(i).append("\",\"displayName\":\"Point ")
+                    .append(i).append("\",\"lat\":1.5,\"lon\":2.5,\"surveyGroupId\":1,")
+                    .append("\"lastUpdateDateTime\":").append(i).append(",")
+                    .append("\"surveyInstances\":[{\"uuid\":\"u-").append(i)
+                    .append("\",\"surveyId\":2,\"collectionDate\":").append(i)
+                    .append(",\"submitter\":\"Jo\",\"qasList\":[{\"q\":\"1\",\"a\":\"Yes\"},")
+                    .append("{\"q\":\"2\",\"a\":\"42\"}]}]}");
+        }
+        return builder.append("]}").toString();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class ServerSource implements DataPointSyncPipeline.Source {
+
+        @Override
+        public void fetch(@Nullable String syncTime,
+                @NonNull final SurveyedLocaleParser.Sink sink) throws IOException {
+            String url = server.getUrl() + "/surveyedlocale"
+                    + (syncTime != null ? "?lastUpdateTime=" + syncTime : "");
+            HttpUtil.httpGet(url, (HttpValidator) null, new HttpUtil.ResponseReader() {
+                @Override
+                public void read(@NonNull InputStream in) throws IOException {
+                    new SurveyedLocaleParser().parseResponse(in, sink);
+                }
+            });
+        }
+    }
+
+    private static class RecordingWriter implements DataPointSyncPipeline.Writer {
+
+        final int writeCostMsPer10;
+        final List<SurveyedLocale> locales = new ArrayList<>();
+        final Set<String> records = new HashSet<>();
+        int pageRecords = 0;
+
+        RecordingWriter() {
+            this(0);
+        }
+
+        RecordingWriter(int writeCostMsPer10) {
+            this.writeCostMsPer10 = writeCostMsPer10;
+        }
+
+        @Override
+        public void write(@NonNull SurveyedLocale surveyedLocale) {
+            locales.add(surveyedLocale);
+            records.add(surveyedLocale.getId());
+            if (writeCostMsPer10 > 0 && locales.size() % 10 == 0) {
+                sleep(writeCostMsPer10);
+            }
+        }
+
+        @Override
+        public void onPageEnd(@NonNull Set<String> records) {
+            pageRecords += records.size();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.util;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.akvo.flow.api.LocalHttpServer;
+import org.akvo.flow.exception.HttpException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@SmallTest
+public class HttpClientTest {
+
+    private static final String ETAG = "\"a5b1\"";
+    private static final String LAST_MODIFIED = "Mon, 13 Mar 2017 10:00:00 GMT";
+
+    private static final String CSV;
+
+    static {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            builder.append(i).append(",Household survey,1.0,Households,false\n");
+        }
+        CSV = builder.toString();
+    }
+
+    private LocalHttpServer server;
+
+    @Before
+    public void setup() throws IOException {
+        server = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(LocalHttpServer.Request request)
+                    throws IOException {
+                if ("/slow".equals(request.path)) {
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                if ("/missing".equals(request.path)) {
+                    return new LocalHttpServer.Response(404, "<Error>Not found</Error>");
+                }
+                if ("/surveymanager".equals(request.path)) {
+                    String acceptEncoding = request.getHeader("Accept-Encoding");
+                    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                        return new LocalHttpServer.Response(200, gzip(CSV.getBytes("UTF-8")))
+                                .header("Content-Encoding", "gzip");
+                    }
+                    return new LocalHttpServer.Response(200, CSV);
+                }
+                if ("/etag".equals(request.path)) {
+                    if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                        return new LocalHttpServer.Response(304, "");
+                    }
+                    return new LocalHttpServer.Response(200, CSV).header("ETag", ETAG);
+                }
+                if ("/last-modified".equals(request.path)) {
+                    if (LAST_MODIFIED.equals(request.getHeader("If-Modified-Since"))) {
+                        return new LocalHttpServer.Response(304, "");
+                    }
+                    return new LocalHttpServer.Response(200, CSV)
+                            .header("Last-Modified", LAST_MODIFIED);
+                }
+                if ("/echo".equals(request.path)) {
+                    return new LocalHttpServer.Response(200, request.body);
+                }
+                return new LocalHttpServer.Response(200, "ok");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        HttpClient.setInstance(null);
+        server.stop();
+    }
+
+    @Test
+    public void httpGet_ShouldReuseTheConnection() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertEquals("ok", HttpUtil.httpGet(server.getUrl() + "/survey").trim());
+        }
+
+        assertEquals(5, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void httpGet_ShouldReuseTheConnectionAfterAnErrorResponse() throws Exception {
+        try {
+            HttpUtil.httpGet(server.getUrl() + "/missing");
+            fail("A 404 response should throw an HttpException");
+        } catch (HttpException e) {
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, e.getStatus());
+        }
+        assertEquals("ok", HttpUtil.httpGet(server.getUrl() + "/survey").trim());
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void httpGet_ShouldDecompressGzipResponse() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(CSV, HttpUtil.httpGet(server.getUrl() + "/surveymanager"));
+        }
+
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void getResponseStream_ShouldCountGzipResponse() throws Exception {
+        HttpClient client = newClient(HttpClient.READ_TIMEOUT_MS);
+
+        HttpClient.ResponseStream in = read(client, "/surveymanager");
+
+        assertEquals(CSV.length(), in.getBytesDecoded());
+        assertTrue(in.getBytesReceived() * 10 < in.getBytesDecoded());
+    }
+
+    @Test
+    public void getResponseStream_ShouldCountPlainResponse() throws Exception {
+        HttpClient client = newClient(HttpClient.READ_TIMEOUT_MS);
+
+        HttpClient.ResponseStream in = read(client, "/survey");
+
+        assertEquals(2, in.getBytesReceived());
+        assertEquals(2, in.getBytesDecoded());
+    }
+
+    @Test
+    public void getResponseStream_ShouldCountEachResponseSeparately() throws Exception {
+        HttpClient client = newClient(HttpClient.READ_TIMEOUT_MS);
+        HttpURLConnection gzipConn = client.open(server.getUrl() + "/surveymanager");
+        HttpURLConnection plainConn = client.open(server.getUrl() + "/survey");
+        client.acceptGzip(gzipConn);
+        client.acceptGzip(plainConn);
+
+        HttpClient.ResponseStream gzipIn = client.getResponseStream(gzipConn);
+        HttpClient.ResponseStream plainIn = client.getResponseStream(plainConn);
+        gzipIn.read(new byte[100]);
+        HttpUtil.readStream(plainIn);
+        HttpUtil.readStream(gzipIn);
+        gzipIn.close();
+        plainIn.close();
+
+        assertEquals(CSV.length(), gzipIn.getBytesDecoded());
+        assertEquals(2, plainIn.getBytesReceived());
+        assertEquals(2, plainIn.getBytesDecoded());
+    }
+
+    @Test
+    public void httpPost_ShouldSendRequestBody() throws Exception {
+        String query = CSV.replace('\n', '&');
+
+        assertEquals(query, HttpUtil.httpPost(server.getUrl() + "/echo", query).trim());
+        assertEquals(query, HttpUtil.httpPost(server.getUrl() + "/echo", query).trim());
+
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void httpGet_ShouldSkipUnmodifiedResponseWithEtag() throws Exception {
+        HttpValidator validator = new HttpValidator();
+        final String url = server.getUrl() + "/etag";
+
+        assertEquals(CSV, HttpUtil.httpGet(url, validator));
+        assertEquals(ETAG, validator.getEtag());
+        assertNull(HttpUtil.httpGet(url, validator));
+        assertNull(HttpUtil.httpGet(url, validator));
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void httpGet_ShouldSkipUnmodifiedResponseWithLastModified() throws Exception {
+        HttpValidator validator = new HttpValidator();
+        final String url = server.getUrl() + "/last-modified";
+
+        assertEquals(CSV, HttpUtil.httpGet(url, validator));
+        assertEquals(LAST_MODIFIED, validator.getLastModified());
+        assertNull(HttpUtil.httpGet(url, validator));
+    }
+
+    @Test
+    public void httpGet_ShouldIgnoreValidatorOfAnotherUrl() throws Exception {
+        final String url = server.getUrl() + "/etag?deviceId=new";
+        HttpValidator validator = new HttpValidator(server.getUrl() + "/etag?deviceId=old",
+                ETAG, null);
+
+        assertFalse(validator.isValidFor(url));
+        assertEquals(CSV, HttpUtil.httpGet(url, validator));
+        assertTrue(validator.isValidFor(url));
+    }
+
+    @Test
+    public void open_ShouldUseTheGivenTransport() throws Exception {
+        final AtomicInteger opened = new AtomicInteger();
+        HttpClient.setInstance(new HttpClient(new HttpClient.Transport() {
+            @Override
+            public HttpURLConnection open(URL url) throws IOException {
+                opened.incrementAndGet();
+                return (HttpURLConnection) url.openConnection();
+            }
+        }, HttpClient.CONNECT_TIMEOUT_MS, HttpClient.READ_TIMEOUT_MS));
+
+        HttpUtil.httpGet(server.getUrl() + "/survey");
+        HttpUtil.httpPost(server.getUrl() + "/survey", "a=b");
+
+        assertEquals(2, opened.get());
+    }
+
+    @Test
+    public void httpGet_ShouldTimeOutIfTheServerDoesNotRespond() throws Exception {
+        newClient(200);
+
+        try {
+            HttpUtil.httpGet(server.getUrl() + "/slow");
+            fail("The request should have timed out");
+        } catch (SocketTimeoutException e) {
+            // Expected
+        }
+    }
+
+    private static HttpClient newClient(int readTimeout) {
+        HttpClient client = new HttpClient(new HttpClient.Transport() {
+            @Override
+            public HttpURLConnection open(URL url) throws IOException {
+                return (HttpURLConnection) url.openConnection();
+            }
+        }, HttpClient.CONNECT_TIMEOUT_MS, readTimeout);
+        HttpClient.setInstance(client);
+        return client;
+    }
+
+    /**
+     * Read the whole response body of the given path
+     */
+    private HttpClient.ResponseStream read(HttpClient client, String path) throws IOException {
+        HttpURLConnection conn = client.open(server.getUrl() + path);
+        client.acceptGzip(conn);
+        HttpClient.ResponseStream in = client.getResponseStream(conn);
+        try {
+            HttpUtil.readStream(in);
+        } finally {
+            FileUtil.close(in);
+            HttpClient.release(conn, true);
+        }
+        return in;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+        return out.toByteArray();
+    }
+}
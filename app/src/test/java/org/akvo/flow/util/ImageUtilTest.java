@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.util;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+@SmallTest
+public class ImageUtilTest {
+
+    @Test
+    public void getScaledSize_ShouldFitLargeImageInBounds() throws Exception {
+        assertSize(320, 240, ImageUtil.getScaledSize(4000, 3000, 320, 240));
+        assertSize(240, 320, ImageUtil.getScaledSize(3000, 4000, 240, 320));
+    }
+
+    @Test
+    public void getScaledSize_ShouldKeepTheAspectRatio() throws Exception {
+        assertSize(320, 160, ImageUtil.getScaledSize(4000, 2000, 320, 240));
+        assertSize(180, 240, ImageUtil.getScaledSize(3000, 4000, 320, 240));
+    }
+
+    @Test
+    public void getScaledSize_ShouldNotScaleUpSmallImage() throws Exception {
+        assertSize(200, 100, ImageUtil.getScaledSize(200, 100, 320, 240));
+    }
+
+    @Test
+    public void getScaledSize_ShouldKeepImageFittingExactly() throws Exception {
+        assertSize(320, 240, ImageUtil.getScaledSize(320, 240, 320, 240));
+        assertSize(320, 100, ImageUtil.getScaledSize(320, 100, 320, 240));
+    }
+
+    @Test
+    public void getScaledSize_ShouldNotReturnEmptySize() throws Exception {
+        assertSize(320, 1, ImageUtil.getScaledSize(10000, 1, 320, 240));
+    }
+
+    @Test
+    public void calculateExactInSampleSize_ShouldNotDecodeBelowTheRequestedSize()
+            throws Exception {
+        // 4000x3000 / 8 = 500x375. Sampling by 16 would be 250x187
+        assertEquals(8, ImageUtil.calculateExactInSampleSize(4000, 3000, 320, 240));
+    }
+
+    @Test
+    public void calculateExactInSampleSize_ShouldSampleExactFit() throws Exception {
+        assertEquals(2, ImageUtil.calculateExactInSampleSize(640, 480, 320, 240));
+        assertEquals(1, ImageUtil.calculateExactInSampleSize(639, 480, 320, 240));
+        assertEquals(1, ImageUtil.calculateExactInSampleSize(640, 479, 320, 240));
+    }
+
+    @Test
+    public void calculateExactInSampleSize_ShouldNotSampleSmallImage() throws Exception {
+        assertEquals(1, ImageUtil.calculateExactInSampleSize(320, 240, 320, 240));
+        assertEquals(1, ImageUtil.calculateExactInSampleSize(200, 100, 320, 240));
+    }
+
+    private static void assertSize(int width, int height, int[] size) {
+        assertEquals(width, size[0]);
+        assertEquals(height, size[1]);
+    }
+}
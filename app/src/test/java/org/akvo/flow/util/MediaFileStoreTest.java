@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.util;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@SmallTest
+public class MediaFileStoreTest {
+
+    private File dir;
+    private MediaFileStore store;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("media", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        store = new MediaFileStore(dir);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.deleteFilesInDirectory(dir, true);
+    }
+
+    @Test
+    public void add_ShouldNameTheFileAfterItsContent() throws Exception {
+        File src = write("capture.jpg", "image");
+
+        File stored = store.add(src, ".jpg");
+
+        assertEquals(FileUtil.hexMd5(stored) + ".jpg", stored.getName());
+        assertEquals(dir, stored.getParentFile());
+        assertFalse(src.exists());
+    }
+
+    @Test
+    public void add_ShouldStoreIdenticalFilesOnce() throws Exception {
+        File first = store.add(write("capture1.jpg", "image"), ".jpg");
+        File second = store.add(write("capture2.jpg", "image"), ".jpg");
+        File other = store.add(write("capture3.jpg", "another image"), ".jpg");
+
+        assertEquals(first, second);
+        assertFalse(first.equals(other));
+        assertEquals(2, dir.list().length);
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
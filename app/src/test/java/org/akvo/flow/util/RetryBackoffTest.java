@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.util;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static junit.framework.Assert.assertTrue;
+
+@SmallTest
+public class RetryBackoffTest {
+
+    private static final long BASE = 1000;
+    private static final long MAX = 60 * 1000;
+
+    @Test
+    public void getDelay_ShouldDoubleWithEveryAttempt() throws Exception {
+        RetryBackoff backoff = new RetryBackoff(BASE, MAX, new Random(1));
+        for (int attempt = 1; attempt <= 6; attempt++) {
+            long expected = BASE << (attempt - 1);
+            long delay = backoff.getDelay(attempt);
+            assertTrue(delay >= expected / 2);
+            assertTrue(delay <= expected);
+        }
+    }
+
+    @Test
+    public void getDelay_ShouldBeCapped() throws Exception {
+        RetryBackoff backoff = new RetryBackoff(BASE, MAX, new Random(1));
+        for (int attempt : new int[] { 7, 10, 31, 64, 1000, Integer.MAX_VALUE }) {
+            long delay = backoff.getDelay(attempt);
+            assertTrue(delay >= MAX / 2);
+            assertTrue(delay <= MAX);
+        }
+    }
+
+    @Test
+    public void getDelay_ShouldAddJitter() throws Exception {
+        RetryBackoff backoff = new RetryBackoff(BASE, MAX, new Random(1));
+        Set<Long> delays = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            delays.add(backoff.getDelay(5));
+        }
+        assertTrue(delays.size() > 1);
+    }
+
+    @Test
+    public void getDelay_ShouldTreatFirstAttemptAsMinimum() throws Exception {
+        RetryBackoff backoff = new RetryBackoff(BASE, MAX, new Random(1));
+        for (int attempt : new int[] { 0, -1 }) {
+            long delay = backoff.getDelay(attempt);
+            assertTrue(delay >= BASE / 2);
+            assertTrue(delay <= BASE);
+        }
+    }
+}
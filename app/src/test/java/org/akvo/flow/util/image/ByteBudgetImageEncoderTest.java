@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo FLOW.
+ *
+ * Akvo FLOW is free software: you can redistribute it and modify it under the terms of
+ * the GNU Affero General Public License (AGPL) as published by the Free Software Foundation,
+ * either version 3 of the License or any later version.
+ *
+ * Akvo FLOW is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License included below for more details.
+ *
+ * The full license text can also be seen at <http://www.gnu.org/licenses/agpl.html>.
+ *
+ */
+
+package org.akvo.flow.util.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SmallTest
+public class ByteBudgetImageEncoderTest {
+
+    // The fake bitmap compresses to this many bytes per quality point
+    private static final int BYTES_PER_QUALITY = 100;
+
+    private Bitmap bitmap;
+    private List<Integer> qualities;
+
+    @Before
+    public void setup() {
+        qualities = new ArrayList<>();
+        bitmap = mock(Bitmap.class);
+        when(bitmap.compress(any(CompressFormat.class), anyInt(), any(OutputStream.class)))
+                .thenAnswer(new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                        int quality = (Integer) invocation.getArguments()[1];
+                        qualities.add(quality);
+                        OutputStream out = (OutputStream) invocation.getArguments()[2];
+                        out.write(new byte[quality * BYTES_PER_QUALITY]);
+                        return true;
+                    }
+                });
+    }
+
+    @Test
+    public void encode_ShouldUseTheHighestQualityWithinBudget() throws Exception {
+        assertEquals(61 * BYTES_PER_QUALITY, encode(61 * BYTES_PER_QUALITY + 50));
+    }
+
+    @Test
+    public void encode_ShouldAcceptExactFit() throws Exception {
+        assertEquals(61 * BYTES_PER_QUALITY, encode(61 * BYTES_PER_QUALITY));
+        assertEquals(ByteBudgetImageEncoder.MIN_QUALITY * BYTES_PER_QUALITY,
+                encode(ByteBudgetImageEncoder.MIN_QUALITY * BYTES_PER_QUALITY));
+        assertEquals(ByteBudgetImageEncoder.MAX_QUALITY * BYTES_PER_QUALITY,
+                encode(ByteBudgetImageEncoder.MAX_QUALITY * BYTES_PER_QUALITY));
+    }
+
+    @Test
+    public void encode_ShouldNotExceedTheMaximumQuality() throws Exception {
+        assertEquals(ByteBudgetImageEncoder.MAX_QUALITY * BYTES_PER_QUALITY,
+                encode(100 * BYTES_PER_QUALITY));
+    }
+
+    @Test
+    public void encode_ShouldUseTheMinimumQualityIfNothingFits() throws Exception {
+        int budget = ByteBudgetImageEncoder.MIN_QUALITY * BYTES_PER_QUALITY - 1;
+
+        assertEquals(ByteBudgetImageEncoder.MIN_QUALITY * BYTES_PER_QUALITY, encode(budget));
+    }
+
+    @Test
+    public void encode_ShouldSearchInLogarithmicSteps() throws Exception {
+        encode(61 * BYTES_PER_QUALITY);
+
+        // log2(90 - 30 + 1) rounded up
+        assertTrue(qualities.size() <= 6);
+        for (int quality : qualities) {
+            assertTrue(quality >= ByteBudgetImageEncoder.MIN_QUALITY
+                    && quality <= ByteBudgetImageEncoder.MAX_QUALITY);
+        }
+    }
+
+    @Test
+    public void encode_ShouldFailIfTheBitmapCannotBeCompressed() throws Exception {
+        when(bitmap.compress(any(CompressFormat.class), anyInt(), any(OutputStream.class)))
+                .thenReturn(false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertFalse(new ByteBudgetImageEncoder(CompressFormat.JPEG, 10000).encode(bitmap, out));
+        assertEquals(0, out.size());
+    }
+
+    /**
+     * @return the size of the encoded image
+     */
+    private int encode(int maxBytes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(new ByteBudgetImageEncoder(CompressFormat.JPEG, maxBytes).encode(bitmap, out));
+        return out.size();
+    }
+}